@@ -0,0 +1,185 @@
+package com.hms_networks.americas.sc.historicaldata.bulk;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Class to accumulate the rows decoded from one byte range of an EBD export in columns, and write
+ * them to a columnar part file.
+ *
+ * <p>Part file layout, all values big-endian:
+ *
+ * <pre>
+ * "EBDC" magic, 1 byte format version, 4 byte row count
+ * tag ID column       4 bytes per row
+ * time column         8 bytes per row, seconds since epoch
+ * quality column      1 byte per row
+ * value kind column   1 byte per row, {@link #VALUE_KIND_NUMERIC} or {@link #VALUE_KIND_STRING}
+ * value column        8 bytes per row, double, 0 for string rows
+ * string values       4 byte length and exported bytes per string row, in row order
+ * </pre>
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class ColumnarPart {
+
+  /** Magic bytes at the start of each part file. */
+  static final byte[] PART_FILE_MAGIC = {'E', 'B', 'D', 'C'};
+
+  /** Version of the part file format. */
+  static final int PART_FILE_VERSION = 1;
+
+  /** Value kind of rows with a numeric value. */
+  static final byte VALUE_KIND_NUMERIC = 0;
+
+  /** Value kind of rows with a quoted string value. */
+  static final byte VALUE_KIND_STRING = 1;
+
+  /** Initial capacity of the columns. Columns double in size when full. */
+  private static final int INITIAL_CAPACITY = 4096;
+
+  /** Size of the part file output buffer. */
+  private static final int OUTPUT_BUFFER_SIZE = 65536;
+
+  /** Number of rows in the part. */
+  private int numRows = 0;
+
+  /** Tag ID column. */
+  private int[] tagIds = new int[INITIAL_CAPACITY];
+
+  /** Time column in seconds. */
+  private long[] timeSecs = new long[INITIAL_CAPACITY];
+
+  /** Raw data quality column. */
+  private byte[] qualities = new byte[INITIAL_CAPACITY];
+
+  /** Value kind column. */
+  private byte[] valueKinds = new byte[INITIAL_CAPACITY];
+
+  /** Numeric value column. */
+  private double[] values = new double[INITIAL_CAPACITY];
+
+  /** Length prefixed string values of string rows, in row order. */
+  private final ByteArrayOutputStream stringValues = new ByteArrayOutputStream();
+
+  /**
+   * Gets the number of rows in the part.
+   *
+   * @return number of rows
+   */
+  int size() {
+    return numRows;
+  }
+
+  /**
+   * Adds a row with a numeric value.
+   *
+   * @param tagId ID of tag
+   * @param time time in seconds
+   * @param quality raw data quality
+   * @param value numeric value
+   */
+  void addNumericRow(int tagId, long time, int quality, double value) {
+    addRow(tagId, time, quality, VALUE_KIND_NUMERIC);
+    values[numRows - 1] = value;
+  }
+
+  /**
+   * Adds a row with a string value.
+   *
+   * @param tagId ID of tag
+   * @param time time in seconds
+   * @param quality raw data quality
+   * @param value string value bytes, without quotes
+   */
+  void addStringRow(int tagId, long time, int quality, byte[] value) {
+    addRow(tagId, time, quality, VALUE_KIND_STRING);
+    values[numRows - 1] = 0;
+    final int length = value.length;
+    stringValues.write(length >>> 24);
+    stringValues.write(length >>> 16);
+    stringValues.write(length >>> 8);
+    stringValues.write(length);
+    stringValues.write(value, 0, length);
+  }
+
+  /**
+   * Writes the part to the specified file.
+   *
+   * @param file part file to write
+   * @throws IOException if unable to write the file
+   */
+  void write(File file) throws IOException {
+    DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SIZE));
+    try {
+      out.write(PART_FILE_MAGIC);
+      out.writeByte(PART_FILE_VERSION);
+      out.writeInt(numRows);
+      for (int i = 0; i < numRows; i++) {
+        out.writeInt(tagIds[i]);
+      }
+      for (int i = 0; i < numRows; i++) {
+        out.writeLong(timeSecs[i]);
+      }
+      out.write(qualities, 0, numRows);
+      out.write(valueKinds, 0, numRows);
+      for (int i = 0; i < numRows; i++) {
+        out.writeDouble(values[i]);
+      }
+      stringValues.writeTo(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Add a row without its value, growing the columns if they are full.
+   *
+   * @param tagId ID of tag
+   * @param time time in seconds
+   * @param quality raw data quality
+   * @param valueKind value kind of the row
+   */
+  private void addRow(int tagId, long time, int quality, byte valueKind) {
+    if (numRows == tagIds.length) {
+      grow();
+    }
+    tagIds[numRows] = tagId;
+    timeSecs[numRows] = time;
+    qualities[numRows] = (byte) quality;
+    valueKinds[numRows] = valueKind;
+    numRows++;
+  }
+
+  /** Double the capacity of the columns. */
+  private void grow() {
+    final int capacity = tagIds.length * 2;
+
+    int[] grownTagIds = new int[capacity];
+    System.arraycopy(tagIds, 0, grownTagIds, 0, numRows);
+    tagIds = grownTagIds;
+
+    long[] grownTimeSecs = new long[capacity];
+    System.arraycopy(timeSecs, 0, grownTimeSecs, 0, numRows);
+    timeSecs = grownTimeSecs;
+
+    byte[] grownQualities = new byte[capacity];
+    System.arraycopy(qualities, 0, grownQualities, 0, numRows);
+    qualities = grownQualities;
+
+    byte[] grownValueKinds = new byte[capacity];
+    System.arraycopy(valueKinds, 0, grownValueKinds, 0, numRows);
+    valueKinds = grownValueKinds;
+
+    double[] grownValues = new double[capacity];
+    System.arraycopy(values, 0, grownValues, 0, numRows);
+    values = grownValues;
+  }
+}
@@ -0,0 +1,307 @@
+package com.hms_networks.americas.sc.historicaldata.bulk;
+
+import com.hms_networks.americas.sc.historicaldata.EbdLineDecoder;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class to convert archived historical log EBD exports to columnar part files in parallel on a
+ * server. The export file is memory mapped and split into newline aligned byte ranges, which are
+ * decoded by an {@link EbdLineDecoder} with the same field rules as {@link
+ * com.hms_networks.americas.sc.historicaldata.HistoricalDataManager#parseHistoricalFile(String)}
+ * and written to one {@link ColumnarPart} file per range by the tasks of a fork/join pool.
+ *
+ * <p>Tag information is not available off the Ewon Flexy, so quoted values are stored as strings
+ * and all other values as doubles. Part files are named <code>part-NNNNN.ebdc</code> and are in
+ * file order.
+ *
+ * <p>This class requires Java 7 or newer and is not intended to run on the Ewon Flexy.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class HistoricalBulkConverter {
+
+  /** Default size of the byte range decoded by each task. Default is 32 MB. */
+  public static final int DEFAULT_RANGE_SIZE = 32 * 1024 * 1024;
+
+  /** Maximum length of a line, used to map past the end of each byte range. */
+  private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+  /** Index of the tag ID field in historical log EBD lines. */
+  private static final int TAG_ID_FIELD = 0;
+
+  /** Index of the time field in historical log EBD lines. */
+  private static final int TIME_FIELD = 1;
+
+  /** Index of the value field in historical log EBD lines. */
+  private static final int VALUE_FIELD = 4;
+
+  /** Index of the quality field in historical log EBD lines. */
+  private static final int QUALITY_FIELD = 5;
+
+  /** Number of fields in historical log EBD lines. */
+  private static final int NUM_FIELDS = 6;
+
+  /** Initial size of the line buffer of each task. */
+  private static final int INITIAL_LINE_BUFFER_SIZE = 256;
+
+  /** Export file to convert. */
+  private final File inputFile;
+
+  /** Directory to write part files to. */
+  private final File outputDirectory;
+
+  /** Size of the byte range decoded by each task. */
+  private final int rangeSize;
+
+  /** Number of rows written to each part file, indexed by byte range. */
+  private long[] partRowCounts;
+
+  /**
+   * Constructor for a converter of the specified export file.
+   *
+   * @param inputFile historical log EBD export file to convert
+   * @param outputDirectory directory to write part files to
+   * @param rangeSize size of the byte range decoded by each task
+   */
+  public HistoricalBulkConverter(File inputFile, File outputDirectory, int rangeSize) {
+    if (rangeSize <= 0) {
+      throw new IllegalArgumentException("Byte range size must be positive.");
+    }
+    this.inputFile = inputFile;
+    this.outputDirectory = outputDirectory;
+    this.rangeSize = rangeSize;
+  }
+
+  /**
+   * Converts the export file on a fork/join pool with the specified parallelism.
+   *
+   * @param parallelism number of worker threads of the fork/join pool
+   * @return number of rows written to all part files
+   * @throws IOException if unable to read the export file or write a part file
+   */
+  public long convert(int parallelism) throws IOException {
+    if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+      throw new IOException("Unable to create output directory " + outputDirectory + ".");
+    }
+
+    RandomAccessFile file = new RandomAccessFile(inputFile, "r");
+    try {
+      final FileChannel channel = file.getChannel();
+      final long fileLength = channel.size();
+      final int numRanges = (int) ((fileLength + rangeSize - 1) / rangeSize);
+      partRowCounts = new long[numRanges];
+
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(new ConvertTask(channel, fileLength, 0, numRanges));
+      } catch (ConvertException e) {
+        throw e.ioException;
+      } finally {
+        pool.shutdown();
+      }
+    } finally {
+      file.close();
+    }
+
+    long numRows = 0;
+    for (int i = 0; i < partRowCounts.length; i++) {
+      numRows += partRowCounts[i];
+    }
+    return numRows;
+  }
+
+  /**
+   * Gets the part file of the specified byte range.
+   *
+   * @param rangeIndex index of the byte range
+   * @return part file
+   */
+  public File getPartFile(int rangeIndex) {
+    String partNumber = Integer.toString(rangeIndex);
+    while (partNumber.length() < 5) {
+      partNumber = "0" + partNumber;
+    }
+    return new File(outputDirectory, "part-" + partNumber + ".ebdc");
+  }
+
+  /**
+   * Convert the lines starting within the specified byte range to the part file of the range. A
+   * line belongs to the range its first byte is in, so the first partial line of a range is
+   * skipped and the last line is read past the end of the range. The first line of the file is
+   * the header and is skipped.
+   *
+   * @param channel channel of the export file
+   * @param fileLength length of the export file
+   * @param rangeIndex index of the byte range
+   * @throws IOException if unable to read the export file or write the part file
+   */
+  private void convertRange(FileChannel channel, long fileLength, int rangeIndex)
+      throws IOException {
+    final long rangeStart = (long) rangeIndex * rangeSize;
+    final long rangeEnd = Math.min(fileLength, rangeStart + rangeSize);
+
+    // Map one byte before the range to find the line boundary, and past the end for the last line
+    final long mapStart = Math.max(0, rangeStart - 1);
+    final long mapEnd = Math.min(fileLength, rangeEnd + MAX_LINE_LENGTH);
+    MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+    final int endOffset = (int) (rangeEnd - mapStart);
+    final int mapLength = (int) (mapEnd - mapStart);
+
+    // Skip partial line at start of range, or header line at start of file
+    int offset = (int) (rangeStart - mapStart);
+    if (rangeStart == 0 || buffer.get(offset - 1) != '\n') {
+      while (offset < mapLength && buffer.get(offset) != '\n') {
+        offset++;
+      }
+      offset++;
+    }
+
+    ColumnarPart part = new ColumnarPart();
+    EbdLineDecoder decoder = new EbdLineDecoder();
+    byte[] line = new byte[INITIAL_LINE_BUFFER_SIZE];
+    while (offset < endOffset) {
+      // Copy line to line buffer
+      int lineLength = 0;
+      while (offset < mapLength && buffer.get(offset) != '\n') {
+        if (lineLength == line.length) {
+          byte[] grownLine = new byte[line.length * 2];
+          System.arraycopy(line, 0, grownLine, 0, lineLength);
+          line = grownLine;
+        }
+        line[lineLength++] = buffer.get(offset++);
+      }
+      if (offset == mapLength && mapEnd < fileLength) {
+        throw new IOException(
+            "Line longer than " + MAX_LINE_LENGTH + " bytes in " + inputFile + ".");
+      }
+      offset++;
+      if (lineLength > 0 && line[lineLength - 1] == '\r') {
+        lineLength--;
+      }
+
+      // Decode line and add row
+      if (lineLength > 0) {
+        decoder.decodeLine(line, 0, lineLength);
+        if (decoder.getNumFields() >= NUM_FIELDS) {
+          final int tagId = decoder.getFieldAsInt(TAG_ID_FIELD);
+          final long time = decoder.getFieldAsLong(TIME_FIELD);
+          final int quality = decoder.getFieldAsInt(QUALITY_FIELD);
+          if (decoder.isFieldQuoted(VALUE_FIELD)) {
+            part.addStringRow(tagId, time, quality, decoder.unquoteField(VALUE_FIELD));
+          } else {
+            part.addNumericRow(tagId, time, quality, decoder.getFieldAsDouble(VALUE_FIELD));
+          }
+        }
+      }
+    }
+
+    part.write(getPartFile(rangeIndex));
+    partRowCounts[rangeIndex] = part.size();
+  }
+
+  /**
+   * Converts an export file from the command line.
+   *
+   * <p>Usage: <code>HistoricalBulkConverter &lt;export file&gt; &lt;output directory&gt;
+   * [parallelism]</code>
+   *
+   * @param args command line arguments
+   * @throws IOException if unable to read the export file or write a part file
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: HistoricalBulkConverter <export file> <output directory> [parallelism]");
+      System.exit(1);
+    }
+    final int parallelism =
+        args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+    final long startTimeMs = System.currentTimeMillis();
+    HistoricalBulkConverter converter =
+        new HistoricalBulkConverter(new File(args[0]), new File(args[1]), DEFAULT_RANGE_SIZE);
+    final long numRows = converter.convert(parallelism);
+    System.out.println(
+        "Converted "
+            + numRows
+            + " rows in "
+            + (System.currentTimeMillis() - startTimeMs)
+            + " ms with parallelism "
+            + parallelism
+            + ".");
+  }
+
+  /** Fork/join task which converts a contiguous run of byte ranges by splitting it in half. */
+  private class ConvertTask extends RecursiveAction {
+
+    /** Channel of the export file. */
+    private final FileChannel channel;
+
+    /** Length of the export file. */
+    private final long fileLength;
+
+    /** Index of the first byte range, inclusive. */
+    private final int firstRange;
+
+    /** Index of the last byte range, exclusive. */
+    private final int endRange;
+
+    /**
+     * Constructor for a task converting the specified byte ranges.
+     *
+     * @param channel channel of the export file
+     * @param fileLength length of the export file
+     * @param firstRange index of the first byte range, inclusive
+     * @param endRange index of the last byte range, exclusive
+     */
+    ConvertTask(FileChannel channel, long fileLength, int firstRange, int endRange) {
+      this.channel = channel;
+      this.fileLength = fileLength;
+      this.firstRange = firstRange;
+      this.endRange = endRange;
+    }
+
+    /** Convert the byte range, or split the run of byte ranges into two tasks. */
+    protected void compute() {
+      if (endRange - firstRange <= 1) {
+        if (endRange > firstRange) {
+          try {
+            convertRange(channel, fileLength, firstRange);
+          } catch (IOException e) {
+            throw new ConvertException(e);
+          }
+        }
+      } else {
+        final int middleRange = (firstRange + endRange) >>> 1;
+        invokeAll(
+            new ConvertTask(channel, fileLength, firstRange, middleRange),
+            new ConvertTask(channel, fileLength, middleRange, endRange));
+      }
+    }
+  }
+
+  /** Unchecked exception used to carry an {@link IOException} out of a fork/join task. */
+  private static class ConvertException extends RuntimeException {
+
+    /** The wrapped exception. */
+    private final IOException ioException;
+
+    /**
+     * Constructor wrapping the specified exception.
+     *
+     * @param ioException exception to wrap
+     */
+    ConvertException(IOException ioException) {
+      super(ioException.getMessage());
+      this.ioException = ioException;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.ewon.ewonitf;
+
+import com.hms_networks.americas.sc.soak.SimulatedDevice;
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Simulated Ewon Flexy export block descriptor class for the soak harness. The export is performed
+ * by the {@link SimulatedDevice} when constructed, and its output is read from this stream or
+ * written to a file with {@link #ExportTo(String)}.
+ *
+ * <p>This class replaces the Ewon Flexy Java toolkit on the class path of the soak harness, and
+ * must not be used on a device.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class Exporter extends InputStream {
+
+  /** Prefix of file destinations. */
+  private static final String FILE_URL_PREFIX = "file://";
+
+  /** Size of the buffer used to write export output to a file. */
+  private static final int COPY_BUFFER_SIZE = 8192;
+
+  /** Export output. */
+  private final ByteArrayInputStream output;
+
+  /**
+   * Constructor performing the specified export block descriptor call.
+   *
+   * @param exportBlockDescriptor export block descriptor
+   * @throws IOException if the export block descriptor is not supported
+   */
+  public Exporter(String exportBlockDescriptor) throws IOException {
+    output = new ByteArrayInputStream(SimulatedDevice.export(exportBlockDescriptor));
+  }
+
+  /**
+   * Writes the remaining export output to the specified destination.
+   *
+   * @param destination destination URL, <code>file://</code> followed by the file path
+   * @throws IOException if the destination is not a file or cannot be written
+   */
+  public void ExportTo(String destination) throws IOException {
+    if (!destination.startsWith(FILE_URL_PREFIX)) {
+      throw new IOException("Unsupported export destination " + destination);
+    }
+    OutputStream out = new FileOutputStream(destination.substring(FILE_URL_PREFIX.length()));
+    try {
+      byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      int numRead;
+      while ((numRead = output.read(buffer, 0, buffer.length)) > 0) {
+        out.write(buffer, 0, numRead);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the next byte of export output.
+   *
+   * @return next byte, or -1 at the end of the output
+   */
+  public int read() {
+    return output.read();
+  }
+
+  /**
+   * Reads export output into the specified buffer.
+   *
+   * @param buffer buffer to read into
+   * @param offset offset in the buffer
+   * @param length maximum number of bytes to read
+   * @return number of bytes read, or -1 at the end of the output
+   */
+  public int read(byte[] buffer, int offset, int length) {
+    return output.read(buffer, offset, length);
+  }
+
+  /**
+   * Gets the number of bytes of export output remaining.
+   *
+   * @return number of bytes remaining
+   */
+  public int available() {
+    return output.available();
+  }
+}
@@ -0,0 +1,68 @@
+package com.ewon.ewonitf;
+
+import com.hms_networks.americas.sc.soak.SimulatedDevice;
+
+/**
+ * Simulated Ewon Flexy tag access class for the soak harness. Tag values are read from the {@link
+ * SimulatedDevice}.
+ *
+ * <p>This class replaces the Ewon Flexy Java toolkit on the class path of the soak harness, and
+ * must not be used on a device.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class TagControl {
+
+  /** Name of the tag. */
+  private final String tagName;
+
+  /**
+   * Constructor for access to the specified tag.
+   *
+   * @param tagName name of the tag
+   * @throws Exception if the tag does not exist
+   */
+  public TagControl(String tagName) throws Exception {
+    if (!SimulatedDevice.hasTag(tagName)) {
+      throw new Exception("Tag " + tagName + " does not exist.");
+    }
+    this.tagName = tagName;
+  }
+
+  /**
+   * Gets the tag value as a double.
+   *
+   * @return tag value
+   */
+  public double getTagValueAsDouble() {
+    return Double.parseDouble(SimulatedDevice.readTagValue(tagName));
+  }
+
+  /**
+   * Gets the tag value as an int.
+   *
+   * @return tag value
+   */
+  public int getTagValueAsInt() {
+    return (int) getTagValueAsDouble();
+  }
+
+  /**
+   * Gets the tag value as a long.
+   *
+   * @return tag value
+   */
+  public long getTagValueAsLong() {
+    return (long) getTagValueAsDouble();
+  }
+
+  /**
+   * Gets the tag value as a string.
+   *
+   * @return tag value
+   */
+  public String getTagValueAsString() {
+    return SimulatedDevice.readTagValue(tagName);
+  }
+}
@@ -0,0 +1,157 @@
+package com.hms_networks.americas.sc.soak;
+
+/**
+ * Class to record latencies in a log-linear histogram and compute their percentiles. Latencies
+ * below {@link #NUM_EXACT_BUCKETS} are recorded exactly. Larger latencies are recorded in buckets
+ * of {@link #SUB_BUCKETS_PER_POWER} per power of two, so percentiles are within about 2% of the
+ * recorded values with a fixed amount of memory for any number of recordings.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class LatencyHistogram {
+
+  /** Number of buckets which record a single latency value. */
+  private static final int NUM_EXACT_BUCKETS = 128;
+
+  /** Number of bits of a latency value kept by the buckets above the exact buckets. */
+  private static final int SUB_BUCKET_BITS = 6;
+
+  /** Number of buckets per power of two above the exact buckets. */
+  private static final int SUB_BUCKETS_PER_POWER = 1 << SUB_BUCKET_BITS;
+
+  /** Power of two of the first bucket above the exact buckets. */
+  private static final int FIRST_POWER = 7;
+
+  /** Number of buckets. */
+  private static final int NUM_BUCKETS =
+      NUM_EXACT_BUCKETS + (63 - FIRST_POWER) * SUB_BUCKETS_PER_POWER;
+
+  /** Number of latencies recorded in each bucket. */
+  private final long[] counts = new long[NUM_BUCKETS];
+
+  /** Number of recorded latencies. */
+  private long count = 0;
+
+  /** Sum of recorded latencies. */
+  private long sum = 0;
+
+  /** Largest recorded latency. */
+  private long max = 0;
+
+  /**
+   * Records a latency. Negative latencies are recorded as 0.
+   *
+   * @param latency latency to record
+   */
+  public synchronized void record(long latency) {
+    latency = Math.max(0, latency);
+    counts[getBucketIndex(latency)]++;
+    count++;
+    sum += latency;
+    max = Math.max(max, latency);
+  }
+
+  /**
+   * Gets the number of recorded latencies.
+   *
+   * @return number of recorded latencies
+   */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the mean of the recorded latencies.
+   *
+   * @return mean latency, or 0 if no latencies were recorded
+   */
+  public synchronized double getMean() {
+    return count > 0 ? (double) sum / count : 0;
+  }
+
+  /**
+   * Gets the largest recorded latency.
+   *
+   * @return largest latency
+   */
+  public synchronized long getMax() {
+    return max;
+  }
+
+  /**
+   * Gets the latency below or at which the specified share of recorded latencies are.
+   *
+   * @param percentile percentile, between 0 and 100
+   * @return latency at the percentile, or 0 if no latencies were recorded
+   */
+  public synchronized long getPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long cumulativeCount = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      cumulativeCount += counts[i];
+      if (cumulativeCount >= rank) {
+        return Math.min(max, getBucketValue(i));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Gets the percentiles of the recorded latencies as a JSON object.
+   *
+   * @return JSON object with the count, mean, 50th, 90th, 99th and 99.9th percentile and maximum
+   */
+  public synchronized String toJson() {
+    return "{\"count\":"
+        + count
+        + ",\"mean\":"
+        + Math.round(getMean())
+        + ",\"p50\":"
+        + getPercentile(50)
+        + ",\"p90\":"
+        + getPercentile(90)
+        + ",\"p99\":"
+        + getPercentile(99)
+        + ",\"p999\":"
+        + getPercentile(99.9)
+        + ",\"max\":"
+        + max
+        + "}";
+  }
+
+  /**
+   * Get the index of the bucket of a latency.
+   *
+   * @param latency latency, not negative
+   * @return index of the bucket
+   */
+  private static int getBucketIndex(long latency) {
+    if (latency < NUM_EXACT_BUCKETS) {
+      return (int) latency;
+    }
+    final int power = 63 - Long.numberOfLeadingZeros(latency);
+    final int subBucket =
+        (int) (latency >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS_PER_POWER - 1);
+    return NUM_EXACT_BUCKETS + (power - FIRST_POWER) * SUB_BUCKETS_PER_POWER + subBucket;
+  }
+
+  /**
+   * Get the highest latency of a bucket.
+   *
+   * @param index index of the bucket
+   * @return highest latency recorded in the bucket
+   */
+  private static long getBucketValue(int index) {
+    if (index < NUM_EXACT_BUCKETS) {
+      return index;
+    }
+    final int power = (index - NUM_EXACT_BUCKETS) / SUB_BUCKETS_PER_POWER + FIRST_POWER;
+    final long subBucket = (index - NUM_EXACT_BUCKETS) % SUB_BUCKETS_PER_POWER;
+    final int shift = power - SUB_BUCKET_BITS;
+    return ((SUB_BUCKETS_PER_POWER + subBucket + 1) << shift) - 1;
+  }
+}
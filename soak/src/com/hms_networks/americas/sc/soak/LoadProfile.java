@@ -0,0 +1,151 @@
+package com.hms_networks.americas.sc.soak;
+
+/**
+ * Class describing a scripted load profile of a soak run. The profile controls how often the
+ * simulated tags change, when consumers stop draining data, and when the tag configuration
+ * changes.
+ *
+ * <ul>
+ *   <li>{@link #STEADY}: each tag changes at its own fixed period.
+ *   <li>{@link #BURSTY}: as steady, but every tag changes every second during periodic bursts.
+ *   <li>{@link #OUTAGE}: as steady, but consumers stop draining real time and historical data for
+ *       an outage window, then recover.
+ *   <li>{@link #CHURN}: as steady, but a share of the tags is periodically removed and replaced by
+ *       new tags, and the real time engine is reinitialized.
+ * </ul>
+ *
+ * <p>Burst windows are aligned to absolute time, so the values of a tag at any time can be
+ * recomputed for historical exports.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class LoadProfile {
+
+  /** Name of the steady load profile. */
+  public static final String STEADY = "steady";
+
+  /** Name of the bursty load profile. */
+  public static final String BURSTY = "bursty";
+
+  /** Name of the outage then recovery load profile. */
+  public static final String OUTAGE = "outage";
+
+  /** Name of the tag churn load profile. */
+  public static final String CHURN = "churn";
+
+  /** Period of burst windows in seconds. */
+  private static final long BURST_PERIOD_SECS = 300;
+
+  /** Length of burst windows in seconds. */
+  private static final long BURST_LENGTH_SECS = 30;
+
+  /** Share of the run duration before the outage starts. */
+  private static final double OUTAGE_START_SHARE = 0.25;
+
+  /** Share of the run duration the outage lasts. */
+  private static final double OUTAGE_LENGTH_SHARE = 0.25;
+
+  /** Period of tag configuration changes in seconds. */
+  private static final long CHURN_PERIOD_SECS = 600;
+
+  /** Share of the tags replaced at each tag configuration change. */
+  private static final double CHURN_TAG_SHARE = 0.1;
+
+  /** Name of the profile. */
+  private final String name;
+
+  /** Start of the outage in seconds since the start of the run, or -1 if there is no outage. */
+  private final long outageStartSecs;
+
+  /** End of the outage in seconds since the start of the run. */
+  private final long outageEndSecs;
+
+  /**
+   * Constructor for the named load profile of a run of the specified duration.
+   *
+   * @param name name of the profile, {@link #STEADY}, {@link #BURSTY}, {@link #OUTAGE} or {@link
+   *     #CHURN}
+   * @param durationSecs duration of the run in seconds
+   */
+  public LoadProfile(String name, long durationSecs) {
+    if (!name.equals(STEADY)
+        && !name.equals(BURSTY)
+        && !name.equals(OUTAGE)
+        && !name.equals(CHURN)) {
+      throw new IllegalArgumentException("Unknown load profile " + name + ".");
+    }
+    this.name = name;
+    if (name.equals(OUTAGE)) {
+      outageStartSecs = (long) (durationSecs * OUTAGE_START_SHARE);
+      outageEndSecs = outageStartSecs + (long) (durationSecs * OUTAGE_LENGTH_SHARE);
+    } else {
+      outageStartSecs = -1;
+      outageEndSecs = -1;
+    }
+  }
+
+  /**
+   * Gets the name of the profile.
+   *
+   * @return name of the profile
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets a boolean representing if the specified time is in a burst window.
+   *
+   * @param timeSecs time in seconds since epoch
+   * @return true if all tags change every second at the specified time
+   */
+  public boolean isBurst(long timeSecs) {
+    return name.equals(BURSTY) && (timeSecs % BURST_PERIOD_SECS) < BURST_LENGTH_SECS;
+  }
+
+  /**
+   * Gets the last second of a burst window at or before the specified time.
+   *
+   * @param timeSecs time in seconds since epoch
+   * @return last burst second at or before the specified time, or -1 if there are no bursts
+   */
+  public long getLastBurstSecond(long timeSecs) {
+    if (!name.equals(BURSTY)) {
+      return -1;
+    }
+    if (isBurst(timeSecs)) {
+      return timeSecs;
+    }
+    return timeSecs - (timeSecs % BURST_PERIOD_SECS) + BURST_LENGTH_SECS - 1;
+  }
+
+  /**
+   * Gets a boolean representing if consumers are offline at the specified run time.
+   *
+   * @param elapsedSecs seconds since the start of the run
+   * @return true if consumers do not drain data
+   */
+  public boolean isOutage(long elapsedSecs) {
+    return elapsedSecs >= outageStartSecs && elapsedSecs < outageEndSecs;
+  }
+
+  /**
+   * Gets the period of tag configuration changes.
+   *
+   * @return period in seconds, or 0 if the tag configuration does not change
+   */
+  public long getChurnPeriodSecs() {
+    return name.equals(CHURN) ? CHURN_PERIOD_SECS : 0;
+  }
+
+  /**
+   * Gets the number of tags replaced at each tag configuration change.
+   *
+   * @param numTags number of simulated tags
+   * @return number of tags replaced
+   */
+  public int getNumChurnTags(int numTags) {
+    return Math.max(1, (int) (numTags * CHURN_TAG_SHARE));
+  }
+}
@@ -0,0 +1,496 @@
+package com.hms_networks.americas.sc.soak;
+
+import com.hms_networks.americas.sc.tagdata.TagMetadataSnapshot;
+import com.hms_networks.americas.sc.taginfo.TagType;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Class simulating the tags of an Ewon Flexy for the simulated <code>Exporter</code> and <code>
+ * TagControl</code> classes of the soak harness.
+ *
+ * <p>Each tag changes at its own period, or every second during the burst windows of the {@link
+ * LoadProfile}. The value of a tag is computed from its tag ID and the time of its last change, so
+ * current values, instant values exports and historical log exports always agree without storing
+ * any history. All tags are historically logged on change.
+ *
+ * <p>Supported export block descriptors are instant values (<code>$dtIV</code>), historical logs
+ * (<code>$dtHL</code> and <code>$dtHS</code>) and the tag list (<code>$dtTL</code>), in text
+ * format. Exports can be slowed down by a configurable time per exported line to approximate
+ * device export speed.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class SimulatedDevice {
+
+  /** Date format of export block descriptor start and end times. */
+  private static final String EBD_TIME_FORMAT = "ddMMyyyy_HHmmss";
+
+  /** Date format of the time string column of historical log exports. */
+  private static final String EBD_TIME_STRING_FORMAT = "dd/MM/yyyy HH:mm:ss";
+
+  /** Character set of export output. */
+  private static final String EXPORT_CHARSET = "ISO-8859-1";
+
+  /** Raw data quality of simulated values. */
+  private static final int GOOD_QUALITY = 3;
+
+  /** Shortest change period of a tag in seconds. */
+  private static final int MIN_CHANGE_PERIOD_SECS = 1;
+
+  /** Longest change period of a tag in seconds. */
+  private static final int MAX_CHANGE_PERIOD_SECS = 120;
+
+  /** Number of milliseconds in one second. */
+  private static final long MILLISECONDS_IN_SECOND = 1000;
+
+  /** Number of distinct values of string tags. */
+  private static final int NUM_STRING_STATES = 8;
+
+  /** Load profile of the run. */
+  private static LoadProfile profile = new LoadProfile(LoadProfile.STEADY, 0);
+
+  /** Random source for tag configuration. */
+  private static Random random = new Random(0);
+
+  /** IDs of the tags. */
+  private static int[] tagIds = new int[0];
+
+  /** Names of the tags. */
+  private static String[] tagNames = new String[0];
+
+  /** Types of the tags. */
+  private static TagType[] tagTypes = new TagType[0];
+
+  /** Tag group membership bit masks of the tags. */
+  private static int[] groupMasks = new int[0];
+
+  /** Change periods of the tags in seconds. */
+  private static int[] changePeriodSecs = new int[0];
+
+  /** Indexes of the tags keyed by tag name. */
+  private static HashMap tagIndexes = new HashMap();
+
+  /** ID of the next tag created. */
+  private static int nextTagId = 1;
+
+  /** Time spent per exported line in microseconds. */
+  private static long exportMicrosPerLine = 0;
+
+  /** Number of tag value reads. */
+  private static long numTagReads = 0;
+
+  /** Number of export block descriptor calls. */
+  private static long numExports = 0;
+
+  /** Number of exported lines. */
+  private static long numExportedLines = 0;
+
+  /**
+   * Creates the specified number of simulated tags and installs them in the {@link
+   * TagMetadataSnapshot}.
+   *
+   * @param numTags number of tags
+   * @param seed seed of the random tag configuration
+   * @param loadProfile load profile of the run
+   */
+  public static synchronized void configure(int numTags, long seed, LoadProfile loadProfile) {
+    profile = loadProfile;
+    random = new Random(seed);
+    nextTagId = 1;
+    tagIds = new int[numTags];
+    tagNames = new String[numTags];
+    tagTypes = new TagType[numTags];
+    groupMasks = new int[numTags];
+    changePeriodSecs = new int[numTags];
+    for (int i = 0; i < numTags; i++) {
+      createTag(i);
+    }
+    installTags();
+  }
+
+  /**
+   * Replaces the specified number of randomly chosen tags with new tags, and installs the new tag
+   * configuration in the {@link TagMetadataSnapshot}.
+   *
+   * @param numTags number of tags to replace
+   */
+  public static synchronized void churn(int numTags) {
+    for (int i = 0; i < numTags && tagIds.length > 0; i++) {
+      createTag(random.nextInt(tagIds.length));
+    }
+    installTags();
+  }
+
+  /**
+   * Sets the time spent per exported line, to approximate the export speed of a device.
+   *
+   * @param micros time per exported line in microseconds
+   */
+  public static synchronized void setExportMicrosPerLine(long micros) {
+    exportMicrosPerLine = micros;
+  }
+
+  /**
+   * Gets the number of tags.
+   *
+   * @return number of tags
+   */
+  public static synchronized int getNumTags() {
+    return tagIds.length;
+  }
+
+  /**
+   * Gets the number of tag value reads since the device was configured.
+   *
+   * @return number of tag value reads
+   */
+  public static synchronized long getNumTagReads() {
+    return numTagReads;
+  }
+
+  /**
+   * Gets the number of export block descriptor calls since the device was configured.
+   *
+   * @return number of export calls
+   */
+  public static synchronized long getNumExports() {
+    return numExports;
+  }
+
+  /**
+   * Gets the number of exported lines since the device was configured.
+   *
+   * @return number of exported lines
+   */
+  public static synchronized long getNumExportedLines() {
+    return numExportedLines;
+  }
+
+  /**
+   * Gets a boolean representing if a tag exists.
+   *
+   * @param tagName name of tag
+   * @return true if the tag exists
+   */
+  public static synchronized boolean hasTag(String tagName) {
+    return tagIndexes.containsKey(tagName);
+  }
+
+  /**
+   * Gets the current value of a tag as a string, as read by a tag control object. Removed tags
+   * read as 0.
+   *
+   * @param tagName name of tag
+   * @return current value of the tag
+   */
+  public static synchronized String readTagValue(String tagName) {
+    numTagReads++;
+    Integer index = (Integer) tagIndexes.get(tagName);
+    if (index == null) {
+      return "0";
+    }
+    return getValueString(index.intValue(), System.currentTimeMillis() / MILLISECONDS_IN_SECOND);
+  }
+
+  /**
+   * Gets the value of a tag at the specified time as a string, formatted as exported. Tag value
+   * reads are not counted.
+   *
+   * @param tagName name of tag
+   * @param timeSecs time in seconds since epoch
+   * @return value of the tag, or null if the tag does not exist
+   */
+  public static synchronized String getTagValueAt(String tagName, long timeSecs) {
+    Integer index = (Integer) tagIndexes.get(tagName);
+    if (index == null) {
+      return null;
+    }
+    return getValueString(index.intValue(), timeSecs);
+  }
+
+  /**
+   * Performs an export block descriptor call.
+   *
+   * @param exportBlockDescriptor export block descriptor
+   * @return export output
+   * @throws IOException if the export block descriptor is not supported
+   */
+  public static byte[] export(String exportBlockDescriptor) throws IOException {
+    StringBuffer output = new StringBuffer();
+    int numLines;
+    synchronized (SimulatedDevice.class) {
+      final String dataType = getField(exportBlockDescriptor, "$dt");
+      final int groupMask = getGroupMask(getField(exportBlockDescriptor, "$fl"));
+      if (dataType.equals("IV")) {
+        numLines = exportInstantValues(output, groupMask);
+      } else if (dataType.equals("HL") || dataType.equals("HS")) {
+        numLines =
+            exportHistoricalLogs(
+                output,
+                groupMask,
+                parseEbdTime(getField(exportBlockDescriptor, "$st")),
+                parseEbdTime(getField(exportBlockDescriptor, "$et")),
+                dataType.equals("HS"));
+      } else if (dataType.equals("TL")) {
+        numLines = exportTagList(output);
+      } else {
+        throw new IOException("Unsupported export block descriptor " + exportBlockDescriptor);
+      }
+      numExports++;
+      numExportedLines += numLines;
+    }
+
+    final long exportMicros = numLines * exportMicrosPerLine;
+    if (exportMicros > 0) {
+      try {
+        Thread.sleep(exportMicros / MILLISECONDS_IN_SECOND);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    try {
+      return output.toString().getBytes(EXPORT_CHARSET);
+    } catch (UnsupportedEncodingException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  /**
+   * Create a new tag at the specified index, replacing the tag at that index if there is one.
+   *
+   * @param index index of the tag
+   */
+  private static void createTag(int index) {
+    if (tagNames[index] != null) {
+      tagIndexes.remove(tagNames[index]);
+    }
+
+    final int tagId = nextTagId++;
+    tagIds[index] = tagId;
+    tagNames[index] = "SimTag" + tagId;
+    groupMasks[index] = 1 << (tagId % TagMetadataSnapshot.NUM_TAG_GROUPS);
+    changePeriodSecs[index] =
+        MIN_CHANGE_PERIOD_SECS
+            + random.nextInt(MAX_CHANGE_PERIOD_SECS - MIN_CHANGE_PERIOD_SECS + 1);
+
+    final int typeSelector = random.nextInt(100);
+    if (typeSelector < 60) {
+      tagTypes[index] = TagType.FLOAT;
+    } else if (typeSelector < 75) {
+      tagTypes[index] = TagType.INTEGER;
+    } else if (typeSelector < 90) {
+      tagTypes[index] = TagType.BOOLEAN;
+    } else if (typeSelector < 95) {
+      tagTypes[index] = TagType.DWORD;
+    } else {
+      tagTypes[index] = TagType.STRING;
+    }
+    tagIndexes.put(tagNames[index], new Integer(index));
+  }
+
+  /** Install the current tag configuration in the {@link TagMetadataSnapshot}. */
+  private static void installTags() {
+    TagMetadataSnapshot.install(tagIds, tagNames, tagTypes, groupMasks);
+  }
+
+  /**
+   * Gets a boolean representing if a tag changes at the specified time.
+   *
+   * @param index index of the tag
+   * @param timeSecs time in seconds since epoch
+   * @return true if the tag changes at the specified time
+   */
+  private static boolean isChangeTime(int index, long timeSecs) {
+    return profile.isBurst(timeSecs) || (timeSecs + tagIds[index]) % changePeriodSecs[index] == 0;
+  }
+
+  /**
+   * Gets the time of the last change of a tag at or before the specified time.
+   *
+   * @param index index of the tag
+   * @param timeSecs time in seconds since epoch
+   * @return time of the last change in seconds since epoch
+   */
+  private static long getLastChangeTime(int index, long timeSecs) {
+    final long periodicChangeTime =
+        timeSecs - ((timeSecs + tagIds[index]) % changePeriodSecs[index]);
+    return Math.max(periodicChangeTime, profile.getLastBurstSecond(timeSecs));
+  }
+
+  /**
+   * Gets the value of a tag at the specified time, formatted as exported.
+   *
+   * @param index index of the tag
+   * @param timeSecs time in seconds since epoch
+   * @return value of the tag
+   */
+  private static String getValueString(int index, long timeSecs) {
+    final long changeTime = getLastChangeTime(index, timeSecs);
+    long hash = tagIds[index] * 0x9E3779B97F4A7C15L ^ changeTime;
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+
+    final TagType tagType = tagTypes[index];
+    if (tagType == TagType.FLOAT) {
+      final double wave = Math.sin(changeTime / 600.0 + tagIds[index]);
+      final double noise = (hash & 0xFFFF) / 65536.0;
+      return String.valueOf((float) (50 + 40 * wave + noise));
+    } else if (tagType == TagType.INTEGER) {
+      return String.valueOf((hash >>> 1) % 1000);
+    } else if (tagType == TagType.BOOLEAN) {
+      return String.valueOf(hash & 1);
+    } else if (tagType == TagType.DWORD) {
+      return String.valueOf(changeTime / changePeriodSecs[index]);
+    }
+    return "State" + ((hash >>> 1) % NUM_STRING_STATES);
+  }
+
+  /**
+   * Export the instant values of the tags in the specified tag groups.
+   *
+   * @param output buffer to write the export output to
+   * @param groupMask bit mask of tag groups to export
+   * @return number of exported lines
+   */
+  private static int exportInstantValues(StringBuffer output, int groupMask) {
+    final long nowSecs = System.currentTimeMillis() / MILLISECONDS_IN_SECOND;
+    output.append("\"TagId\";\"TagName\";\"Value\";\"AlStatus\";\"AlType\";\"Quality\"\n");
+    int numLines = 1;
+    for (int i = 0; i < tagIds.length; i++) {
+      if ((groupMasks[i] & groupMask) != 0) {
+        output.append(tagIds[i]).append(";\"").append(tagNames[i]).append("\";");
+        appendValue(output, i, getValueString(i, nowSecs));
+        output.append(";0;0;").append(GOOD_QUALITY).append('\n');
+        numLines++;
+      }
+    }
+    return numLines;
+  }
+
+  /**
+   * Export the historical logs of the tags in the specified tag groups between the specified
+   * times, inclusive.
+   *
+   * @param output buffer to write the export output to
+   * @param groupMask bit mask of tag groups to export
+   * @param startSecs start time in seconds since epoch
+   * @param endSecs end time in seconds since epoch
+   * @param stringHistorical true to export string tags, false to export all other tags
+   * @return number of exported lines
+   */
+  private static int exportHistoricalLogs(
+      StringBuffer output, int groupMask, long startSecs, long endSecs, boolean stringHistorical) {
+    SimpleDateFormat timeStringFormat = new SimpleDateFormat(EBD_TIME_STRING_FORMAT);
+    output.append("\"TagId\";\"TimeInt\";\"TimeStr\";\"IsInitValue\";\"Value\";\"IQuality\"\n");
+    int numLines = 1;
+    for (long time = startSecs; time <= endSecs; time++) {
+      String timeString = null;
+      for (int i = 0; i < tagIds.length; i++) {
+        if ((groupMasks[i] & groupMask) != 0
+            && (tagTypes[i] == TagType.STRING) == stringHistorical
+            && isChangeTime(i, time)) {
+          if (timeString == null) {
+            timeString = timeStringFormat.format(new Date(time * MILLISECONDS_IN_SECOND));
+          }
+          output.append(tagIds[i]).append(';').append(time).append(";\"").append(timeString);
+          output.append("\";0;");
+          appendValue(output, i, getValueString(i, time));
+          output.append(';').append(GOOD_QUALITY).append('\n');
+          numLines++;
+        }
+      }
+    }
+    return numLines;
+  }
+
+  /**
+   * Export the tag list.
+   *
+   * @param output buffer to write the export output to
+   * @return number of exported lines
+   */
+  private static int exportTagList(StringBuffer output) {
+    output.append("\"Id\";\"Name\";\"Type\";\"GroupMask\"\n");
+    for (int i = 0; i < tagIds.length; i++) {
+      output.append(tagIds[i]).append(";\"").append(tagNames[i]).append("\";");
+      output.append(tagTypes[i]).append(';').append(groupMasks[i]).append('\n');
+    }
+    return tagIds.length + 1;
+  }
+
+  /**
+   * Append a tag value to export output, quoting string values.
+   *
+   * @param output buffer to write the export output to
+   * @param index index of the tag
+   * @param value value of the tag
+   */
+  private static void appendValue(StringBuffer output, int index, String value) {
+    if (tagTypes[index] == TagType.STRING) {
+      output.append('"').append(value).append('"');
+    } else {
+      output.append(value);
+    }
+  }
+
+  /**
+   * Get the value of a field of an export block descriptor.
+   *
+   * @param exportBlockDescriptor export block descriptor
+   * @param fieldPrefix prefix of the field, such as <code>$dt</code>
+   * @return value of the field, or an empty string if the field is not present
+   */
+  private static String getField(String exportBlockDescriptor, String fieldPrefix) {
+    final int start = exportBlockDescriptor.indexOf(fieldPrefix);
+    if (start < 0) {
+      return "";
+    }
+    final int valueStart = start + fieldPrefix.length();
+    int end = exportBlockDescriptor.indexOf('$', valueStart);
+    if (end < 0) {
+      end = exportBlockDescriptor.length();
+    }
+    return exportBlockDescriptor.substring(valueStart, end);
+  }
+
+  /**
+   * Get the tag group bit mask of a tag group filter.
+   *
+   * @param filter tag group filter, such as <code>ABD</code>
+   * @return bit mask of the tag groups in the filter
+   */
+  private static int getGroupMask(String filter) {
+    int groupMask = 0;
+    for (int group = 0; group < TagMetadataSnapshot.NUM_TAG_GROUPS; group++) {
+      if (filter.indexOf('A' + group) >= 0) {
+        groupMask |= 1 << group;
+      }
+    }
+    return groupMask;
+  }
+
+  /**
+   * Parse an export block descriptor time.
+   *
+   * @param ebdTime time in export block descriptor format
+   * @return time in seconds since epoch
+   * @throws IOException if the time is not valid
+   */
+  private static long parseEbdTime(String ebdTime) throws IOException {
+    try {
+      return new SimpleDateFormat(EBD_TIME_FORMAT).parse(ebdTime).getTime()
+          / MILLISECONDS_IN_SECOND;
+    } catch (ParseException e) {
+      throw new IOException("Invalid export block descriptor time " + ebdTime);
+    }
+  }
+}
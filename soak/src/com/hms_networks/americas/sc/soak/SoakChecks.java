@@ -0,0 +1,491 @@
+package com.hms_networks.americas.sc.soak;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.datapoint.DataPointBoolean;
+import com.hms_networks.americas.sc.historicaldata.HistoricalDataManager;
+import com.hms_networks.americas.sc.historicaldata.HistoricalDataQueueManager;
+import com.hms_networks.americas.sc.historicaldata.HistoricalDataSpan;
+import com.hms_networks.americas.sc.historicaldata.TimeTrackerUnrecoverableException;
+import com.hms_networks.americas.sc.realtimedata.RealTimeDataQueueManager;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Behavioural checks of the historical and real time data managers, run by the {@link
+ * SoakHarness} against the {@link SimulatedDevice} before the soak run starts. The checks assert
+ * that:
+ *
+ * <ul>
+ *   <li>compressed real time buffers return the values read from the device,
+ *   <li>the merged real time drain returns all buffered data points in timestamp order,
+ *   <li>a leased historical FIFO span is returned unchanged on retry, rejects a retry for other tag
+ *       groups, and advances the time tracker only when acknowledged,
+ *   <li>repeated and overlapping historical queries are served from the historical cache, only
+ *       export the uncached range, and return the same data as uncached queries.
+ * </ul>
+ *
+ * <p>The checks modify the real time and historical manager settings they exercise, and restore
+ * the settings of the run when they complete. The real time engine must be initialized again
+ * after the checks.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class SoakChecks {
+
+  /** Number of milliseconds in one second. */
+  private static final long MILLISECONDS_IN_SECOND = 1000;
+
+  /** Time between real time sampling sweeps of the checks, in milliseconds. */
+  private static final long SWEEP_INTERVAL_MILLIS = 1100;
+
+  /**
+   * Time waited before leasing a historical FIFO span, in milliseconds. Export block descriptor
+   * calls need 2 or more seconds between start and end time.
+   */
+  private static final long LEASE_WAIT_MILLIS = 3000;
+
+  /** Age of the start of the historical cache queries, in seconds. */
+  private static final long CACHE_QUERY_AGE_SECS = 600;
+
+  /** Length of the historical cache queries, in seconds. */
+  private static final long CACHE_QUERY_SPAN_SECS = 60;
+
+  /** Maximum number of data points in the historical cache during the checks. */
+  private static final int CHECK_CACHE_MAX_DATA_POINTS = 1000000;
+
+  /** Boolean indicating if real time buffers are compressed in the run. */
+  private final boolean compressedBuffersEnabled;
+
+  /** Merged drain settle time of the run in seconds. */
+  private final long mergedDrainSettleSecs;
+
+  /** Maximum number of data points in the historical cache in the run. */
+  private final int cacheMaxDataPoints;
+
+  /** Number of assertions made. */
+  private int numAssertions = 0;
+
+  /** Number of failed assertions. */
+  private int numFailures = 0;
+
+  /**
+   * Constructor for checks which restore the specified settings of the run when they complete.
+   *
+   * @param compressedBuffersEnabled true if real time buffers are compressed in the run
+   * @param mergedDrainSettleSecs merged drain settle time of the run in seconds
+   * @param cacheMaxDataPoints maximum number of data points in the historical cache in the run
+   */
+  public SoakChecks(
+      boolean compressedBuffersEnabled, long mergedDrainSettleSecs, int cacheMaxDataPoints) {
+    this.compressedBuffersEnabled = compressedBuffersEnabled;
+    this.mergedDrainSettleSecs = mergedDrainSettleSecs;
+    this.cacheMaxDataPoints = cacheMaxDataPoints;
+  }
+
+  /** Runs all checks. An exception raised by a check is recorded as a failed assertion. */
+  public void run() {
+    try {
+      checkCompressedRoundTrip();
+    } catch (Exception e) {
+      fail("compressed buffer round trip raised " + e);
+    }
+    try {
+      checkMergedDrainOrder();
+    } catch (Exception e) {
+      fail("merged drain order raised " + e);
+    }
+    try {
+      checkSpanLease();
+    } catch (Exception e) {
+      fail("historical span lease raised " + e);
+    }
+    try {
+      checkHistoricalCache();
+    } catch (Exception e) {
+      fail("historical cache raised " + e);
+    }
+  }
+
+  /**
+   * Gets the number of assertions made.
+   *
+   * @return number of assertions
+   */
+  public int getNumAssertions() {
+    return numAssertions;
+  }
+
+  /**
+   * Gets the number of failed assertions.
+   *
+   * @return number of failed assertions
+   */
+  public int getNumFailures() {
+    return numFailures;
+  }
+
+  /**
+   * Gets the results of the checks as a JSON object.
+   *
+   * @return JSON object with the number of assertions and failures
+   */
+  public String toJson() {
+    return "{\"assertions\":" + numAssertions + ",\"failures\":" + numFailures + "}";
+  }
+
+  /**
+   * Check that data points buffered in compressed form are decoded to the values read from the
+   * simulated device at their timestamps.
+   *
+   * @throws Exception if the real time engine cannot be initialized
+   */
+  private void checkCompressedRoundTrip() throws Exception {
+    RealTimeDataQueueManager.setCompressedBuffersEnabled(true);
+    try {
+      RealTimeDataQueueManager.init();
+      sweepTwice();
+
+      int numDrained = 0;
+      int numMismatched = 0;
+      for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+        DataPoint dataPoint;
+        while ((dataPoint = RealTimeDataQueueManager.getGroupNextData(group)) != null) {
+          numDrained++;
+          if (!matchesDevice(dataPoint)) {
+            numMismatched++;
+          }
+        }
+      }
+      check(numDrained > 0, "compressed buffers returned no data points");
+      check(
+          numMismatched == 0,
+          "compressed buffers returned "
+              + numMismatched
+              + " of "
+              + numDrained
+              + " values which differ from the device");
+    } finally {
+      RealTimeDataQueueManager.setCompressedBuffersEnabled(compressedBuffersEnabled);
+    }
+  }
+
+  /**
+   * Check that the merged drain returns every buffered data point of all tag groups, in timestamp
+   * order.
+   *
+   * @throws Exception if the real time engine cannot be initialized
+   */
+  private void checkMergedDrainOrder() throws Exception {
+    final long noSettleSecs = 0;
+    RealTimeDataQueueManager.setMergedDrainSettleSecs(noSettleSecs);
+    try {
+      RealTimeDataQueueManager.init();
+      sweepTwice();
+      sleep(SWEEP_INTERVAL_MILLIS);
+
+      int numBuffered = 0;
+      for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+        numBuffered += RealTimeDataQueueManager.getNumGroupDataPoints(group);
+      }
+
+      final boolean includeAllGroups = true;
+      int numDrained = 0;
+      int numOutOfOrder = 0;
+      long previousTimeSecs = Long.MIN_VALUE;
+      DataPoint dataPoint;
+      while ((dataPoint =
+              RealTimeDataQueueManager.getMergedNextData(
+                  includeAllGroups, includeAllGroups, includeAllGroups, includeAllGroups))
+          != null) {
+        final long timeSecs = Long.parseLong(dataPoint.getTimeStamp());
+        if (timeSecs < previousTimeSecs) {
+          numOutOfOrder++;
+        }
+        previousTimeSecs = timeSecs;
+        numDrained++;
+      }
+      check(numBuffered > 0, "no data points were buffered for the merged drain");
+      check(
+          numDrained == numBuffered,
+          "merged drain returned " + numDrained + " of " + numBuffered + " buffered data points");
+      check(
+          numOutOfOrder == 0,
+          "merged drain returned " + numOutOfOrder + " data points out of order");
+    } finally {
+      RealTimeDataQueueManager.setMergedDrainSettleSecs(mergedDrainSettleSecs);
+    }
+  }
+
+  /**
+   * Check that a leased historical FIFO span is returned unchanged on retry, that a retry for
+   * other tag groups is rejected, and that the time tracker is advanced past the span only when
+   * the lease is acknowledged.
+   *
+   * @throws Exception if the historical data queue cannot be read
+   */
+  private void checkSpanLease() throws Exception {
+    final boolean includeAllGroups = true;
+    boolean startNewTimeTracker = true;
+    try {
+      HistoricalDataQueueManager.leaseFifoNextSpanData(
+          startNewTimeTracker,
+          includeAllGroups,
+          includeAllGroups,
+          includeAllGroups,
+          includeAllGroups);
+    } catch (TimeTrackerUnrecoverableException e) {
+      // Time tracker files are created on first use, start a new time tracker
+      HistoricalDataQueueManager.leaseFifoNextSpanData(
+          startNewTimeTracker,
+          includeAllGroups,
+          includeAllGroups,
+          includeAllGroups,
+          includeAllGroups);
+    }
+    sleep(LEASE_WAIT_MILLIS);
+
+    startNewTimeTracker = false;
+    HistoricalDataSpan span =
+        HistoricalDataQueueManager.leaseFifoNextSpanData(
+            startNewTimeTracker,
+            includeAllGroups,
+            includeAllGroups,
+            includeAllGroups,
+            includeAllGroups);
+    check(span != null, "no historical span was leased");
+    if (span == null) {
+      return;
+    }
+    check(!span.getData().isEmpty(), "leased historical span has no data points");
+    check(
+        HistoricalDataQueueManager.hasOutstandingFifoSpanLease(),
+        "leased historical span is not outstanding");
+
+    HistoricalDataSpan retry =
+        HistoricalDataQueueManager.leaseFifoNextSpanData(
+            startNewTimeTracker,
+            includeAllGroups,
+            includeAllGroups,
+            includeAllGroups,
+            includeAllGroups);
+    check(
+        retry.getLeaseId() == span.getLeaseId()
+            && retry.getStartTimeMillis() == span.getStartTimeMillis()
+            && retry.getEndTimeMillis() == span.getEndTimeMillis(),
+        "historical span retry returned a different span");
+    check(
+        isSameData(retry.getData(), span.getData()),
+        "historical span retry returned different data points");
+
+    boolean isMismatchRejected = false;
+    try {
+      HistoricalDataQueueManager.leaseFifoNextSpanData(
+          startNewTimeTracker, includeAllGroups, false, false, false);
+    } catch (IllegalStateException e) {
+      isMismatchRejected = true;
+    }
+    check(isMismatchRejected, "historical span retry for other tag groups was not rejected");
+
+    check(
+        !HistoricalDataQueueManager.ackFifoSpan(span.getLeaseId() + 1),
+        "historical span was acknowledged with a wrong lease ID");
+    check(
+        HistoricalDataQueueManager.ackFifoSpan(span.getLeaseId()),
+        "historical span lease was not acknowledged");
+    check(
+        !HistoricalDataQueueManager.hasOutstandingFifoSpanLease(),
+        "historical span lease is outstanding after acknowledgement");
+    check(
+        HistoricalDataQueueManager.getCurrentTimeTrackerValue() == span.getEndTimeMillis() + 1,
+        "time tracker was not advanced past the acknowledged span");
+  }
+
+  /**
+   * Check that a repeated historical query is served from the historical cache without exporting,
+   * and that a query overlapping cached data only exports the uncached range. Both must return
+   * the same data as uncached queries.
+   *
+   * @throws Exception if the historical logs cannot be exported
+   */
+  private void checkHistoricalCache() throws Exception {
+    final long startMillis =
+        (System.currentTimeMillis() / MILLISECONDS_IN_SECOND - CACHE_QUERY_AGE_SECS)
+            * MILLISECONDS_IN_SECOND;
+    final long spanMillis = CACHE_QUERY_SPAN_SECS * MILLISECONDS_IN_SECOND;
+    final long overlapStartMillis = startMillis + spanMillis / 2;
+
+    // Get expected data with the cache disabled
+    HistoricalDataManager.setHistoricalCacheMaxDataPoints(0);
+    ArrayList expectedData = queryHistorical(startMillis, startMillis + spanMillis);
+    ArrayList expectedOverlapData =
+        queryHistorical(overlapStartMillis, overlapStartMillis + spanMillis);
+
+    HistoricalDataManager.setHistoricalCacheMaxDataPoints(CHECK_CACHE_MAX_DATA_POINTS);
+    try {
+      ArrayList data = queryHistorical(startMillis, startMillis + spanMillis);
+      check(!data.isEmpty(), "historical query returned no data points");
+      check(isSameData(data, expectedData), "historical query differs from uncached query");
+
+      long numExports = SimulatedDevice.getNumExports();
+      ArrayList cachedData = queryHistorical(startMillis, startMillis + spanMillis);
+      check(
+          SimulatedDevice.getNumExports() == numExports,
+          "repeated historical query was not served from the cache");
+      check(
+          isSameData(cachedData, expectedData),
+          "cached historical query differs from uncached query");
+
+      numExports = SimulatedDevice.getNumExports();
+      ArrayList overlapData = queryHistorical(overlapStartMillis, overlapStartMillis + spanMillis);
+      check(
+          SimulatedDevice.getNumExports() == numExports + 1,
+          "overlapping historical query did not export only the uncached range");
+      check(
+          isSameData(overlapData, expectedOverlapData),
+          "overlapping historical query differs from uncached query");
+    } finally {
+      HistoricalDataManager.setHistoricalCacheMaxDataPoints(cacheMaxDataPoints);
+    }
+  }
+
+  /**
+   * Query the historical logs of all tag groups, excluding string tags.
+   *
+   * @param startTimeMs start time of query in milliseconds since epoch, inclusive
+   * @param endTimeMs end time of query in milliseconds since epoch, inclusive
+   * @return historical log data
+   * @throws Exception if the historical logs cannot be exported
+   */
+  private static ArrayList queryHistorical(long startTimeMs, long endTimeMs) throws Exception {
+    final int[] allTags = null;
+    final boolean includeAllGroups = true;
+    final boolean stringHistorical = false;
+    return HistoricalDataManager.getHistoricalData(
+        startTimeMs,
+        endTimeMs,
+        allTags,
+        includeAllGroups,
+        includeAllGroups,
+        includeAllGroups,
+        includeAllGroups,
+        stringHistorical);
+  }
+
+  /** Sweep all real time tag groups twice, one sweep interval apart. */
+  private static void sweepTwice() {
+    for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+      RealTimeDataQueueManager.dataFetcher(group);
+    }
+    sleep(SWEEP_INTERVAL_MILLIS);
+    for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+      RealTimeDataQueueManager.dataFetcher(group);
+    }
+  }
+
+  /**
+   * Gets a boolean representing if the value of a data point matches the value of its tag on the
+   * simulated device within one second of its timestamp. Values are sampled in the second before
+   * they are timestamped when a sweep crosses a second boundary.
+   *
+   * @param dataPoint data point to check
+   * @return true if the value matches
+   */
+  private static boolean matchesDevice(DataPoint dataPoint) {
+    final long timeSecs = Long.parseLong(dataPoint.getTimeStamp());
+    final String value =
+        dataPoint instanceof DataPointBoolean
+            ? (((DataPointBoolean) dataPoint).getValue() ? "1" : "0")
+            : dataPoint.getValueString();
+    for (long time = timeSecs - 1; time <= timeSecs + 1; time++) {
+      final String deviceValue = SimulatedDevice.getTagValueAt(dataPoint.getTagName(), time);
+      if (deviceValue != null && isSameValue(deviceValue, value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets a boolean representing if two value strings are the same value. Numeric values are
+   * compared as numbers, other values as strings.
+   *
+   * @param first first value
+   * @param second second value
+   * @return true if the values are the same
+   */
+  private static boolean isSameValue(String first, String second) {
+    if (first.equals(second)) {
+      return true;
+    }
+    try {
+      return Double.parseDouble(first) == Double.parseDouble(second);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Gets a boolean representing if two lists contain the same data points, ignoring their order.
+   *
+   * @param first first list of data points
+   * @param second second list of data points
+   * @return true if the lists contain the same data points
+   */
+  private static boolean isSameData(ArrayList first, ArrayList second) {
+    return first.size() == second.size()
+        && getDataPointKeys(first).equals(getDataPointKeys(second));
+  }
+
+  /**
+   * Gets a set of strings identifying the tag, time and value of each data point in a list.
+   *
+   * @param dataPoints list of data points
+   * @return set of data point keys
+   */
+  private static HashSet getDataPointKeys(ArrayList dataPoints) {
+    HashSet keys = new HashSet();
+    for (int i = 0; i < dataPoints.size(); i++) {
+      DataPoint dataPoint = (DataPoint) dataPoints.get(i);
+      keys.add(
+          dataPoint.getTagId() + "@" + dataPoint.getTimeStamp() + "=" + dataPoint.getValueString());
+    }
+    return keys;
+  }
+
+  /**
+   * Record an assertion, reporting it if it failed.
+   *
+   * @param condition asserted condition
+   * @param failureDescription description of the failure if the condition is false
+   */
+  private void check(boolean condition, String failureDescription) {
+    numAssertions++;
+    if (!condition) {
+      numFailures++;
+      System.err.println("Soak check failed: " + failureDescription);
+    }
+  }
+
+  /**
+   * Record a failed assertion.
+   *
+   * @param failureDescription description of the failure
+   */
+  private void fail(String failureDescription) {
+    check(false, failureDescription);
+  }
+
+  /**
+   * Sleep for the specified time, returning early if interrupted.
+   *
+   * @param millis time to sleep in milliseconds
+   */
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,739 @@
+package com.hms_networks.americas.sc.soak;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.historicaldata.HistoricalDataManager;
+import com.hms_networks.americas.sc.historicaldata.HistoricalDataQueueManager;
+import com.hms_networks.americas.sc.historicaldata.TimeTrackerUnrecoverableException;
+import com.hms_networks.americas.sc.realtimedata.RealTimeDataQueueManager;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Headless soak and load test harness for {@link HistoricalDataQueueManager} and {@link
+ * RealTimeDataQueueManager}, run against the {@link SimulatedDevice} on a Linux host.
+ *
+ * <p>Before the run, the behavioural assertions of {@link SoakChecks} are run and their results
+ * are included in the JSON summary.
+ *
+ * <p>Four threads run for the configured duration:
+ *
+ * <ul>
+ *   <li>the sampler sweeps all real time tag groups at the sample period,
+ *   <li>the real time consumer drains all real time tag groups at the drain period,
+ *   <li>the historical consumer reads the historical FIFO queue until it has caught up,
+ *   <li>the monitor samples heap, backlog, lag and throughput at the report period, and applies
+ *       tag churn.
+ * </ul>
+ *
+ * <p>A CSV row is written at each report period, and a JSON summary with throughput, latency
+ * percentiles, lag and heap trend is written at the end of the run. Options are passed as <code>
+ * --name=value</code> arguments, see {@link #main(String[])}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class SoakHarness {
+
+  /** Number of milliseconds in one second. */
+  private static final long MILLISECONDS_IN_SECOND = 1000;
+
+  /** Number of seconds in one hour. */
+  private static final double SECONDS_IN_HOUR = 3600;
+
+  /** Time the historical consumer waits when it has caught up, in milliseconds. */
+  private static final long HISTORICAL_IDLE_MILLIS = 5000;
+
+  /** Time a consumer waits while offline, in milliseconds. */
+  private static final long OUTAGE_POLL_MILLIS = 1000;
+
+  /** Header of the CSV report. */
+  private static final String CSV_HEADER =
+      "elapsed_s,heap_used_bytes,heap_total_bytes,rt_buffered_points,rt_points_per_s,"
+          + "hist_points_per_s,hist_lag_s,tag_reads_per_s,exports_per_s,errors,outage";
+
+  /** Lock held while the real time engine is sampled, drained or reinitialized. */
+  private final Object realTimeLock = new Object();
+
+  /** Options of the run. */
+  private final HashMap options;
+
+  /** Load profile of the run. */
+  private final LoadProfile profile;
+
+  /** Duration of the run in seconds. */
+  private final long durationSecs;
+
+  /** Start time of the run in milliseconds. */
+  private long startMillis;
+
+  /** End time of the run in milliseconds. */
+  private long endMillis;
+
+  /** Boolean indicating if the worker threads should keep running. */
+  private volatile boolean running = true;
+
+  /** Duration of real time sampling sweeps in milliseconds. */
+  private final LatencyHistogram sweepMillis = new LatencyHistogram();
+
+  /** Age of real time data points when drained, in milliseconds. */
+  private final LatencyHistogram realTimeAgeMillis = new LatencyHistogram();
+
+  /** Duration of historical FIFO queue reads in milliseconds. */
+  private final LatencyHistogram historicalReadMillis = new LatencyHistogram();
+
+  /** Number of drained real time data points. */
+  private long numRealTimePoints = 0;
+
+  /** Number of read historical data points. */
+  private long numHistoricalPoints = 0;
+
+  /** Number of errors raised by the library. */
+  private long numErrors = 0;
+
+  /** Lag of the historical FIFO queue behind the current time, in seconds. */
+  private volatile long historicalLagSecs = 0;
+
+  /** Largest lag of the historical FIFO queue, in seconds. */
+  private long maxHistoricalLagSecs = 0;
+
+  /** Elapsed time of each heap sample, in seconds. */
+  private final ArrayList heapSampleTimes = new ArrayList();
+
+  /** Used heap of each heap sample, in bytes. */
+  private final ArrayList heapSampleValues = new ArrayList();
+
+  /** Behavioural checks run before the run. */
+  private final SoakChecks checks;
+
+  /**
+   * Constructor for a run with the specified options.
+   *
+   * @param options options of the run keyed by option name
+   */
+  private SoakHarness(HashMap options) {
+    this.options = options;
+    this.durationSecs = getLongOption("durationMins", 60) * 60;
+    this.profile = new LoadProfile(getStringOption("profile", LoadProfile.STEADY), durationSecs);
+    this.checks =
+        new SoakChecks(
+            getBooleanOption("compressed"),
+            getLongOption("settleSecs", 2),
+            (int) getLongOption("cachePoints", 0));
+  }
+
+  /**
+   * Runs the soak harness. Options:
+   *
+   * <ul>
+   *   <li><code>--profile</code>: load profile, steady, bursty, outage or churn. Default steady.
+   *   <li><code>--durationMins</code>: duration of the run in minutes. Default 60.
+   *   <li><code>--tags</code>: number of simulated tags. Default 1000.
+   *   <li><code>--seed</code>: seed of the simulated tag configuration. Default 1.
+   *   <li><code>--samplePeriodMs</code>: real time sampling period. Default 1000.
+   *   <li><code>--drainPeriodMs</code>: real time drain period. Default 5000.
+   *   <li><code>--reportPeriodSecs</code>: CSV report period. Default 10.
+   *   <li><code>--fifoSpanMins</code>: historical FIFO queue time span. Default 1.
+   *   <li><code>--exportMicrosPerLine</code>: simulated export time per line. Default 20.
+   *   <li><code>--maxPointsPerTag</code>: real time buffer limit per tag, 0 for none. Default 0.
+   *   <li><code>--bulk</code>: read real time tag groups with instant values exports. Default
+   *       false.
+   *   <li><code>--compressed</code>: compress real time buffers. Default false.
+   *   <li><code>--adaptive</code>: poll real time tags adaptively. Default false.
+   *   <li><code>--workers</code>: sample each tag group on its own worker threads. Default false.
+   *   <li><code>--shards</code>: sampling worker threads per tag group. Default 1.
+   *   <li><code>--merged</code>: drain all tag groups in timestamp order. Default false.
+   *   <li><code>--settleSecs</code>: merged drain settle time. Default 2.
+   *   <li><code>--cachePoints</code>: historical cache size in data points, 0 for none. Default 0.
+   *   <li><code>--streaming</code>: stream historical exports. Default false.
+   *   <li><code>--out</code>: path of the report files without extension. Default soak-report.
+   *   <li><code>--checksOnly</code>: run the {@link SoakChecks} assertions and exit, with status 1
+   *       if any failed. Default false.
+   * </ul>
+   *
+   * @param args options as <code>--name=value</code> arguments
+   * @throws Exception if the run cannot be started or the report cannot be written
+   */
+  public static void main(String[] args) throws Exception {
+    HashMap options = new HashMap();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("Invalid option " + args[i] + ".");
+      }
+      final int separator = args[i].indexOf('=');
+      if (separator < 0) {
+        options.put(args[i].substring(2), "true");
+      } else {
+        options.put(args[i].substring(2, separator), args[i].substring(separator + 1));
+      }
+    }
+    new SoakHarness(options).run();
+  }
+
+  /**
+   * Run the soak harness and write its reports.
+   *
+   * @throws Exception if the run cannot be started or the report cannot be written
+   */
+  private void run() throws Exception {
+    final int numTags = (int) getLongOption("tags", 1000);
+    SimulatedDevice.configure(numTags, getLongOption("seed", 1), profile);
+    SimulatedDevice.setExportMicrosPerLine(getLongOption("exportMicrosPerLine", 20));
+
+    HistoricalDataQueueManager.setQueueFifoTimeSpanMins(getLongOption("fifoSpanMins", 1));
+    HistoricalDataManager.setStreamingExportEnabled(getBooleanOption("streaming"));
+    RealTimeDataQueueManager.setMaxDataPointsPerTag((int) getLongOption("maxPointsPerTag", 0));
+    RealTimeDataQueueManager.setCompressedBuffersEnabled(getBooleanOption("compressed"));
+    RealTimeDataQueueManager.setAdaptivePollingEnabled(getBooleanOption("adaptive"));
+    RealTimeDataQueueManager.setMergedDrainSettleSecs(getLongOption("settleSecs", 2));
+    HistoricalDataManager.setHistoricalCacheMaxDataPoints((int) getLongOption("cachePoints", 0));
+    for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+      RealTimeDataQueueManager.setGroupAcquisitionMode(
+          group,
+          getBooleanOption("bulk")
+              ? RealTimeDataQueueManager.ACQUISITION_MODE_BULK_EXPORT
+              : RealTimeDataQueueManager.ACQUISITION_MODE_PER_TAG);
+    }
+
+    checks.run();
+    System.out.println(checks.toJson());
+    if (getBooleanOption("checksOnly")) {
+      System.exit(checks.getNumFailures() > 0 ? 1 : 0);
+    }
+    RealTimeDataQueueManager.init();
+
+    final String outputPath = getStringOption("out", "soak-report");
+    PrintWriter csv = new PrintWriter(new FileWriter(outputPath + ".csv"));
+    csv.println(CSV_HEADER);
+
+    startMillis = System.currentTimeMillis();
+    Thread[] workers = {
+      startWorker("soak-sampler", new Runnable() {
+        public void run() {
+          runSampler();
+        }
+      }),
+      startWorker("soak-real-time-consumer", new Runnable() {
+        public void run() {
+          runRealTimeConsumer();
+        }
+      }),
+      startWorker("soak-historical-consumer", new Runnable() {
+        public void run() {
+          runHistoricalConsumer();
+        }
+      })
+    };
+
+    try {
+      runMonitor(csv, numTags);
+    } finally {
+      endMillis = System.currentTimeMillis();
+      running = false;
+      for (int i = 0; i < workers.length; i++) {
+        workers[i].join();
+      }
+      csv.close();
+    }
+
+    final String summary = buildSummary();
+    PrintWriter json = new PrintWriter(new FileWriter(outputPath + ".json"));
+    try {
+      json.println(summary);
+    } finally {
+      json.close();
+    }
+    System.out.println(summary);
+  }
+
+  /**
+   * Sweep all real time tag groups at the sample period until the run ends, or run the sampling
+   * worker threads of the real time engine and record their sweep durations.
+   */
+  private void runSampler() {
+    final long samplePeriodMillis = getLongOption("samplePeriodMs", 1000);
+    if (getBooleanOption("workers")) {
+      runSamplingWorkers(samplePeriodMillis);
+      return;
+    }
+
+    while (running) {
+      final long sweepStart = System.currentTimeMillis();
+      try {
+        synchronized (realTimeLock) {
+          for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+            RealTimeDataQueueManager.dataFetcher(group);
+          }
+        }
+      } catch (RuntimeException e) {
+        recordError(e);
+      }
+      final long sweepDuration = System.currentTimeMillis() - sweepStart;
+      sweepMillis.record(sweepDuration);
+      sleep(samplePeriodMillis - sweepDuration);
+    }
+  }
+
+  /**
+   * Run the sampling worker threads of the real time engine until the run ends, recording the
+   * longest tag group sweep duration at each sample period.
+   *
+   * @param samplePeriodMillis sampling period of each tag group in milliseconds
+   */
+  private void runSamplingWorkers(long samplePeriodMillis) {
+    final int numShards = (int) getLongOption("shards", 1);
+    for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+      RealTimeDataQueueManager.setGroupSamplingShards(group, numShards);
+      RealTimeDataQueueManager.setGroupSamplingPeriodMillis(group, samplePeriodMillis);
+    }
+    RealTimeDataQueueManager.startSamplingWorkers();
+    try {
+      while (running) {
+        sleep(samplePeriodMillis);
+        long longestSweepMillis = 0;
+        for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+          longestSweepMillis =
+              Math.max(longestSweepMillis, RealTimeDataQueueManager.getGroupLastSweepMillis(group));
+        }
+        sweepMillis.record(longestSweepMillis);
+      }
+    } finally {
+      RealTimeDataQueueManager.stopSamplingWorkers();
+    }
+  }
+
+  /**
+   * Drain all real time tag groups at the drain period until the run ends, group by group or in
+   * timestamp order across all tag groups.
+   */
+  private void runRealTimeConsumer() {
+    final long drainPeriodMillis = getLongOption("drainPeriodMs", 5000);
+    final boolean merged = getBooleanOption("merged");
+    while (running) {
+      if (profile.isOutage(getElapsedSecs())) {
+        sleep(OUTAGE_POLL_MILLIS);
+        continue;
+      }
+
+      try {
+        synchronized (realTimeLock) {
+          final long now = System.currentTimeMillis();
+          long numDrained = 0;
+          for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+            DataPoint dataPoint;
+            while ((dataPoint = getNextRealTimeData(merged, group)) != null) {
+              realTimeAgeMillis.record(
+                  now - Long.parseLong(dataPoint.getTimeStamp()) * MILLISECONDS_IN_SECOND);
+              numDrained++;
+            }
+          }
+          addRealTimePoints(numDrained);
+        }
+      } catch (RuntimeException e) {
+        recordError(e);
+      }
+      sleep(drainPeriodMillis);
+    }
+  }
+
+  /**
+   * Get the next real time data point to drain.
+   *
+   * @param merged true to drain all tag groups in timestamp order, false to drain each tag group
+   * @param group tag group to drain, ignored if merged
+   * @return next data point, or null if there are none
+   */
+  private static DataPoint getNextRealTimeData(boolean merged, int group) {
+    if (merged) {
+      final boolean includeAllGroups = true;
+      return RealTimeDataQueueManager.getMergedNextData(
+          includeAllGroups, includeAllGroups, includeAllGroups, includeAllGroups);
+    }
+    return RealTimeDataQueueManager.getGroupNextData(group);
+  }
+
+  /** Read the historical FIFO queue until the run ends, waiting while caught up. */
+  private void runHistoricalConsumer() {
+    final long fifoSpanSecs = getLongOption("fifoSpanMins", 1) * 60;
+    boolean startNewTimeTracker = true;
+    while (running) {
+      if (profile.isOutage(getElapsedSecs())) {
+        sleep(OUTAGE_POLL_MILLIS);
+        continue;
+      }
+
+      try {
+        final long readStart = System.currentTimeMillis();
+        ArrayList data =
+            HistoricalDataQueueManager.getFifoNextSpanDataAllGroups(startNewTimeTracker);
+        historicalReadMillis.record(System.currentTimeMillis() - readStart);
+        startNewTimeTracker = false;
+        addHistoricalPoints(data.size());
+
+        historicalLagSecs =
+            (HistoricalDataQueueManager.getCurrentTimeWithOffset()
+                    - HistoricalDataQueueManager.getCurrentTimeTrackerValue())
+                / MILLISECONDS_IN_SECOND;
+        if (historicalLagSecs < fifoSpanSecs) {
+          sleep(HISTORICAL_IDLE_MILLIS);
+        }
+      } catch (TimeTrackerUnrecoverableException e) {
+        // Time tracker files are created on first use, start a new time tracker
+        startNewTimeTracker = true;
+      } catch (Exception e) {
+        recordError(e);
+        sleep(HISTORICAL_IDLE_MILLIS);
+      }
+    }
+  }
+
+  /**
+   * Sample heap, backlog, lag and throughput at the report period and apply tag churn until the
+   * run ends.
+   *
+   * @param csv writer of the CSV report
+   * @param numTags number of simulated tags
+   */
+  private void runMonitor(PrintWriter csv, int numTags) {
+    final long reportPeriodMillis =
+        getLongOption("reportPeriodSecs", 10) * MILLISECONDS_IN_SECOND;
+    final long churnPeriodSecs = profile.getChurnPeriodSecs();
+    long nextChurnSecs = churnPeriodSecs;
+    long previousRealTimePoints = 0;
+    long previousHistoricalPoints = 0;
+    long previousTagReads = 0;
+    long previousExports = 0;
+    long previousReportMillis = startMillis;
+
+    while (getElapsedSecs() < durationSecs) {
+      sleep(
+          Math.min(
+              reportPeriodMillis, durationSecs * MILLISECONDS_IN_SECOND - getElapsedMillis()));
+      final long elapsedSecs = getElapsedSecs();
+
+      if (churnPeriodSecs > 0 && elapsedSecs >= nextChurnSecs) {
+        nextChurnSecs += churnPeriodSecs;
+        synchronized (realTimeLock) {
+          SimulatedDevice.churn(profile.getNumChurnTags(numTags));
+          try {
+            RealTimeDataQueueManager.init();
+          } catch (Exception e) {
+            recordError(e);
+          }
+        }
+      }
+
+      final Runtime runtime = Runtime.getRuntime();
+      final long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+      heapSampleTimes.add(new Long(elapsedSecs));
+      heapSampleValues.add(new Long(heapUsed));
+
+      int bufferedPoints = 0;
+      synchronized (realTimeLock) {
+        for (int group = 0; group < RealTimeDataQueueManager.NUM_TAG_GROUPS; group++) {
+          bufferedPoints += RealTimeDataQueueManager.getNumGroupDataPoints(group);
+        }
+      }
+
+      final long now = System.currentTimeMillis();
+      final double intervalSecs =
+          Math.max(1, now - previousReportMillis) / (double) MILLISECONDS_IN_SECOND;
+      previousReportMillis = now;
+      final long realTimePoints = getRealTimePoints();
+      final long historicalPoints = getHistoricalPoints();
+      final long tagReads = SimulatedDevice.getNumTagReads();
+      final long exports = SimulatedDevice.getNumExports();
+      final long lagSecs = historicalLagSecs;
+      updateMaxHistoricalLag(lagSecs);
+
+      csv.println(
+          elapsedSecs
+              + ","
+              + heapUsed
+              + ","
+              + runtime.totalMemory()
+              + ","
+              + bufferedPoints
+              + ","
+              + formatRate(realTimePoints - previousRealTimePoints, intervalSecs)
+              + ","
+              + formatRate(historicalPoints - previousHistoricalPoints, intervalSecs)
+              + ","
+              + lagSecs
+              + ","
+              + formatRate(tagReads - previousTagReads, intervalSecs)
+              + ","
+              + formatRate(exports - previousExports, intervalSecs)
+              + ","
+              + getErrors()
+              + ","
+              + (profile.isOutage(elapsedSecs) ? 1 : 0));
+      csv.flush();
+
+      previousRealTimePoints = realTimePoints;
+      previousHistoricalPoints = historicalPoints;
+      previousTagReads = tagReads;
+      previousExports = exports;
+    }
+  }
+
+  /**
+   * Build the JSON summary of the run.
+   *
+   * @return JSON summary
+   */
+  private String buildSummary() {
+    final double elapsedSecs =
+        Math.max(1, endMillis - startMillis) / (double) MILLISECONDS_IN_SECOND;
+    long minHeap = Long.MAX_VALUE;
+    long maxHeap = 0;
+    long finalHeap = 0;
+    for (int i = 0; i < heapSampleValues.size(); i++) {
+      final long heapUsed = ((Long) heapSampleValues.get(i)).longValue();
+      minHeap = Math.min(minHeap, heapUsed);
+      maxHeap = Math.max(maxHeap, heapUsed);
+      finalHeap = heapUsed;
+    }
+    if (heapSampleValues.isEmpty()) {
+      minHeap = 0;
+    }
+
+    return "{\"profile\":\""
+        + profile.getName()
+        + "\",\"durationSecs\":"
+        + Math.round(elapsedSecs)
+        + ",\"tags\":"
+        + SimulatedDevice.getNumTags()
+        + ",\"errors\":"
+        + getErrors()
+        + ",\"checks\":"
+        + checks.toJson()
+        + ",\"realTime\":{\"points\":"
+        + getRealTimePoints()
+        + ",\"pointsPerSec\":"
+        + formatRate(getRealTimePoints(), elapsedSecs)
+        + ",\"tagReadsPerSec\":"
+        + formatRate(SimulatedDevice.getNumTagReads(), elapsedSecs)
+        + ",\"sweepMillis\":"
+        + sweepMillis.toJson()
+        + ",\"ageMillis\":"
+        + realTimeAgeMillis.toJson()
+        + "},\"historical\":{\"points\":"
+        + getHistoricalPoints()
+        + ",\"pointsPerSec\":"
+        + formatRate(getHistoricalPoints(), elapsedSecs)
+        + ",\"readMillis\":"
+        + historicalReadMillis.toJson()
+        + ",\"maxLagSecs\":"
+        + getMaxHistoricalLag()
+        + ",\"finalLagSecs\":"
+        + historicalLagSecs
+        + "},\"heap\":{\"minUsedBytes\":"
+        + minHeap
+        + ",\"maxUsedBytes\":"
+        + maxHeap
+        + ",\"finalUsedBytes\":"
+        + finalHeap
+        + ",\"trendBytesPerHour\":"
+        + Math.round(getHeapTrendBytesPerSec() * SECONDS_IN_HOUR)
+        + "},\"device\":{\"exports\":"
+        + SimulatedDevice.getNumExports()
+        + ",\"exportedLines\":"
+        + SimulatedDevice.getNumExportedLines()
+        + "}}";
+  }
+
+  /**
+   * Get the least squares slope of used heap over time, which shows heap creep.
+   *
+   * @return heap trend in bytes per second
+   */
+  private double getHeapTrendBytesPerSec() {
+    final int numSamples = heapSampleValues.size();
+    if (numSamples < 2) {
+      return 0;
+    }
+    double meanTime = 0;
+    double meanHeap = 0;
+    for (int i = 0; i < numSamples; i++) {
+      meanTime += ((Long) heapSampleTimes.get(i)).longValue();
+      meanHeap += ((Long) heapSampleValues.get(i)).longValue();
+    }
+    meanTime /= numSamples;
+    meanHeap /= numSamples;
+
+    double covariance = 0;
+    double variance = 0;
+    for (int i = 0; i < numSamples; i++) {
+      final double timeDelta = ((Long) heapSampleTimes.get(i)).longValue() - meanTime;
+      covariance += timeDelta * (((Long) heapSampleValues.get(i)).longValue() - meanHeap);
+      variance += timeDelta * timeDelta;
+    }
+    return variance > 0 ? covariance / variance : 0;
+  }
+
+  /**
+   * Start a worker thread.
+   *
+   * @param name name of the thread
+   * @param runnable task of the thread
+   * @return started thread
+   */
+  private static Thread startWorker(String name, Runnable runnable) {
+    Thread thread = new Thread(runnable, name);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Sleep for the specified time, returning early if interrupted.
+   *
+   * @param millis time to sleep in milliseconds, nothing is done if not positive
+   */
+  private static void sleep(long millis) {
+    if (millis > 0) {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Format a rate per second with two decimals.
+   *
+   * @param amount amount over the interval
+   * @param intervalSecs length of the interval in seconds
+   * @return formatted rate
+   */
+  private static String formatRate(long amount, double intervalSecs) {
+    return String.valueOf(Math.round(amount * 100 / intervalSecs) / 100.0);
+  }
+
+  /**
+   * Get the time since the start of the run.
+   *
+   * @return elapsed time in milliseconds
+   */
+  private long getElapsedMillis() {
+    return System.currentTimeMillis() - startMillis;
+  }
+
+  /**
+   * Get the time since the start of the run.
+   *
+   * @return elapsed time in seconds
+   */
+  private long getElapsedSecs() {
+    return getElapsedMillis() / MILLISECONDS_IN_SECOND;
+  }
+
+  /**
+   * Record an error raised by the library.
+   *
+   * @param e error
+   */
+  private synchronized void recordError(Exception e) {
+    numErrors++;
+    System.err.println("Soak harness error: " + e);
+  }
+
+  /**
+   * Get the number of errors raised by the library.
+   *
+   * @return number of errors
+   */
+  private synchronized long getErrors() {
+    return numErrors;
+  }
+
+  /**
+   * Add drained real time data points to the total.
+   *
+   * @param numPoints number of drained data points
+   */
+  private synchronized void addRealTimePoints(long numPoints) {
+    numRealTimePoints += numPoints;
+  }
+
+  /**
+   * Get the number of drained real time data points.
+   *
+   * @return number of drained data points
+   */
+  private synchronized long getRealTimePoints() {
+    return numRealTimePoints;
+  }
+
+  /**
+   * Add read historical data points to the total.
+   *
+   * @param numPoints number of read data points
+   */
+  private synchronized void addHistoricalPoints(long numPoints) {
+    numHistoricalPoints += numPoints;
+  }
+
+  /**
+   * Get the number of read historical data points.
+   *
+   * @return number of read data points
+   */
+  private synchronized long getHistoricalPoints() {
+    return numHistoricalPoints;
+  }
+
+  /**
+   * Update the largest lag of the historical FIFO queue.
+   *
+   * @param lagSecs current lag in seconds
+   */
+  private synchronized void updateMaxHistoricalLag(long lagSecs) {
+    maxHistoricalLagSecs = Math.max(maxHistoricalLagSecs, lagSecs);
+  }
+
+  /**
+   * Get the largest lag of the historical FIFO queue.
+   *
+   * @return largest lag in seconds
+   */
+  private synchronized long getMaxHistoricalLag() {
+    return maxHistoricalLagSecs;
+  }
+
+  /**
+   * Get a string option.
+   *
+   * @param name name of the option
+   * @param defaultValue value if the option is not set
+   * @return value of the option
+   */
+  private String getStringOption(String name, String defaultValue) {
+    String value = (String) options.get(name);
+    return value != null ? value : defaultValue;
+  }
+
+  /**
+   * Get a numeric option.
+   *
+   * @param name name of the option
+   * @param defaultValue value if the option is not set
+   * @return value of the option
+   */
+  private long getLongOption(String name, long defaultValue) {
+    String value = (String) options.get(name);
+    return value != null ? Long.parseLong(value) : defaultValue;
+  }
+
+  /**
+   * Get a boolean option, false if not set.
+   *
+   * @param name name of the option
+   * @return value of the option
+   */
+  private boolean getBooleanOption(String name) {
+    return Boolean.valueOf(getStringOption(name, "false")).booleanValue();
+  }
+}
@@ -0,0 +1,405 @@
+package com.hms_networks.americas.sc.historicaldata;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class to decode export block descriptor text output line by line directly from a stream or byte
+ * array. Each line is read into a reusable buffer and split into fields on the EBD line delimiter,
+ * ignoring delimiters within quotes. Field values can be read as numbers without creating
+ * intermediate <code>String</code> objects.
+ *
+ * <p>Example Line:
+ *
+ * <pre>
+ * 247;1582557658;"24/02/2020 15:20:58";0;0;3
+ * </pre>
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class EbdLineDecoder {
+
+  /** Maximum number of fields decoded per line. Additional fields are ignored. */
+  private static final int MAX_FIELDS = 16;
+
+  /** Initial size of the line buffer. The buffer grows to fit the longest line read. */
+  private static final int INITIAL_LINE_BUFFER_SIZE = 256;
+
+  /** Size of the stream read buffer. */
+  private static final int READ_BUFFER_SIZE = 1024;
+
+  /** Largest number of decimal digits which can be stored exactly in a double mantissa. */
+  private static final int MAX_EXACT_DECIMAL_DIGITS = 15;
+
+  /** Maximum number of integer digits which can be accumulated in a <code>long</code> safely. */
+  private static final int MAX_EXACT_LONG_DIGITS = 18;
+
+  /** Exactly representable powers of ten used for fast decimal parsing. */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+  };
+
+  /** Delimiter between fields in EBD lines. */
+  private static final byte FIELD_DELIMITER =
+      (byte) HistoricalDataConstants.EBD_LINE_DELIMITER.charAt(0);
+
+  /** Quote character used around string fields. */
+  private static final byte QUOTE = '"';
+
+  /** Stream to read lines from, or null if decoding from a byte array. */
+  private final InputStream inputStream;
+
+  /** Buffer used to read from the stream. */
+  private final byte[] readBuffer;
+
+  /** Index of the next unread byte in the read buffer. */
+  private int readBufferIndex = 0;
+
+  /** Number of valid bytes in the read buffer. */
+  private int readBufferLength = 0;
+
+  /** Buffer holding the current line. */
+  private byte[] line;
+
+  /** Start index of each field of the current line in the line buffer. */
+  private final int[] fieldStarts = new int[MAX_FIELDS];
+
+  /** End index, exclusive, of each field of the current line in the line buffer. */
+  private final int[] fieldEnds = new int[MAX_FIELDS];
+
+  /** Number of fields in the current line. */
+  private int numFields = 0;
+
+  /** Number of lines read, including the current line. */
+  private long lineCount = 0;
+
+  /**
+   * Constructor for a decoder which reads lines from a stream.
+   *
+   * @param inputStream stream to read lines from
+   */
+  public EbdLineDecoder(InputStream inputStream) {
+    this.inputStream = inputStream;
+    this.readBuffer = new byte[READ_BUFFER_SIZE];
+    this.line = new byte[INITIAL_LINE_BUFFER_SIZE];
+  }
+
+  /**
+   * Constructor for a decoder which decodes single lines from byte arrays with {@link
+   * #decodeLine(byte[], int, int)}.
+   */
+  public EbdLineDecoder() {
+    this.inputStream = null;
+    this.readBuffer = null;
+    this.line = null;
+  }
+
+  /**
+   * Reads the next line from the stream and decodes its fields. Empty lines are skipped.
+   *
+   * @return true if a line was read, false if the end of the stream was reached
+   * @throws IOException if unable to read from the stream
+   */
+  public boolean nextLine() throws IOException {
+    int lineLength = 0;
+    boolean lineRead = false;
+    while (!lineRead) {
+      if (readBufferIndex >= readBufferLength) {
+        readBufferLength = inputStream.read(readBuffer);
+        readBufferIndex = 0;
+        if (readBufferLength <= 0) {
+          readBufferLength = 0;
+          if (lineLength == 0) {
+            return false;
+          }
+          break;
+        }
+      }
+
+      final byte currentByte = readBuffer[readBufferIndex++];
+      if (currentByte == '\n' || currentByte == '\r') {
+        lineRead = lineLength > 0;
+      } else {
+        if (lineLength == line.length) {
+          byte[] grownLine = new byte[line.length * 2];
+          System.arraycopy(line, 0, grownLine, 0, lineLength);
+          line = grownLine;
+        }
+        line[lineLength++] = currentByte;
+      }
+    }
+    splitFields(line, 0, lineLength);
+    return true;
+  }
+
+  /**
+   * Decodes the fields of the line stored in the specified byte array range. The byte array is
+   * referenced, not copied, until the next line is decoded.
+   *
+   * @param bytes byte array containing the line
+   * @param offset offset of the line in the byte array
+   * @param length length of the line, excluding line terminators
+   */
+  public void decodeLine(byte[] bytes, int offset, int length) {
+    line = bytes;
+    splitFields(bytes, offset, length);
+  }
+
+  /**
+   * Gets the number of lines decoded, including the current line.
+   *
+   * @return number of lines decoded
+   */
+  public long getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Gets the number of fields in the current line.
+   *
+   * @return number of fields
+   */
+  public int getNumFields() {
+    return numFields;
+  }
+
+  /**
+   * Gets a boolean representing if the specified field of the current line is quoted.
+   *
+   * @param field index of field
+   * @return true if the field is quoted
+   */
+  public boolean isFieldQuoted(int field) {
+    return fieldEnds[field] - fieldStarts[field] >= 2
+        && line[fieldStarts[field]] == QUOTE
+        && line[fieldEnds[field] - 1] == QUOTE;
+  }
+
+  /**
+   * Gets the specified field of the current line as a <code>long</code>. Values with up to 18
+   * digits are parsed without creating a <code>String</code>, longer values are parsed with {@link
+   * Long#parseLong(String)} so that out of range values are rejected.
+   *
+   * @param field index of field
+   * @return field value
+   * @throws NumberFormatException if the field is not an integer or is out of range
+   */
+  public long getFieldAsLong(int field) {
+    int index = fieldStarts[field];
+    final int end = fieldEnds[field];
+    boolean negative = false;
+    if (index < end && (line[index] == '-' || line[index] == '+')) {
+      negative = line[index] == '-';
+      index++;
+    }
+    if (index >= end) {
+      throw new NumberFormatException("Empty integer field in EBD line " + lineCount + ".");
+    }
+
+    if (end - index > MAX_EXACT_LONG_DIGITS) {
+      return Long.parseLong(getFieldAsString(field));
+    }
+
+    long value = 0;
+    for (; index < end; index++) {
+      final int digit = line[index] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.parseLong(getFieldAsString(field));
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Gets the specified field of the current line as an <code>int</code>.
+   *
+   * @param field index of field
+   * @return field value
+   * @throws NumberFormatException if the field is not an integer or is out of range
+   */
+  public int getFieldAsInt(int field) {
+    final long value = getFieldAsLong(field);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new NumberFormatException(
+          "Integer field out of range in EBD line " + lineCount + ": " + value);
+    }
+    return (int) value;
+  }
+
+  /**
+   * Gets the specified field of the current line as a <code>double</code>. Plain decimal values
+   * with up to 15 significant digits are parsed without creating a <code>String</code>, other
+   * values are parsed with {@link Double#parseDouble(String)}.
+   *
+   * @param field index of field
+   * @return field value
+   * @throws NumberFormatException if the field is not a number
+   */
+  public double getFieldAsDouble(int field) {
+    int index = fieldStarts[field];
+    final int end = fieldEnds[field];
+    boolean negative = false;
+    if (index < end && (line[index] == '-' || line[index] == '+')) {
+      negative = line[index] == '-';
+      index++;
+    }
+
+    long mantissa = 0;
+    boolean hasDigits = false;
+    int numDigits = 0;
+    int numFractionDigits = -1;
+    for (; index < end; index++) {
+      final byte currentByte = line[index];
+      if (currentByte == '.' && numFractionDigits < 0) {
+        numFractionDigits = 0;
+      } else if (currentByte >= '0' && currentByte <= '9') {
+        hasDigits = true;
+        if (mantissa != 0 || currentByte != '0') {
+          numDigits++;
+        }
+        mantissa = mantissa * 10 + (currentByte - '0');
+        if (numFractionDigits >= 0) {
+          numFractionDigits++;
+        }
+      } else {
+        numDigits = MAX_EXACT_DECIMAL_DIGITS + 1;
+        break;
+      }
+    }
+
+    if (numDigits > MAX_EXACT_DECIMAL_DIGITS
+        || numFractionDigits >= POWERS_OF_TEN.length
+        || !hasDigits) {
+      return Double.parseDouble(getFieldAsString(field));
+    }
+    double value = mantissa;
+    if (numFractionDigits > 0) {
+      value /= POWERS_OF_TEN[numFractionDigits];
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Gets the specified field of the current line as a <code>String</code>, including any quotes.
+   *
+   * @param field index of field
+   * @return field value
+   */
+  public String getFieldAsString(int field) {
+    return new String(line, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+  }
+
+  /**
+   * Gets the specified field of the current line as a <code>String</code> with surrounding quotes
+   * removed and doubled quotes unescaped.
+   *
+   * @param field index of field
+   * @return unquoted field value
+   */
+  public String getFieldAsUnquotedString(int field) {
+    if (!isFieldQuoted(field)) {
+      return getFieldAsString(field);
+    }
+    return new String(unquoteField(field));
+  }
+
+  /**
+   * Gets the raw bytes of the specified field of the current line with surrounding quotes removed
+   * and doubled quotes unescaped.
+   *
+   * @param field index of field
+   * @return unquoted field bytes
+   */
+  public byte[] unquoteField(int field) {
+    int start = fieldStarts[field];
+    int end = fieldEnds[field];
+    if (isFieldQuoted(field)) {
+      start++;
+      end--;
+    }
+    byte[] unquoted = new byte[end - start];
+    int length = 0;
+    for (int index = start; index < end; index++) {
+      unquoted[length++] = line[index];
+      if (line[index] == QUOTE && index + 1 < end && line[index + 1] == QUOTE) {
+        index++;
+      }
+    }
+    if (length == unquoted.length) {
+      return unquoted;
+    }
+    byte[] trimmed = new byte[length];
+    System.arraycopy(unquoted, 0, trimmed, 0, length);
+    return trimmed;
+  }
+
+  /**
+   * Gets the line buffer holding the current line. The buffer is reused for the next line.
+   *
+   * @return line buffer
+   */
+  public byte[] getLineBuffer() {
+    return line;
+  }
+
+  /**
+   * Gets the start index of the specified field in the line buffer.
+   *
+   * @param field index of field
+   * @return start index of field
+   */
+  public int getFieldStart(int field) {
+    return fieldStarts[field];
+  }
+
+  /**
+   * Gets the end index, exclusive, of the specified field in the line buffer.
+   *
+   * @param field index of field
+   * @return end index of field
+   */
+  public int getFieldEnd(int field) {
+    return fieldEnds[field];
+  }
+
+  /**
+   * Split the specified line into fields on the delimiter, ignoring delimiters within quotes.
+   *
+   * @param bytes byte array containing the line
+   * @param offset offset of the line in the byte array
+   * @param length length of the line
+   */
+  private void splitFields(byte[] bytes, int offset, int length) {
+    lineCount++;
+    numFields = 0;
+    boolean inQuotes = false;
+    int fieldStart = offset;
+    final int end = offset + length;
+    for (int index = offset; index < end; index++) {
+      final byte currentByte = bytes[index];
+      if (currentByte == QUOTE) {
+        inQuotes = !inQuotes;
+      } else if (currentByte == FIELD_DELIMITER && !inQuotes) {
+        addField(fieldStart, index);
+        fieldStart = index + 1;
+      }
+    }
+    addField(fieldStart, end);
+  }
+
+  /**
+   * Add a field to the current line if the maximum number of fields has not been reached.
+   *
+   * @param start start index of field
+   * @param end end index of field, exclusive
+   */
+  private void addField(int start, int end) {
+    if (numFields < MAX_FIELDS) {
+      fieldStarts[numFields] = start;
+      fieldEnds[numFields] = end;
+      numFields++;
+    }
+  }
+}
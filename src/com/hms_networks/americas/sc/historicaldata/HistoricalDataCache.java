@@ -0,0 +1,239 @@
+package com.hms_networks.americas.sc.historicaldata;
+
+import com.hms_networks.americas.sc.json.JSONException;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Class to manage a size-bounded cache of recently exported historical data spans. Spans are stored
+ * as {@link HistoricalDataSegment} objects, each covering a time range of one export
+ * configuration (tag groups and string historical flag). Queries are served from the segments
+ * covering the requested time range, and the export block descriptor is only called for the sub
+ * ranges which are not covered by any segment.
+ *
+ * <p>When the total number of cached data points exceeds the configured maximum, the least
+ * recently used segments are evicted.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class HistoricalDataCache {
+
+  /** Maximum number of data points stored in the cache. Default is 0, cache disabled. */
+  private static int maxDataPoints = 0;
+
+  /** Number of data points currently stored in the cache, including segment overhead. */
+  private static int numDataPoints = 0;
+
+  /** Segments currently stored in the cache. */
+  private static final ArrayList segments = new ArrayList();
+
+  /** Counter incremented on each cache access for least recently used eviction. */
+  private static long accessCounter = 0;
+
+  /**
+   * Sets the maximum number of data points stored in the cache. Setting a maximum of 0 disables the
+   * cache and clears it.
+   *
+   * @param maxCachedDataPoints maximum number of data points stored in the cache
+   */
+  static synchronized void setMaxDataPoints(int maxCachedDataPoints) {
+    maxDataPoints = maxCachedDataPoints;
+    evict();
+  }
+
+  /**
+   * Gets a boolean representing if the cache is enabled.
+   *
+   * @return true if the cache is enabled
+   */
+  static synchronized boolean isEnabled() {
+    return maxDataPoints > 0;
+  }
+
+  /** Removes all segments from the cache. */
+  static synchronized void clear() {
+    segments.clear();
+    numDataPoints = 0;
+  }
+
+  /**
+   * Create the export key identifying the tag groups and string historical flag of an export.
+   *
+   * @param includeTagGroupA include tag group A
+   * @param includeTagGroupB include tag group B
+   * @param includeTagGroupC include tag group C
+   * @param includeTagGroupD include tag group D
+   * @param stringHistorical string historical export if true
+   * @return export key
+   */
+  static int getExportKey(
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD,
+      boolean stringHistorical) {
+    int exportKey = 0;
+    exportKey |= includeTagGroupA ? 1 : 0;
+    exportKey |= includeTagGroupB ? 1 << 1 : 0;
+    exportKey |= includeTagGroupC ? 1 << 2 : 0;
+    exportKey |= includeTagGroupD ? 1 << 3 : 0;
+    exportKey |= stringHistorical ? 1 << 4 : 0;
+    return exportKey;
+  }
+
+  /**
+   * Adds a span of exported data points to the cache. Data points outside the time range are not
+   * stored. Cached segments of the same export key which overlap the time range are trimmed to the
+   * parts outside the time range, so that no data point is cached twice and cached data outside
+   * the time range is kept. If the cache is disabled, this method has no effect.
+   *
+   * @param dataPoints data points exported for the time range
+   * @param startTimeSecs start of the exported time range in seconds, inclusive
+   * @param endTimeSecs end of the exported time range in seconds, inclusive
+   * @param exportKey export key from {@link #getExportKey}
+   */
+  static synchronized void put(
+      ArrayList dataPoints, long startTimeSecs, long endTimeSecs, int exportKey) {
+    if (maxDataPoints <= 0 || endTimeSecs < startTimeSecs) {
+      return;
+    }
+    ArrayList overlappedSegments = getCoveringSegments(startTimeSecs, endTimeSecs, exportKey);
+    for (int i = 0; i < overlappedSegments.size(); i++) {
+      HistoricalDataSegment overlapped = (HistoricalDataSegment) overlappedSegments.get(i);
+      segments.remove(overlapped);
+      numDataPoints -= getWeight(overlapped);
+      if (overlapped.startTimeSecs < startTimeSecs) {
+        addSegment(
+            new HistoricalDataSegment(overlapped, overlapped.startTimeSecs, startTimeSecs - 1));
+      }
+      if (overlapped.endTimeSecs > endTimeSecs) {
+        addSegment(new HistoricalDataSegment(overlapped, endTimeSecs + 1, overlapped.endTimeSecs));
+      }
+    }
+
+    HistoricalDataSegment segment =
+        new HistoricalDataSegment(dataPoints, startTimeSecs, endTimeSecs, exportKey);
+    segment.lastAccess = ++accessCounter;
+    addSegment(segment);
+    evict();
+  }
+
+  /**
+   * Add a segment to the cache and account for its weight. The cache is not evicted.
+   *
+   * @param segment segment to add
+   */
+  private static void addSegment(HistoricalDataSegment segment) {
+    segments.add(segment);
+    numDataPoints += getWeight(segment);
+  }
+
+  /**
+   * Gets the sub ranges of the specified time range which are not covered by cached segments of
+   * the specified export key.
+   *
+   * @param startTimeSecs start of time range in seconds, inclusive
+   * @param endTimeSecs end of time range in seconds, inclusive
+   * @param exportKey export key from {@link #getExportKey}
+   * @return list of <code>long[]</code> sub ranges, each with start and end seconds, inclusive
+   */
+  static synchronized ArrayList getMissingRanges(
+      long startTimeSecs, long endTimeSecs, int exportKey) {
+    ArrayList coveringSegments = getCoveringSegments(startTimeSecs, endTimeSecs, exportKey);
+    ArrayList missingRanges = new ArrayList();
+    long nextUncoveredSecs = startTimeSecs;
+    for (int i = 0; i < coveringSegments.size(); i++) {
+      HistoricalDataSegment segment = (HistoricalDataSegment) coveringSegments.get(i);
+      if (segment.startTimeSecs > nextUncoveredSecs) {
+        missingRanges.add(new long[] {nextUncoveredSecs, segment.startTimeSecs - 1});
+      }
+      nextUncoveredSecs = Math.max(nextUncoveredSecs, segment.endTimeSecs + 1);
+    }
+    if (nextUncoveredSecs <= endTimeSecs) {
+      missingRanges.add(new long[] {nextUncoveredSecs, endTimeSecs});
+    }
+    return missingRanges;
+  }
+
+  /**
+   * Adds the cached data points of the specified export key which are within the specified time
+   * range and whose tag is in the specified bitmap to the specified list.
+   *
+   * @param startTimeSecs start of time range in seconds, inclusive
+   * @param endTimeSecs end of time range in seconds, inclusive
+   * @param exportKey export key from {@link #getExportKey}
+   * @param queryBitmap tag ID bitmap from {@link HistoricalDataSegment#createTagIdBitmap(int[])}
+   * @param output list to add data points to
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  static synchronized void getDataPoints(
+      long startTimeSecs, long endTimeSecs, int exportKey, int[] queryBitmap, ArrayList output)
+      throws IOException, JSONException {
+    ArrayList coveringSegments = getCoveringSegments(startTimeSecs, endTimeSecs, exportKey);
+    for (int i = 0; i < coveringSegments.size(); i++) {
+      HistoricalDataSegment segment = (HistoricalDataSegment) coveringSegments.get(i);
+      segment.lastAccess = ++accessCounter;
+      if (segment.containsAnyTag(queryBitmap)) {
+        segment.getDataPoints(startTimeSecs, endTimeSecs, queryBitmap, output);
+      }
+    }
+  }
+
+  /**
+   * Gets the cached segments of the specified export key which overlap the specified time range,
+   * sorted by start time.
+   *
+   * @param startTimeSecs start of time range in seconds, inclusive
+   * @param endTimeSecs end of time range in seconds, inclusive
+   * @param exportKey export key from {@link #getExportKey}
+   * @return list of overlapping segments sorted by start time
+   */
+  private static ArrayList getCoveringSegments(
+      long startTimeSecs, long endTimeSecs, int exportKey) {
+    ArrayList coveringSegments = new ArrayList();
+    for (int i = 0; i < segments.size(); i++) {
+      HistoricalDataSegment segment = (HistoricalDataSegment) segments.get(i);
+      if (segment.exportKey == exportKey
+          && segment.startTimeSecs <= endTimeSecs
+          && segment.endTimeSecs >= startTimeSecs) {
+        // Insertion sort by start time, the number of segments is small
+        int insertIndex = coveringSegments.size();
+        while (insertIndex > 0
+            && ((HistoricalDataSegment) coveringSegments.get(insertIndex - 1)).startTimeSecs
+                > segment.startTimeSecs) {
+          insertIndex--;
+        }
+        coveringSegments.add(insertIndex, segment);
+      }
+    }
+    return coveringSegments;
+  }
+
+  /**
+   * Gets the weight of a segment when accounting for the cache size. Each segment is counted as one
+   * data point more than it contains, so that segments without data points are also bounded.
+   *
+   * @param segment segment to weigh
+   * @return segment weight in data points
+   */
+  private static int getWeight(HistoricalDataSegment segment) {
+    return segment.size() + 1;
+  }
+
+  /** Evict the least recently used segments until the cache is within its maximum size. */
+  private static void evict() {
+    while (numDataPoints > maxDataPoints && !segments.isEmpty()) {
+      int lruIndex = 0;
+      for (int i = 1; i < segments.size(); i++) {
+        if (((HistoricalDataSegment) segments.get(i)).lastAccess
+            < ((HistoricalDataSegment) segments.get(lruIndex)).lastAccess) {
+          lruIndex = i;
+        }
+      }
+      HistoricalDataSegment evicted = (HistoricalDataSegment) segments.remove(lruIndex);
+      numDataPoints -= getWeight(evicted);
+    }
+  }
+}
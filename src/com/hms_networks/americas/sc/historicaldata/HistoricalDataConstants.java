@@ -17,6 +17,9 @@ class HistoricalDataConstants {
   /** Number of milliseconds in one second */
   static final int TIME_MS_PER_SEC = 1000;
 
+  /** Minimum FIFO queue time span in milliseconds when shrunk due to heap pressure */
+  static final long MIN_PRESSURE_FIFO_TIME_SPAN_MS = 10000;
+
   /** Delimiter used in EBD lines */
   static final String EBD_LINE_DELIMITER = ";";
 
@@ -50,6 +53,18 @@ class HistoricalDataConstants {
   /** Name of EBD string export call file */
   static final String QUEUE_EBD_STRING_FILE_NAME = "histStringDataEBD";
 
+  /** Name of EBD export call file used for historical cache queries */
+  static final String QUEUE_EBD_CACHE_FILE_NAME = "histCacheEBD";
+
+  /**
+   * Number of seconds before the current time during which historical logs may still be written.
+   * Exported data within this time is returned but not cached.
+   */
+  static final long HISTORICAL_CACHE_SETTLE_SECS = 30;
+
+  /** Minimum number of seconds between the start and end time of an EBD call */
+  static final long MIN_EBD_SPAN_SECS = 2;
+
   /** Name of historical data queue time tracker file 1. */
   static final String QUEUE_TIME_FILE_1_NAME = "histDataTime1";
 
@@ -4,7 +4,12 @@ import com.ewon.ewonitf.Exporter;
 
 import com.hms_networks.americas.sc.datapoint.*;
 import com.hms_networks.americas.sc.json.JSONException;
+import com.hms_networks.americas.sc.logging.Logger;
 import com.hms_networks.americas.sc.string.QuoteSafeStringTokenizer;
+import com.hms_networks.americas.sc.tagdata.LastValueCache;
+import com.hms_networks.americas.sc.tagdata.TagDataInternPool;
+import com.hms_networks.americas.sc.tagdata.TagMetadataSnapshot;
+import com.hms_networks.americas.sc.tagdata.TagStatistics;
 import com.hms_networks.americas.sc.taginfo.TagInfo;
 import com.hms_networks.americas.sc.taginfo.TagInfoEnumeratedIntToString;
 import com.hms_networks.americas.sc.taginfo.TagInfoManager;
@@ -12,7 +17,10 @@ import com.hms_networks.americas.sc.taginfo.TagType;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 
 /**
  * Class to manage retrieving tag information and historical logs using export block descriptors.
@@ -22,6 +30,40 @@ import java.util.ArrayList;
  */
 public class HistoricalDataManager {
 
+  /**
+   * Boolean indicating if export block descriptor output is parsed directly from the exporter
+   * stream instead of being written to and read from a file. Default is false.
+   */
+  private static boolean streamingExportEnabled = false;
+
+  /**
+   * Lock held while the historical cache export file is written and parsed, so callers of {@link
+   * #getHistoricalData(long, long, int[], boolean, boolean, boolean, boolean, boolean)} on
+   * different threads do not overwrite each other's export.
+   */
+  private static final Object CACHE_EXPORT_FILE_LOCK = new Object();
+
+  /**
+   * Sets if export block descriptor output is parsed directly from the exporter stream instead of
+   * being written to a file in flash and read back. When enabled, a file is only written if the
+   * stream fails, so that the export can be parsed from the file as a checkpoint.
+   *
+   * @param enabled true to parse export output directly from the exporter stream
+   */
+  public static synchronized void setStreamingExportEnabled(boolean enabled) {
+    streamingExportEnabled = enabled;
+  }
+
+  /**
+   * Gets a boolean representing if export block descriptor output is parsed directly from the
+   * exporter stream.
+   *
+   * @return true if export output is parsed directly from the exporter stream
+   */
+  public static synchronized boolean isStreamingExportEnabled() {
+    return streamingExportEnabled;
+  }
+
   /**
    * Exports the historical log for tags in tag groups A, B, C and D between <code>startTime</code>
    * and <code>endTime</code> to <code>destinationFileName</code>.
@@ -74,6 +116,149 @@ public class HistoricalDataManager {
       boolean includeTagGroupD,
       boolean stringHistorical)
       throws IOException {
+    final String ebdStr =
+        buildHistoricalEbdString(
+            startTime,
+            endTime,
+            includeTagGroupA,
+            includeTagGroupB,
+            includeTagGroupC,
+            includeTagGroupD,
+            stringHistorical);
+
+    // Perform EBD call
+    Exporter exporter = new Exporter(ebdStr);
+    exporter.ExportTo(HistoricalDataConstants.FILE_URL_PREFIX + destinationFileName);
+    exporter.close();
+  }
+
+  /**
+   * Exports the historical log for tags in specified tag groups between <code>startTime</code> and
+   * <code>endTime</code> as a stream. The export output is read directly from the returned stream
+   * instead of being written to a file, and the stream must be closed by the caller.
+   *
+   * @param startTime start time of export
+   * @param endTime end time of export
+   * @param includeTagGroupA include tag group A
+   * @param includeTagGroupB include tag group B
+   * @param includeTagGroupC include tag group C
+   * @param includeTagGroupD include tag group D
+   * @param stringHistorical export string historical logs if true
+   * @return stream of export output
+   * @throws IOException if export block descriptor fails
+   */
+  public static InputStream exportHistoricalToStream(
+      String startTime,
+      String endTime,
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD,
+      boolean stringHistorical)
+      throws IOException {
+    final String ebdStr =
+        buildHistoricalEbdString(
+            startTime,
+            endTime,
+            includeTagGroupA,
+            includeTagGroupB,
+            includeTagGroupC,
+            includeTagGroupD,
+            stringHistorical);
+
+    // Perform EBD call, output is read from the exporter stream
+    return new Exporter(ebdStr);
+  }
+
+  /**
+   * Exports and parses the historical log for tags in specified tag groups between <code>startTime
+   * </code> and <code>endTime</code>. If streaming export is enabled, the export output is parsed
+   * directly from the exporter stream. Otherwise, or if the stream fails, the export is written to
+   * <code>checkpointFileName</code> and parsed from the file.
+   *
+   * @param startTime start time of export
+   * @param endTime end time of export
+   * @param checkpointFileName path of file used when the export is not streamed
+   * @param includeTagGroupA include tag group A
+   * @param includeTagGroupB include tag group B
+   * @param includeTagGroupC include tag group C
+   * @param includeTagGroupD include tag group D
+   * @param stringHistorical export string historical logs if true
+   * @return data points parsed
+   * @throws IOException if export block descriptor fails or unable to read file
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  static ArrayList exportAndParseHistorical(
+      String startTime,
+      String endTime,
+      String checkpointFileName,
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD,
+      boolean stringHistorical)
+      throws IOException, JSONException {
+    // Initialize tag metadata snapshot once per export, data points only check availability
+    TagMetadataSnapshot.init();
+
+    if (isStreamingExportEnabled()) {
+      try {
+        InputStream exportStream =
+            exportHistoricalToStream(
+                startTime,
+                endTime,
+                includeTagGroupA,
+                includeTagGroupB,
+                includeTagGroupC,
+                includeTagGroupD,
+                stringHistorical);
+        try {
+          return parseHistoricalStream(exportStream);
+        } finally {
+          exportStream.close();
+        }
+      } catch (IOException e) {
+        Logger.LOG_WARN(
+            "Unable to stream historical log export, exporting to file "
+                + checkpointFileName
+                + " instead.");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+
+    exportHistoricalToFile(
+        startTime,
+        endTime,
+        checkpointFileName,
+        includeTagGroupA,
+        includeTagGroupB,
+        includeTagGroupC,
+        includeTagGroupD,
+        stringHistorical);
+    return parseHistoricalFile(checkpointFileName);
+  }
+
+  /**
+   * Build the export block descriptor string for a historical log export of the specified tag
+   * groups between <code>startTime</code> and <code>endTime</code>.
+   *
+   * @param startTime start time of export
+   * @param endTime end time of export
+   * @param includeTagGroupA include tag group A
+   * @param includeTagGroupB include tag group B
+   * @param includeTagGroupC include tag group C
+   * @param includeTagGroupD include tag group D
+   * @param stringHistorical export string historical logs if true
+   * @return export block descriptor string
+   */
+  private static String buildHistoricalEbdString(
+      String startTime,
+      String endTime,
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD,
+      boolean stringHistorical) {
     // Check for valid group selection
     if (!includeTagGroupA && !includeTagGroupB && !includeTagGroupC && !includeTagGroupD) {
       throw new IllegalArgumentException(
@@ -111,13 +296,139 @@ public class HistoricalDataManager {
      * endTime: end time for data
      * flABCD: filter type, specified tag groups
      */
-    final String ebdStr =
-        "$dt" + ebdDataType + "$ftT$st" + startTime + "$et" + endTime + "$fl" + tagGroupFilterStr;
+    return "$dt"
+        + ebdDataType
+        + "$ftT$st"
+        + startTime
+        + "$et"
+        + endTime
+        + "$fl"
+        + tagGroupFilterStr;
+  }
 
-    // Perform EBD call
-    Exporter exporter = new Exporter(ebdStr);
-    exporter.ExportTo(HistoricalDataConstants.FILE_URL_PREFIX + destinationFileName);
-    exporter.close();
+  /**
+   * Convert a <code>long</code> time value to format required for EDB calls.
+   *
+   * @param time <code>long</code> time value to format
+   * @return formatted time string for EBD calls
+   */
+  static String convertToEBDTimeFormat(long time) {
+    return new SimpleDateFormat(HistoricalDataConstants.EBD_TIME_FORMAT).format(new Date(time));
+  }
+
+  /**
+   * Sets the maximum number of data points stored in the local historical cache used by {@link
+   * #getHistoricalData(long, long, int[], boolean, boolean, boolean, boolean, boolean)} and filled
+   * by the historical data queue. Each cached data point uses approximately 30 bytes of heap.
+   * Setting a maximum of 0 disables the cache. Default is 0.
+   *
+   * @param maxCachedDataPoints maximum number of data points stored in the cache
+   */
+  public static void setHistoricalCacheMaxDataPoints(int maxCachedDataPoints) {
+    HistoricalDataCache.setMaxDataPoints(maxCachedDataPoints);
+  }
+
+  /**
+   * Get the historical log data for the specified tags in the specified tag groups between
+   * <code>startTimeMs</code> and <code>endTimeMs</code>. Data which is stored in the local
+   * historical cache is served from the cache, and the export block descriptor is only called for
+   * the sub ranges which are not cached. Exported data is added to the cache, except for the most
+   * recent {@link HistoricalDataConstants#HISTORICAL_CACHE_SETTLE_SECS} seconds which may not be
+   * completely logged yet.
+   *
+   * <p>The returned data points are grouped by cached span and are not sorted by time. This method
+   * may be called from several threads, exports are run one at a time.
+   *
+   * @param startTimeMs start time of query in milliseconds since epoch, inclusive
+   * @param endTimeMs end time of query in milliseconds since epoch, inclusive
+   * @param tagIds IDs of tags to include, or null to include all tags in the tag groups
+   * @param includeTagGroupA include tag group A
+   * @param includeTagGroupB include tag group B
+   * @param includeTagGroupC include tag group C
+   * @param includeTagGroupD include tag group D
+   * @param stringHistorical query string historical logs if true
+   * @return historical log data
+   * @throws IOException if export block descriptor fails or unable to read file
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  public static ArrayList getHistoricalData(
+      long startTimeMs,
+      long endTimeMs,
+      int[] tagIds,
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD,
+      boolean stringHistorical)
+      throws IOException, JSONException {
+    final long startTimeSecs = startTimeMs / HistoricalDataConstants.TIME_MS_PER_SEC;
+    final long endTimeSecs = endTimeMs / HistoricalDataConstants.TIME_MS_PER_SEC;
+    final int exportKey =
+        HistoricalDataCache.getExportKey(
+            includeTagGroupA,
+            includeTagGroupB,
+            includeTagGroupC,
+            includeTagGroupD,
+            stringHistorical);
+    final int[] queryBitmap = HistoricalDataSegment.createTagIdBitmap(tagIds);
+
+    // Get cached data and sub ranges which are not cached
+    ArrayList queryData = new ArrayList();
+    ArrayList missingRanges;
+    if (HistoricalDataCache.isEnabled()) {
+      HistoricalDataCache.getDataPoints(
+          startTimeSecs, endTimeSecs, exportKey, queryBitmap, queryData);
+      missingRanges = HistoricalDataCache.getMissingRanges(startTimeSecs, endTimeSecs, exportKey);
+    } else {
+      missingRanges = new ArrayList();
+      missingRanges.add(new long[] {startTimeSecs, endTimeSecs});
+    }
+
+    // Export each missing sub range, cache it and add its data to the query data
+    final String ebdFileName =
+        HistoricalDataConstants.QUEUE_FILE_FOLDER
+            + "/"
+            + HistoricalDataConstants.QUEUE_EBD_CACHE_FILE_NAME
+            + HistoricalDataConstants.QUEUE_FILE_EXTENSION;
+    final long timeOffsetMs = HistoricalDataQueueManager.getLocalTimeOffset();
+    final long settledTimeSecs =
+        System.currentTimeMillis() / HistoricalDataConstants.TIME_MS_PER_SEC
+            - HistoricalDataConstants.HISTORICAL_CACHE_SETTLE_SECS;
+    for (int i = 0; i < missingRanges.size(); i++) {
+      final long[] missingRange = (long[]) missingRanges.get(i);
+
+      // EBD calls do not work consistently unless there are 2 or more seconds between start and end
+      final long exportEndTimeSecs =
+          Math.max(missingRange[1], missingRange[0] + HistoricalDataConstants.MIN_EBD_SPAN_SECS);
+      ArrayList exportedData;
+      synchronized (CACHE_EXPORT_FILE_LOCK) {
+        exportedData =
+            exportAndParseHistorical(
+                convertToEBDTimeFormat(
+                    missingRange[0] * HistoricalDataConstants.TIME_MS_PER_SEC - timeOffsetMs),
+                convertToEBDTimeFormat(
+                    exportEndTimeSecs * HistoricalDataConstants.TIME_MS_PER_SEC - timeOffsetMs),
+                ebdFileName,
+                includeTagGroupA,
+                includeTagGroupB,
+                includeTagGroupC,
+                includeTagGroupD,
+                stringHistorical);
+      }
+      HistoricalDataCache.put(
+          exportedData, missingRange[0], Math.min(missingRange[1], settledTimeSecs), exportKey);
+
+      for (int j = 0; j < exportedData.size(); j++) {
+        DataPoint dataPoint = (DataPoint) exportedData.get(j);
+        final long dataPointTimeSecs = HistoricalDataSegment.getTimeSecs(dataPoint);
+        if (dataPointTimeSecs >= missingRange[0]
+            && dataPointTimeSecs <= missingRange[1]
+            && HistoricalDataSegment.isTagInBitmap(dataPoint.getTagId(), queryBitmap)) {
+          queryData.add(dataPoint);
+        }
+      }
+    }
+    return queryData;
   }
 
   /**
@@ -171,6 +482,56 @@ public class HistoricalDataManager {
     return dataPoints;
   }
 
+  /**
+   * Parse historical log EBD output read from the specified stream line by line and return an
+   * array list of data points parsed. Lines are decoded in a reusable buffer, so no intermediate
+   * file or line <code>String</code> objects are created. The first line of the stream is treated
+   * as a header and skipped.
+   *
+   * @param inputStream stream of historical log EBD output
+   * @return data points parsed
+   * @throws IOException if unable to read the stream
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  public static ArrayList parseHistoricalStream(InputStream inputStream)
+      throws IOException, JSONException {
+    final int sleepBetweenLinesMs = 5;
+    final EbdLineDecoder decoder = new EbdLineDecoder(inputStream);
+
+    // Loop through lines in stream until end and store data points
+    ArrayList dataPoints = new ArrayList();
+    while (decoder.nextLine()) {
+
+      // Only parse lines 1 and greater, skip header
+      if (decoder.getLineCount() > 1
+          && decoder.getNumFields() >= HistoricalDataConstants.EBD_LINE_LENGTH) {
+        // Parse line
+        DataPoint lineDataPoint =
+            createDataPoint(
+                decoder.getFieldAsInt(HistoricalDataConstants.EBD_LINE_TAG_ID_INDEX),
+                decoder.getFieldAsString(HistoricalDataConstants.EBD_LINE_TAG_TIMEINT_INDEX),
+                decoder.getFieldAsString(HistoricalDataConstants.EBD_LINE_TAG_VALUE_INDEX),
+                decoder.getFieldAsInt(HistoricalDataConstants.EBD_LINE_LENGTH - 1));
+
+        if (lineDataPoint != null) {
+          dataPoints.add(lineDataPoint);
+        }
+
+        /*
+         * Reading historical log EBD output can take a large amount of time.
+         * Sleeping the thread allows the Flexy time to perform other tasks
+         * and service its watchdog timers.
+         */
+        try {
+          Thread.sleep(sleepBetweenLinesMs);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    return dataPoints;
+  }
+
   /**
    * Convert the supplied string representation of a boolean to its corresponding boolean value.
    *
@@ -181,6 +542,31 @@ public class HistoricalDataManager {
     return strBool.equals("1");
   }
 
+  /**
+   * Get the tag information object for the specified tag ID from {@link TagInfoManager}, populating
+   * the tag information list if it has not been populated.
+   *
+   * @param tagId ID of tag
+   * @return tag information, or null if the tag does not exist
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  static TagInfo getTagInfo(int tagId) throws IOException, JSONException {
+    // Check if tag information list available, populate list if not
+    TagMetadataSnapshot.ensureTagInfoListPopulated();
+
+    // Get corresponding tag info object for tag
+    int tagInfoListIDOffset = TagInfoManager.getLowestTagIdSeen();
+    TagInfo tagInfo;
+    try {
+      tagInfo = (TagInfo) TagInfoManager.getTagInfoArray()[tagId - tagInfoListIDOffset];
+    } catch (ArrayIndexOutOfBoundsException e) {
+      e.printStackTrace();
+      tagInfo = null;
+    }
+    return tagInfo;
+  }
+
   /**
    * Parse the specified historical file line and return its corresponding data point.
    *
@@ -234,58 +620,90 @@ public class HistoricalDataManager {
         case (HistoricalDataConstants.EBD_LINE_LENGTH - 1):
           // Get tag quality
           tagQuality = Integer.parseInt(currentToken);
-          DataQuality dataQuality = DataQuality.fromRawDataQuality(tagQuality);
-
-          // Check if tag information list available, populate list if not
-          boolean tagInfoListAvailable = TagInfoManager.isTagInfoListPopulated();
-          if (!tagInfoListAvailable) {
-            TagInfoManager.refreshTagList();
-          }
-
-          // Get corresponding tag info object for tag
-          int tagInfoListIDOffset = TagInfoManager.getLowestTagIdSeen();
-          TagInfo tagInfo;
-          try {
-            tagInfo = (TagInfo) TagInfoManager.getTagInfoArray()[tagId - tagInfoListIDOffset];
-          } catch (ArrayIndexOutOfBoundsException e) {
-            e.printStackTrace();
-            break;
-          }
-
-          if (tagInfo != null) {
-            // Create data point for tag type
-            TagType tagType = tagInfo.getType();
-            String tagName = tagInfo.getName();
-            if (tagType == TagType.BOOLEAN) {
-              boolean boolValue = convertStrToBool(tagValue);
-              returnVal = new DataPointBoolean(tagName, tagId, boolValue, tagTimeInt, dataQuality);
-            } else if (tagType == TagType.FLOAT) {
-              float floatValue = Float.valueOf(tagValue).floatValue();
-              returnVal = new DataPointFloat(tagName, tagId, floatValue, tagTimeInt, dataQuality);
-            } else if (tagType == TagType.INTEGER) {
-              int intValue = Integer.valueOf(tagValue).intValue();
-              returnVal = new DataPointInteger(tagName, tagId, intValue, tagTimeInt, dataQuality);
-            } else if (tagType == TagType.INTEGER_MAPPED_STRING) {
-              int intValue = Integer.valueOf(tagValue).intValue();
-              TagInfoEnumeratedIntToString tagInfoEnumeratedIntToString =
-                  (TagInfoEnumeratedIntToString) tagInfo;
-              returnVal =
-                  new DataPointIntegerMappedString(
-                      tagName,
-                      tagId,
-                      intValue,
-                      tagTimeInt,
-                      dataQuality,
-                      tagInfoEnumeratedIntToString.getEnumeratedStringValueMapping());
-            } else if (tagType == TagType.DWORD) {
-              long dwordValue = Long.valueOf(tagValue).longValue();
-              returnVal = new DataPointDword(tagName, tagId, dwordValue, tagTimeInt, dataQuality);
-            } else if (tagType == TagType.STRING) {
-              returnVal = new DataPointString(tagName, tagId, tagValue, tagTimeInt, dataQuality);
-            }
-          }
+          returnVal = createDataPoint(tagId, tagTimeInt, tagValue, tagQuality);
+      }
+    }
+    return returnVal;
+  }
+
+  /**
+   * Create the data point for the specified tag and historical log values.
+   *
+   * @param tagId ID of tag
+   * @param tagTimeInt time of data point in seconds
+   * @param tagValue value of data point as logged
+   * @param tagQuality raw data quality of data point
+   * @return data point, or null if the tag does not exist
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  private static DataPoint createDataPoint(
+      int tagId, String tagTimeInt, String tagValue, int tagQuality)
+      throws IOException, JSONException {
+    DataPoint returnVal = null;
+    DataQuality dataQuality = DataQuality.fromRawDataQuality(tagQuality);
+
+    // Get tag name and type from tag metadata snapshot if available
+    TagType tagType = null;
+    String tagName = null;
+    if (TagMetadataSnapshot.isAvailable()) {
+      tagType = TagMetadataSnapshot.getTagType(tagId);
+      tagName = TagMetadataSnapshot.getTagName(tagId);
+    }
+
+    /*
+     * Get corresponding tag info object for tag if the snapshot is not available
+     * or the tag type requires information not stored in the snapshot.
+     */
+    TagInfo tagInfo = null;
+    if (tagType == null || tagType == TagType.INTEGER_MAPPED_STRING) {
+      tagInfo = getTagInfo(tagId);
+      if (tagInfo == null) {
+        return null;
+      }
+      tagType = tagInfo.getType();
+      tagName = tagInfo.getName();
+    }
+
+    if (tagType != null) {
+      // Share tag name instances between data points
+      tagName = TagDataInternPool.internTagName(tagId, tagName);
+
+      // Create data point for tag type
+      if (tagType == TagType.BOOLEAN) {
+        boolean boolValue = convertStrToBool(tagValue);
+        returnVal = new DataPointBoolean(tagName, tagId, boolValue, tagTimeInt, dataQuality);
+      } else if (tagType == TagType.FLOAT) {
+        float floatValue = Float.valueOf(tagValue).floatValue();
+        returnVal = new DataPointFloat(tagName, tagId, floatValue, tagTimeInt, dataQuality);
+      } else if (tagType == TagType.INTEGER) {
+        int intValue = Integer.valueOf(tagValue).intValue();
+        returnVal = new DataPointInteger(tagName, tagId, intValue, tagTimeInt, dataQuality);
+      } else if (tagType == TagType.INTEGER_MAPPED_STRING) {
+        int intValue = Integer.valueOf(tagValue).intValue();
+        TagInfoEnumeratedIntToString tagInfoEnumeratedIntToString =
+            (TagInfoEnumeratedIntToString) tagInfo;
+        returnVal =
+            new DataPointIntegerMappedString(
+                tagName,
+                tagId,
+                intValue,
+                tagTimeInt,
+                dataQuality,
+                tagInfoEnumeratedIntToString.getEnumeratedStringValueMapping());
+      } else if (tagType == TagType.DWORD) {
+        long dwordValue = Long.valueOf(tagValue).longValue();
+        returnVal = new DataPointDword(tagName, tagId, dwordValue, tagTimeInt, dataQuality);
+      } else if (tagType == TagType.STRING) {
+        String stringValue = TagDataInternPool.internStringValue(tagValue);
+        returnVal =
+            new DataPointString(tagName, tagId, stringValue, tagTimeInt, dataQuality);
       }
     }
+
+    // Keep last value cache and tag statistics up to date with the newest logged values
+    LastValueCache.update(returnVal);
+    TagStatistics.update(returnVal);
     return returnVal;
   }
 }
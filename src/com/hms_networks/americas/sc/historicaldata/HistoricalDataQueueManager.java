@@ -3,11 +3,13 @@ package com.hms_networks.americas.sc.historicaldata;
 import com.hms_networks.americas.sc.fileutils.FileAccessManager;
 
 import com.hms_networks.americas.sc.json.JSONException;
+import com.hms_networks.americas.sc.logging.Logger;
+import com.hms_networks.americas.sc.tagdata.HeapPressureGovernor;
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Date;
 
 /**
  * Class to manage queueing historical tag data and retrieving it in chunks based on a configurable
@@ -36,6 +38,24 @@ public class HistoricalDataQueueManager {
   /** Boolean flag indicating if time has been initialized. */
   private static boolean hasInitTime = false;
 
+  /** File path of the time tracker file to write when the current FIFO span is finished. */
+  private static String fifoSpanWriteFile;
+
+  /** Counter used to generate FIFO span lease IDs. */
+  private static long fifoSpanLeaseCounter = 0;
+
+  /** ID of the outstanding FIFO span lease, valid if {@link #leasedFifoSpan} is not null. */
+  private static long leasedFifoSpanId;
+
+  /** Start and end time of the outstanding FIFO span lease, or null if there is no lease. */
+  private static long[] leasedFifoSpan = null;
+
+  /** File path of the time tracker file to write when the outstanding lease is acknowledged. */
+  private static String leasedFifoSpanWriteFile;
+
+  /** Retry buffer holding the data of the outstanding FIFO span lease in compact form. */
+  private static HistoricalDataSegment leasedFifoSpanData;
+
   /** File path for time marker file 1. */
   private static final String timeMarkerFile1Name =
       HistoricalDataConstants.QUEUE_FILE_FOLDER
@@ -51,14 +71,22 @@ public class HistoricalDataQueueManager {
           + HistoricalDataConstants.QUEUE_FILE_EXTENSION;
 
   /**
-   * Get the current configured FIFO queue time span in milliseconds.
+   * Get the current FIFO queue time span in milliseconds. The configured time span is shrunk while
+   * the {@link HeapPressureGovernor} reports heap pressure, but not below {@link
+   * HistoricalDataConstants#MIN_PRESSURE_FIFO_TIME_SPAN_MS}.
    *
    * @return FIFO queue time span in ms
    */
   private static synchronized long getQueueFifoTimeSpanMillis() {
-    return queueFifoTimeSpanMins
-        * HistoricalDataConstants.TIME_SECS_PER_MIN
-        * HistoricalDataConstants.TIME_MS_PER_SEC;
+    final long configuredSpanMillis =
+        queueFifoTimeSpanMins
+            * HistoricalDataConstants.TIME_SECS_PER_MIN
+            * HistoricalDataConstants.TIME_MS_PER_SEC;
+    final long pressureSpanMillis =
+        configuredSpanMillis / HeapPressureGovernor.getHistoricalSpanDivisor();
+    return Math.max(
+        pressureSpanMillis,
+        Math.min(configuredSpanMillis, HistoricalDataConstants.MIN_PRESSURE_FIFO_TIME_SPAN_MS));
   }
 
   /**
@@ -80,22 +108,21 @@ public class HistoricalDataQueueManager {
   }
 
   /**
-   * Convert a <code>long</code> time value to format required for EDB calls.
+   * Configures the local time offset of the historical data queue.
    *
-   * @param time <code>long</code> time value to format
-   * @return formatted time string for EBD calls
+   * @param timeOffsetMilliseconds local time offset in milliseconds
    */
-  private static String convertToEBDTimeFormat(long time) {
-    return new SimpleDateFormat(HistoricalDataConstants.EBD_TIME_FORMAT).format(new Date(time));
+  public static void setLocalTimeOffset(long timeOffsetMilliseconds) {
+    HistoricalDataQueueManager.timeOffsetMilliseconds = timeOffsetMilliseconds;
   }
 
   /**
-   * Configures the local time offset of the historical data queue.
+   * Gets the configured local time offset of the historical data queue.
    *
-   * @param timeOffsetMilliseconds local time offset in milliseconds
+   * @return local time offset in milliseconds
    */
-  public static void setLocalTimeOffset(long timeOffsetMilliseconds) {
-    HistoricalDataQueueManager.timeOffsetMilliseconds = timeOffsetMilliseconds;
+  public static long getLocalTimeOffset() {
+    return timeOffsetMilliseconds;
   }
 
   /**
@@ -300,6 +327,377 @@ public class HistoricalDataQueueManager {
       throws IOException, TimeTrackerUnrecoverableException, CorruptedTimeTrackerException,
           JSONException {
 
+    discardFifoSpanLease();
+    ArrayList queueData = new ArrayList();
+    long[] span = beginFifoSpan(startNewTimeTracker);
+    if (span != null) {
+      final boolean addToCache = true;
+      queueData =
+          exportFifoSpanData(
+              span,
+              includeTagGroupA,
+              includeTagGroupB,
+              includeTagGroupC,
+              includeTagGroupD,
+              addToCache);
+    }
+    endFifoSpan(span);
+
+    // Return data
+    return queueData;
+  }
+
+  /**
+   * Lease the historical log data for the specified tag groups within the next FIFO queue time
+   * span. Unlike {@link #getFifoNextSpanData(boolean, boolean, boolean, boolean, boolean)}, the
+   * time tracker is not advanced until the lease is acknowledged with {@link #ackFifoSpan(long)}.
+   *
+   * <p>Until it is acknowledged, the data of the leased span is kept only in a compact retry
+   * buffer, and the returned data is created from it. Leased spans are not added to the historical
+   * cache. Leasing again while a lease is outstanding returns the same span from the retry buffer
+   * without calling the export block descriptor again, and must specify the same tag groups as the
+   * original lease. A new time tracker or a call to {@link #getFifoNextSpanData(boolean, boolean,
+   * boolean, boolean, boolean)} discards the outstanding lease.
+   *
+   * @param startNewTimeTracker if new time tracker should be generated, not read from storage
+   * @param includeTagGroupA if tag group A data should be included
+   * @param includeTagGroupB if tag group B data should be included
+   * @param includeTagGroupC if tag group C data should be included
+   * @param includeTagGroupD if tag group D data should be included
+   * @return leased span, or null if not enough time has passed for a new span
+   * @throws IOException if unable to read or write files
+   * @throws TimeTrackerUnrecoverableException if both time tracking files are corrupted
+   * @throws CorruptedTimeTrackerException one of the tracking files is corrupted
+   * @throws JSONException if unable to parse int to string enumeration file
+   * @throws IllegalStateException if a lease is outstanding for different tag groups
+   */
+  public static synchronized HistoricalDataSpan leaseFifoNextSpanData(
+      boolean startNewTimeTracker,
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD)
+      throws IOException, TimeTrackerUnrecoverableException, CorruptedTimeTrackerException,
+          JSONException {
+    if (startNewTimeTracker) {
+      discardFifoSpanLease();
+    }
+
+    final int exportKey =
+        HistoricalDataCache.getExportKey(
+            includeTagGroupA,
+            includeTagGroupB,
+            includeTagGroupC,
+            includeTagGroupD,
+            stringHistoryEnabled);
+
+    // Retry outstanding lease from retry buffer
+    if (leasedFifoSpan != null) {
+      if (leasedFifoSpanData.exportKey != exportKey) {
+        throw new IllegalStateException(
+            "Historical data span lease "
+                + leasedFifoSpanId
+                + " is outstanding for different tag groups.");
+      }
+      return createLeasedFifoSpan();
+    }
+
+    // The current time tracker file is kept until the lease is acknowledged
+    long[] span = beginFifoSpan(startNewTimeTracker);
+    if (span == null) {
+      // A new time tracker was written to the file which is not current, make it current
+      if (startNewTimeTracker) {
+        endFifoSpan(null);
+      }
+      return null;
+    }
+
+    // Keep only the compact form of the span data, the returned data is created from it
+    final boolean addToCache = false;
+    ArrayList spanData =
+        exportFifoSpanData(
+            span,
+            includeTagGroupA,
+            includeTagGroupB,
+            includeTagGroupC,
+            includeTagGroupD,
+            addToCache);
+    leasedFifoSpanId = ++fifoSpanLeaseCounter;
+    leasedFifoSpan = span;
+    leasedFifoSpanWriteFile = fifoSpanWriteFile;
+    leasedFifoSpanData = new HistoricalDataSegment(spanData, 0, Integer.MAX_VALUE, exportKey);
+    return createLeasedFifoSpan();
+  }
+
+  /**
+   * Create the span returned for the outstanding FIFO span lease from the retry buffer.
+   *
+   * @return leased span
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  private static HistoricalDataSpan createLeasedFifoSpan() throws IOException, JSONException {
+    ArrayList spanData = new ArrayList();
+    final int[] allTags = null;
+    leasedFifoSpanData.getDataPoints(
+        leasedFifoSpanData.startTimeSecs, leasedFifoSpanData.endTimeSecs, allTags, spanData);
+    return new HistoricalDataSpan(leasedFifoSpanId, leasedFifoSpan[0], leasedFifoSpan[1], spanData);
+  }
+
+  /**
+   * Acknowledge a leased FIFO queue time span after its data has been consumed. The time tracker
+   * is advanced past the span and the retry buffer is released.
+   *
+   * @param leaseId ID of the lease from {@link HistoricalDataSpan#getLeaseId()}
+   * @return true if the lease was acknowledged, false if it is not the outstanding lease
+   * @throws IOException if unable to write files
+   */
+  public static synchronized boolean ackFifoSpan(long leaseId) throws IOException {
+    if (leasedFifoSpan == null || leaseId != leasedFifoSpanId) {
+      return false;
+    }
+    fifoSpanWriteFile = leasedFifoSpanWriteFile;
+    endFifoSpan(leasedFifoSpan);
+    leasedFifoSpan = null;
+    leasedFifoSpanData = null;
+    return true;
+  }
+
+  /**
+   * Gets a boolean representing if a leased FIFO queue time span has not been acknowledged.
+   *
+   * @return true if there is an outstanding lease
+   */
+  public static synchronized boolean hasOutstandingFifoSpanLease() {
+    return leasedFifoSpan != null;
+  }
+
+  /**
+   * Discard the outstanding FIFO span lease, if any, without advancing the time tracker. The next
+   * fetch starts again from the start of the discarded span.
+   */
+  private static void discardFifoSpanLease() {
+    if (leasedFifoSpan != null) {
+      Logger.LOG_WARN(
+          "Discarding unacknowledged historical data span lease " + leasedFifoSpanId + ".");
+      leasedFifoSpan = null;
+      leasedFifoSpanData = null;
+    }
+  }
+
+  /**
+   * Export and parse the historical log data for the specified tag groups within the specified
+   * FIFO queue time span, and optionally add it to the historical cache.
+   *
+   * @param span span start and end time from {@link #beginFifoSpan(boolean)}
+   * @param includeTagGroupA if tag group A data should be included
+   * @param includeTagGroupB if tag group B data should be included
+   * @param includeTagGroupC if tag group C data should be included
+   * @param includeTagGroupD if tag group D data should be included
+   * @param addToCache if the data should be added to the historical cache
+   * @return historical log data
+   * @throws IOException if unable to read or write files
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  private static ArrayList exportFifoSpanData(
+      long[] span,
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD,
+      boolean addToCache)
+      throws IOException, JSONException {
+    final long startTimeTrackerMsLong = span[0];
+    final long endTimeTrackerMsLong = span[1];
+
+    // Calculate EBD start and end time
+    final String ebdStartTime =
+        HistoricalDataManager.convertToEBDTimeFormat(startTimeTrackerMsLong);
+    final String ebdEndTime = HistoricalDataManager.convertToEBDTimeFormat(endTimeTrackerMsLong);
+
+    // Run standard EBD export call (int, float, ...)
+    final String ebdFileName = getEbdFileName(false);
+    boolean stringHistorical = false;
+    ArrayList queueData =
+        HistoricalDataManager.exportAndParseHistorical(
+            ebdStartTime,
+            ebdEndTime,
+            ebdFileName,
+            includeTagGroupA,
+            includeTagGroupB,
+            includeTagGroupC,
+            includeTagGroupD,
+            stringHistorical);
+
+    /*
+     * Add the span to the historical cache so repeated queries of it are served locally.
+     * The covered range is rounded inward to whole seconds so adjacent spans do not overlap,
+     * and ends before the most recent seconds which may not be completely logged yet.
+     */
+    final long msPerSec = HistoricalDataConstants.TIME_MS_PER_SEC;
+    final long cacheStartTimeSecs =
+        (startTimeTrackerMsLong + timeOffsetMilliseconds + msPerSec - 1) / msPerSec;
+    final long settledTimeSecs =
+        System.currentTimeMillis() / msPerSec
+            - HistoricalDataConstants.HISTORICAL_CACHE_SETTLE_SECS;
+    final long cacheEndTimeSecs =
+        Math.min((endTimeTrackerMsLong + timeOffsetMilliseconds) / msPerSec, settledTimeSecs);
+    if (addToCache) {
+      HistoricalDataCache.put(
+          queueData,
+          cacheStartTimeSecs,
+          cacheEndTimeSecs,
+          HistoricalDataCache.getExportKey(
+              includeTagGroupA,
+              includeTagGroupB,
+              includeTagGroupC,
+              includeTagGroupD,
+              stringHistorical));
+    }
+
+    // Run string EBD export call if enabled
+    if (stringHistoryEnabled) {
+      final String ebdStringFileName = getEbdFileName(true);
+      stringHistorical = true;
+
+      // Combine string EBD export call results with standard EBD call results
+      ArrayList queueStringData =
+          HistoricalDataManager.exportAndParseHistorical(
+              ebdStartTime,
+              ebdEndTime,
+              ebdStringFileName,
+              includeTagGroupA,
+              includeTagGroupB,
+              includeTagGroupC,
+              includeTagGroupD,
+              stringHistorical);
+      if (addToCache) {
+        HistoricalDataCache.put(
+            queueStringData,
+            cacheStartTimeSecs,
+            cacheEndTimeSecs,
+            HistoricalDataCache.getExportKey(
+                includeTagGroupA,
+                includeTagGroupB,
+                includeTagGroupC,
+                includeTagGroupD,
+                stringHistorical));
+      }
+      queueData.addAll(queueStringData);
+    }
+    return queueData;
+  }
+
+  /**
+   * Transcode the historical log data for the specified tag groups within the next FIFO queue time
+   * span directly to the specified output stream, without creating data point objects. The time
+   * tracker is advanced in the same way as {@link #getFifoNextSpanData(boolean, boolean, boolean,
+   * boolean, boolean)}. Memory use is constant regardless of the amount of data in the span.
+   *
+   * @param startNewTimeTracker if new time tracker should be generated, not read from storage
+   * @param includeTagGroupA if tag group A data should be included
+   * @param includeTagGroupB if tag group B data should be included
+   * @param includeTagGroupC if tag group C data should be included
+   * @param includeTagGroupD if tag group D data should be included
+   * @param outputStream stream to write the transcoded payload to
+   * @param format payload format, {@link HistoricalDataTranscoder#FORMAT_JSON_LINES} or {@link
+   *     HistoricalDataTranscoder#FORMAT_BINARY}
+   * @return number of data points written
+   * @throws IOException if unable to read or write files or write to the output stream
+   * @throws TimeTrackerUnrecoverableException if both time tracking files are corrupted
+   * @throws CorruptedTimeTrackerException one of the tracking files is corrupted
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  public static synchronized long transcodeFifoNextSpanData(
+      boolean startNewTimeTracker,
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD,
+      OutputStream outputStream,
+      int format)
+      throws IOException, TimeTrackerUnrecoverableException, CorruptedTimeTrackerException,
+          JSONException {
+    discardFifoSpanLease();
+    long numDataPoints = 0;
+    long[] span = beginFifoSpan(startNewTimeTracker);
+    if (span != null) {
+      // Calculate EBD start and end time
+      final String ebdStartTime = HistoricalDataManager.convertToEBDTimeFormat(span[0]);
+      final String ebdEndTime = HistoricalDataManager.convertToEBDTimeFormat(span[1]);
+
+      // Run standard EBD export call, then string EBD export call if enabled
+      HistoricalDataTranscoder transcoder = new HistoricalDataTranscoder(outputStream, format);
+      boolean stringHistorical = false;
+      do {
+        if (HistoricalDataManager.isStreamingExportEnabled()) {
+          /*
+           * Transcoded output cannot be taken back if the stream fails, so there is no file
+           * fallback. The time tracker is not advanced on failure and the span is retried.
+           */
+          InputStream exportStream =
+              HistoricalDataManager.exportHistoricalToStream(
+                  ebdStartTime,
+                  ebdEndTime,
+                  includeTagGroupA,
+                  includeTagGroupB,
+                  includeTagGroupC,
+                  includeTagGroupD,
+                  stringHistorical);
+          try {
+            numDataPoints += transcoder.transcode(exportStream);
+          } finally {
+            exportStream.close();
+          }
+        } else {
+          final String ebdFileName = getEbdFileName(stringHistorical);
+          HistoricalDataManager.exportHistoricalToFile(
+              ebdStartTime,
+              ebdEndTime,
+              ebdFileName,
+              includeTagGroupA,
+              includeTagGroupB,
+              includeTagGroupC,
+              includeTagGroupD,
+              stringHistorical);
+          numDataPoints += transcoder.transcodeHistoricalFile(ebdFileName);
+        }
+        stringHistorical = !stringHistorical;
+      } while (stringHistorical && stringHistoryEnabled);
+      transcoder.flush();
+    }
+    endFifoSpan(span);
+    return numDataPoints;
+  }
+
+  /**
+   * Get the path of the file used for standard or string EBD export calls of the FIFO queue.
+   *
+   * @param stringHistorical true for the string EBD export call file
+   * @return EBD export call file path
+   */
+  private static String getEbdFileName(boolean stringHistorical) {
+    return HistoricalDataConstants.QUEUE_FILE_FOLDER
+        + "/"
+        + (stringHistorical
+            ? HistoricalDataConstants.QUEUE_EBD_STRING_FILE_NAME
+            : HistoricalDataConstants.QUEUE_EBD_FILE_NAME)
+        + HistoricalDataConstants.QUEUE_FILE_EXTENSION;
+  }
+
+  /**
+   * Begin fetching the next FIFO queue time span. The start time is read from the current time
+   * tracker file, and the end time is calculated from the start time and time span. The span must
+   * be finished with {@link #endFifoSpan(long[])}.
+   *
+   * @param startNewTimeTracker if new time tracker should be generated, not read from storage
+   * @return span start and end time in milliseconds, or null if not enough time has passed
+   * @throws IOException if unable to read or write files
+   * @throws TimeTrackerUnrecoverableException if both time tracking files are corrupted
+   * @throws CorruptedTimeTrackerException one of the tracking files is corrupted
+   */
+  private static long[] beginFifoSpan(boolean startNewTimeTracker)
+      throws IOException, TimeTrackerUnrecoverableException, CorruptedTimeTrackerException {
     if (!hasInitTime) {
       initTimeTrackerFiles();
     }
@@ -328,66 +726,29 @@ public class HistoricalDataQueueManager {
     long startTimeTrackerMsPlusSpan = startTimeTrackerMsLong + getQueueFifoTimeSpanMillis();
     long endTimeTrackerMsLong = Math.min(startTimeTrackerMsPlusSpan, getCurrentTimeWithOffset());
 
-    ArrayList queueData = new ArrayList();
-
     // Ensure start time is not equal to end time, and enough time has passed to grab new data
     if (enoughSeconds(startTimeTrackerMsLong, endTimeTrackerMsLong)) {
-      // Calculate EBD start and end time
-      final String ebdStartTime = convertToEBDTimeFormat(startTimeTrackerMsLong);
-      final String ebdEndTime = convertToEBDTimeFormat(endTimeTrackerMsLong);
-
-      // Run standard EBD export call (int, float, ...)
-      final String ebdFileName =
-          HistoricalDataConstants.QUEUE_FILE_FOLDER
-              + "/"
-              + HistoricalDataConstants.QUEUE_EBD_FILE_NAME
-              + HistoricalDataConstants.QUEUE_FILE_EXTENSION;
-      boolean stringHistorical = false;
-      HistoricalDataManager.exportHistoricalToFile(
-          ebdStartTime,
-          ebdEndTime,
-          ebdFileName,
-          includeTagGroupA,
-          includeTagGroupB,
-          includeTagGroupC,
-          includeTagGroupD,
-          stringHistorical);
-
-      // Parse standard EBD export call
-      queueData = HistoricalDataManager.parseHistoricalFile(ebdFileName);
-
-      // Run string EBD export call if enabled
-      if (stringHistoryEnabled) {
-        final String ebdStringFileName =
-            HistoricalDataConstants.QUEUE_FILE_FOLDER
-                + "/"
-                + HistoricalDataConstants.QUEUE_EBD_STRING_FILE_NAME
-                + HistoricalDataConstants.QUEUE_FILE_EXTENSION;
-        stringHistorical = true;
-        HistoricalDataManager.exportHistoricalToFile(
-            ebdStartTime,
-            ebdEndTime,
-            ebdStringFileName,
-            includeTagGroupA,
-            includeTagGroupB,
-            includeTagGroupC,
-            includeTagGroupD,
-            stringHistorical);
-
-        // Parse string EBD export call and combine with standard EBD call results
-        ArrayList queueStringData = HistoricalDataManager.parseHistoricalFile(ebdStringFileName);
-        queueData.addAll(queueStringData);
-      }
+      fifoSpanWriteFile = writeFile;
+      return new long[] {startTimeTrackerMsLong, endTimeTrackerMsLong};
+    }
+    return null;
+  }
 
+  /**
+   * Finish fetching a FIFO queue time span. If a span was fetched, its end time is stored in the
+   * time tracker file which is not current, then the current time tracker file is swapped.
+   *
+   * @param span span start and end time from {@link #beginFifoSpan(boolean)}, or null
+   * @throws IOException if unable to write files
+   */
+  private static void endFifoSpan(long[] span) throws IOException {
+    if (span != null) {
       // Store end time +1 ms (to prevent duplicate data)
-      final String newTimeTrackerVal = Long.toString(endTimeTrackerMsLong + 1);
-      FileAccessManager.writeStringToFile(writeFile, newTimeTrackerVal);
+      final String newTimeTrackerVal = Long.toString(span[1] + 1);
+      FileAccessManager.writeStringToFile(fifoSpanWriteFile, newTimeTrackerVal);
     }
 
     isFile1CurrTimeTrackerFile = !isFile1CurrTimeTrackerFile;
-
-    // Return data
-    return queueData;
   }
 
   /**
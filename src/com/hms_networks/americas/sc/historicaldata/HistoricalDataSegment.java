@@ -0,0 +1,388 @@
+package com.hms_networks.americas.sc.historicaldata;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.datapoint.DataPointBoolean;
+import com.hms_networks.americas.sc.datapoint.DataPointDword;
+import com.hms_networks.americas.sc.datapoint.DataPointFloat;
+import com.hms_networks.americas.sc.datapoint.DataPointInteger;
+import com.hms_networks.americas.sc.datapoint.DataPointIntegerMappedString;
+import com.hms_networks.americas.sc.datapoint.DataPointString;
+import com.hms_networks.americas.sc.datapoint.DataQuality;
+import com.hms_networks.americas.sc.json.JSONException;
+import com.hms_networks.americas.sc.taginfo.TagInfo;
+import com.hms_networks.americas.sc.taginfo.TagInfoEnumeratedIntToString;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Class to store a span of historical data points in compact columnar form. Each data point is
+ * stored as one entry in each of the primitive column arrays, and a bitmap of the tag IDs present
+ * in the segment allows tag filtered queries to skip segments without scanning them.
+ *
+ * <p>Segments are immutable once created.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class HistoricalDataSegment {
+
+  /** Data point kind for {@link DataPointBoolean} entries. */
+  private static final byte KIND_BOOLEAN = 0;
+
+  /** Data point kind for {@link DataPointFloat} entries. */
+  private static final byte KIND_FLOAT = 1;
+
+  /** Data point kind for {@link DataPointInteger} entries. */
+  private static final byte KIND_INTEGER = 2;
+
+  /** Data point kind for {@link DataPointIntegerMappedString} entries. */
+  private static final byte KIND_INTEGER_MAPPED_STRING = 3;
+
+  /** Data point kind for {@link DataPointDword} entries. */
+  private static final byte KIND_DWORD = 4;
+
+  /** Data point kind for {@link DataPointString} entries. */
+  private static final byte KIND_STRING = 5;
+
+  /** Number of bits in each word of the tag ID bitmap. */
+  private static final int BITMAP_WORD_BITS = 32;
+
+  /** Shift used to convert a tag ID to its tag ID bitmap word index. */
+  private static final int BITMAP_WORD_SHIFT = 5;
+
+  /** Start of the time range covered by the segment in seconds, inclusive. */
+  final long startTimeSecs;
+
+  /** End of the time range covered by the segment in seconds, inclusive. */
+  final long endTimeSecs;
+
+  /** Tag group and string historical key of the export the segment was created from. */
+  final int exportKey;
+
+  /** Tag ID column. */
+  private final int[] tagIds;
+
+  /** Time column in seconds. */
+  private final int[] timeSecs;
+
+  /** Raw data quality column. */
+  private final byte[] qualities;
+
+  /** Data point kind column. */
+  private final byte[] kinds;
+
+  /** Numeric value column. Boolean values are stored as 0 or 1. */
+  private final double[] values;
+
+  /** Tag name column. Entries reference the tag name instances of the original data points. */
+  private final String[] tagNames;
+
+  /** String value column, or null if the segment does not contain string data points. */
+  private final String[] stringValues;
+
+  /** Bitmap of tag IDs present in the segment. */
+  private final int[] tagIdBitmap;
+
+  /** Value of the cache access counter when the segment was last used. */
+  long lastAccess;
+
+  /**
+   * Constructor for a segment containing the data points of the specified list which are within
+   * the specified time range.
+   *
+   * @param dataPoints data points to store
+   * @param startTimeSecs start of the time range covered by the segment in seconds, inclusive
+   * @param endTimeSecs end of the time range covered by the segment in seconds, inclusive
+   * @param exportKey tag group and string historical key of the export
+   */
+  HistoricalDataSegment(
+      ArrayList dataPoints, long startTimeSecs, long endTimeSecs, int exportKey) {
+    this.startTimeSecs = startTimeSecs;
+    this.endTimeSecs = endTimeSecs;
+    this.exportKey = exportKey;
+
+    // Count data points in range and find highest tag ID for bitmap
+    int numDataPoints = 0;
+    int highestTagId = 0;
+    boolean hasStrings = false;
+    for (int i = 0; i < dataPoints.size(); i++) {
+      DataPoint dataPoint = (DataPoint) dataPoints.get(i);
+      if (isInRange(getTimeSecs(dataPoint))) {
+        numDataPoints++;
+        highestTagId = Math.max(highestTagId, dataPoint.getTagId());
+        hasStrings |= dataPoint instanceof DataPointString;
+      }
+    }
+
+    tagIds = new int[numDataPoints];
+    timeSecs = new int[numDataPoints];
+    qualities = new byte[numDataPoints];
+    kinds = new byte[numDataPoints];
+    values = new double[numDataPoints];
+    tagNames = new String[numDataPoints];
+    stringValues = hasStrings ? new String[numDataPoints] : null;
+    tagIdBitmap = new int[(highestTagId >> BITMAP_WORD_SHIFT) + 1];
+
+    // Fill columns
+    int index = 0;
+    for (int i = 0; i < dataPoints.size(); i++) {
+      DataPoint dataPoint = (DataPoint) dataPoints.get(i);
+      final long dataPointTimeSecs = getTimeSecs(dataPoint);
+      if (isInRange(dataPointTimeSecs)) {
+        tagIds[index] = dataPoint.getTagId();
+        timeSecs[index] = (int) dataPointTimeSecs;
+        qualities[index] = (byte) dataPoint.getQuality().getRawDataQuality();
+        tagNames[index] = dataPoint.getTagName();
+        storeValue(index, dataPoint);
+        tagIdBitmap[tagIds[index] >> BITMAP_WORD_SHIFT] |=
+            1 << (tagIds[index] % BITMAP_WORD_BITS);
+        index++;
+      }
+    }
+  }
+
+  /**
+   * Constructor for a segment containing the data points of the specified segment which are within
+   * the specified time range. This is used to trim a cached segment without creating its data
+   * points again.
+   *
+   * @param source segment to copy data points from
+   * @param startTimeSecs start of the time range covered by the segment in seconds, inclusive
+   * @param endTimeSecs end of the time range covered by the segment in seconds, inclusive
+   */
+  HistoricalDataSegment(HistoricalDataSegment source, long startTimeSecs, long endTimeSecs) {
+    this.startTimeSecs = startTimeSecs;
+    this.endTimeSecs = endTimeSecs;
+    this.exportKey = source.exportKey;
+    this.lastAccess = source.lastAccess;
+
+    // Count data points in range and find highest tag ID for bitmap
+    int numDataPoints = 0;
+    int highestTagId = 0;
+    boolean hasStrings = false;
+    for (int i = 0; i < source.size(); i++) {
+      if (isInRange(source.timeSecs[i])) {
+        numDataPoints++;
+        highestTagId = Math.max(highestTagId, source.tagIds[i]);
+        hasStrings |= source.kinds[i] == KIND_STRING;
+      }
+    }
+
+    tagIds = new int[numDataPoints];
+    timeSecs = new int[numDataPoints];
+    qualities = new byte[numDataPoints];
+    kinds = new byte[numDataPoints];
+    values = new double[numDataPoints];
+    tagNames = new String[numDataPoints];
+    stringValues = hasStrings ? new String[numDataPoints] : null;
+    tagIdBitmap = new int[(highestTagId >> BITMAP_WORD_SHIFT) + 1];
+
+    // Copy columns
+    int index = 0;
+    for (int i = 0; i < source.size(); i++) {
+      if (isInRange(source.timeSecs[i])) {
+        tagIds[index] = source.tagIds[i];
+        timeSecs[index] = source.timeSecs[i];
+        qualities[index] = source.qualities[i];
+        kinds[index] = source.kinds[i];
+        values[index] = source.values[i];
+        tagNames[index] = source.tagNames[i];
+        if (kinds[index] == KIND_STRING) {
+          stringValues[index] = source.stringValues[i];
+        }
+        tagIdBitmap[tagIds[index] >> BITMAP_WORD_SHIFT] |=
+            1 << (tagIds[index] % BITMAP_WORD_BITS);
+        index++;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of data points in the segment.
+   *
+   * @return number of data points
+   */
+  int size() {
+    return tagIds.length;
+  }
+
+  /**
+   * Gets a boolean representing if the segment contains any of the tag IDs in the specified bitmap.
+   *
+   * @param queryBitmap bitmap of tag IDs, or null to match all tags
+   * @return true if the segment contains data points for at least one of the tags
+   */
+  boolean containsAnyTag(int[] queryBitmap) {
+    if (queryBitmap == null) {
+      return true;
+    }
+    final int numWords = Math.min(queryBitmap.length, tagIdBitmap.length);
+    for (int i = 0; i < numWords; i++) {
+      if ((queryBitmap[i] & tagIdBitmap[i]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Create the data points in the segment which are within the specified time range and whose tag
+   * is in the specified bitmap, and add them to the specified list.
+   *
+   * @param startTimeSecs start of time range in seconds, inclusive
+   * @param endTimeSecs end of time range in seconds, inclusive
+   * @param queryBitmap bitmap of tag IDs, or null to include all tags
+   * @param output list to add data points to
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  void getDataPoints(long startTimeSecs, long endTimeSecs, int[] queryBitmap, ArrayList output)
+      throws IOException, JSONException {
+    for (int i = 0; i < tagIds.length; i++) {
+      if (timeSecs[i] >= startTimeSecs
+          && timeSecs[i] <= endTimeSecs
+          && isTagInBitmap(tagIds[i], queryBitmap)) {
+        DataPoint dataPoint = createDataPoint(i);
+        if (dataPoint != null) {
+          output.add(dataPoint);
+        }
+      }
+    }
+  }
+
+  /**
+   * Create a bitmap of the specified tag IDs for use with {@link #containsAnyTag(int[])} and {@link
+   * #getDataPoints(long, long, int[], ArrayList)}.
+   *
+   * @param tagIds tag IDs to include in the bitmap, or null to match all tags
+   * @return tag ID bitmap, or null if all tags should be matched
+   */
+  static int[] createTagIdBitmap(int[] tagIds) {
+    if (tagIds == null) {
+      return null;
+    }
+    int highestTagId = 0;
+    for (int i = 0; i < tagIds.length; i++) {
+      highestTagId = Math.max(highestTagId, tagIds[i]);
+    }
+    int[] bitmap = new int[(highestTagId >> BITMAP_WORD_SHIFT) + 1];
+    for (int i = 0; i < tagIds.length; i++) {
+      bitmap[tagIds[i] >> BITMAP_WORD_SHIFT] |= 1 << (tagIds[i] % BITMAP_WORD_BITS);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Gets a boolean representing if the specified tag ID is in the specified bitmap.
+   *
+   * @param tagId ID of tag
+   * @param bitmap bitmap of tag IDs, or null to match all tags
+   * @return true if the tag is in the bitmap
+   */
+  static boolean isTagInBitmap(int tagId, int[] bitmap) {
+    if (bitmap == null) {
+      return true;
+    }
+    final int wordIndex = tagId >> BITMAP_WORD_SHIFT;
+    return wordIndex < bitmap.length
+        && (bitmap[wordIndex] & (1 << (tagId % BITMAP_WORD_BITS))) != 0;
+  }
+
+  /**
+   * Gets the time of the specified data point in seconds.
+   *
+   * @param dataPoint data point
+   * @return data point time in seconds
+   */
+  static long getTimeSecs(DataPoint dataPoint) {
+    return Long.parseLong(dataPoint.getTimeStamp());
+  }
+
+  /**
+   * Gets a boolean representing if the specified time is within the time range of the segment.
+   *
+   * @param timeSecsToCheck time in seconds
+   * @return true if the time is within the time range of the segment
+   */
+  private boolean isInRange(long timeSecsToCheck) {
+    return timeSecsToCheck >= startTimeSecs && timeSecsToCheck <= endTimeSecs;
+  }
+
+  /**
+   * Store the kind and value of the specified data point at the specified index of the columns.
+   *
+   * @param index index of column entries
+   * @param dataPoint data point
+   */
+  private void storeValue(int index, DataPoint dataPoint) {
+    if (dataPoint instanceof DataPointBoolean) {
+      kinds[index] = KIND_BOOLEAN;
+      values[index] = ((DataPointBoolean) dataPoint).getValue() ? 1 : 0;
+    } else if (dataPoint instanceof DataPointFloat) {
+      kinds[index] = KIND_FLOAT;
+      values[index] = ((DataPointFloat) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointIntegerMappedString) {
+      kinds[index] = KIND_INTEGER_MAPPED_STRING;
+      values[index] = ((DataPointIntegerMappedString) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointInteger) {
+      kinds[index] = KIND_INTEGER;
+      values[index] = ((DataPointInteger) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointDword) {
+      kinds[index] = KIND_DWORD;
+      values[index] = ((DataPointDword) dataPoint).getValue();
+    } else {
+      kinds[index] = KIND_STRING;
+      stringValues[index] = ((DataPointString) dataPoint).getValue();
+    }
+  }
+
+  /**
+   * Create the data point stored at the specified index of the columns.
+   *
+   * @param index index of column entries
+   * @return data point, or null if the tag information of an integer mapped string data point is
+   *     no longer available
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  private DataPoint createDataPoint(int index) throws IOException, JSONException {
+    final String tagName = tagNames[index];
+    final int tagId = tagIds[index];
+    final String time = Integer.toString(timeSecs[index]);
+    final DataQuality quality = DataQuality.fromRawDataQuality(qualities[index]);
+    final double value = values[index];
+
+    DataPoint dataPoint = null;
+    switch (kinds[index]) {
+      case KIND_BOOLEAN:
+        dataPoint = new DataPointBoolean(tagName, tagId, value != 0, time, quality);
+        break;
+      case KIND_FLOAT:
+        dataPoint = new DataPointFloat(tagName, tagId, (float) value, time, quality);
+        break;
+      case KIND_INTEGER:
+        dataPoint = new DataPointInteger(tagName, tagId, (int) value, time, quality);
+        break;
+      case KIND_INTEGER_MAPPED_STRING:
+        TagInfo tagInfo = HistoricalDataManager.getTagInfo(tagId);
+        if (tagInfo instanceof TagInfoEnumeratedIntToString) {
+          dataPoint =
+              new DataPointIntegerMappedString(
+                  tagName,
+                  tagId,
+                  (int) value,
+                  time,
+                  quality,
+                  ((TagInfoEnumeratedIntToString) tagInfo).getEnumeratedStringValueMapping());
+        }
+        break;
+      case KIND_DWORD:
+        dataPoint = new DataPointDword(tagName, tagId, (long) value, time, quality);
+        break;
+      default:
+        dataPoint = new DataPointString(tagName, tagId, stringValues[index], time, quality);
+        break;
+    }
+    return dataPoint;
+  }
+}
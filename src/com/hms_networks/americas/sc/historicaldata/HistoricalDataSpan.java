@@ -0,0 +1,77 @@
+package com.hms_networks.americas.sc.historicaldata;
+
+import java.util.ArrayList;
+
+/**
+ * Class to hold the historical log data of a leased FIFO queue time span. The time tracker is only
+ * advanced past the span when its lease is acknowledged with {@link
+ * HistoricalDataQueueManager#ackFifoSpan(long)}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class HistoricalDataSpan {
+
+  /** ID of the lease on the span. */
+  private final long leaseId;
+
+  /** Start time of the span in milliseconds, with the local time offset applied. */
+  private final long startTimeMillis;
+
+  /** End time of the span in milliseconds, with the local time offset applied. */
+  private final long endTimeMillis;
+
+  /** Historical log data of the span. */
+  private final ArrayList data;
+
+  /**
+   * Constructor for a span with the specified lease ID, time range and data.
+   *
+   * @param leaseId ID of the lease on the span
+   * @param startTimeMillis start time of the span in milliseconds
+   * @param endTimeMillis end time of the span in milliseconds
+   * @param data historical log data of the span
+   */
+  HistoricalDataSpan(long leaseId, long startTimeMillis, long endTimeMillis, ArrayList data) {
+    this.leaseId = leaseId;
+    this.startTimeMillis = startTimeMillis;
+    this.endTimeMillis = endTimeMillis;
+    this.data = data;
+  }
+
+  /**
+   * Gets the ID of the lease on the span, used to acknowledge the span.
+   *
+   * @return lease ID
+   */
+  public long getLeaseId() {
+    return leaseId;
+  }
+
+  /**
+   * Gets the start time of the span in milliseconds, with the local time offset applied.
+   *
+   * @return span start time in milliseconds
+   */
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  /**
+   * Gets the end time of the span in milliseconds, with the local time offset applied.
+   *
+   * @return span end time in milliseconds
+   */
+  public long getEndTimeMillis() {
+    return endTimeMillis;
+  }
+
+  /**
+   * Gets the historical log data of the span.
+   *
+   * @return historical log data
+   */
+  public ArrayList getData() {
+    return data;
+  }
+}
@@ -0,0 +1,373 @@
+package com.hms_networks.americas.sc.historicaldata;
+
+import com.hms_networks.americas.sc.json.JSONException;
+import com.hms_networks.americas.sc.tagdata.TagMetadataSnapshot;
+import com.hms_networks.americas.sc.taginfo.TagInfo;
+import com.hms_networks.americas.sc.taginfo.TagType;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Class to transcode historical log EBD exports directly to a compact upload payload written to an
+ * output stream. Lines are decoded with {@link EbdLineDecoder} and written to the output stream as
+ * they are read, so no data point objects are created and memory use is constant regardless of
+ * the size of the export.
+ *
+ * <p>Two payload formats are supported:
+ *
+ * <ul>
+ *   <li>{@link #FORMAT_JSON_LINES}: one JSON object per line, for example <code>
+ *       {"id":247,"t":1582557658,"q":3,"v":12.5}</code>. Boolean values are written as <code>true
+ *       </code> or <code>false</code>, string values as JSON strings. Bytes above 0x7F in string
+ *       values are treated as ISO-8859-1 and written as unicode escapes.
+ *   <li>{@link #FORMAT_BINARY}: a 4 byte magic <code>EBDB</code> and 1 byte version, followed by
+ *       one record per data point. Each record starts with a header byte holding the tag type code
+ *       in the low 4 bits and the raw data quality in the high 4 bits, followed by the tag ID as an
+ *       unsigned varint and the time in seconds as a zig-zag varint delta from the previous record.
+ *       The value is encoded per tag type: boolean as 1 byte, integer, integer mapped string and
+ *       DWORD as a zig-zag varint delta from the previous value of the same tag, float as 4 byte
+ *       big-endian IEEE 754, and string as an unsigned varint length followed by the raw bytes. Tag
+ *       type codes are 0 boolean, 1 float, 2 integer, 3 DWORD, 4 string and 5 integer mapped
+ *       string.
+ * </ul>
+ *
+ * <p>Data points for tags which do not exist are skipped, as in {@link
+ * HistoricalDataManager#parseHistoricalFile(String)}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class HistoricalDataTranscoder {
+
+  /** Payload format writing one JSON object per line. */
+  public static final int FORMAT_JSON_LINES = 0;
+
+  /** Payload format writing compact binary records. */
+  public static final int FORMAT_BINARY = 1;
+
+  /** Version of the binary payload format. */
+  private static final int BINARY_FORMAT_VERSION = 1;
+
+  /** Magic bytes at the start of the binary payload format. */
+  private static final byte[] BINARY_FORMAT_MAGIC = {'E', 'B', 'D', 'B'};
+
+  /** Tag types indexed by binary payload type code. */
+  private static final TagType[] TYPE_CODES = {
+    TagType.BOOLEAN,
+    TagType.FLOAT,
+    TagType.INTEGER,
+    TagType.DWORD,
+    TagType.STRING,
+    TagType.INTEGER_MAPPED_STRING
+  };
+
+  /** Size of the output stream buffer. */
+  private static final int OUTPUT_BUFFER_SIZE = 512;
+
+  /** Number of lines transcoded between sleeps. */
+  private static final int LINES_PER_SLEEP = 20;
+
+  /** Time to sleep after each {@link #LINES_PER_SLEEP} lines in milliseconds. */
+  private static final int SLEEP_MS = 5;
+
+  /** Hexadecimal digits used for JSON unicode escapes. */
+  private static final byte[] HEX_DIGITS = {
+    '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+  };
+
+  /** Buffered stream the payload is written to. */
+  private final OutputStream outputStream;
+
+  /** Payload format. */
+  private final int format;
+
+  /** Boolean flag indicating if the binary format header has been written. */
+  private boolean headerWritten = false;
+
+  /** Time of the previous binary record in seconds. */
+  private long previousTimeSecs = 0;
+
+  /** Previous integer value of each tag in the binary format, indexed by tag ID. */
+  private long[] previousTagValues = new long[0];
+
+  /**
+   * Constructor for a transcoder writing to the specified output stream.
+   *
+   * @param outputStream stream to write the payload to
+   * @param format payload format, {@link #FORMAT_JSON_LINES} or {@link #FORMAT_BINARY}
+   */
+  public HistoricalDataTranscoder(OutputStream outputStream, int format) {
+    if (format != FORMAT_JSON_LINES && format != FORMAT_BINARY) {
+      throw new IllegalArgumentException("Unknown historical data payload format " + format + ".");
+    }
+    this.outputStream = new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE);
+    this.format = format;
+  }
+
+  /**
+   * Transcode the specified historical file to the output stream.
+   *
+   * @param filename historical file to transcode
+   * @return number of data points written
+   * @throws IOException if unable to read the file or write to the output stream
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  public long transcodeHistoricalFile(String filename) throws IOException, JSONException {
+    InputStream inputStream = new FileInputStream(filename);
+    try {
+      return transcode(inputStream);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Transcode historical log EBD output read from the specified stream to the output stream. The
+   * first line of the stream is treated as a header and skipped.
+   *
+   * @param inputStream stream of historical log EBD output
+   * @return number of data points written
+   * @throws IOException if unable to read the input stream or write to the output stream
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  public long transcode(InputStream inputStream) throws IOException, JSONException {
+    if (format == FORMAT_BINARY && !headerWritten) {
+      outputStream.write(BINARY_FORMAT_MAGIC);
+      outputStream.write(BINARY_FORMAT_VERSION);
+      headerWritten = true;
+    }
+
+    // Initialize tag metadata snapshot once per stream, data points only check availability
+    TagMetadataSnapshot.init();
+
+    long numDataPoints = 0;
+    EbdLineDecoder decoder = new EbdLineDecoder(inputStream);
+    while (decoder.nextLine()) {
+      // Only transcode lines 1 and greater, skip header
+      if (decoder.getLineCount() > 1
+          && decoder.getNumFields() >= HistoricalDataConstants.EBD_LINE_LENGTH) {
+        final int tagId = decoder.getFieldAsInt(HistoricalDataConstants.EBD_LINE_TAG_ID_INDEX);
+        final int typeCode = getTypeCode(tagId);
+        if (typeCode >= 0) {
+          if (format == FORMAT_BINARY) {
+            writeBinaryRecord(decoder, tagId, typeCode);
+          } else {
+            writeJsonLine(decoder, typeCode);
+          }
+          numDataPoints++;
+        }
+      }
+
+      /*
+       * Reading historical log EBD file can take a large amount of time.
+       * Sleeping the thread allows the Flexy time to perform other tasks
+       * and service its watchdog timers.
+       */
+      if (decoder.getLineCount() % LINES_PER_SLEEP == 0) {
+        try {
+          Thread.sleep(SLEEP_MS);
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    return numDataPoints;
+  }
+
+  /**
+   * Flush buffered payload data to the output stream.
+   *
+   * @throws IOException if unable to write to the output stream
+   */
+  public void flush() throws IOException {
+    outputStream.flush();
+  }
+
+  /**
+   * Get the payload type code of the specified tag.
+   *
+   * @param tagId ID of tag
+   * @return type code, or -1 if the tag does not exist
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  private static int getTypeCode(int tagId) throws IOException, JSONException {
+    TagType tagType = null;
+    if (TagMetadataSnapshot.isAvailable()) {
+      tagType = TagMetadataSnapshot.getTagType(tagId);
+    }
+    if (tagType == null) {
+      TagInfo tagInfo = HistoricalDataManager.getTagInfo(tagId);
+      if (tagInfo != null) {
+        tagType = tagInfo.getType();
+      }
+    }
+    for (int i = 0; i < TYPE_CODES.length; i++) {
+      if (TYPE_CODES[i] == tagType) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Write the current line of the decoder as a binary record.
+   *
+   * @param decoder decoder positioned on the line to write
+   * @param tagId ID of tag
+   * @param typeCode payload type code of tag
+   * @throws IOException if unable to write to the output stream
+   */
+  private void writeBinaryRecord(EbdLineDecoder decoder, int tagId, int typeCode)
+      throws IOException {
+    final int qualityMask = 0x0F;
+    final int qualityShift = 4;
+    final int quality =
+        decoder.getFieldAsInt(HistoricalDataConstants.EBD_LINE_LENGTH - 1) & qualityMask;
+    outputStream.write(typeCode | (quality << qualityShift));
+    writeVarint(tagId);
+
+    final long timeSecs =
+        decoder.getFieldAsLong(HistoricalDataConstants.EBD_LINE_TAG_TIMEINT_INDEX);
+    writeVarint(zigZagEncode(timeSecs - previousTimeSecs));
+    previousTimeSecs = timeSecs;
+
+    final int valueField = HistoricalDataConstants.EBD_LINE_TAG_VALUE_INDEX;
+    final TagType tagType = TYPE_CODES[typeCode];
+    if (tagType == TagType.BOOLEAN) {
+      outputStream.write(decoder.getFieldAsLong(valueField) != 0 ? 1 : 0);
+    } else if (tagType == TagType.FLOAT) {
+      final int bits = Float.floatToIntBits((float) decoder.getFieldAsDouble(valueField));
+      final int bitsPerByte = 8;
+      for (int shift = 3 * bitsPerByte; shift >= 0; shift -= bitsPerByte) {
+        outputStream.write(bits >>> shift);
+      }
+    } else if (tagType == TagType.STRING) {
+      final byte[] stringBytes = decoder.unquoteField(valueField);
+      writeVarint(stringBytes.length);
+      outputStream.write(stringBytes);
+    } else {
+      if (tagId >= previousTagValues.length) {
+        long[] grownValues = new long[Math.max(tagId + 1, previousTagValues.length * 2)];
+        System.arraycopy(previousTagValues, 0, grownValues, 0, previousTagValues.length);
+        previousTagValues = grownValues;
+      }
+      final long value = decoder.getFieldAsLong(valueField);
+      writeVarint(zigZagEncode(value - previousTagValues[tagId]));
+      previousTagValues[tagId] = value;
+    }
+  }
+
+  /**
+   * Write the current line of the decoder as a JSON line.
+   *
+   * @param decoder decoder positioned on the line to write
+   * @param typeCode payload type code of tag
+   * @throws IOException if unable to write to the output stream
+   */
+  private void writeJsonLine(EbdLineDecoder decoder, int typeCode) throws IOException {
+    writeAscii("{\"id\":");
+    writeRawField(decoder, HistoricalDataConstants.EBD_LINE_TAG_ID_INDEX);
+    writeAscii(",\"t\":");
+    writeRawField(decoder, HistoricalDataConstants.EBD_LINE_TAG_TIMEINT_INDEX);
+    writeAscii(",\"q\":");
+    writeRawField(decoder, HistoricalDataConstants.EBD_LINE_LENGTH - 1);
+    writeAscii(",\"v\":");
+
+    final int valueField = HistoricalDataConstants.EBD_LINE_TAG_VALUE_INDEX;
+    final TagType tagType = TYPE_CODES[typeCode];
+    if (tagType == TagType.BOOLEAN) {
+      writeAscii(decoder.getFieldAsLong(valueField) != 0 ? "true" : "false");
+    } else if (tagType == TagType.STRING) {
+      writeJsonString(decoder.unquoteField(valueField));
+    } else {
+      writeRawField(decoder, valueField);
+    }
+    writeAscii("}\n");
+  }
+
+  /**
+   * Write the raw bytes of a field of the current line of the decoder.
+   *
+   * @param decoder decoder positioned on the line
+   * @param field index of field
+   * @throws IOException if unable to write to the output stream
+   */
+  private void writeRawField(EbdLineDecoder decoder, int field) throws IOException {
+    final int start = decoder.getFieldStart(field);
+    outputStream.write(decoder.getLineBuffer(), start, decoder.getFieldEnd(field) - start);
+  }
+
+  /**
+   * Write the specified bytes as a quoted and escaped JSON string.
+   *
+   * @param stringBytes ISO-8859-1 bytes of string
+   * @throws IOException if unable to write to the output stream
+   */
+  private void writeJsonString(byte[] stringBytes) throws IOException {
+    final int firstPrintable = 0x20;
+    final int lastAscii = 0x7F;
+    final int hexDigitMask = 0x0F;
+    final int hexDigitBits = 4;
+    outputStream.write('"');
+    for (int i = 0; i < stringBytes.length; i++) {
+      final int currentByte = stringBytes[i] & 0xFF;
+      if (currentByte == '"' || currentByte == '\\') {
+        outputStream.write('\\');
+        outputStream.write(currentByte);
+      } else if (currentByte < firstPrintable || currentByte >= lastAscii) {
+        writeAscii("\\u00");
+        outputStream.write(HEX_DIGITS[(currentByte >> hexDigitBits) & hexDigitMask]);
+        outputStream.write(HEX_DIGITS[currentByte & hexDigitMask]);
+      } else {
+        outputStream.write(currentByte);
+      }
+    }
+    outputStream.write('"');
+  }
+
+  /**
+   * Write the specified ASCII string.
+   *
+   * @param ascii ASCII string
+   * @throws IOException if unable to write to the output stream
+   */
+  private void writeAscii(String ascii) throws IOException {
+    for (int i = 0; i < ascii.length(); i++) {
+      outputStream.write(ascii.charAt(i));
+    }
+  }
+
+  /**
+   * Write the specified value as an unsigned varint, 7 bits per byte with the high bit set on all
+   * but the last byte.
+   *
+   * @param value value to write
+   * @throws IOException if unable to write to the output stream
+   */
+  private void writeVarint(long value) throws IOException {
+    final int varintPayloadMask = 0x7F;
+    final int varintContinueBit = 0x80;
+    final int varintPayloadBits = 7;
+    while ((value & ~varintPayloadMask) != 0) {
+      outputStream.write((int) (value & varintPayloadMask) | varintContinueBit);
+      value >>>= varintPayloadBits;
+    }
+    outputStream.write((int) value);
+  }
+
+  /**
+   * Zig-zag encode the specified signed value so that values close to zero encode to short
+   * varints.
+   *
+   * @param value signed value
+   * @return zig-zag encoded value
+   */
+  private static long zigZagEncode(long value) {
+    final int signShift = 63;
+    return (value << 1) ^ (value >> signShift);
+  }
+}
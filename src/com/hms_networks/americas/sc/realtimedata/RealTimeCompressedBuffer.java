@@ -0,0 +1,673 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.datapoint.DataPointBoolean;
+import com.hms_networks.americas.sc.datapoint.DataPointDword;
+import com.hms_networks.americas.sc.datapoint.DataPointFloat;
+import com.hms_networks.americas.sc.datapoint.DataPointInteger;
+import com.hms_networks.americas.sc.datapoint.DataQuality;
+
+/**
+ * Class to hold the data points of one tag in compressed form. Data points are appended to a short
+ * uncompressed tail of primitive arrays. When the tail holds {@link #CHUNK_SIZE} data points, it is
+ * encoded into a byte block, called a chunk, and the tail is reused.
+ *
+ * <p>Each chunk is encoded as:
+ *
+ * <pre>
+ * count      varint number of data points
+ * times      zig-zag varint delta-of-delta of each time in seconds
+ * values     float:   XOR of the float bits with the previous value, see {@link #writeXor}
+ *            integer: zig-zag varint delta from the previous value
+ *            dword:   zig-zag varint delta from the previous value
+ *            boolean: first value byte, then varint run lengths of alternating values
+ * qualities  varint run length and zig-zag varint raw data quality of each run
+ * </pre>
+ *
+ * <p>The first time, value and delta of each chunk are encoded against 0, so chunks decode
+ * independently. Data points are removed newest first by decoding the newest chunk back into the
+ * tail. They are removed oldest first by decoding the oldest chunk into a head of primitive arrays,
+ * or in bulk when the buffer is trimmed.
+ *
+ * <p>Only float, integer, dword and boolean data points with a decimal time in seconds can be
+ * held, see {@link #getValueKind(DataPoint)}. This class is not thread safe.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class RealTimeCompressedBuffer {
+
+  /** Value kind of data points which cannot be compressed. */
+  static final int VALUE_KIND_NONE = -1;
+
+  /** Value kind of {@link DataPointFloat} data points. */
+  static final int VALUE_KIND_FLOAT = 0;
+
+  /** Value kind of {@link DataPointInteger} data points. */
+  static final int VALUE_KIND_INTEGER = 1;
+
+  /** Value kind of {@link DataPointDword} data points. */
+  static final int VALUE_KIND_DWORD = 2;
+
+  /** Value kind of {@link DataPointBoolean} data points. */
+  static final int VALUE_KIND_BOOLEAN = 3;
+
+  /** Number of data points encoded in each chunk. */
+  static final int CHUNK_SIZE = 32;
+
+  /** Initial capacity of the tail arrays. */
+  private static final int INITIAL_TAIL_CAPACITY = 4;
+
+  /** Number of bytes held per data point in the tail arrays. */
+  private static final int TAIL_BYTES_PER_DATA_POINT = 20;
+
+  /** Name of the tag. */
+  private final String tagName;
+
+  /** ID of the tag. */
+  private final int tagId;
+
+  /** Value kind of the data points. */
+  private final int valueKind;
+
+  /** Encoded chunks, oldest first. */
+  private final ArrayList chunks = new ArrayList();
+
+  /** Number of data points in the encoded chunks. */
+  private int numChunkDataPoints = 0;
+
+  /** Number of bytes in the encoded chunks. */
+  private int numChunkBytes = 0;
+
+  /** Times in seconds of the tail data points, oldest first. */
+  private long[] tailTimes = new long[0];
+
+  /** Raw values of the tail data points, see {@link #getRawValue(DataPoint)}. */
+  private long[] tailValues = new long[0];
+
+  /** Raw data qualities of the tail data points. */
+  private int[] tailQualities = new int[0];
+
+  /** Number of data points in the tail. */
+  private int tailSize = 0;
+
+  /** Times in seconds of the head data points, decoded from the oldest chunk, oldest first. */
+  private long[] headTimes = null;
+
+  /** Raw values of the head data points. */
+  private long[] headValues = null;
+
+  /** Raw data qualities of the head data points. */
+  private int[] headQualities = null;
+
+  /** Index of the oldest data point in the head. */
+  private int headStart = 0;
+
+  /** Index after the newest data point in the head. */
+  private int headEnd = 0;
+
+  /** Position of the next byte to decode in the chunk being decoded. */
+  private int decodePosition;
+
+  /**
+   * Constructor for a buffer of the data points of the specified tag.
+   *
+   * @param tagName name of the tag
+   * @param tagId ID of the tag
+   * @param valueKind value kind of the data points, see {@link #getValueKind(DataPoint)}
+   */
+  RealTimeCompressedBuffer(String tagName, int tagId, int valueKind) {
+    this.tagName = tagName;
+    this.tagId = tagId;
+    this.valueKind = valueKind;
+  }
+
+  /**
+   * Gets the value kind of a data point. Subclasses of the data point classes, such as integer
+   * mapped strings, are not compressed.
+   *
+   * @param data data point
+   * @return value kind of the data point, or {@link #VALUE_KIND_NONE} if it cannot be compressed
+   */
+  static int getValueKind(DataPoint data) {
+    if (data == null) {
+      return VALUE_KIND_NONE;
+    } else if (data.getClass() == DataPointFloat.class) {
+      return VALUE_KIND_FLOAT;
+    } else if (data.getClass() == DataPointInteger.class) {
+      return VALUE_KIND_INTEGER;
+    } else if (data.getClass() == DataPointDword.class) {
+      return VALUE_KIND_DWORD;
+    } else if (data.getClass() == DataPointBoolean.class) {
+      return VALUE_KIND_BOOLEAN;
+    }
+    return VALUE_KIND_NONE;
+  }
+
+  /**
+   * Gets the number of data points in the buffer.
+   *
+   * @return number of data points
+   */
+  int size() {
+    return (headEnd - headStart) + numChunkDataPoints + tailSize;
+  }
+
+  /**
+   * Gets the number of bytes used to hold the data points, including the tail arrays.
+   *
+   * @return number of bytes used
+   */
+  int getSizeBytes() {
+    final int headCapacity = headTimes != null ? headTimes.length : 0;
+    return numChunkBytes + (tailTimes.length + headCapacity) * TAIL_BYTES_PER_DATA_POINT;
+  }
+
+  /**
+   * Appends a data point to the buffer, if it can be held without loss.
+   *
+   * @param data data point to append
+   * @return true if the data point was appended, false if it cannot be held by this buffer
+   */
+  boolean append(DataPoint data) {
+    if (getValueKind(data) != valueKind
+        || data.getTagId() != tagId
+        || !tagName.equals(data.getTagName())) {
+      return false;
+    }
+
+    long time;
+    try {
+      time = Long.parseLong(data.getTimeStamp());
+    } catch (NumberFormatException e) {
+      return false;
+    }
+    if (time < 0 || !String.valueOf(time).equals(data.getTimeStamp())) {
+      return false;
+    }
+
+    final DataQuality quality = data.getQuality();
+    ensureTailCapacity(tailSize + 1);
+    tailTimes[tailSize] = time;
+    tailValues[tailSize] = getRawValue(data);
+    tailQualities[tailSize] =
+        quality != null ? quality.getRawDataQuality() : DataQuality.GOOD.getRawDataQuality();
+    tailSize++;
+
+    if (tailSize == CHUNK_SIZE) {
+      byte[] chunk = encodeChunk(tailTimes, tailValues, tailQualities, 0, tailSize);
+      chunks.add(chunk);
+      numChunkDataPoints += tailSize;
+      numChunkBytes += chunk.length;
+      tailSize = 0;
+    }
+    return true;
+  }
+
+  /**
+   * Removes the newest data point from the buffer.
+   *
+   * @return removed data point, or null if the buffer is empty
+   */
+  DataPoint removeNewest() {
+    if (tailSize == 0) {
+      if (chunks.isEmpty()) {
+        if (headEnd == headStart) {
+          return null;
+        }
+        headEnd--;
+        return createDataPoint(headTimes[headEnd], headValues[headEnd], headQualities[headEnd]);
+      }
+      byte[] chunk = (byte[]) chunks.remove(chunks.size() - 1);
+      ensureTailCapacity(CHUNK_SIZE);
+      tailSize = decodeChunk(chunk, tailTimes, tailValues, tailQualities);
+      numChunkDataPoints -= tailSize;
+      numChunkBytes -= chunk.length;
+    }
+
+    tailSize--;
+    return createDataPoint(tailTimes[tailSize], tailValues[tailSize], tailQualities[tailSize]);
+  }
+
+  /**
+   * Gets the time of the oldest data point in the buffer. The oldest chunk is decoded into the head
+   * if the head is empty.
+   *
+   * @return time in seconds of the oldest data point, or -1 if the buffer is empty
+   */
+  long getOldestTime() {
+    fillHead();
+    if (headEnd > headStart) {
+      return headTimes[headStart];
+    }
+    return tailSize > 0 ? tailTimes[0] : -1;
+  }
+
+  /**
+   * Removes the oldest data point from the buffer.
+   *
+   * @return removed data point, or null if the buffer is empty
+   */
+  DataPoint removeOldest() {
+    fillHead();
+    if (headEnd > headStart) {
+      final int index = headStart++;
+      return createDataPoint(headTimes[index], headValues[index], headQualities[index]);
+    }
+    if (tailSize == 0) {
+      return null;
+    }
+
+    DataPoint data = createDataPoint(tailTimes[0], tailValues[0], tailQualities[0]);
+    tailSize--;
+    System.arraycopy(tailTimes, 1, tailTimes, 0, tailSize);
+    System.arraycopy(tailValues, 1, tailValues, 0, tailSize);
+    System.arraycopy(tailQualities, 1, tailQualities, 0, tailSize);
+    return data;
+  }
+
+  /**
+   * Decode the oldest chunk into the head if the head is empty and there is a chunk. The head
+   * arrays are released when the head and chunks are empty.
+   */
+  private void fillHead() {
+    if (headEnd > headStart) {
+      return;
+    }
+    headStart = 0;
+    headEnd = 0;
+    if (chunks.isEmpty()) {
+      headTimes = null;
+      headValues = null;
+      headQualities = null;
+      return;
+    }
+
+    if (headTimes == null) {
+      headTimes = new long[CHUNK_SIZE];
+      headValues = new long[CHUNK_SIZE];
+      headQualities = new int[CHUNK_SIZE];
+    }
+    byte[] chunk = (byte[]) chunks.remove(0);
+    headEnd = decodeChunk(chunk, headTimes, headValues, headQualities);
+    numChunkDataPoints -= headEnd;
+    numChunkBytes -= chunk.length;
+  }
+
+  /**
+   * Removes the specified number of oldest data points from the buffer.
+   *
+   * @param numToRemove number of data points to remove
+   * @return time in seconds of the oldest and newest removed data point, or null if none were
+   *     removed
+   */
+  long[] removeOldest(int numToRemove) {
+    numToRemove = Math.min(numToRemove, size());
+    if (numToRemove <= 0) {
+      return null;
+    }
+
+    long oldestTime = -1;
+    long newestTime = -1;
+    if (headEnd > headStart) {
+      final int numRemoved = Math.min(numToRemove, headEnd - headStart);
+      oldestTime = headTimes[headStart];
+      newestTime = headTimes[headStart + numRemoved - 1];
+      headStart += numRemoved;
+      numToRemove -= numRemoved;
+    }
+
+    long[] times = new long[CHUNK_SIZE];
+    long[] values = new long[CHUNK_SIZE];
+    int[] qualities = new int[CHUNK_SIZE];
+    while (numToRemove > 0 && !chunks.isEmpty()) {
+      byte[] chunk = (byte[]) chunks.get(0);
+      final int count = decodeChunk(chunk, times, values, qualities);
+      if (oldestTime < 0) {
+        oldestTime = times[0];
+      }
+      final int numRemoved = Math.min(numToRemove, count);
+      newestTime = times[numRemoved - 1];
+      numToRemove -= numRemoved;
+      numChunkDataPoints -= numRemoved;
+      numChunkBytes -= chunk.length;
+      if (numRemoved == count) {
+        chunks.remove(0);
+      } else {
+        byte[] remainder = encodeChunk(times, values, qualities, numRemoved, count);
+        chunks.set(0, remainder);
+        numChunkBytes += remainder.length;
+      }
+    }
+
+    if (numToRemove > 0) {
+      if (oldestTime < 0) {
+        oldestTime = tailTimes[0];
+      }
+      newestTime = tailTimes[numToRemove - 1];
+      tailSize -= numToRemove;
+      System.arraycopy(tailTimes, numToRemove, tailTimes, 0, tailSize);
+      System.arraycopy(tailValues, numToRemove, tailValues, 0, tailSize);
+      System.arraycopy(tailQualities, numToRemove, tailQualities, 0, tailSize);
+    }
+    return new long[] {oldestTime, newestTime};
+  }
+
+  /**
+   * Removes all data points from the buffer.
+   *
+   * @return removed data points, oldest first
+   */
+  ArrayList removeAll() {
+    ArrayList dataPoints = new ArrayList(size());
+    for (int i = headStart; i < headEnd; i++) {
+      dataPoints.add(createDataPoint(headTimes[i], headValues[i], headQualities[i]));
+    }
+
+    long[] times = new long[CHUNK_SIZE];
+    long[] values = new long[CHUNK_SIZE];
+    int[] qualities = new int[CHUNK_SIZE];
+    for (int i = 0; i < chunks.size(); i++) {
+      final int count = decodeChunk((byte[]) chunks.get(i), times, values, qualities);
+      for (int j = 0; j < count; j++) {
+        dataPoints.add(createDataPoint(times[j], values[j], qualities[j]));
+      }
+    }
+    for (int i = 0; i < tailSize; i++) {
+      dataPoints.add(createDataPoint(tailTimes[i], tailValues[i], tailQualities[i]));
+    }
+
+    headTimes = null;
+    headValues = null;
+    headQualities = null;
+    headStart = 0;
+    headEnd = 0;
+    chunks.clear();
+    numChunkDataPoints = 0;
+    numChunkBytes = 0;
+    tailSize = 0;
+    return dataPoints;
+  }
+
+  /**
+   * Gets the raw value of a data point. Float values are stored as their bits, boolean values as 0
+   * or 1.
+   *
+   * @param data data point
+   * @return raw value of the data point
+   */
+  private long getRawValue(DataPoint data) {
+    if (valueKind == VALUE_KIND_FLOAT) {
+      return Float.floatToRawIntBits(((DataPointFloat) data).getValue());
+    } else if (valueKind == VALUE_KIND_INTEGER) {
+      return ((DataPointInteger) data).getValue();
+    } else if (valueKind == VALUE_KIND_DWORD) {
+      return ((DataPointDword) data).getValue();
+    }
+    return ((DataPointBoolean) data).getValue() ? 1 : 0;
+  }
+
+  /**
+   * Create a data point from its time, raw value and raw data quality.
+   *
+   * @param time time in seconds
+   * @param value raw value, see {@link #getRawValue(DataPoint)}
+   * @param quality raw data quality
+   * @return data point
+   */
+  private DataPoint createDataPoint(long time, long value, int quality) {
+    final String timeStamp = String.valueOf(time);
+    final DataQuality dataQuality = DataQuality.fromRawDataQuality(quality);
+    if (valueKind == VALUE_KIND_FLOAT) {
+      return new DataPointFloat(
+          tagName, tagId, Float.intBitsToFloat((int) value), timeStamp, dataQuality);
+    } else if (valueKind == VALUE_KIND_INTEGER) {
+      return new DataPointInteger(tagName, tagId, (int) value, timeStamp, dataQuality);
+    } else if (valueKind == VALUE_KIND_DWORD) {
+      return new DataPointDword(tagName, tagId, value, timeStamp, dataQuality);
+    }
+    return new DataPointBoolean(tagName, tagId, value != 0, timeStamp, dataQuality);
+  }
+
+  /**
+   * Grow the tail arrays to hold at least the specified number of data points.
+   *
+   * @param minCapacity minimum number of data points
+   */
+  private void ensureTailCapacity(int minCapacity) {
+    if (tailTimes.length >= minCapacity) {
+      return;
+    }
+    final int capacity =
+        Math.min(CHUNK_SIZE, Math.max(minCapacity, Math.max(INITIAL_TAIL_CAPACITY, 2 * tailSize)));
+
+    long[] grownTimes = new long[capacity];
+    System.arraycopy(tailTimes, 0, grownTimes, 0, tailSize);
+    tailTimes = grownTimes;
+    long[] grownValues = new long[capacity];
+    System.arraycopy(tailValues, 0, grownValues, 0, tailSize);
+    tailValues = grownValues;
+    int[] grownQualities = new int[capacity];
+    System.arraycopy(tailQualities, 0, grownQualities, 0, tailSize);
+    tailQualities = grownQualities;
+  }
+
+  /**
+   * Encode a range of data points into a chunk.
+   *
+   * @param times times in seconds
+   * @param values raw values
+   * @param qualities raw data qualities
+   * @param start index of the first data point to encode
+   * @param end index after the last data point to encode
+   * @return encoded chunk
+   */
+  private byte[] encodeChunk(long[] times, long[] values, int[] qualities, int start, int end) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeVarLong(out, end - start);
+
+    long previousTime = 0;
+    long previousDelta = 0;
+    for (int i = start; i < end; i++) {
+      final long delta = times[i] - previousTime;
+      writeVarLong(out, zigZagEncode(delta - previousDelta));
+      previousTime = times[i];
+      previousDelta = delta;
+    }
+
+    if (valueKind == VALUE_KIND_BOOLEAN) {
+      out.write((int) values[start]);
+      int runStart = start;
+      for (int i = start + 1; i <= end; i++) {
+        if (i == end || values[i] != values[runStart]) {
+          writeVarLong(out, i - runStart);
+          runStart = i;
+        }
+      }
+    } else {
+      long previousValue = 0;
+      for (int i = start; i < end; i++) {
+        if (valueKind == VALUE_KIND_FLOAT) {
+          writeXor(out, (int) previousValue ^ (int) values[i]);
+        } else {
+          writeVarLong(out, zigZagEncode(values[i] - previousValue));
+        }
+        previousValue = values[i];
+      }
+    }
+
+    int runStart = start;
+    for (int i = start + 1; i <= end; i++) {
+      if (i == end || qualities[i] != qualities[runStart]) {
+        writeVarLong(out, i - runStart);
+        writeVarLong(out, zigZagEncode(qualities[runStart]));
+        runStart = i;
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode a chunk into the specified arrays.
+   *
+   * @param chunk encoded chunk
+   * @param times array to decode times in seconds into
+   * @param values array to decode raw values into
+   * @param qualities array to decode raw data qualities into
+   * @return number of decoded data points
+   */
+  private int decodeChunk(byte[] chunk, long[] times, long[] values, int[] qualities) {
+    decodePosition = 0;
+    final int count = (int) readVarLong(chunk);
+
+    long previousTime = 0;
+    long previousDelta = 0;
+    for (int i = 0; i < count; i++) {
+      previousDelta += zigZagDecode(readVarLong(chunk));
+      previousTime += previousDelta;
+      times[i] = previousTime;
+    }
+
+    if (valueKind == VALUE_KIND_BOOLEAN) {
+      long value = chunk[decodePosition++];
+      int index = 0;
+      while (index < count) {
+        final int runLength = (int) readVarLong(chunk);
+        for (int i = 0; i < runLength; i++) {
+          values[index++] = value;
+        }
+        value = 1 - value;
+      }
+    } else {
+      long previousValue = 0;
+      for (int i = 0; i < count; i++) {
+        if (valueKind == VALUE_KIND_FLOAT) {
+          previousValue = (int) previousValue ^ readXor(chunk);
+        } else {
+          previousValue += zigZagDecode(readVarLong(chunk));
+        }
+        values[i] = previousValue;
+      }
+    }
+
+    int index = 0;
+    while (index < count) {
+      final int runLength = (int) readVarLong(chunk);
+      final int quality = (int) zigZagDecode(readVarLong(chunk));
+      for (int i = 0; i < runLength; i++) {
+        qualities[index++] = quality;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Write the XOR of two float values. A XOR of 0 is written as a single 0 byte. Otherwise, a
+   * header byte holding the number of leading and trailing zero bytes of the XOR is written,
+   * followed by the remaining bytes. Close values share their sign, exponent and upper mantissa
+   * bits, so most of their XOR bytes are zero.
+   *
+   * @param out stream to write to
+   * @param xor XOR of the current and previous float bits
+   */
+  private static void writeXor(ByteArrayOutputStream out, int xor) {
+    if (xor == 0) {
+      out.write(0);
+      return;
+    }
+
+    final int numBytes = 4;
+    final int bitsPerByte = 8;
+    int leadingBytes = 0;
+    while (((xor >>> ((numBytes - 1 - leadingBytes) * bitsPerByte)) & 0xFF) == 0) {
+      leadingBytes++;
+    }
+    int trailingBytes = 0;
+    while (((xor >>> (trailingBytes * bitsPerByte)) & 0xFF) == 0) {
+      trailingBytes++;
+    }
+
+    out.write(0x80 | (leadingBytes << 2) | trailingBytes);
+    for (int i = numBytes - 1 - leadingBytes; i >= trailingBytes; i--) {
+      out.write(xor >>> (i * bitsPerByte));
+    }
+  }
+
+  /**
+   * Read the XOR of two float values written by {@link #writeXor}.
+   *
+   * @param chunk chunk to read from
+   * @return XOR of the current and previous float bits
+   */
+  private int readXor(byte[] chunk) {
+    final int header = chunk[decodePosition++] & 0xFF;
+    if (header == 0) {
+      return 0;
+    }
+
+    final int numBytes = 4;
+    final int bitsPerByte = 8;
+    final int leadingBytes = (header >> 2) & 0x3;
+    final int trailingBytes = header & 0x3;
+    int xor = 0;
+    for (int i = numBytes - 1 - leadingBytes; i >= trailingBytes; i--) {
+      xor = (xor << bitsPerByte) | (chunk[decodePosition++] & 0xFF);
+    }
+    return xor << (trailingBytes * bitsPerByte);
+  }
+
+  /**
+   * Write an unsigned varint, 7 bits per byte with the high bit set on all but the last byte.
+   *
+   * @param out stream to write to
+   * @param value value to write
+   */
+  private static void writeVarLong(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  /**
+   * Read an unsigned varint written by {@link #writeVarLong}.
+   *
+   * @param chunk chunk to read from
+   * @return value read
+   */
+  private long readVarLong(byte[] chunk) {
+    long value = 0;
+    int shift = 0;
+    int currentByte;
+    do {
+      currentByte = chunk[decodePosition++];
+      value |= (long) (currentByte & 0x7F) << shift;
+      shift += 7;
+    } while ((currentByte & 0x80) != 0);
+    return value;
+  }
+
+  /**
+   * Zig-zag encode a signed value, so values close to 0 have short varints.
+   *
+   * @param value signed value
+   * @return zig-zag encoded value
+   */
+  private static long zigZagEncode(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Decode a zig-zag encoded value.
+   *
+   * @param value zig-zag encoded value
+   * @return signed value
+   */
+  private static long zigZagDecode(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
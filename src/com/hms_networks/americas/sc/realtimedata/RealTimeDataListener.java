@@ -0,0 +1,24 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import java.util.ArrayList;
+
+/**
+ * Interface for listeners notified of changed real time tag values. Listeners are registered with
+ * the subscribe methods of {@link RealTimeDataQueueManager}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public interface RealTimeDataListener {
+
+  /**
+   * Called on the sampling thread at the end of a sampling sweep with the changed values of the
+   * subscribed tags. Each tag appears at most once per batch, with its newest value. This method
+   * should return quickly, as sampling is paused until it returns. When tag groups are sampled by
+   * worker threads, this method is called by the workers of the tag groups whose changes are
+   * queued for the subscription, and may be called from several workers at once.
+   *
+   * @param dataPoints list of changed data points in the order their tags first changed
+   */
+  void onDataChanged(ArrayList dataPoints);
+}
@@ -1,12 +1,17 @@
 package com.hms_networks.americas.sc.realtimedata;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.hms_networks.americas.sc.datapoint.DataPoint;
 import com.hms_networks.americas.sc.logging.Logger;
+import com.hms_networks.americas.sc.tagdata.HeapPressureGovernor;
+import com.hms_networks.americas.sc.tagdata.TagMetadataSnapshot;
 import com.hms_networks.americas.sc.taginfo.TagGroup;
 import com.hms_networks.americas.sc.taginfo.TagInfo;
 import com.hms_networks.americas.sc.taginfo.TagInfoManager;
+import com.hms_networks.americas.sc.taginfo.TagType;
 
 /**
  * This class is used to retrieve real time data from the Flexy.
@@ -19,14 +24,11 @@ public class RealTimeDataQueueManager {
   /** Holds an array of lists of data points for every tag in group. */
   private static ArrayList tagManagers;
 
-  /** Holds an array of the lists of what tags are in each group. */
-  private static ArrayList tagGroupList;
-
   /**
-   * Lists of iterator for each tag group used to get a single point at a time from a tag group
-   * while retrieving data points.
+   * Drain lanes of each tag group used to get a single point at a time from a tag group while
+   * retrieving data points, by tag priority.
    */
-  private static int[] tagManagerIterators;
+  private static volatile RealTimeGroupDrainLanes[] groupDrainLanes;
 
   /** Index of information for tag group A in class ArrayLists. */
   public static final int GROUP_A = 0;
@@ -43,29 +45,125 @@ public class RealTimeDataQueueManager {
   /** The number of tag groups. */
   public static final int NUM_TAG_GROUPS = 4;
 
-  /** Store the tag groups in an ArrayList for access by tag group index. */
-  private static void initTagGroups() {
-    tagGroupList = new ArrayList();
-    tagGroupList.add(TagInfoManager.getTagInfoListFiltered(TagGroup.A));
-    tagGroupList.add(TagInfoManager.getTagInfoListFiltered(TagGroup.B));
-    tagGroupList.add(TagInfoManager.getTagInfoListFiltered(TagGroup.C));
-    tagGroupList.add(TagInfoManager.getTagInfoListFiltered(TagGroup.D));
-  }
+  /** Tag priority drained before all other tag priorities, for alarm and safety tags. */
+  public static final int TAG_PRIORITY_HIGH = 0;
+
+  /** Tag priority of tags which have not been assigned a priority. */
+  public static final int TAG_PRIORITY_NORMAL = 1;
+
+  /** Tag priority drained after all other tag priorities. */
+  public static final int TAG_PRIORITY_LOW = 2;
+
+  /** The number of tag priorities. */
+  public static final int NUM_TAG_PRIORITIES = 3;
 
   /**
-   * Initialize a tag manager object for each tag in the tag's group.
+   * Number of data points drained from each tag priority per weighted round robin round. Default
+   * is 8 high, 3 normal and 1 low priority data points. The array is replaced when changed, so the
+   * drain reads it without locking.
+   */
+  private static volatile int[] priorityLaneWeights = {8, 3, 1};
+
+  /** Tag priorities set with {@link #setTagPriority(int, int)}, keyed by tag ID. */
+  private static final HashMap tagPriorities = new HashMap();
+
+  /*
+   * Settings read by the sampling threads are volatile, and settings of each tag group are held in
+   * arrays which are replaced when changed, so sampling does not take the class lock.
+   */
+
+  /** Boolean flags indicating which tag groups are paused while under heap pressure. */
+  private static volatile boolean[] lowPriorityGroups = new boolean[NUM_TAG_GROUPS];
+
+  /** Maximum number of data points kept per tag under critical heap pressure. Default is 10. */
+  private static volatile int criticalPressureMaxDataPointsPerTag = 10;
+
+  /** Maximum number of data points buffered per tag, or 0 for no limit. Default is 0. */
+  private static volatile int maxDataPointsPerTag = 0;
+
+  /** Acquisition mode which reads each tag of a tag group with its own tag control object. */
+  public static final int ACQUISITION_MODE_PER_TAG = 0;
+
+  /**
+   * Acquisition mode which reads all tags of a tag group with a single instant values export block
+   * descriptor call.
+   */
+  public static final int ACQUISITION_MODE_BULK_EXPORT = 1;
+
+  /** Acquisition mode of each tag group. Default is {@link #ACQUISITION_MODE_PER_TAG}. */
+  private static volatile int[] groupAcquisitionModes = new int[NUM_TAG_GROUPS];
+
+  /** Snapshot reader of each tag group, created when first used in bulk export mode. */
+  private static volatile RealTimeGroupSnapshotReader[] groupSnapshotReaders =
+      new RealTimeGroupSnapshotReader[NUM_TAG_GROUPS];
+
+  /** Boolean indicating if data points are buffered in compressed form. Default is false. */
+  private static boolean compressedBuffersEnabled = false;
+
+  /** Boolean indicating if tags read individually are polled adaptively. Default is false. */
+  private static volatile boolean adaptivePollingEnabled = false;
+
+  /** Maximum number of sampling sweeps between adaptive reads of a tag. Default is 16. */
+  private static volatile int adaptivePollingMaxIntervalSweeps = 16;
+
+  /** Number of tags read in the last sampling sweep of each tag group. */
+  private static final int[] lastSweepNumTagsRead = new int[NUM_TAG_GROUPS];
+
+  /** Merged drain of each set of tag groups, indexed by tag group bit mask. */
+  private static final RealTimeMergedDrain[] mergedDrains =
+      new RealTimeMergedDrain[1 << NUM_TAG_GROUPS];
+
+  /**
+   * Time in seconds data points may take from being sampled to being buffered, before they are
+   * drained in timestamp order. Default is 2.
+   */
+  private static long mergedDrainSettleSecs = 2;
+
+  /** Maximum number of changes queued per subscription. Default is 256. */
+  private static int subscriptionMaxQueueSize = 256;
+
+  /** Tag groups indexed by tag group index. */
+  private static final TagGroup[] TAG_GROUPS = {TagGroup.A, TagGroup.B, TagGroup.C, TagGroup.D};
+
+  /**
+   * Initialize a tag manager object for each tag in the tag's group. Tag group membership is read
+   * from the tag metadata snapshot when it is available, otherwise it is read from {@link
+   * TagInfoManager}.
    *
    * @throws Exception If the TagControl object fails to initialize for a given tag.
    */
   private static void initTagManagers() throws Exception {
+    final boolean snapshotAvailable = TagMetadataSnapshot.init();
+    if (!snapshotAvailable) {
+      TagMetadataSnapshot.ensureTagInfoListPopulated();
+    }
+
     tagManagers = new ArrayList();
+    groupSnapshotReaders = new RealTimeGroupSnapshotReader[NUM_TAG_GROUPS];
     for (int tagGroupIndex = 0; tagGroupIndex < NUM_TAG_GROUPS; tagGroupIndex++) {
       ArrayList tagManagerTmp = new ArrayList();
-      final int tagGroupListSize = ((ArrayList) tagGroupList.get(tagGroupIndex)).size();
-      for (int tagListIndex = 0; tagListIndex < tagGroupListSize; tagListIndex++) {
-        TagInfo currentTag =
-            ((TagInfo) ((ArrayList) tagGroupList.get(tagGroupIndex)).get(tagListIndex));
-        tagManagerTmp.add(new RealTimeTagDataPointManager(currentTag.getName()));
+      if (snapshotAvailable) {
+        int[] tagIds = TagMetadataSnapshot.getTagIdsInGroup(tagGroupIndex);
+        for (int tagListIndex = 0; tagListIndex < tagIds.length; tagListIndex++) {
+          final int tagId = tagIds[tagListIndex];
+          tagManagerTmp.add(
+              createTagManager(
+                  TagMetadataSnapshot.getTagName(tagId),
+                  tagId,
+                  TagMetadataSnapshot.getTagType(tagId),
+                  tagGroupIndex));
+        }
+      } else {
+        ArrayList tagGroupList = TagInfoManager.getTagInfoListFiltered(TAG_GROUPS[tagGroupIndex]);
+        for (int tagListIndex = 0; tagListIndex < tagGroupList.size(); tagListIndex++) {
+          TagInfo currentTag = (TagInfo) tagGroupList.get(tagListIndex);
+          tagManagerTmp.add(
+              createTagManager(
+                  currentTag.getName(),
+                  currentTag.getId(),
+                  currentTag.getType(),
+                  tagGroupIndex));
+        }
       }
       if (tagManagerTmp.isEmpty()) {
         tagManagers.add(null);
@@ -76,15 +174,38 @@ public class RealTimeDataQueueManager {
   }
 
   /**
-   * Tag iterators are used to retrieve a single data point from each tag before going to the next
-   * tag in a tag group list. Initialize all tag iterators to 0 to start at the beginning of the
-   * lists.
+   * Create the tag data point manager of a tag, with the tag group and priority of the tag.
+   *
+   * @param tagName The name of the tag.
+   * @param tagId The ID of the tag.
+   * @param tagType The type of the tag.
+   * @param tagGroup The tag group of the tag.
+   * @return the tag data point manager of the tag
+   * @throws Exception If the TagControl object fails to initialize for the tag.
+   */
+  private static RealTimeTagDataPointManager createTagManager(
+      String tagName, int tagId, TagType tagType, int tagGroup) throws Exception {
+    RealTimeTagDataPointManager manager = new RealTimeTagDataPointManager(tagName, tagId, tagType);
+    manager.setTagGroup(tagGroup);
+    manager.setPriority(getTagPriority(tagId));
+    manager.setCompressionEnabled(isCompressedBuffersEnabled());
+    return manager;
+  }
+
+  /**
+   * Drain lanes are used to retrieve a single data point from each tag before going to the next
+   * tag in a tag group list, serving higher priority tags first. Initialize the drain lanes of
+   * each tag group with the current tag priorities.
    */
-  private static void initTagManageIterators() {
-    tagManagerIterators = new int[NUM_TAG_GROUPS];
+  private static synchronized void initDrainLanes() {
+    RealTimeGroupDrainLanes[] drainLanes = new RealTimeGroupDrainLanes[NUM_TAG_GROUPS];
     for (int i = 0; i < NUM_TAG_GROUPS; i++) {
-      tagManagerIterators[i] = 0;
+      ArrayList tagGroupArray = (ArrayList) tagManagers.get(i);
+      if (tagGroupArray != null) {
+        drainLanes[i] = new RealTimeGroupDrainLanes(tagGroupArray, NUM_TAG_PRIORITIES);
+      }
     }
+    groupDrainLanes = drainLanes;
   }
 
   /**
@@ -93,9 +214,113 @@ public class RealTimeDataQueueManager {
    * @throws Exception If the TagControl object fails to initialize for a given tag.
    */
   public static void init() throws Exception {
-    initTagGroups();
     initTagManagers();
-    initTagManageIterators();
+    initDrainLanes();
+  }
+
+  /**
+   * Sets the flag indicating if a tag group is low priority. Sampling of low priority tag groups is
+   * paused while the {@link HeapPressureGovernor} reports elevated or critical heap pressure.
+   *
+   * @param tagGroup The tag group to configure.
+   * @param lowPriority true if the tag group is low priority, false if not
+   */
+  public static synchronized void setLowPriorityGroup(int tagGroup, boolean lowPriority) {
+    boolean[] updatedLowPriorityGroups = new boolean[NUM_TAG_GROUPS];
+    System.arraycopy(lowPriorityGroups, 0, updatedLowPriorityGroups, 0, NUM_TAG_GROUPS);
+    updatedLowPriorityGroups[tagGroup] = lowPriority;
+    lowPriorityGroups = updatedLowPriorityGroups;
+  }
+
+  /**
+   * Sets the acquisition mode of a tag group. {@link #ACQUISITION_MODE_PER_TAG} reads each tag with
+   * its own tag control object, which is best for small or high rate tag groups. {@link
+   * #ACQUISITION_MODE_BULK_EXPORT} reads the whole tag group with one instant values export call,
+   * which is faster for large tag groups and does not hold a tag control object per tag.
+   *
+   * @param tagGroup The tag group to configure.
+   * @param acquisitionMode The acquisition mode of the tag group.
+   */
+  public static synchronized void setGroupAcquisitionMode(int tagGroup, int acquisitionMode) {
+    if (acquisitionMode != ACQUISITION_MODE_PER_TAG
+        && acquisitionMode != ACQUISITION_MODE_BULK_EXPORT) {
+      throw new IllegalArgumentException("Unknown acquisition mode " + acquisitionMode + ".");
+    }
+    int[] updatedAcquisitionModes = new int[NUM_TAG_GROUPS];
+    System.arraycopy(groupAcquisitionModes, 0, updatedAcquisitionModes, 0, NUM_TAG_GROUPS);
+    updatedAcquisitionModes[tagGroup] = acquisitionMode;
+    groupAcquisitionModes = updatedAcquisitionModes;
+  }
+
+  /**
+   * Gets the acquisition mode of a tag group.
+   *
+   * @param tagGroup The tag group to get the acquisition mode of.
+   * @return the acquisition mode of the tag group
+   */
+  public static int getGroupAcquisitionMode(int tagGroup) {
+    return groupAcquisitionModes[tagGroup];
+  }
+
+  /**
+   * Sets the maximum number of data points kept per tag while the {@link HeapPressureGovernor}
+   * reports critical heap pressure. The oldest data points are removed first and spilled to flash,
+   * to be retrieved with {@link #getGroupNextBackfillData(int)} once the pressure has eased.
+   *
+   * @param maxDataPointsPerTag maximum number of data points kept per tag
+   */
+  public static synchronized void setCriticalPressureMaxDataPointsPerTag(
+      int maxDataPointsPerTag) {
+    criticalPressureMaxDataPointsPerTag = maxDataPointsPerTag;
+  }
+
+  /**
+   * Apply the current heap pressure state to a shard of a tag group. Under critical heap pressure,
+   * the oldest data points in the buffers of the shard's tags are spilled to flash, and shard 0
+   * spills the recovered backfill data of the tag group. Data points which cannot be spilled are
+   * discarded and recorded as gaps of their tags. Only the buffers of the shard's tags are locked.
+   *
+   * @param tagGroupArray The tag data point managers of the tag group, or null if it has no tags.
+   * @param tagGroup The tag group to apply heap pressure to.
+   * @param shard The shard of the tag group to apply heap pressure to.
+   * @param numShards The number of shards of the tag group.
+   * @return true if sampling of the tag group should be paused
+   */
+  private static boolean applyHeapPressure(
+      ArrayList tagGroupArray, int tagGroup, int shard, int numShards) {
+    final int pressureState = HeapPressureGovernor.getPressureState();
+    if (pressureState == HeapPressureGovernor.PRESSURE_CRITICAL && tagGroupArray != null) {
+      final int maxDataPoints = criticalPressureMaxDataPointsPerTag;
+      ArrayList trimmedData = new ArrayList();
+      for (int tagNum = shard; tagNum < tagGroupArray.size(); tagNum += numShards) {
+        RealTimeTagDataPointManager manager =
+            (RealTimeTagDataPointManager) tagGroupArray.get(tagNum);
+        trimmedData.addAll(manager.removeOldestDataPoints(maxDataPoints));
+      }
+      ArrayList notSpilled = RealTimeDataSpill.spill(tagGroup, trimmedData);
+      RealTimeGapBackfill.recordGaps(tagGroup, notSpilled);
+      int numDiscarded = notSpilled.size();
+      if (shard == 0) {
+        numDiscarded += RealTimeGapBackfill.trimBackfillData(tagGroup);
+      }
+      if (trimmedData.size() > notSpilled.size()) {
+        Logger.LOG_WARN(
+            "Critical heap pressure, spilled "
+                + (trimmedData.size() - notSpilled.size())
+                + " real time data points from tag group "
+                + tagGroup
+                + " to flash.");
+      }
+      if (numDiscarded > 0) {
+        Logger.LOG_WARN(
+            "Critical heap pressure, discarded "
+                + numDiscarded
+                + " real time data points from tag group "
+                + tagGroup
+                + ".");
+      }
+    }
+    return pressureState != HeapPressureGovernor.PRESSURE_NORMAL && lowPriorityGroups[tagGroup];
   }
 
   /**
@@ -103,23 +328,240 @@ public class RealTimeDataQueueManager {
    * iterators to look at the next tag in the list of that group's tags, and remove the retrieved
    * tag from the list of tags.
    *
+   * <p>Tags are drained by priority with weighted round robin, see {@link
+   * #setPriorityLaneWeight(int, int)}. Tags of the same priority are drained in turn.
+   *
    * <p>If there are no DataPoints left, null will be returned.
    *
    * @param tagGroup The tag group to select a datapoint from.
    * @return a DataPoint object.
    */
   public static DataPoint getGroupNextData(int tagGroup) {
-    DataPoint data = null;
-    RealTimeTagDataPointManager dataPoints =
-        ((RealTimeTagDataPointManager)
-            ((ArrayList) tagManagers.get(tagGroup)).get(tagManagerIterators[tagGroup]));
-    if (dataPoints.getSize() > 0) {
-      data = dataPoints.removeDataPoint();
-      tagManagerIterators[tagGroup]++;
-      tagManagerIterators[tagGroup] =
-          (tagManagerIterators[tagGroup] % ((ArrayList) tagGroupList.get(tagGroup)).size());
+    RealTimeGroupDrainLanes drainLanes = groupDrainLanes[tagGroup];
+    if (drainLanes == null) {
+      return null;
+    }
+    return drainLanes.removeNextDataPoint(priorityLaneWeights);
+  }
+
+  /**
+   * Removes and returns the oldest data point of a tag group. Unlike {@link
+   * #getGroupNextData(int)}, data points are returned in timestamp order across all tags of the tag
+   * group, see {@link #getMergedNextData(boolean, boolean, boolean, boolean)}.
+   *
+   * <p>If there are no DataPoints old enough to return, null will be returned.
+   *
+   * @param tagGroup The tag group to select a datapoint from.
+   * @return a DataPoint object.
+   */
+  public static DataPoint getGroupMergedNextData(int tagGroup) {
+    RealTimeMergedDrain mergedDrain = getMergedDrain(1 << tagGroup);
+    return mergedDrain.removeNextDataPoint(tagManagers, getMergedDrainSettleSecs());
+  }
+
+  /**
+   * Removes and returns the oldest data point of the specified tag groups. Data points are
+   * returned in timestamp order across all tags of the tag groups, oldest first, with data points
+   * of the same time ordered by tag ID, so they can be written to a historian without sorting.
+   * Each data point costs O(log tags) to return. Tag priorities are not applied.
+   *
+   * <p>Data points are only returned once they are older than the settle time set by {@link
+   * #setMergedDrainSettleSecs(long)}, so that data points still being sampled cannot be returned
+   * after newer ones. Each tag group or set of tag groups keeps its own merge state, and a tag
+   * group should not be drained by both this method and {@link #getGroupNextData(int)}.
+   *
+   * <p>If there are no DataPoints old enough to return, null will be returned.
+   *
+   * @param includeTagGroupA if tag group A data should be included
+   * @param includeTagGroupB if tag group B data should be included
+   * @param includeTagGroupC if tag group C data should be included
+   * @param includeTagGroupD if tag group D data should be included
+   * @return a DataPoint object.
+   */
+  public static DataPoint getMergedNextData(
+      boolean includeTagGroupA,
+      boolean includeTagGroupB,
+      boolean includeTagGroupC,
+      boolean includeTagGroupD) {
+    int groupMask = 0;
+    groupMask |= includeTagGroupA ? 1 << GROUP_A : 0;
+    groupMask |= includeTagGroupB ? 1 << GROUP_B : 0;
+    groupMask |= includeTagGroupC ? 1 << GROUP_C : 0;
+    groupMask |= includeTagGroupD ? 1 << GROUP_D : 0;
+    RealTimeMergedDrain mergedDrain = getMergedDrain(groupMask);
+    return mergedDrain.removeNextDataPoint(tagManagers, getMergedDrainSettleSecs());
+  }
+
+  /**
+   * Sets the time data points may take from being sampled to being buffered. Data points are
+   * returned in timestamp order by {@link #getMergedNextData(boolean, boolean, boolean, boolean)}
+   * once they are older than this time. Tag groups in {@link #ACQUISITION_MODE_BULK_EXPORT} should
+   * use at least the duration of their export call. Default is 2.
+   *
+   * @param settleSecs The settle time in seconds.
+   */
+  public static synchronized void setMergedDrainSettleSecs(long settleSecs) {
+    if (settleSecs < 0) {
+      throw new IllegalArgumentException("Merged drain settle time must not be negative.");
+    }
+    mergedDrainSettleSecs = settleSecs;
+  }
+
+  /**
+   * Gets the time data points may take from being sampled to being buffered.
+   *
+   * @return the settle time in seconds
+   */
+  private static synchronized long getMergedDrainSettleSecs() {
+    return mergedDrainSettleSecs;
+  }
+
+  /**
+   * Gets the merged drain of a set of tag groups, creating it if it has not been created.
+   *
+   * @param groupMask The bit mask of the tag groups, with bit n set for tag group n.
+   * @return the merged drain of the tag groups
+   */
+  private static synchronized RealTimeMergedDrain getMergedDrain(int groupMask) {
+    if (mergedDrains[groupMask] == null) {
+      mergedDrains[groupMask] = new RealTimeMergedDrain(groupMask);
+    }
+    return mergedDrains[groupMask];
+  }
+
+  /**
+   * Sets the drain priority of a tag. Data points of higher priority tags are returned by {@link
+   * #getGroupNextData(int)} before those of lower priority tags, within the share set by {@link
+   * #setPriorityLaneWeight(int, int)}. Tags are {@link #TAG_PRIORITY_NORMAL} by default.
+   *
+   * <p>Changing the priority of a tag resets the drain lane metrics of its tag group.
+   *
+   * @param tagId The ID of the tag to configure.
+   * @param priority The tag priority, {@link #TAG_PRIORITY_HIGH} to {@link #TAG_PRIORITY_LOW}.
+   */
+  public static synchronized void setTagPriority(int tagId, int priority) {
+    if (priority < 0 || priority >= NUM_TAG_PRIORITIES) {
+      throw new IllegalArgumentException("Unknown tag priority " + priority + ".");
+    }
+    tagPriorities.put(new Integer(tagId), new Integer(priority));
+
+    if (tagManagers == null || groupDrainLanes == null) {
+      return;
+    }
+    for (int tagGroup = 0; tagGroup < NUM_TAG_GROUPS; tagGroup++) {
+      ArrayList tagGroupArray = (ArrayList) tagManagers.get(tagGroup);
+      if (tagGroupArray == null) {
+        continue;
+      }
+      for (int tagNum = 0; tagNum < tagGroupArray.size(); tagNum++) {
+        RealTimeTagDataPointManager manager =
+            (RealTimeTagDataPointManager) tagGroupArray.get(tagNum);
+        if (manager.getTagId() == tagId && manager.getPriority() != priority) {
+          manager.setPriority(priority);
+
+          // Publish the new drain lanes in a new array, the drain reads it without locking
+          RealTimeGroupDrainLanes[] updatedDrainLanes = new RealTimeGroupDrainLanes[NUM_TAG_GROUPS];
+          System.arraycopy(groupDrainLanes, 0, updatedDrainLanes, 0, NUM_TAG_GROUPS);
+          updatedDrainLanes[tagGroup] =
+              new RealTimeGroupDrainLanes(tagGroupArray, NUM_TAG_PRIORITIES);
+          groupDrainLanes = updatedDrainLanes;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the drain priority of a tag.
+   *
+   * @param tagId The ID of the tag.
+   * @return the tag priority
+   */
+  public static synchronized int getTagPriority(int tagId) {
+    Integer priority = (Integer) tagPriorities.get(new Integer(tagId));
+    return priority != null ? priority.intValue() : TAG_PRIORITY_NORMAL;
+  }
+
+  /**
+   * Sets the number of data points drained from a tag priority in each weighted round robin round.
+   * While several priorities have data points waiting, each receives a share of the data points
+   * returned by {@link #getGroupNextData(int)} proportional to its weight, and higher priorities
+   * are served first in each round. Default weights are 8 high, 3 normal and 1 low.
+   *
+   * @param priority The tag priority to configure.
+   * @param weight The number of data points drained per round, at least 1.
+   */
+  public static synchronized void setPriorityLaneWeight(int priority, int weight) {
+    if (weight < 1) {
+      throw new IllegalArgumentException("Priority lane weight must be at least 1.");
+    }
+    int[] updatedWeights = new int[NUM_TAG_PRIORITIES];
+    System.arraycopy(priorityLaneWeights, 0, updatedWeights, 0, NUM_TAG_PRIORITIES);
+    updatedWeights[priority] = weight;
+    priorityLaneWeights = updatedWeights;
+  }
+
+  /**
+   * Gets the number of data points waiting in a tag group for tags of a priority.
+   *
+   * @param tagGroup The tag group to get the backlog of.
+   * @param priority The tag priority to get the backlog of.
+   * @return the number of waiting data points
+   */
+  public static int getGroupLaneBacklog(int tagGroup, int priority) {
+    RealTimeGroupDrainLanes drainLanes = groupDrainLanes[tagGroup];
+    return drainLanes != null ? drainLanes.getBacklog(priority) : 0;
+  }
+
+  /**
+   * Gets the number of data points retrieved from a tag group for tags of a priority since the
+   * drain lane metrics were reset.
+   *
+   * @param tagGroup The tag group to get the count of.
+   * @param priority The tag priority to get the count of.
+   * @return the number of retrieved data points
+   */
+  public static long getGroupLaneDrainedCount(int tagGroup, int priority) {
+    RealTimeGroupDrainLanes drainLanes = groupDrainLanes[tagGroup];
+    return drainLanes != null ? drainLanes.getDrainedCount(priority) : 0;
+  }
+
+  /**
+   * Gets the average time the oldest data point of a tag of a priority had waited in a tag group,
+   * from being stored to the tag being drained, since the drain lane metrics were reset. The wait
+   * of the oldest data point is measured because tags are drained newest first.
+   *
+   * @param tagGroup The tag group to get the wait time of.
+   * @param priority The tag priority to get the wait time of.
+   * @return the average wait time in milliseconds
+   */
+  public static long getGroupLaneAverageWaitMillis(int tagGroup, int priority) {
+    RealTimeGroupDrainLanes drainLanes = groupDrainLanes[tagGroup];
+    return drainLanes != null ? drainLanes.getAverageWaitMillis(priority) : 0;
+  }
+
+  /**
+   * Gets the longest time the oldest data point of a tag of a priority had waited in a tag group,
+   * from being stored to the tag being drained, since the drain lane metrics were reset.
+   *
+   * @param tagGroup The tag group to get the wait time of.
+   * @param priority The tag priority to get the wait time of.
+   * @return the longest wait time in milliseconds
+   */
+  public static long getGroupLaneMaxWaitMillis(int tagGroup, int priority) {
+    RealTimeGroupDrainLanes drainLanes = groupDrainLanes[tagGroup];
+    return drainLanes != null ? drainLanes.getMaxWaitMillis(priority) : 0;
+  }
+
+  /**
+   * Resets the drain lane metrics of a tag group.
+   *
+   * @param tagGroup The tag group to reset the metrics of.
+   */
+  public static void resetGroupLaneMetrics(int tagGroup) {
+    RealTimeGroupDrainLanes drainLanes = groupDrainLanes[tagGroup];
+    if (drainLanes != null) {
+      drainLanes.resetMetrics();
     }
-    return data;
   }
 
   /**
@@ -141,28 +583,509 @@ public class RealTimeDataQueueManager {
 
   /**
    * Gets a new data point for each tag in a specified group and then adds it to an internal queue
-   * in the tag's tag Manager.
+   * in the tag's tag Manager. Sampling of low priority tag groups is skipped while under heap
+   * pressure. Tag groups in {@link #ACQUISITION_MODE_BULK_EXPORT} are read with a single export
+   * call, falling back to reading each tag if the export call fails. Changed values are delivered
+   * to the listeners subscribed to the tag group at the end of the sweep.
+   *
+   * <p>Tag groups can instead be sampled on their own worker threads, see {@link
+   * #startSamplingWorkers()}.
    *
    * @param tagGroup The tag group to fetch data from.
    */
   public static void dataFetcher(int tagGroup) {
+    final int shard = 0;
+    final int numShards = 1;
+    final int numTagsRead = sampleGroup(tagGroup, shard, numShards);
+    if (numTagsRead >= 0) {
+      setGroupLastSweepNumTagsRead(tagGroup, numTagsRead);
+    }
+  }
+
+  /**
+   * Gets a new data point for each tag in a shard of a tag group and then adds it to an internal
+   * queue in the tag's tag Manager. Shard <code>n</code> holds the tags whose index in the tag
+   * group is <code>n</code> modulo the number of shards. Tag groups in {@link
+   * #ACQUISITION_MODE_BULK_EXPORT} are read whole by shard 0 and skipped by other shards.
+   *
+   * @param tagGroup The tag group to fetch data from.
+   * @param shard The shard of the tag group to fetch data from.
+   * @param numShards The number of shards of the tag group.
+   * @return the number of tags read individually, or -1 if the tags were not read individually
+   */
+  static int sampleGroup(int tagGroup, int shard, int numShards) {
     ArrayList tagGroupArray = (ArrayList) tagManagers.get(tagGroup);
-    if (tagGroupArray != null) {
-      // for each tag in the tag group, record a new value
-      for (int tagNum = 0; tagNum < tagGroupArray.size(); tagNum++) {
-        TagInfo currentTag = ((TagInfo) ((ArrayList) tagGroupList.get(tagGroup)).get(tagNum));
-        ((RealTimeTagDataPointManager) tagGroupArray.get(tagNum)).recordCurentTagValue(currentTag);
-        final int numTagsBeforeSleep = 1;
-        final int sleepMilliseconds = 1;
-        if ((tagNum % numTagsBeforeSleep) == 0) {
-          try {
-            Thread.sleep(sleepMilliseconds);
-          } catch (InterruptedException e) {
-            Logger.LOG_WARN("Unable to sleep thread between real time data reads.");
-            Logger.LOG_EXCEPTION(e);
-          }
+    if (applyHeapPressure(tagGroupArray, tagGroup, shard, numShards)) {
+      return -1;
+    }
+
+    if (tagGroupArray != null
+        && getGroupAcquisitionMode(tagGroup) == ACQUISITION_MODE_BULK_EXPORT) {
+      if (shard != 0) {
+        return -1;
+      }
+      try {
+        getGroupSnapshotReader(tagGroup, tagGroupArray).read();
+        enforceMaxDataPointsPerTag(tagGroupArray, tagGroup, shard, numShards);
+        RealTimeSubscription.deliver(tagGroup);
+        return -1;
+      } catch (IOException e) {
+        Logger.LOG_WARN(
+            "Unable to read tag group " + tagGroup + " with export call, reading each tag.");
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+
+    if (tagGroupArray == null) {
+      return -1;
+    }
+
+    final boolean adaptive = isAdaptivePollingEnabled();
+    final int maxPollIntervalSweeps = getAdaptivePollingMaxIntervalSweeps();
+    int numTagsRead = 0;
+    // for each tag in the shard of the tag group, record a new value
+    for (int tagNum = shard; tagNum < tagGroupArray.size(); tagNum += numShards) {
+      RealTimeTagDataPointManager manager =
+          (RealTimeTagDataPointManager) tagGroupArray.get(tagNum);
+      if (!adaptive) {
+        manager.recordCurentTagValue();
+      } else if (!manager.recordCurentTagValueAdaptive(maxPollIntervalSweeps)) {
+        continue;
+      }
+      numTagsRead++;
+      final int numTagsBeforeSleep = 1;
+      final int sleepMilliseconds = 1;
+      if ((tagNum % numTagsBeforeSleep) == 0) {
+        try {
+          Thread.sleep(sleepMilliseconds);
+        } catch (InterruptedException e) {
+          Logger.LOG_WARN("Unable to sleep thread between real time data reads.");
+          Logger.LOG_EXCEPTION(e);
         }
       }
     }
+    enforceMaxDataPointsPerTag(tagGroupArray, tagGroup, shard, numShards);
+    RealTimeSubscription.deliver(tagGroup);
+    return numTagsRead;
+  }
+
+  /**
+   * Sets the number of shards a tag group is split into when sampled by worker threads, each
+   * sampled by its own worker. Splitting a large tag group shortens its sweeps. Applies when the
+   * workers are next started. Default is 1.
+   *
+   * @param tagGroup The tag group to configure.
+   * @param numShards The number of shards, at least 1.
+   */
+  public static void setGroupSamplingShards(int tagGroup, int numShards) {
+    RealTimeSamplingWorkers.setNumShards(tagGroup, numShards);
+  }
+
+  /**
+   * Gets the number of shards a tag group is split into when sampled by worker threads.
+   *
+   * @param tagGroup The tag group to get the number of shards of.
+   * @return the number of shards of the tag group
+   */
+  public static int getGroupSamplingShards(int tagGroup) {
+    return RealTimeSamplingWorkers.getNumShards(tagGroup);
+  }
+
+  /**
+   * Sets the period at which the worker threads of a tag group sample it. A sweep which takes
+   * longer than the period is followed immediately by the next sweep. Default is 1000.
+   *
+   * @param tagGroup The tag group to configure.
+   * @param periodMillis The sampling period in milliseconds.
+   */
+  public static void setGroupSamplingPeriodMillis(int tagGroup, long periodMillis) {
+    RealTimeSamplingWorkers.setPeriodMillis(tagGroup, periodMillis);
+  }
+
+  /**
+   * Gets the period at which the worker threads of a tag group sample it.
+   *
+   * @param tagGroup The tag group to get the sampling period of.
+   * @return the sampling period in milliseconds
+   */
+  public static long getGroupSamplingPeriodMillis(int tagGroup) {
+    return RealTimeSamplingWorkers.getPeriodMillis(tagGroup);
+  }
+
+  /**
+   * Starts sampling each tag group on its own worker threads, one per shard, instead of calling
+   * {@link #dataFetcher(int)}. A slow tag group then does not delay the sampling of the other tag
+   * groups. Each tag is sampled by a single worker, tag buffers are locked per tag and settings are
+   * read without locking, so workers only wait for each other briefly, see {@link
+   * RealTimeSamplingWorkers}. Listeners are called from the workers of the tag groups whose changes
+   * they receive, possibly from several at once. {@link #dataFetcher(int)} should not be called
+   * while the workers are running. Calling this method while the workers are running has no
+   * effect.
+   */
+  public static void startSamplingWorkers() {
+    RealTimeSamplingWorkers.start();
+  }
+
+  /** Stops the sampling worker threads. Buffered data points are kept. */
+  public static void stopSamplingWorkers() {
+    RealTimeSamplingWorkers.stop();
+  }
+
+  /**
+   * Gets a boolean representing if the sampling worker threads are running.
+   *
+   * @return true if the sampling workers are running
+   */
+  public static boolean isSamplingWorkersRunning() {
+    return RealTimeSamplingWorkers.isRunning();
+  }
+
+  /**
+   * Gets the duration of the last sweep of a tag group by the sampling worker threads, the longest
+   * of its shards. A duration close to the sampling period shows the tag group needs more shards.
+   *
+   * @param tagGroup The tag group to get the sweep duration of.
+   * @return the sweep duration in milliseconds, or 0 if the sampling workers are not running
+   */
+  public static long getGroupLastSweepMillis(int tagGroup) {
+    return RealTimeSamplingWorkers.getLastSweepMillis(tagGroup);
+  }
+
+  /**
+   * Sets if buffered data points are held in compressed form. Times are delta-of-delta encoded,
+   * float values XOR encoded, integer and dword values zig-zag varint encoded and boolean values
+   * run length encoded, in byte blocks of {@link RealTimeCompressedBuffer#CHUNK_SIZE} data points
+   * per tag. Data points are decoded when retrieved. Slowly changing values use a fraction of the
+   * memory of data point objects, so more data points can be buffered in the same heap. String
+   * tags are not compressed. Applies to data points already buffered. Default is false.
+   *
+   * @param enabled true to hold buffered data points in compressed form
+   */
+  public static synchronized void setCompressedBuffersEnabled(boolean enabled) {
+    compressedBuffersEnabled = enabled;
+    if (tagManagers == null) {
+      return;
+    }
+    for (int tagGroup = 0; tagGroup < NUM_TAG_GROUPS; tagGroup++) {
+      ArrayList tagGroupArray = (ArrayList) tagManagers.get(tagGroup);
+      if (tagGroupArray != null) {
+        for (int tagNum = 0; tagNum < tagGroupArray.size(); tagNum++) {
+          ((RealTimeTagDataPointManager) tagGroupArray.get(tagNum)).setCompressionEnabled(enabled);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets a boolean representing if buffered data points are held in compressed form.
+   *
+   * @return true if buffered data points are compressed
+   */
+  public static synchronized boolean isCompressedBuffersEnabled() {
+    return compressedBuffersEnabled;
+  }
+
+  /**
+   * Gets the number of bytes used by the compressed buffers of a tag group.
+   *
+   * @param tagGroup The tag group to get the compressed buffer size of.
+   * @return the number of bytes used by the compressed buffers of the tag group
+   */
+  public static int getGroupCompressedSizeBytes(int tagGroup) {
+    int sizeBytes = 0;
+    ArrayList tagGroupList = (ArrayList) tagManagers.get(tagGroup);
+    if (tagGroupList != null) {
+      for (int i = 0; i < tagGroupList.size(); i++) {
+        sizeBytes += ((RealTimeTagDataPointManager) tagGroupList.get(i)).getCompressedSizeBytes();
+      }
+    }
+    return sizeBytes;
+  }
+
+  /**
+   * Sets if tags read individually are polled adaptively. Each time a tag is read unchanged, the
+   * number of sampling sweeps between its reads doubles, up to the maximum set by {@link
+   * #setAdaptivePollingMaxIntervalSweeps(int)}. A tag whose value changes is read every sweep
+   * again. Static tags are then read rarely, and sweep time shrinks with the number of active
+   * tags, at the cost of detecting the first change of a static tag up to the maximum interval
+   * late. Tag groups in {@link #ACQUISITION_MODE_BULK_EXPORT} are not affected. Default is false.
+   *
+   * @param enabled true to poll tags adaptively
+   */
+  public static synchronized void setAdaptivePollingEnabled(boolean enabled) {
+    adaptivePollingEnabled = enabled;
+  }
+
+  /**
+   * Gets a boolean representing if tags read individually are polled adaptively.
+   *
+   * @return true if tags are polled adaptively
+   */
+  public static boolean isAdaptivePollingEnabled() {
+    return adaptivePollingEnabled;
+  }
+
+  /**
+   * Sets the maximum number of sampling sweeps between adaptive reads of a tag. Default is 16.
+   *
+   * @param maxIntervalSweeps maximum number of sweeps between reads of a tag, at least 1
+   */
+  public static synchronized void setAdaptivePollingMaxIntervalSweeps(int maxIntervalSweeps) {
+    if (maxIntervalSweeps < 1) {
+      throw new IllegalArgumentException("Adaptive polling interval must be at least 1 sweep.");
+    }
+    adaptivePollingMaxIntervalSweeps = maxIntervalSweeps;
+  }
+
+  /**
+   * Gets the maximum number of sampling sweeps between adaptive reads of a tag.
+   *
+   * @return maximum number of sweeps between reads of a tag
+   */
+  public static int getAdaptivePollingMaxIntervalSweeps() {
+    return adaptivePollingMaxIntervalSweeps;
+  }
+
+  /**
+   * Gets the number of tags read individually in the last sampling sweep of a tag group. With
+   * adaptive polling, this shows how many tags of the tag group are active.
+   *
+   * @param tagGroup The tag group to get the number of tags read of.
+   * @return the number of tags read in the last sampling sweep
+   */
+  public static int getGroupLastSweepNumTagsRead(int tagGroup) {
+    return lastSweepNumTagsRead[tagGroup];
+  }
+
+  /**
+   * Sets the number of tags read individually in the last sampling sweep of a tag group.
+   *
+   * @param tagGroup The tag group to set the number of tags read of.
+   * @param numTagsRead the number of tags read in the last sampling sweep
+   */
+  static void setGroupLastSweepNumTagsRead(int tagGroup, int numTagsRead) {
+    lastSweepNumTagsRead[tagGroup] = numTagsRead;
+  }
+
+  /**
+   * Subscribes a listener to changes of a tag. Changes are delivered in batches on the sampling
+   * thread at the end of each sampling sweep, see {@link RealTimeDataListener}.
+   *
+   * @param tagId The ID of the tag to subscribe to.
+   * @param listener The listener to notify of changes.
+   * @return the subscription, used to unsubscribe
+   */
+  public static RealTimeSubscription subscribeTag(int tagId, RealTimeDataListener listener) {
+    return subscribeTags(new int[] {tagId}, listener);
+  }
+
+  /**
+   * Subscribes a listener to changes of a set of tags. Changes are delivered in batches on the
+   * sampling thread at the end of each sampling sweep, see {@link RealTimeDataListener}.
+   *
+   * @param tagIds The IDs of the tags to subscribe to.
+   * @param listener The listener to notify of changes.
+   * @return the subscription, used to unsubscribe
+   */
+  public static RealTimeSubscription subscribeTags(int[] tagIds, RealTimeDataListener listener) {
+    RealTimeSubscription subscription =
+        new RealTimeSubscription(listener, tagIds, 0, getSubscriptionMaxQueueSize());
+    RealTimeSubscription.register(subscription);
+    return subscription;
+  }
+
+  /**
+   * Subscribes a listener to changes of all tags in a tag group. Changes are delivered in batches
+   * on the sampling thread at the end of each sampling sweep, see {@link RealTimeDataListener}.
+   *
+   * @param tagGroup The tag group to subscribe to.
+   * @param listener The listener to notify of changes.
+   * @return the subscription, used to unsubscribe
+   */
+  public static RealTimeSubscription subscribeGroup(int tagGroup, RealTimeDataListener listener) {
+    if (tagGroup < 0 || tagGroup >= NUM_TAG_GROUPS) {
+      throw new IllegalArgumentException("Unknown tag group " + tagGroup + ".");
+    }
+    RealTimeSubscription subscription =
+        new RealTimeSubscription(listener, null, 1 << tagGroup, getSubscriptionMaxQueueSize());
+    RealTimeSubscription.register(subscription);
+    return subscription;
+  }
+
+  /**
+   * Unsubscribes a listener. Changes queued for the subscription are discarded.
+   *
+   * @param subscription The subscription to cancel.
+   * @return true if the subscription was active
+   */
+  public static boolean unsubscribe(RealTimeSubscription subscription) {
+    return RealTimeSubscription.unregister(subscription);
+  }
+
+  /**
+   * Sets the maximum number of changes queued per subscription between deliveries. Each tag is
+   * queued at most once, so this is the maximum number of distinct changed tags per batch. When
+   * the queue is full, the oldest queued change is dropped. Applies to subscriptions created
+   * afterwards. Default is 256.
+   *
+   * @param maxQueueSize maximum number of changes queued per subscription
+   */
+  public static synchronized void setSubscriptionMaxQueueSize(int maxQueueSize) {
+    if (maxQueueSize <= 0) {
+      throw new IllegalArgumentException("Subscription queue size must be positive.");
+    }
+    subscriptionMaxQueueSize = maxQueueSize;
+  }
+
+  /**
+   * Gets the maximum number of changes queued per subscription.
+   *
+   * @return maximum number of changes queued per subscription
+   */
+  private static synchronized int getSubscriptionMaxQueueSize() {
+    return subscriptionMaxQueueSize;
+  }
+
+  /**
+   * Sets the maximum number of data points buffered per tag. When a tag's buffer is full, its
+   * oldest data points are discarded and the discarded time interval is recorded as a gap, which
+   * can be recovered from the historical logs with {@link #setGapBackfillEnabled(boolean)}. A
+   * maximum of 0 disables the limit. Default is 0.
+   *
+   * @param maxDataPoints maximum number of data points buffered per tag
+   */
+  public static synchronized void setMaxDataPointsPerTag(int maxDataPoints) {
+    maxDataPointsPerTag = maxDataPoints;
+  }
+
+  /**
+   * Sets if gaps in real time data are recovered from the historical logs by a low priority
+   * background task. Gaps are recorded whenever data points are discarded from a full tag buffer
+   * or cannot be spilled under critical heap pressure, and are recovered once the historical logs
+   * cover them. Only tags with historical logging enabled can be recovered. Recovered data points
+   * are retrieved with {@link #getGroupNextBackfillData(int)}.
+   *
+   * @param enabled true to recover gaps from the historical logs
+   */
+  public static void setGapBackfillEnabled(boolean enabled) {
+    if (enabled) {
+      RealTimeGapBackfill.start();
+    } else {
+      RealTimeGapBackfill.stop();
+    }
+  }
+
+  /**
+   * Sets the period of the gap backfill task in milliseconds. Default is 60 seconds.
+   *
+   * @param periodMillis gap backfill task period in milliseconds
+   */
+  public static void setGapBackfillPeriodMillis(long periodMillis) {
+    RealTimeGapBackfill.setBackfillPeriodMillis(periodMillis);
+  }
+
+  /**
+   * Gets the number of gaps in the real time data of a tag group which have not been recovered.
+   *
+   * @param tagGroup The tag group to get the number of gaps of.
+   * @return the number of unrecovered gaps in the tag group
+   */
+  public static int getNumGroupGaps(int tagGroup) {
+    return RealTimeGapBackfill.getNumGaps(tagGroup);
+  }
+
+  /**
+   * Removes and returns the oldest data point recovered from the historical logs for a gap in the
+   * real time data of a tag group, or spilled to flash under critical heap pressure. Spilled data
+   * points are restored when there is no heap pressure, even if gap backfill is not enabled.
+   *
+   * <p>If there are no recovered data points, null will be returned.
+   *
+   * @param tagGroup The tag group to select a recovered data point from.
+   * @return a DataPoint object.
+   */
+  public static DataPoint getGroupNextBackfillData(int tagGroup) {
+    return RealTimeGapBackfill.removeBackfillDataPoint(tagGroup);
+  }
+
+  /**
+   * Gets the number of data points recovered from the historical logs for a tag group. At most
+   * 2048 recovered data points are held per tag group, and gaps are recovered as they are removed.
+   *
+   * @param tagGroup The tag group to get the number of recovered data points from.
+   * @return the number of recovered data points in the specified group
+   */
+  public static int getNumGroupBackfillDataPoints(int tagGroup) {
+    return RealTimeGapBackfill.getNumBackfillDataPoints(tagGroup);
+  }
+
+  /**
+   * Gets the maximum number of data points buffered per tag.
+   *
+   * @return maximum number of data points buffered per tag, or 0 for no limit
+   */
+  private static int getMaxDataPointsPerTag() {
+    return maxDataPointsPerTag;
+  }
+
+  /**
+   * Discard the oldest data points of each tag in a shard of a tag group whose buffer exceeds the
+   * maximum number of data points per tag, and record the discarded intervals as gaps. Only the
+   * buffers of the shard's tags are locked.
+   *
+   * @param tagGroupArray The tag data point managers of the tag group.
+   * @param tagGroup The tag group to limit.
+   * @param shard The shard of the tag group to limit.
+   * @param numShards The number of shards of the tag group.
+   */
+  private static void enforceMaxDataPointsPerTag(
+      ArrayList tagGroupArray, int tagGroup, int shard, int numShards) {
+    final int maxDataPoints = getMaxDataPointsPerTag();
+    if (maxDataPoints <= 0) {
+      return;
+    }
+    for (int tagNum = shard; tagNum < tagGroupArray.size(); tagNum += numShards) {
+      RealTimeTagDataPointManager manager =
+          (RealTimeTagDataPointManager) tagGroupArray.get(tagNum);
+      if (manager.trimToSize(maxDataPoints) > 0) {
+        RealTimeGapBackfill.recordGap(tagGroup, manager);
+      }
+    }
+  }
+
+  /**
+   * Gets the snapshot reader of a tag group, creating it if it has not been created. Only creating
+   * the snapshot reader takes the class lock.
+   *
+   * @param tagGroup The tag group to get the snapshot reader of.
+   * @param tagGroupArray The tag data point managers of the tag group.
+   * @return the snapshot reader of the tag group
+   */
+  private static RealTimeGroupSnapshotReader getGroupSnapshotReader(
+      int tagGroup, ArrayList tagGroupArray) {
+    RealTimeGroupSnapshotReader snapshotReader = groupSnapshotReaders[tagGroup];
+    if (snapshotReader == null) {
+      snapshotReader = createGroupSnapshotReader(tagGroup, tagGroupArray);
+    }
+    return snapshotReader;
+  }
+
+  /**
+   * Creates the snapshot reader of a tag group if it has not been created.
+   *
+   * @param tagGroup The tag group to create the snapshot reader of.
+   * @param tagGroupArray The tag data point managers of the tag group.
+   * @return the snapshot reader of the tag group
+   */
+  private static synchronized RealTimeGroupSnapshotReader createGroupSnapshotReader(
+      int tagGroup, ArrayList tagGroupArray) {
+    if (groupSnapshotReaders[tagGroup] == null) {
+      RealTimeGroupSnapshotReader[] updatedSnapshotReaders =
+          new RealTimeGroupSnapshotReader[NUM_TAG_GROUPS];
+      System.arraycopy(groupSnapshotReaders, 0, updatedSnapshotReaders, 0, NUM_TAG_GROUPS);
+      updatedSnapshotReaders[tagGroup] = new RealTimeGroupSnapshotReader(tagGroup, tagGroupArray);
+      groupSnapshotReaders = updatedSnapshotReaders;
+    }
+    return groupSnapshotReaders[tagGroup];
   }
 }
@@ -0,0 +1,339 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.datapoint.DataPointBoolean;
+import com.hms_networks.americas.sc.datapoint.DataPointDword;
+import com.hms_networks.americas.sc.datapoint.DataPointFloat;
+import com.hms_networks.americas.sc.datapoint.DataPointInteger;
+import com.hms_networks.americas.sc.datapoint.DataPointIntegerMappedString;
+import com.hms_networks.americas.sc.datapoint.DataPointString;
+import com.hms_networks.americas.sc.datapoint.DataQuality;
+import com.hms_networks.americas.sc.logging.Logger;
+
+/**
+ * Class to spill real time data points removed from memory under critical heap pressure to one
+ * file per tag group in flash, and restore them once the pressure has eased. Spilled data points
+ * are restored to the recovered data points of their tag group, see {@link RealTimeGapBackfill}.
+ *
+ * <p>Each spilled data point is written as:
+ *
+ * <pre>
+ * type       byte, one of the SPILL_TYPE_ constants
+ * tag ID     int
+ * tag name   UTF string
+ * time       UTF string
+ * quality    int raw data quality
+ * value      float, int, long, boolean or UTF string depending on the type
+ * </pre>
+ *
+ * <p>Spill files are bounded by {@link #MAX_SPILL_FILE_BYTES}. Data points which cannot be spilled,
+ * including {@link DataPointIntegerMappedString} data points whose mapping would be lost, are
+ * returned to the caller, which records them as gaps.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class RealTimeDataSpill {
+
+  /** Folder of the spill files, shared with the other library files. */
+  private static final String SPILL_FILE_FOLDER = "/usr/hist-data-queue";
+
+  /** Prefix of the spill file name of each tag group, followed by the tag group index. */
+  private static final String SPILL_FILE_PREFIX = "/rtSpill";
+
+  /** Extension of spill files. */
+  private static final String SPILL_FILE_EXTENSION = ".q";
+
+  /** Maximum size of the spill file of each tag group in bytes. */
+  private static final long MAX_SPILL_FILE_BYTES = 1024 * 1024;
+
+  /** Spill type of {@link DataPointFloat} data points. */
+  private static final int SPILL_TYPE_FLOAT = 0;
+
+  /** Spill type of {@link DataPointInteger} data points. */
+  private static final int SPILL_TYPE_INTEGER = 1;
+
+  /** Spill type of {@link DataPointDword} data points. */
+  private static final int SPILL_TYPE_DWORD = 2;
+
+  /** Spill type of {@link DataPointBoolean} data points. */
+  private static final int SPILL_TYPE_BOOLEAN = 3;
+
+  /** Spill type of {@link DataPointString} data points. */
+  private static final int SPILL_TYPE_STRING = 4;
+
+  /** Offset in the spill file of each tag group of the oldest data point not restored. */
+  private static final long[] readOffsets = new long[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+
+  /**
+   * Boolean flags indicating which tag groups have spilled data points, including data points
+   * spilled before a restart. Read without locking to check for spilled data points cheaply.
+   */
+  private static volatile boolean[] groupsSpilled =
+      new boolean[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+
+  static {
+    boolean[] spilled = new boolean[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+    for (int i = 0; i < spilled.length; i++) {
+      spilled[i] = new File(getSpillFileName(i)).exists();
+    }
+    groupsSpilled = spilled;
+  }
+
+  /**
+   * Gets a boolean representing if the specified tag group has spilled data points. This method
+   * does not lock.
+   *
+   * @param tagGroup index of the tag group
+   * @return true if the tag group has spilled data points
+   */
+  static boolean hasSpilledData(int tagGroup) {
+    return groupsSpilled[tagGroup];
+  }
+
+  /**
+   * Appends the specified data points to the spill file of the specified tag group. The data points
+   * are written in a single write, and the file is truncated back if it fails, so either all
+   * spillable data points are spilled or none are.
+   *
+   * @param tagGroup index of the tag group
+   * @param dataPoints data points to spill
+   * @return data points which were not spilled, empty if all were spilled
+   */
+  static synchronized ArrayList spill(int tagGroup, ArrayList dataPoints) {
+    ArrayList notSpilled = new ArrayList();
+    if (dataPoints.isEmpty()) {
+      return notSpilled;
+    }
+
+    ByteArrayOutputStream spillBytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(spillBytes);
+    try {
+      for (int i = 0; i < dataPoints.size(); i++) {
+        DataPoint dataPoint = (DataPoint) dataPoints.get(i);
+        if (!writeDataPoint(out, dataPoint)) {
+          notSpilled.add(dataPoint);
+        }
+      }
+      out.flush();
+    } catch (IOException e) {
+      // Writing to a byte array does not fail
+      return new ArrayList(dataPoints);
+    }
+    if (notSpilled.size() == dataPoints.size()) {
+      return notSpilled;
+    }
+
+    final String spillFileName = getSpillFileName(tagGroup);
+    new File(SPILL_FILE_FOLDER).mkdirs();
+    RandomAccessFile spillFile = null;
+    long originalLength = -1;
+    try {
+      spillFile = new RandomAccessFile(spillFileName, "rw");
+      originalLength = spillFile.length();
+      if (originalLength + spillBytes.size() > MAX_SPILL_FILE_BYTES) {
+        Logger.LOG_WARN("Real time data spill file of tag group " + tagGroup + " is full.");
+        return new ArrayList(dataPoints);
+      }
+      spillFile.seek(originalLength);
+      spillFile.write(spillBytes.toByteArray());
+      setSpilled(tagGroup, true);
+      return notSpilled;
+    } catch (IOException e) {
+      Logger.LOG_WARN("Unable to spill real time data of tag group " + tagGroup + ".");
+      Logger.LOG_EXCEPTION(e);
+      truncate(spillFile, originalLength);
+      return new ArrayList(dataPoints);
+    } finally {
+      close(spillFile);
+    }
+  }
+
+  /**
+   * Removes and returns up to the specified number of the oldest spilled data points of the
+   * specified tag group. The spill file is deleted once all of its data points are restored.
+   *
+   * @param tagGroup index of the tag group
+   * @param maxDataPoints maximum number of data points to restore
+   * @return restored data points, oldest first
+   */
+  static synchronized ArrayList restore(int tagGroup, int maxDataPoints) {
+    ArrayList restored = new ArrayList();
+    if (!groupsSpilled[tagGroup] || maxDataPoints <= 0) {
+      return restored;
+    }
+
+    final String spillFileName = getSpillFileName(tagGroup);
+    if (!new File(spillFileName).exists()) {
+      readOffsets[tagGroup] = 0;
+      setSpilled(tagGroup, false);
+      return restored;
+    }
+    RandomAccessFile spillFile = null;
+    try {
+      spillFile = new RandomAccessFile(spillFileName, "r");
+      spillFile.seek(readOffsets[tagGroup]);
+      while (restored.size() < maxDataPoints && spillFile.getFilePointer() < spillFile.length()) {
+        restored.add(readDataPoint(spillFile));
+        readOffsets[tagGroup] = spillFile.getFilePointer();
+      }
+      if (readOffsets[tagGroup] < spillFile.length()) {
+        return restored;
+      }
+    } catch (EOFException e) {
+      Logger.LOG_WARN(
+          "Real time data spill file of tag group " + tagGroup + " ends with a partial record.");
+    } catch (IOException e) {
+      Logger.LOG_WARN("Unable to restore spilled real time data of tag group " + tagGroup + ".");
+      Logger.LOG_EXCEPTION(e);
+      return restored;
+    } finally {
+      close(spillFile);
+    }
+
+    // All spilled data points were restored
+    new File(spillFileName).delete();
+    readOffsets[tagGroup] = 0;
+    setSpilled(tagGroup, false);
+    return restored;
+  }
+
+  /**
+   * Write a data point to a spill stream.
+   *
+   * @param out stream to write to
+   * @param dataPoint data point to write
+   * @return true if written, false if the data point type cannot be spilled
+   * @throws IOException if unable to write to the stream
+   */
+  private static boolean writeDataPoint(DataOutputStream out, DataPoint dataPoint)
+      throws IOException {
+    final int spillType;
+    if (dataPoint instanceof DataPointIntegerMappedString) {
+      // The value mapping is not kept when spilled
+      return false;
+    } else if (dataPoint instanceof DataPointFloat) {
+      spillType = SPILL_TYPE_FLOAT;
+    } else if (dataPoint instanceof DataPointInteger) {
+      spillType = SPILL_TYPE_INTEGER;
+    } else if (dataPoint instanceof DataPointDword) {
+      spillType = SPILL_TYPE_DWORD;
+    } else if (dataPoint instanceof DataPointBoolean) {
+      spillType = SPILL_TYPE_BOOLEAN;
+    } else if (dataPoint instanceof DataPointString) {
+      spillType = SPILL_TYPE_STRING;
+    } else {
+      return false;
+    }
+
+    out.writeByte(spillType);
+    out.writeInt(dataPoint.getTagId());
+    out.writeUTF(dataPoint.getTagName());
+    out.writeUTF(dataPoint.getTimeStamp());
+    out.writeInt(dataPoint.getQuality().getRawDataQuality());
+    if (spillType == SPILL_TYPE_FLOAT) {
+      out.writeFloat(((DataPointFloat) dataPoint).getValue());
+    } else if (spillType == SPILL_TYPE_INTEGER) {
+      out.writeInt(((DataPointInteger) dataPoint).getValue());
+    } else if (spillType == SPILL_TYPE_DWORD) {
+      out.writeLong(((DataPointDword) dataPoint).getValue());
+    } else if (spillType == SPILL_TYPE_BOOLEAN) {
+      out.writeBoolean(((DataPointBoolean) dataPoint).getValue());
+    } else {
+      out.writeUTF(((DataPointString) dataPoint).getValue());
+    }
+    return true;
+  }
+
+  /**
+   * Read a data point from a spill file.
+   *
+   * @param in spill file positioned at a data point
+   * @return data point read
+   * @throws IOException if unable to read the spill file or it holds an unknown type
+   */
+  private static DataPoint readDataPoint(RandomAccessFile in) throws IOException {
+    final int spillType = in.readByte();
+    final int tagId = in.readInt();
+    final String tagName = in.readUTF();
+    final String timeStamp = in.readUTF();
+    final DataQuality quality = DataQuality.fromRawDataQuality(in.readInt());
+    switch (spillType) {
+      case SPILL_TYPE_FLOAT:
+        return new DataPointFloat(tagName, tagId, in.readFloat(), timeStamp, quality);
+      case SPILL_TYPE_INTEGER:
+        return new DataPointInteger(tagName, tagId, in.readInt(), timeStamp, quality);
+      case SPILL_TYPE_DWORD:
+        return new DataPointDword(tagName, tagId, in.readLong(), timeStamp, quality);
+      case SPILL_TYPE_BOOLEAN:
+        return new DataPointBoolean(tagName, tagId, in.readBoolean(), timeStamp, quality);
+      case SPILL_TYPE_STRING:
+        return new DataPointString(tagName, tagId, in.readUTF(), timeStamp, quality);
+      default:
+        throw new IOException("Unknown real time data spill type " + spillType + ".");
+    }
+  }
+
+  /**
+   * Set the spilled flag of a tag group, replacing the flag array so it can be read without
+   * locking.
+   *
+   * @param tagGroup index of the tag group
+   * @param spilled true if the tag group has spilled data points
+   */
+  private static synchronized void setSpilled(int tagGroup, boolean spilled) {
+    boolean[] updatedGroupsSpilled = new boolean[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+    System.arraycopy(groupsSpilled, 0, updatedGroupsSpilled, 0, updatedGroupsSpilled.length);
+    updatedGroupsSpilled[tagGroup] = spilled;
+    groupsSpilled = updatedGroupsSpilled;
+  }
+
+  /**
+   * Truncate a spill file back to its length before a failed write.
+   *
+   * @param spillFile spill file, or null if it was not opened
+   * @param length length to truncate to, or -1 if it is unknown
+   */
+  private static void truncate(RandomAccessFile spillFile, long length) {
+    if (spillFile != null && length >= 0) {
+      try {
+        spillFile.setLength(length);
+      } catch (IOException e) {
+        Logger.LOG_WARN("Unable to truncate real time data spill file after a failed write.");
+      }
+    }
+  }
+
+  /**
+   * Close a spill file, logging failures.
+   *
+   * @param spillFile spill file, or null if it was not opened
+   */
+  private static void close(RandomAccessFile spillFile) {
+    if (spillFile != null) {
+      try {
+        spillFile.close();
+      } catch (IOException e) {
+        Logger.LOG_WARN("Unable to close real time data spill file.");
+      }
+    }
+  }
+
+  /**
+   * Gets the name of the spill file of the specified tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @return spill file name
+   */
+  private static String getSpillFileName(int tagGroup) {
+    return SPILL_FILE_FOLDER + SPILL_FILE_PREFIX + tagGroup + SPILL_FILE_EXTENSION;
+  }
+}
@@ -0,0 +1,608 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.datapoint.DataPointString;
+import com.hms_networks.americas.sc.historicaldata.HistoricalDataManager;
+import com.hms_networks.americas.sc.logging.Logger;
+import com.hms_networks.americas.sc.tagdata.HeapPressureGovernor;
+import com.hms_networks.americas.sc.taginfo.TagType;
+
+/**
+ * Class to record the time intervals of real time data points discarded from tag buffers, and
+ * recover them from the historical logs with a low priority background task. Recovered data points
+ * are queued per tag group, separately from the real time data.
+ *
+ * <p>Gaps of tags with historical logging enabled can be recovered from the historical logs. Gaps
+ * are recovered once they are older than {@link #BACKFILL_SETTLE_SECS}, so that the historical log
+ * contains the whole interval.
+ *
+ * <p>Data points removed from memory under critical heap pressure are spilled to flash by {@link
+ * RealTimeDataSpill} instead of being discarded, so they are kept for every tag. Spilled data
+ * points are restored to the recovered data points of their tag group once there is no heap
+ * pressure, by the background task or when the recovered data points are empty. Data points which
+ * cannot be spilled are recorded as gaps.
+ *
+ * <p>The recovered data points of each tag group are bounded by {@link
+ * #MAX_BACKFILL_DATA_POINTS_PER_GROUP}. Gaps are not recovered while the recovered data points of
+ * their tag group are full, and recovered data points which do not fit are recorded as gaps again.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class RealTimeGapBackfill {
+
+  /** Minimum age in seconds of a gap before it is recovered from the historical logs. */
+  private static final long BACKFILL_SETTLE_SECS = 30;
+
+  /** Maximum number of gaps recorded per tag group. The oldest gaps are dropped first. */
+  private static final int MAX_GAPS_PER_GROUP = 1024;
+
+  /**
+   * Maximum number of recovered data points held per tag group. The data points of a second are
+   * recovered together, so the limit can be exceeded by the data points of one second.
+   */
+  private static final int MAX_BACKFILL_DATA_POINTS_PER_GROUP = 2048;
+
+  /** Minimum number of removed entries at the start of the recovered data points to compact. */
+  private static final int MIN_COMPACT_HEAD = 16;
+
+  /** Number of milliseconds in a second. */
+  private static final long MS_PER_SEC = 1000;
+
+  /** Gap index of the tag ID. */
+  private static final int GAP_TAG_ID = 0;
+
+  /** Gap index of the start time in seconds, inclusive. */
+  private static final int GAP_START = 1;
+
+  /** Gap index of the end time in seconds, inclusive. */
+  private static final int GAP_END = 2;
+
+  /** Gap index of the string tag flag, 1 for string tags. */
+  private static final int GAP_STRING = 3;
+
+  /** Period of the backfill task in milliseconds. Default is 60 seconds. */
+  private static long backfillPeriodMillis = 60000;
+
+  /** Recorded gaps of each tag group, each gap is a <code>long[]</code> of the GAP_ indexes. */
+  private static final ArrayList[] groupGaps =
+      new ArrayList[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+
+  /** Recovered data points of each tag group. */
+  private static final ArrayList[] groupBackfillData =
+      new ArrayList[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+
+  /**
+   * Index of the oldest recovered data point of each tag group. Entries before it were removed and
+   * are compacted away once they are at least half of the list.
+   */
+  private static final int[] groupBackfillHeads = new int[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+
+  /** The thread running the backfill task, or null if the task is not running. */
+  private static Thread backfillThread = null;
+
+  static {
+    for (int i = 0; i < RealTimeDataQueueManager.NUM_TAG_GROUPS; i++) {
+      groupGaps[i] = new ArrayList();
+      groupBackfillData[i] = new ArrayList();
+    }
+  }
+
+  /**
+   * Sets the period of the backfill task in milliseconds.
+   *
+   * @param periodMillis backfill task period in milliseconds
+   */
+  static synchronized void setBackfillPeriodMillis(long periodMillis) {
+    backfillPeriodMillis = periodMillis;
+  }
+
+  /**
+   * Gets the period of the backfill task in milliseconds.
+   *
+   * @return backfill task period in milliseconds
+   */
+  private static synchronized long getBackfillPeriodMillis() {
+    return backfillPeriodMillis;
+  }
+
+  /**
+   * Records the interval of data points discarded from the buffer of the specified tag, if any.
+   * Overlapping or adjacent gaps of the same tag are merged.
+   *
+   * @param tagGroup index of the tag group
+   * @param manager tag data point manager which discarded data points
+   */
+  static synchronized void recordGap(int tagGroup, RealTimeTagDataPointManager manager) {
+    long[] discardedInterval = manager.takeDiscardedInterval();
+    if (discardedInterval == null || manager.getTagId() < 0) {
+      return;
+    }
+    final long stringTag = manager.getTagType() == TagType.STRING ? 1 : 0;
+    addGap(tagGroup, manager.getTagId(), discardedInterval[0], discardedInterval[1], stringTag);
+  }
+
+  /**
+   * Records the time interval of the specified data points of each tag as a gap of the specified
+   * tag group. This is used for data points removed from memory which could not be kept elsewhere.
+   *
+   * @param tagGroup index of the tag group
+   * @param dataPoints discarded data points
+   */
+  static synchronized void recordGaps(int tagGroup, ArrayList dataPoints) {
+    // Find the interval of the discarded data points of each tag
+    HashMap discardedGaps = new HashMap();
+    for (int i = 0; i < dataPoints.size(); i++) {
+      DataPoint dataPoint = (DataPoint) dataPoints.get(i);
+      final long timeSecs = Long.parseLong(dataPoint.getTimeStamp());
+      final Integer tagIdKey = new Integer(dataPoint.getTagId());
+      long[] gap = (long[]) discardedGaps.get(tagIdKey);
+      if (gap == null) {
+        final long stringTag = dataPoint instanceof DataPointString ? 1 : 0;
+        discardedGaps.put(
+            tagIdKey, new long[] {dataPoint.getTagId(), timeSecs, timeSecs, stringTag});
+      } else {
+        gap[GAP_START] = Math.min(gap[GAP_START], timeSecs);
+        gap[GAP_END] = Math.max(gap[GAP_END], timeSecs);
+      }
+    }
+
+    Iterator gapIterator = discardedGaps.values().iterator();
+    while (gapIterator.hasNext()) {
+      long[] gap = (long[]) gapIterator.next();
+      addGap(tagGroup, gap[GAP_TAG_ID], gap[GAP_START], gap[GAP_END], gap[GAP_STRING]);
+    }
+  }
+
+  /**
+   * Add a gap to the recorded gaps of the specified tag group, merging it with an overlapping or
+   * adjacent gap of the same tag.
+   *
+   * @param tagGroup index of the tag group
+   * @param tagId ID of the tag
+   * @param startTimeSecs start time of the gap in seconds, inclusive
+   * @param endTimeSecs end time of the gap in seconds, inclusive
+   * @param stringTag 1 for string tags, otherwise 0
+   */
+  private static synchronized void addGap(
+      int tagGroup, long tagId, long startTimeSecs, long endTimeSecs, long stringTag) {
+    ArrayList gaps = groupGaps[tagGroup];
+    for (int i = 0; i < gaps.size(); i++) {
+      long[] gap = (long[]) gaps.get(i);
+      if (gap[GAP_TAG_ID] == tagId
+          && startTimeSecs <= gap[GAP_END] + 1
+          && endTimeSecs + 1 >= gap[GAP_START]) {
+        gap[GAP_START] = Math.min(gap[GAP_START], startTimeSecs);
+        gap[GAP_END] = Math.max(gap[GAP_END], endTimeSecs);
+        return;
+      }
+    }
+
+    if (gaps.size() >= MAX_GAPS_PER_GROUP) {
+      Logger.LOG_WARN(
+          "Too many real time data gaps in tag group " + tagGroup + ", oldest gap dropped.");
+      gaps.remove(0);
+    }
+    gaps.add(new long[] {tagId, startTimeSecs, endTimeSecs, stringTag});
+  }
+
+  /**
+   * Gets the number of gaps recorded for the specified tag group which have not been recovered.
+   *
+   * @param tagGroup index of the tag group
+   * @return number of recorded gaps
+   */
+  static synchronized int getNumGaps(int tagGroup) {
+    return groupGaps[tagGroup].size();
+  }
+
+  /**
+   * Removes and returns the oldest recovered data point of the specified tag group. If there are
+   * none, spilled data points of the tag group are restored first when there is no heap pressure.
+   *
+   * @param tagGroup index of the tag group
+   * @return recovered data point, or null if there are none
+   */
+  static DataPoint removeBackfillDataPoint(int tagGroup) {
+    DataPoint dataPoint = takeBackfillDataPoint(tagGroup);
+    if (dataPoint == null
+        && RealTimeDataSpill.hasSpilledData(tagGroup)
+        && HeapPressureGovernor.getPressureState() == HeapPressureGovernor.PRESSURE_NORMAL) {
+      restoreSpilledData(tagGroup);
+      dataPoint = takeBackfillDataPoint(tagGroup);
+    }
+    return dataPoint;
+  }
+
+  /**
+   * Remove and return the oldest recovered data point of the specified tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @return recovered data point, or null if there are none
+   */
+  private static synchronized DataPoint takeBackfillDataPoint(int tagGroup) {
+    ArrayList backfillData = groupBackfillData[tagGroup];
+    final int head = groupBackfillHeads[tagGroup];
+    if (head == backfillData.size()) {
+      return null;
+    }
+
+    DataPoint dataPoint = (DataPoint) backfillData.get(head);
+    backfillData.set(head, null);
+    groupBackfillHeads[tagGroup] = head + 1;
+    if (head + 1 == backfillData.size()) {
+      backfillData.clear();
+      groupBackfillHeads[tagGroup] = 0;
+    } else if (head + 1 >= MIN_COMPACT_HEAD && (head + 1) * 2 >= backfillData.size()) {
+      backfillData.subList(0, head + 1).clear();
+      groupBackfillHeads[tagGroup] = 0;
+    }
+    return dataPoint;
+  }
+
+  /**
+   * Gets the number of recovered data points of the specified tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @return number of recovered data points
+   */
+  static synchronized int getNumBackfillDataPoints(int tagGroup) {
+    return groupBackfillData[tagGroup].size() - groupBackfillHeads[tagGroup];
+  }
+
+  /**
+   * Removes the recovered data points of the specified tag group from memory under critical heap
+   * pressure and spills them to flash, to be restored once the pressure has eased. The time
+   * interval of data points which cannot be spilled is recorded as a gap of each tag again.
+   *
+   * @param tagGroup index of the tag group
+   * @return number of data points discarded because they could not be spilled
+   */
+  static int trimBackfillData(int tagGroup) {
+    ArrayList trimmedData = takeAllBackfillData(tagGroup);
+    ArrayList notSpilled = RealTimeDataSpill.spill(tagGroup, trimmedData);
+    recordGaps(tagGroup, notSpilled);
+    return notSpilled.size();
+  }
+
+  /**
+   * Remove and return all recovered data points of the specified tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @return recovered data points, oldest first
+   */
+  private static synchronized ArrayList takeAllBackfillData(int tagGroup) {
+    ArrayList backfillData = groupBackfillData[tagGroup];
+    ArrayList takenData =
+        new ArrayList(backfillData.subList(groupBackfillHeads[tagGroup], backfillData.size()));
+    backfillData.clear();
+    groupBackfillHeads[tagGroup] = 0;
+    return takenData;
+  }
+
+  /**
+   * Restore spilled data points of the specified tag group to its recovered data points, up to the
+   * maximum number of recovered data points.
+   *
+   * @param tagGroup index of the tag group
+   */
+  private static void restoreSpilledData(int tagGroup) {
+    final int room = MAX_BACKFILL_DATA_POINTS_PER_GROUP - getNumBackfillDataPoints(tagGroup);
+    ArrayList restoredData = RealTimeDataSpill.restore(tagGroup, room);
+    if (!restoredData.isEmpty()) {
+      addRestoredData(tagGroup, restoredData);
+      Logger.LOG_INFO(
+          "Restored "
+              + restoredData.size()
+              + " spilled real time data points of tag group "
+              + tagGroup
+              + ".");
+    }
+  }
+
+  /**
+   * Add restored spilled data points to the recovered data points of the specified tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @param restoredData restored data points
+   */
+  private static synchronized void addRestoredData(int tagGroup, ArrayList restoredData) {
+    groupBackfillData[tagGroup].addAll(restoredData);
+  }
+
+  /**
+   * Starts the backfill task thread. Calling this method while the task is running has no effect.
+   */
+  static synchronized void start() {
+    if (backfillThread != null) {
+      return;
+    }
+
+    backfillThread =
+        new Thread(
+            new Runnable() {
+              public void run() {
+                while (Thread.currentThread() == getBackfillThread()) {
+                  try {
+                    Thread.sleep(getBackfillPeriodMillis());
+                  } catch (InterruptedException e) {
+                    // Interrupted by stop(), loop condition will end the thread
+                  }
+                  if (Thread.currentThread() == getBackfillThread()) {
+                    backfill();
+                  }
+                }
+              }
+            });
+    backfillThread.setPriority(Thread.MIN_PRIORITY);
+    backfillThread.start();
+  }
+
+  /** Stops the backfill task thread. Recorded gaps are kept until the task is started again. */
+  static synchronized void stop() {
+    if (backfillThread != null) {
+      Thread stoppedThread = backfillThread;
+      backfillThread = null;
+      stoppedThread.interrupt();
+    }
+  }
+
+  /**
+   * Gets the thread running the backfill task.
+   *
+   * @return backfill thread, or null if the task is not running
+   */
+  private static synchronized Thread getBackfillThread() {
+    return backfillThread;
+  }
+
+  /**
+   * Restore the spilled data points of each tag group, then recover the settled gaps of each tag
+   * group from the historical logs. Backfill is skipped while the {@link HeapPressureGovernor}
+   * reports heap pressure, and for tag groups whose recovered data points are full.
+   */
+  static void backfill() {
+    if (HeapPressureGovernor.getPressureState() != HeapPressureGovernor.PRESSURE_NORMAL) {
+      return;
+    }
+
+    final long settledTimeSecs = System.currentTimeMillis() / MS_PER_SEC - BACKFILL_SETTLE_SECS;
+    for (int tagGroup = 0; tagGroup < RealTimeDataQueueManager.NUM_TAG_GROUPS; tagGroup++) {
+      if (RealTimeDataSpill.hasSpilledData(tagGroup)) {
+        restoreSpilledData(tagGroup);
+      }
+      if (getNumBackfillDataPoints(tagGroup) >= MAX_BACKFILL_DATA_POINTS_PER_GROUP) {
+        continue;
+      }
+      ArrayList gaps = takeSettledGaps(tagGroup, settledTimeSecs);
+      ArrayList ranges = getMergedRanges(gaps);
+      for (int i = 0; i < ranges.size(); i++) {
+        long[] range = (long[]) ranges.get(i);
+        if (getNumBackfillDataPoints(tagGroup) >= MAX_BACKFILL_DATA_POINTS_PER_GROUP) {
+          restoreGaps(tagGroup, range, gaps);
+          continue;
+        }
+        try {
+          backfillRange(tagGroup, range, gaps);
+        } catch (Exception e) {
+          Logger.LOG_WARN(
+              "Unable to recover real time data gap of tag group "
+                  + tagGroup
+                  + " from historical logs, retrying later.");
+          Logger.LOG_EXCEPTION(e);
+          restoreGaps(tagGroup, range, gaps);
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove and return the gaps of the specified tag group which end before the specified time.
+   *
+   * @param tagGroup index of the tag group
+   * @param settledTimeSecs time in seconds before which gaps are settled
+   * @return settled gaps
+   */
+  private static synchronized ArrayList takeSettledGaps(int tagGroup, long settledTimeSecs) {
+    ArrayList gaps = groupGaps[tagGroup];
+    ArrayList settledGaps = new ArrayList();
+    for (int i = gaps.size() - 1; i >= 0; i--) {
+      long[] gap = (long[]) gaps.get(i);
+      if (gap[GAP_END] < settledTimeSecs) {
+        settledGaps.add(0, gaps.remove(i));
+      }
+    }
+    return settledGaps;
+  }
+
+  /**
+   * Add the gaps within the specified time range back to the recorded gaps of the specified tag
+   * group, so they are retried.
+   *
+   * @param tagGroup index of the tag group
+   * @param range time range in seconds, inclusive
+   * @param gaps gaps to restore from
+   */
+  private static synchronized void restoreGaps(int tagGroup, long[] range, ArrayList gaps) {
+    for (int i = 0; i < gaps.size(); i++) {
+      long[] gap = (long[]) gaps.get(i);
+      if (gap[GAP_START] >= range[0] && gap[GAP_END] <= range[1]) {
+        groupGaps[tagGroup].add(gap);
+      }
+    }
+  }
+
+  /**
+   * Merge the time intervals of the specified gaps into disjoint time ranges sorted by start time.
+   *
+   * @param gaps gaps to merge
+   * @return list of <code>long[]</code> time ranges with start and end seconds, inclusive
+   */
+  private static ArrayList getMergedRanges(ArrayList gaps) {
+    ArrayList ranges = new ArrayList();
+    for (int i = 0; i < gaps.size(); i++) {
+      long[] gap = (long[]) gaps.get(i);
+      long[] merged = new long[] {gap[GAP_START], gap[GAP_END]};
+
+      // Absorb existing ranges which overlap the gap
+      for (int j = ranges.size() - 1; j >= 0; j--) {
+        long[] range = (long[]) ranges.get(j);
+        if (range[0] <= merged[1] + 1 && range[1] + 1 >= merged[0]) {
+          merged[0] = Math.min(merged[0], range[0]);
+          merged[1] = Math.max(merged[1], range[1]);
+          ranges.remove(j);
+        }
+      }
+
+      // Insertion sort by start time
+      int insertIndex = ranges.size();
+      while (insertIndex > 0 && ((long[]) ranges.get(insertIndex - 1))[0] > merged[0]) {
+        insertIndex--;
+      }
+      ranges.add(insertIndex, merged);
+    }
+    return ranges;
+  }
+
+  /**
+   * Recover the gaps within the specified time range of the specified tag group from the
+   * historical logs and add the recovered data points to the tag group's backfill data. If they do
+   * not all fit, the newest seconds of the gaps are recorded as gaps again.
+   *
+   * @param tagGroup index of the tag group
+   * @param range time range in seconds, inclusive
+   * @param gaps gaps of the tag group
+   * @throws Exception if unable to export or parse the historical logs
+   */
+  private static void backfillRange(int tagGroup, long[] range, ArrayList gaps)
+      throws Exception {
+    // Find the tags with gaps in the range
+    ArrayList rangeGaps = new ArrayList();
+    boolean hasStringTags = false;
+    for (int i = 0; i < gaps.size(); i++) {
+      long[] gap = (long[]) gaps.get(i);
+      if (gap[GAP_START] >= range[0] && gap[GAP_END] <= range[1]) {
+        rangeGaps.add(gap);
+        hasStringTags |= gap[GAP_STRING] != 0;
+      }
+    }
+    int[] tagIds = new int[rangeGaps.size()];
+    for (int i = 0; i < tagIds.length; i++) {
+      tagIds[i] = (int) ((long[]) rangeGaps.get(i))[GAP_TAG_ID];
+    }
+
+    // Export historical logs of the tag group and range, then the string logs if needed
+    final long startTimeMs = range[0] * MS_PER_SEC;
+    final long endTimeMs = range[1] * MS_PER_SEC + MS_PER_SEC - 1;
+    ArrayList recoveredData = new ArrayList();
+    boolean stringHistorical = false;
+    do {
+      recoveredData.addAll(
+          HistoricalDataManager.getHistoricalData(
+              startTimeMs,
+              endTimeMs,
+              tagIds,
+              tagGroup == RealTimeDataQueueManager.GROUP_A,
+              tagGroup == RealTimeDataQueueManager.GROUP_B,
+              tagGroup == RealTimeDataQueueManager.GROUP_C,
+              tagGroup == RealTimeDataQueueManager.GROUP_D,
+              stringHistorical));
+      stringHistorical = !stringHistorical;
+    } while (stringHistorical && hasStringTags);
+
+    // Keep only the data points within a gap of their tag
+    ArrayList gapData = new ArrayList();
+    for (int i = 0; i < recoveredData.size(); i++) {
+      DataPoint dataPoint = (DataPoint) recoveredData.get(i);
+      if (isInGap(dataPoint, rangeGaps)) {
+        gapData.add(dataPoint);
+      }
+    }
+    final int numRecovered = addBackfillData(tagGroup, gapData, rangeGaps);
+    Logger.LOG_INFO(
+        "Recovered "
+            + numRecovered
+            + " real time data points of tag group "
+            + tagGroup
+            + " from historical logs.");
+  }
+
+  /**
+   * Gets a boolean representing if the specified data point is within a gap of its tag.
+   *
+   * @param dataPoint data point
+   * @param gaps gaps to check
+   * @return true if the data point is within a gap of its tag
+   */
+  private static boolean isInGap(DataPoint dataPoint, ArrayList gaps) {
+    final long timeSecs = Long.parseLong(dataPoint.getTimeStamp());
+    for (int i = 0; i < gaps.size(); i++) {
+      long[] gap = (long[]) gaps.get(i);
+      if (gap[GAP_TAG_ID] == dataPoint.getTagId()
+          && timeSecs >= gap[GAP_START]
+          && timeSecs <= gap[GAP_END]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Add recovered data points to the backfill data of the specified tag group, up to its maximum.
+   * If they do not all fit, only the oldest seconds are added, and the rest of each gap is recorded
+   * as a gap again.
+   *
+   * @param tagGroup index of the tag group
+   * @param gapData recovered data points within the gaps
+   * @param gaps gaps the data points were recovered for
+   * @return number of data points added
+   */
+  private static synchronized int addBackfillData(int tagGroup, ArrayList gapData, ArrayList gaps) {
+    ArrayList backfillData = groupBackfillData[tagGroup];
+    final int room = MAX_BACKFILL_DATA_POINTS_PER_GROUP - getNumBackfillDataPoints(tagGroup);
+    if (gapData.size() <= room) {
+      backfillData.addAll(gapData);
+      return gapData.size();
+    }
+
+    // Add the data points older than the time of the first data point which does not fit
+    long[] times = new long[gapData.size()];
+    for (int i = 0; i < times.length; i++) {
+      times[i] = Long.parseLong(((DataPoint) gapData.get(i)).getTimeStamp());
+    }
+    Arrays.sort(times);
+    final long cutoffTimeSecs = room > 0 ? Math.max(times[room], times[0] + 1) : times[0];
+    int numAdded = 0;
+    for (int i = 0; i < gapData.size(); i++) {
+      DataPoint dataPoint = (DataPoint) gapData.get(i);
+      if (Long.parseLong(dataPoint.getTimeStamp()) < cutoffTimeSecs) {
+        backfillData.add(dataPoint);
+        numAdded++;
+      }
+    }
+
+    for (int i = 0; i < gaps.size(); i++) {
+      long[] gap = (long[]) gaps.get(i);
+      if (gap[GAP_END] >= cutoffTimeSecs) {
+        addGap(
+            tagGroup,
+            gap[GAP_TAG_ID],
+            Math.max(gap[GAP_START], cutoffTimeSecs),
+            gap[GAP_END],
+            gap[GAP_STRING]);
+      }
+    }
+    Logger.LOG_WARN(
+        "Recovered real time data of tag group "
+            + tagGroup
+            + " is full, data from "
+            + cutoffTimeSecs
+            + " will be recovered later.");
+    return numAdded;
+  }
+}
@@ -0,0 +1,186 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import java.util.ArrayList;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+
+/**
+ * Class to drain the data points of a tag group by tag priority. The tag data point managers of
+ * the tag group are split into one lane per tag priority, and each lane is drained round robin.
+ *
+ * <p>Lanes are drained by weighted round robin. In each round, a lane may supply as many data
+ * points as its weight, with higher priority lanes served first. A lane without data points gives
+ * up its remaining share of the round. High priority data points are therefore drained first,
+ * while lower priority lanes still receive their share and cannot be starved.
+ *
+ * <p>The backlog of each lane, and how long the oldest data point of each tag had waited since it
+ * was stored when the tag was drained, are tracked in milliseconds so the latency of each
+ * priority can be monitored. Tags are drained newest first, so the wait of the oldest data point
+ * is measured rather than the wait of the drained one.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class RealTimeGroupDrainLanes {
+
+  /** Tag data point managers of each lane, indexed by tag priority. */
+  private final RealTimeTagDataPointManager[][] laneManagers;
+
+  /** Index of the next tag data point manager to drain in each lane. */
+  private final int[] laneIterators;
+
+  /** Number of data points each lane may still supply in the current round. */
+  private final int[] laneCredits;
+
+  /** Number of data points drained from each lane. */
+  private final long[] laneDrainedCounts;
+
+  /** Total wait time in milliseconds of the oldest data points of the tags drained. */
+  private final long[] laneTotalWaitMillis;
+
+  /** Longest wait time in milliseconds of the oldest data point of a tag drained. */
+  private final long[] laneMaxWaitMillis;
+
+  /**
+   * Constructor for the drain lanes of a tag group.
+   *
+   * @param tagGroupManagers tag data point managers of the tag group
+   * @param numLanes number of lanes, one per tag priority
+   */
+  RealTimeGroupDrainLanes(ArrayList tagGroupManagers, int numLanes) {
+    laneManagers = new RealTimeTagDataPointManager[numLanes][];
+    laneIterators = new int[numLanes];
+    laneCredits = new int[numLanes];
+    laneDrainedCounts = new long[numLanes];
+    laneTotalWaitMillis = new long[numLanes];
+    laneMaxWaitMillis = new long[numLanes];
+
+    for (int lane = 0; lane < numLanes; lane++) {
+      ArrayList managers = new ArrayList();
+      for (int i = 0; i < tagGroupManagers.size(); i++) {
+        RealTimeTagDataPointManager manager =
+            (RealTimeTagDataPointManager) tagGroupManagers.get(i);
+        if (manager.getPriority() == lane) {
+          managers.add(manager);
+        }
+      }
+      laneManagers[lane] = new RealTimeTagDataPointManager[managers.size()];
+      managers.toArray(laneManagers[lane]);
+    }
+  }
+
+  /**
+   * Removes the next data point to drain from the tag group.
+   *
+   * @param laneWeights number of data points each lane may supply per round
+   * @return the next data point, or null if the tag group has no data points
+   */
+  synchronized DataPoint removeNextDataPoint(int[] laneWeights) {
+    // Two passes: the first uses the credits left in the current round, the second starts a new one
+    for (int pass = 0; pass < 2; pass++) {
+      for (int lane = 0; lane < laneManagers.length; lane++) {
+        if (laneCredits[lane] > 0) {
+          DataPoint data = removeLaneDataPoint(lane);
+          if (data != null) {
+            laneCredits[lane]--;
+            return data;
+          }
+          laneCredits[lane] = 0;
+        }
+      }
+      System.arraycopy(laneWeights, 0, laneCredits, 0, laneCredits.length);
+    }
+    return null;
+  }
+
+  /**
+   * Gets the number of data points waiting in a lane.
+   *
+   * @param lane index of lane
+   * @return number of data points waiting in the lane
+   */
+  synchronized int getBacklog(int lane) {
+    int backlog = 0;
+    for (int i = 0; i < laneManagers[lane].length; i++) {
+      backlog += laneManagers[lane][i].getSize();
+    }
+    return backlog;
+  }
+
+  /**
+   * Gets the number of data points drained from a lane.
+   *
+   * @param lane index of lane
+   * @return number of data points drained from the lane
+   */
+  synchronized long getDrainedCount(int lane) {
+    return laneDrainedCounts[lane];
+  }
+
+  /**
+   * Gets the average wait time of the oldest data point of the tags each time a lane was drained.
+   *
+   * @param lane index of lane
+   * @return average wait time in milliseconds, or 0 if no data points were drained
+   */
+  synchronized long getAverageWaitMillis(int lane) {
+    if (laneDrainedCounts[lane] == 0) {
+      return 0;
+    }
+    return laneTotalWaitMillis[lane] / laneDrainedCounts[lane];
+  }
+
+  /**
+   * Gets the longest wait time of the oldest data point of a tag when a lane was drained.
+   *
+   * @param lane index of lane
+   * @return longest wait time in milliseconds
+   */
+  synchronized long getMaxWaitMillis(int lane) {
+    return laneMaxWaitMillis[lane];
+  }
+
+  /** Resets the drained data point count and wait times of all lanes. */
+  synchronized void resetMetrics() {
+    for (int lane = 0; lane < laneManagers.length; lane++) {
+      laneDrainedCounts[lane] = 0;
+      laneTotalWaitMillis[lane] = 0;
+      laneMaxWaitMillis[lane] = 0;
+    }
+  }
+
+  /**
+   * Remove a data point from the next tag data point manager of a lane which has data points, and
+   * record the wait time of the oldest data point of the tag.
+   *
+   * @param lane index of lane
+   * @return removed data point, or null if the lane has no data points
+   */
+  private DataPoint removeLaneDataPoint(int lane) {
+    final RealTimeTagDataPointManager[] managers = laneManagers[lane];
+    for (int i = 0; i < managers.length; i++) {
+      final int managerIndex = laneIterators[lane];
+      laneIterators[lane] = (managerIndex + 1) % managers.length;
+      final long waitMillis = managers[managerIndex].getOldestWaitMillis();
+      DataPoint data = managers[managerIndex].removeDataPoint();
+      if (data != null) {
+        recordWait(lane, waitMillis);
+        return data;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Record a drained data point and the time the oldest data point of its tag waited.
+   *
+   * @param lane index of lane the data point was drained from
+   * @param waitMillis wait time in milliseconds of the oldest data point of the tag
+   */
+  private void recordWait(int lane, long waitMillis) {
+    waitMillis = Math.max(0, waitMillis);
+    laneDrainedCounts[lane]++;
+    laneTotalWaitMillis[lane] += waitMillis;
+    laneMaxWaitMillis[lane] = Math.max(laneMaxWaitMillis[lane], waitMillis);
+  }
+}
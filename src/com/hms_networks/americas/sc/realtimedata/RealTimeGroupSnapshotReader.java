@@ -0,0 +1,192 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.ewon.ewonitf.Exporter;
+import com.hms_networks.americas.sc.historicaldata.EbdLineDecoder;
+import com.hms_networks.americas.sc.taginfo.TagType;
+
+/**
+ * Class to read the current values of all tags in a tag group with a single instant values export
+ * block descriptor call, and record them in the tag group's {@link RealTimeTagDataPointManager}
+ * objects. The export output is decoded directly from the exporter stream by an {@link
+ * EbdLineDecoder}, so no tag control objects or intermediate files are needed.
+ *
+ * <p>Example Output:
+ *
+ * <pre>
+ * "TagId";"TagName";"Value";"AlStatus";"AlType";"Quality"
+ * 1;"Tag1";12.5;0;0;65472
+ * </pre>
+ *
+ * <p>Columns are located by name from the header line. Tags are matched to their manager by tag ID
+ * when the output contains a tag ID column, otherwise by tag name.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class RealTimeGroupSnapshotReader {
+
+  /** Export block descriptor filter for each tag group, indexed by tag group index. */
+  private static final String[] TAG_GROUP_FILTERS = {"A", "B", "C", "D"};
+
+  /** Header name of the tag ID column. */
+  private static final String TAG_ID_COLUMN = "TagId";
+
+  /** Header name of the tag name column. */
+  private static final String TAG_NAME_COLUMN = "TagName";
+
+  /** Header name of the tag value column. */
+  private static final String VALUE_COLUMN = "Value";
+
+  /** Number of lines decoded between sleeps. */
+  private static final int LINES_PER_SLEEP = 50;
+
+  /** Time to sleep between groups of lines in milliseconds. */
+  private static final int SLEEP_MS = 1;
+
+  /** Export block descriptor string for the tag group. */
+  private final String ebdStr;
+
+  /** Tag data point managers indexed by tag ID, offset by {@link #lowestTagId}. */
+  private final RealTimeTagDataPointManager[] managersById;
+
+  /** Lowest tag ID of the tag group. */
+  private final int lowestTagId;
+
+  /** Tag data point managers keyed by tag name. */
+  private final HashMap managersByName;
+
+  /**
+   * Constructor for a reader of the specified tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @param tagGroupManagers tag data point managers of the tag group
+   */
+  RealTimeGroupSnapshotReader(int tagGroup, ArrayList tagGroupManagers) {
+    ebdStr = "$dtIV$ftT$fl" + TAG_GROUP_FILTERS[tagGroup];
+
+    int lowestId = Integer.MAX_VALUE;
+    int highestId = -1;
+    managersByName = new HashMap();
+    for (int i = 0; i < tagGroupManagers.size(); i++) {
+      RealTimeTagDataPointManager manager = (RealTimeTagDataPointManager) tagGroupManagers.get(i);
+      managersByName.put(manager.getTagName(), manager);
+      if (manager.getTagId() >= 0) {
+        lowestId = Math.min(lowestId, manager.getTagId());
+        highestId = Math.max(highestId, manager.getTagId());
+      }
+    }
+
+    if (highestId < 0) {
+      lowestTagId = 0;
+      managersById = new RealTimeTagDataPointManager[0];
+    } else {
+      lowestTagId = lowestId;
+      managersById = new RealTimeTagDataPointManager[highestId - lowestId + 1];
+      for (int i = 0; i < tagGroupManagers.size(); i++) {
+        RealTimeTagDataPointManager manager =
+            (RealTimeTagDataPointManager) tagGroupManagers.get(i);
+        if (manager.getTagId() >= 0) {
+          managersById[manager.getTagId() - lowestTagId] = manager;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the current values of all tags in the tag group and records them in their tag data point
+   * managers.
+   *
+   * @return the number of tag values recorded
+   * @throws IOException if the export block descriptor call fails or the output is not valid
+   */
+  int read() throws IOException {
+    final int millisecondsInSeconds = 1000;
+    final String timeStampSeconds =
+        String.valueOf(System.currentTimeMillis() / millisecondsInSeconds);
+
+    int numRecorded = 0;
+    Exporter exporter = new Exporter(ebdStr);
+    try {
+      EbdLineDecoder decoder = new EbdLineDecoder(exporter);
+      if (!decoder.nextLine()) {
+        return numRecorded;
+      }
+
+      // Locate columns from header line
+      int tagIdColumn = -1;
+      int tagNameColumn = -1;
+      int valueColumn = -1;
+      for (int field = 0; field < decoder.getNumFields(); field++) {
+        String columnName = decoder.getFieldAsUnquotedString(field);
+        if (columnName.equals(TAG_ID_COLUMN)) {
+          tagIdColumn = field;
+        } else if (columnName.equals(TAG_NAME_COLUMN)) {
+          tagNameColumn = field;
+        } else if (columnName.equals(VALUE_COLUMN)) {
+          valueColumn = field;
+        }
+      }
+      if (valueColumn < 0 || (tagIdColumn < 0 && tagNameColumn < 0)) {
+        throw new IOException("Instant values export output has no tag or value column.");
+      }
+      final int minNumFields = Math.max(valueColumn, Math.max(tagIdColumn, tagNameColumn)) + 1;
+      final boolean matchById =
+          tagIdColumn >= 0 && (managersById.length > 0 || tagNameColumn < 0);
+
+      // Record value of each tag line
+      while (decoder.nextLine()) {
+        if (decoder.getNumFields() >= minNumFields) {
+          RealTimeTagDataPointManager manager;
+          if (matchById) {
+            manager = getManagerById(decoder.getFieldAsInt(tagIdColumn));
+          } else {
+            manager =
+                (RealTimeTagDataPointManager)
+                    managersByName.get(decoder.getFieldAsUnquotedString(tagNameColumn));
+          }
+
+          if (manager != null) {
+            if (manager.getTagType() == TagType.STRING) {
+              manager.recordTagValue(
+                  decoder.getFieldAsUnquotedString(valueColumn), timeStampSeconds);
+            } else {
+              manager.recordTagValue(decoder.getFieldAsDouble(valueColumn), timeStampSeconds);
+            }
+            numRecorded++;
+          }
+        }
+
+        if (decoder.getLineCount() % LINES_PER_SLEEP == 0) {
+          try {
+            Thread.sleep(SLEEP_MS);
+          } catch (InterruptedException e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid value in instant values export output. " + e.getMessage());
+    } finally {
+      exporter.close();
+    }
+    return numRecorded;
+  }
+
+  /**
+   * Gets the tag data point manager of the specified tag ID.
+   *
+   * @param tagId ID of tag
+   * @return tag data point manager, or null if the tag is not in the tag group
+   */
+  private RealTimeTagDataPointManager getManagerById(int tagId) {
+    final int index = tagId - lowestTagId;
+    if (index < 0 || index >= managersById.length) {
+      return null;
+    }
+    return managersById[index];
+  }
+}
@@ -0,0 +1,195 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import java.util.ArrayList;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+
+/**
+ * Class to drain the data points of a set of tag groups in timestamp order, oldest first, by a
+ * k-way merge of the tag buffers. The tag data point managers which have data points are kept in a
+ * binary min-heap keyed by the time of their oldest data point, so each data point costs O(log
+ * tags) to drain. Data points with the same time are ordered by tag ID.
+ *
+ * <p>Tags are sampled while they are drained, so the merge is done in passes. Each pass drains the
+ * data points up to a cutoff time, a settle time before the start of the pass, and data points
+ * which are newer than the cutoff are left for the next pass. Data points are therefore returned
+ * in timestamp order as long as they are buffered within the settle time of being sampled.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class RealTimeMergedDrain {
+
+  /** Number of milliseconds in one second. */
+  private static final long MILLISECONDS_IN_SECOND = 1000;
+
+  /** Bit mask of the tag groups drained, with bit <code>n</code> set for tag group n. */
+  private final int groupMask;
+
+  /** List of tag data point managers of each tag group the current pass was started from. */
+  private ArrayList passTagManagers = null;
+
+  /** Time in seconds of the newest data points drained in the current pass. */
+  private long cutoffTimeSecs = -1;
+
+  /** Heap of tag data point managers with data points to drain in the current pass. */
+  private RealTimeTagDataPointManager[] heapManagers = new RealTimeTagDataPointManager[0];
+
+  /** Time in seconds of the oldest data point of each tag data point manager in the heap. */
+  private long[] heapTimes = new long[0];
+
+  /** Number of tag data point managers in the heap. */
+  private int heapSize = 0;
+
+  /**
+   * Constructor for the merged drain of a set of tag groups.
+   *
+   * @param groupMask bit mask of the tag groups to drain, with bit <code>n</code> set for tag
+   *     group n
+   */
+  RealTimeMergedDrain(int groupMask) {
+    this.groupMask = groupMask;
+  }
+
+  /**
+   * Removes the oldest data point of the tag groups.
+   *
+   * @param tagManagers list of tag data point managers of each tag group, entries are null for
+   *     tag groups without tags
+   * @param settleSecs time in seconds data points may take from being sampled to being buffered
+   * @return the oldest data point, or null if the tag groups have no data points old enough to
+   *     drain
+   */
+  synchronized DataPoint removeNextDataPoint(ArrayList tagManagers, long settleSecs) {
+    if (heapSize == 0 || tagManagers != passTagManagers) {
+      startPass(tagManagers, settleSecs);
+    }
+
+    while (heapSize > 0) {
+      RealTimeTagDataPointManager manager = heapManagers[0];
+      DataPoint data = manager.removeOldestDataPoint(heapTimes[0]);
+
+      // Update the heap with the new oldest data point, which is only newer if the tag was trimmed
+      final long oldestTimeSecs = manager.getOldestTimeSecs();
+      if (oldestTimeSecs >= 0 && oldestTimeSecs <= cutoffTimeSecs) {
+        heapTimes[0] = oldestTimeSecs;
+      } else {
+        heapSize--;
+        heapManagers[0] = heapManagers[heapSize];
+        heapTimes[0] = heapTimes[heapSize];
+        heapManagers[heapSize] = null;
+      }
+      siftDown(0);
+
+      if (data != null) {
+        return data;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Start a new pass, adding the tag data point managers of the drained tag groups which have data
+   * points older than the new cutoff time to the heap.
+   *
+   * @param tagManagers list of tag data point managers of each tag group
+   * @param settleSecs time in seconds data points may take from being sampled to being buffered
+   */
+  private void startPass(ArrayList tagManagers, long settleSecs) {
+    passTagManagers = tagManagers;
+    cutoffTimeSecs = System.currentTimeMillis() / MILLISECONDS_IN_SECOND - settleSecs;
+    for (int i = 0; i < heapSize; i++) {
+      heapManagers[i] = null;
+    }
+    heapSize = 0;
+    if (tagManagers == null) {
+      return;
+    }
+
+    for (int tagGroup = 0; tagGroup < tagManagers.size(); tagGroup++) {
+      ArrayList tagGroupArray = (ArrayList) tagManagers.get(tagGroup);
+      if ((groupMask & (1 << tagGroup)) == 0 || tagGroupArray == null) {
+        continue;
+      }
+      for (int tagNum = 0; tagNum < tagGroupArray.size(); tagNum++) {
+        RealTimeTagDataPointManager manager =
+            (RealTimeTagDataPointManager) tagGroupArray.get(tagNum);
+        final long oldestTimeSecs = manager.getOldestTimeSecs();
+        if (oldestTimeSecs >= 0 && oldestTimeSecs <= cutoffTimeSecs) {
+          addToHeap(manager, oldestTimeSecs);
+        }
+      }
+    }
+
+    // Heapify bottom up
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  /**
+   * Add a tag data point manager to the end of the heap array, growing it if needed. The heap
+   * order is restored by the caller.
+   *
+   * @param manager tag data point manager
+   * @param oldestTimeSecs time in seconds of its oldest data point
+   */
+  private void addToHeap(RealTimeTagDataPointManager manager, long oldestTimeSecs) {
+    if (heapSize == heapManagers.length) {
+      final int capacity = Math.max(heapSize * 2, 16);
+      RealTimeTagDataPointManager[] grownManagers = new RealTimeTagDataPointManager[capacity];
+      System.arraycopy(heapManagers, 0, grownManagers, 0, heapSize);
+      heapManagers = grownManagers;
+      long[] grownTimes = new long[capacity];
+      System.arraycopy(heapTimes, 0, grownTimes, 0, heapSize);
+      heapTimes = grownTimes;
+    }
+    heapManagers[heapSize] = manager;
+    heapTimes[heapSize] = oldestTimeSecs;
+    heapSize++;
+  }
+
+  /**
+   * Move the heap entry at the specified index down until neither of its children is older.
+   *
+   * @param index index of the heap entry
+   */
+  private void siftDown(int index) {
+    while (true) {
+      final int left = 2 * index + 1;
+      if (left >= heapSize) {
+        return;
+      }
+      final int right = left + 1;
+      int oldest = left;
+      if (right < heapSize && isOlder(right, left)) {
+        oldest = right;
+      }
+      if (!isOlder(oldest, index)) {
+        return;
+      }
+
+      RealTimeTagDataPointManager manager = heapManagers[index];
+      heapManagers[index] = heapManagers[oldest];
+      heapManagers[oldest] = manager;
+      final long time = heapTimes[index];
+      heapTimes[index] = heapTimes[oldest];
+      heapTimes[oldest] = time;
+      index = oldest;
+    }
+  }
+
+  /**
+   * Gets a boolean representing if a heap entry comes before another, by time then by tag ID.
+   *
+   * @param first index of the first heap entry
+   * @param second index of the second heap entry
+   * @return true if the first heap entry comes before the second
+   */
+  private boolean isOlder(int first, int second) {
+    if (heapTimes[first] != heapTimes[second]) {
+      return heapTimes[first] < heapTimes[second];
+    }
+    return heapManagers[first].getTagId() < heapManagers[second].getTagId();
+  }
+}
@@ -0,0 +1,248 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import com.hms_networks.americas.sc.logging.Logger;
+
+/**
+ * Class to sample real time tag groups on worker threads, so that the sampling cadence of a tag
+ * group does not depend on the time taken to sample the other tag groups. Each tag group is
+ * sampled by its own workers, and a large tag group can be split into shards sampled by separate
+ * workers. Shard <code>n</code> of a tag group samples every tag whose index in the tag group is
+ * <code>n</code> modulo the number of shards.
+ *
+ * <p>Each tag is sampled by exactly one worker, tag buffers are only locked per tag, and sampling
+ * settings are read without locking. Workers still wait for each other briefly while recording a
+ * data point in the {@link com.hms_networks.americas.sc.tagdata.LastValueCache}, which locks one
+ * of several stripes chosen by tag ID, in the {@link
+ * com.hms_networks.americas.sc.tagdata.TagStatistics} of tracked tags and the {@link
+ * com.hms_networks.americas.sc.tagdata.TagDataInternPool} of string values, which each take a
+ * class lock, and while queueing a change for a subscription. Workers also take the class lock of
+ * this class once per sweep. Tag groups in {@link
+ * RealTimeDataQueueManager#ACQUISITION_MODE_BULK_EXPORT} are read with a single export call by
+ * their first shard.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class RealTimeSamplingWorkers {
+
+  /** Number of shards of each tag group. Default is 1. */
+  private static final int[] groupNumShards = new int[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+
+  /** Sampling period of each tag group in milliseconds. Default is 1000. */
+  private static final long[] groupPeriodMillis = new long[RealTimeDataQueueManager.NUM_TAG_GROUPS];
+
+  /** Worker threads of each tag group indexed by shard, or null if the workers are not running. */
+  private static Thread[][] workerThreads = null;
+
+  /** Number of tags read in the last sweep of each shard of each tag group. */
+  private static int[][] shardNumTagsRead = null;
+
+  /** Duration in milliseconds of the last sweep of each shard of each tag group. */
+  private static long[][] shardSweepMillis = null;
+
+  static {
+    for (int i = 0; i < RealTimeDataQueueManager.NUM_TAG_GROUPS; i++) {
+      groupNumShards[i] = 1;
+      groupPeriodMillis[i] = 1000;
+    }
+  }
+
+  /**
+   * Sets the number of shards of a tag group, each sampled by its own worker thread. Applies when
+   * the workers are next started.
+   *
+   * @param tagGroup index of the tag group
+   * @param numShards number of shards, at least 1
+   */
+  static synchronized void setNumShards(int tagGroup, int numShards) {
+    if (numShards < 1) {
+      throw new IllegalArgumentException("Number of sampling shards must be at least 1.");
+    }
+    groupNumShards[tagGroup] = numShards;
+  }
+
+  /**
+   * Gets the number of shards of a tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @return number of shards
+   */
+  static synchronized int getNumShards(int tagGroup) {
+    return groupNumShards[tagGroup];
+  }
+
+  /**
+   * Sets the sampling period of a tag group in milliseconds. A sweep which takes longer than the
+   * period is followed immediately by the next sweep.
+   *
+   * @param tagGroup index of the tag group
+   * @param periodMillis sampling period in milliseconds
+   */
+  static synchronized void setPeriodMillis(int tagGroup, long periodMillis) {
+    groupPeriodMillis[tagGroup] = periodMillis;
+  }
+
+  /**
+   * Gets the sampling period of a tag group in milliseconds.
+   *
+   * @param tagGroup index of the tag group
+   * @return sampling period in milliseconds
+   */
+  static synchronized long getPeriodMillis(int tagGroup) {
+    return groupPeriodMillis[tagGroup];
+  }
+
+  /**
+   * Starts the worker threads of all tag groups. Calling this method while the workers are
+   * running has no effect.
+   */
+  static synchronized void start() {
+    if (workerThreads != null) {
+      return;
+    }
+
+    final int numGroups = RealTimeDataQueueManager.NUM_TAG_GROUPS;
+    workerThreads = new Thread[numGroups][];
+    shardNumTagsRead = new int[numGroups][];
+    shardSweepMillis = new long[numGroups][];
+    for (int tagGroup = 0; tagGroup < numGroups; tagGroup++) {
+      final int numShards = groupNumShards[tagGroup];
+      workerThreads[tagGroup] = new Thread[numShards];
+      shardNumTagsRead[tagGroup] = new int[numShards];
+      shardSweepMillis[tagGroup] = new long[numShards];
+      for (int shard = 0; shard < numShards; shard++) {
+        workerThreads[tagGroup][shard] = createWorker(tagGroup, shard, numShards);
+      }
+    }
+    for (int tagGroup = 0; tagGroup < numGroups; tagGroup++) {
+      for (int shard = 0; shard < workerThreads[tagGroup].length; shard++) {
+        workerThreads[tagGroup][shard].start();
+      }
+    }
+  }
+
+  /**
+   * Stops the worker threads of all tag groups. Workers waiting for their next sweep end at once,
+   * and workers sampling end after their current sweep. Buffered data points are kept.
+   */
+  static synchronized void stop() {
+    workerThreads = null;
+    RealTimeSamplingWorkers.class.notifyAll();
+  }
+
+  /**
+   * Gets a boolean representing if the worker threads are running.
+   *
+   * @return true if the workers are running
+   */
+  static synchronized boolean isRunning() {
+    return workerThreads != null;
+  }
+
+  /**
+   * Gets the longest duration of the last sweep of the shards of a tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @return sweep duration in milliseconds, or 0 if the workers are not running
+   */
+  static synchronized long getLastSweepMillis(int tagGroup) {
+    if (shardSweepMillis == null) {
+      return 0;
+    }
+    long sweepMillis = 0;
+    for (int shard = 0; shard < shardSweepMillis[tagGroup].length; shard++) {
+      sweepMillis = Math.max(sweepMillis, shardSweepMillis[tagGroup][shard]);
+    }
+    return sweepMillis;
+  }
+
+  /**
+   * Create the worker thread of a shard of a tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @param shard index of the shard
+   * @param numShards number of shards of the tag group
+   * @return worker thread, not started
+   */
+  private static Thread createWorker(final int tagGroup, final int shard, final int numShards) {
+    Thread worker =
+        new Thread(
+            new Runnable() {
+              public void run() {
+                while (isWorker(tagGroup, shard)) {
+                  final long sweepStartMillis = System.currentTimeMillis();
+                  try {
+                    final int numTagsRead =
+                        RealTimeDataQueueManager.sampleGroup(tagGroup, shard, numShards);
+                    recordSweep(
+                        tagGroup,
+                        shard,
+                        numTagsRead,
+                        System.currentTimeMillis() - sweepStartMillis);
+                  } catch (Exception e) {
+                    Logger.LOG_WARN(
+                        "Unable to sample shard " + shard + " of tag group " + tagGroup + ".");
+                    Logger.LOG_EXCEPTION(e);
+                  }
+
+                  waitForNextSweep(
+                      getPeriodMillis(tagGroup) - (System.currentTimeMillis() - sweepStartMillis));
+                }
+              }
+            },
+            "RealTimeSampling-" + tagGroup + "-" + shard);
+    return worker;
+  }
+
+  /**
+   * Wait for the next sweep of a worker, or until the workers are stopped.
+   *
+   * @param waitMillis time to wait in milliseconds, nothing is done if not positive
+   */
+  private static synchronized void waitForNextSweep(long waitMillis) {
+    if (waitMillis > 0 && workerThreads != null) {
+      try {
+        RealTimeSamplingWorkers.class.wait(waitMillis);
+      } catch (InterruptedException e) {
+        // Loop condition of the worker decides if it keeps sampling
+      }
+    }
+  }
+
+  /**
+   * Gets a boolean representing if the current thread is the running worker of a shard.
+   *
+   * @param tagGroup index of the tag group
+   * @param shard index of the shard
+   * @return true if the current thread should keep sampling the shard
+   */
+  private static synchronized boolean isWorker(int tagGroup, int shard) {
+    return workerThreads != null && workerThreads[tagGroup][shard] == Thread.currentThread();
+  }
+
+  /**
+   * Record the result of a sweep of a shard, and update the number of tags read in the last sweep
+   * of its tag group.
+   *
+   * @param tagGroup index of the tag group
+   * @param shard index of the shard
+   * @param numTagsRead number of tags read individually, or -1 if the tag group was not read
+   *     individually
+   * @param sweepMillis duration of the sweep in milliseconds
+   */
+  private static synchronized void recordSweep(
+      int tagGroup, int shard, int numTagsRead, long sweepMillis) {
+    if (!isWorker(tagGroup, shard)) {
+      return;
+    }
+    shardSweepMillis[tagGroup][shard] = sweepMillis;
+    if (numTagsRead >= 0) {
+      shardNumTagsRead[tagGroup][shard] = numTagsRead;
+      int groupNumTagsRead = 0;
+      for (int i = 0; i < shardNumTagsRead[tagGroup].length; i++) {
+        groupNumTagsRead += shardNumTagsRead[tagGroup][i];
+      }
+      RealTimeDataQueueManager.setGroupLastSweepNumTagsRead(tagGroup, groupNumTagsRead);
+    }
+  }
+}
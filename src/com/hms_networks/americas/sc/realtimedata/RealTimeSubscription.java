@@ -0,0 +1,319 @@
+package com.hms_networks.americas.sc.realtimedata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.logging.Logger;
+
+/**
+ * Class representing the subscription of a {@link RealTimeDataListener} to changes of a tag, a set
+ * of tags or a tag group. Changed values are queued per subscription and delivered in batches at
+ * the end of each sampling sweep of a tag group with queued changes for the subscription.
+ *
+ * <p>Queued changes are coalesced, so each tag is queued at most once with its newest value. The
+ * queue of each subscription is bounded. When it is full, the oldest queued change is dropped and
+ * counted in {@link #getDroppedEventCount()}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class RealTimeSubscription {
+
+  /** Number of bits in each word of the tag ID bitmap. */
+  private static final int BITMAP_WORD_BITS = 32;
+
+  /** Shift used to convert a tag ID to its tag ID bitmap word index. */
+  private static final int BITMAP_WORD_SHIFT = 5;
+
+  /** Initial capacity of the queue ring, grown up to the maximum queue size as needed. */
+  private static final int INITIAL_QUEUE_CAPACITY = 16;
+
+  /**
+   * Registered subscriptions. The array is replaced when subscriptions are registered or
+   * unregistered, so it can be read without locking while changes are published and delivered.
+   */
+  private static volatile RealTimeSubscription[] subscriptions = new RealTimeSubscription[0];
+
+  /** Listener of the subscription. */
+  private final RealTimeDataListener listener;
+
+  /** Bitmap of subscribed tag IDs, or null if no tags are subscribed by ID. */
+  private final int[] tagIdBitmap;
+
+  /** Bit mask of subscribed tag groups. */
+  private final int groupMask;
+
+  /** Maximum number of queued changes. */
+  private final int maxQueueSize;
+
+  /**
+   * Ring of queued changed data points. The change with sequence number <code>n</code> is held at
+   * index <code>n</code> modulo the ring length, so sequence numbers stay valid when the oldest
+   * change is dropped.
+   */
+  private DataPoint[] queue;
+
+  /** Sequence number of the oldest queued change. */
+  private long queueHead = 0;
+
+  /** Number of queued changes. */
+  private int queueSize = 0;
+
+  /** Sequence number of each queued tag ID in the queue. */
+  private final HashMap queueIndexes = new HashMap();
+
+  /** Bit mask of the tag groups of the queued changes. */
+  private volatile int queuedGroupMask = 0;
+
+  /** Number of changes dropped because the queue was full. */
+  private long droppedEventCount = 0;
+
+  /**
+   * Constructor for a subscription of the specified listener.
+   *
+   * @param listener listener of the subscription
+   * @param tagIds IDs of subscribed tags, or null if no tags are subscribed by ID
+   * @param groupMask bit mask of subscribed tag groups
+   * @param maxQueueSize maximum number of queued changes
+   */
+  RealTimeSubscription(
+      RealTimeDataListener listener, int[] tagIds, int groupMask, int maxQueueSize) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Subscription listener cannot be null.");
+    }
+    if (maxQueueSize <= 0) {
+      throw new IllegalArgumentException("Subscription queue size must be positive.");
+    }
+    this.listener = listener;
+    this.groupMask = groupMask;
+    this.maxQueueSize = maxQueueSize;
+    this.queue = new DataPoint[Math.min(maxQueueSize, INITIAL_QUEUE_CAPACITY)];
+
+    if (tagIds == null) {
+      tagIdBitmap = null;
+    } else {
+      int highestTagId = 0;
+      for (int i = 0; i < tagIds.length; i++) {
+        highestTagId = Math.max(highestTagId, tagIds[i]);
+      }
+      tagIdBitmap = new int[(highestTagId >> BITMAP_WORD_SHIFT) + 1];
+      for (int i = 0; i < tagIds.length; i++) {
+        if (tagIds[i] >= 0) {
+          tagIdBitmap[tagIds[i] >> BITMAP_WORD_SHIFT] |= 1 << (tagIds[i] % BITMAP_WORD_BITS);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the number of changes dropped because the queue of the subscription was full.
+   *
+   * @return number of dropped changes
+   */
+  public synchronized long getDroppedEventCount() {
+    return droppedEventCount;
+  }
+
+  /**
+   * Gets the number of changes queued for the next delivery.
+   *
+   * @return number of queued changes
+   */
+  public synchronized int getQueuedEventCount() {
+    return queueSize;
+  }
+
+  /**
+   * Registers the specified subscription.
+   *
+   * @param subscription subscription to register
+   */
+  static synchronized void register(RealTimeSubscription subscription) {
+    final RealTimeSubscription[] currentSubscriptions = subscriptions;
+    for (int i = 0; i < currentSubscriptions.length; i++) {
+      if (currentSubscriptions[i] == subscription) {
+        return;
+      }
+    }
+    RealTimeSubscription[] updatedSubscriptions =
+        new RealTimeSubscription[currentSubscriptions.length + 1];
+    System.arraycopy(currentSubscriptions, 0, updatedSubscriptions, 0, currentSubscriptions.length);
+    updatedSubscriptions[currentSubscriptions.length] = subscription;
+    subscriptions = updatedSubscriptions;
+  }
+
+  /**
+   * Unregisters the specified subscription. Queued changes are discarded.
+   *
+   * @param subscription subscription to unregister
+   * @return true if the subscription was registered
+   */
+  static synchronized boolean unregister(RealTimeSubscription subscription) {
+    final RealTimeSubscription[] currentSubscriptions = subscriptions;
+    for (int i = 0; i < currentSubscriptions.length; i++) {
+      if (currentSubscriptions[i] == subscription) {
+        RealTimeSubscription[] updatedSubscriptions =
+            new RealTimeSubscription[currentSubscriptions.length - 1];
+        System.arraycopy(currentSubscriptions, 0, updatedSubscriptions, 0, i);
+        System.arraycopy(
+            currentSubscriptions,
+            i + 1,
+            updatedSubscriptions,
+            i,
+            currentSubscriptions.length - i - 1);
+        subscriptions = updatedSubscriptions;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Queues a changed data point for each subscription matching its tag or tag group.
+   *
+   * @param tagGroup index of the tag group of the tag, or -1 if unknown
+   * @param dataPoint changed data point
+   */
+  static void publish(int tagGroup, DataPoint dataPoint) {
+    final RealTimeSubscription[] currentSubscriptions = subscriptions;
+    for (int i = 0; i < currentSubscriptions.length; i++) {
+      if (currentSubscriptions[i].matches(tagGroup, dataPoint.getTagId())) {
+        currentSubscriptions[i].enqueue(tagGroup, dataPoint);
+      }
+    }
+  }
+
+  /**
+   * Delivers the queued changes of each subscription with queued changes of the specified tag
+   * group to its listener. Subscriptions without changes of the tag group are not locked.
+   * Exceptions thrown by listeners are logged and do not affect other listeners.
+   *
+   * @param tagGroup index of the sampled tag group
+   */
+  static void deliver(int tagGroup) {
+    final RealTimeSubscription[] currentSubscriptions = subscriptions;
+    for (int i = 0; i < currentSubscriptions.length; i++) {
+      ArrayList batch = currentSubscriptions[i].takeQueue(tagGroup);
+      if (batch != null) {
+        try {
+          currentSubscriptions[i].listener.onDataChanged(batch);
+        } catch (Exception e) {
+          Logger.LOG_WARN("Real time data listener failed to handle changed data.");
+          Logger.LOG_EXCEPTION(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets a boolean representing if the subscription matches the specified tag group or tag ID.
+   *
+   * @param tagGroup index of tag group, or -1 if unknown
+   * @param tagId ID of tag
+   * @return true if the subscription matches
+   */
+  private boolean matches(int tagGroup, int tagId) {
+    if (tagGroup >= 0 && (groupMask & (1 << tagGroup)) != 0) {
+      return true;
+    }
+    if (tagIdBitmap == null || tagId < 0) {
+      return false;
+    }
+    final int wordIndex = tagId >> BITMAP_WORD_SHIFT;
+    return wordIndex < tagIdBitmap.length
+        && (tagIdBitmap[wordIndex] & (1 << (tagId % BITMAP_WORD_BITS))) != 0;
+  }
+
+  /**
+   * Queue a changed data point, replacing the queued change of the same tag if there is one. When
+   * the queue is full, the oldest change is dropped in constant time.
+   *
+   * @param tagGroup index of the tag group of the tag, or -1 if unknown
+   * @param dataPoint changed data point
+   */
+  private synchronized void enqueue(int tagGroup, DataPoint dataPoint) {
+    // changes of an unknown tag group are delivered after the sweep of any tag group
+    queuedGroupMask |= tagGroup >= 0 ? 1 << tagGroup : -1;
+    final Integer tagIdKey = new Integer(dataPoint.getTagId());
+    Long queueIndex = (Long) queueIndexes.get(tagIdKey);
+    if (queueIndex != null) {
+      queue[getRingIndex(queueIndex.longValue())] = dataPoint;
+      return;
+    }
+
+    if (queueSize >= maxQueueSize) {
+      final int droppedIndex = getRingIndex(queueHead);
+      queueIndexes.remove(new Integer(queue[droppedIndex].getTagId()));
+      queue[droppedIndex] = null;
+      queueHead++;
+      queueSize--;
+      droppedEventCount++;
+    } else if (queueSize == queue.length) {
+      growQueue();
+    }
+    final long sequence = queueHead + queueSize;
+    queue[getRingIndex(sequence)] = dataPoint;
+    queueIndexes.put(tagIdKey, new Long(sequence));
+    queueSize++;
+  }
+
+  /**
+   * Take the queued changes, oldest first, leaving the queue empty, if changes of the specified tag
+   * group are queued. The queued tag group mask is read without locking, so a change queued while
+   * it is read is delivered after the next sweep of its tag group.
+   *
+   * @param tagGroup index of the sampled tag group
+   * @return queued changes, or null if there are no queued changes of the tag group
+   */
+  private ArrayList takeQueue(int tagGroup) {
+    if ((queuedGroupMask & (1 << tagGroup)) == 0) {
+      return null;
+    }
+    return takeQueue();
+  }
+
+  /**
+   * Take the queued changes, oldest first, leaving the queue empty.
+   *
+   * @return queued changes, or null if there are none
+   */
+  private synchronized ArrayList takeQueue() {
+    queuedGroupMask = 0;
+    if (queueSize == 0) {
+      return null;
+    }
+    ArrayList batch = new ArrayList(queueSize);
+    for (long sequence = queueHead; sequence < queueHead + queueSize; sequence++) {
+      final int ringIndex = getRingIndex(sequence);
+      batch.add(queue[ringIndex]);
+      queue[ringIndex] = null;
+    }
+    queueHead = 0;
+    queueSize = 0;
+    queueIndexes.clear();
+    return batch;
+  }
+
+  /**
+   * Get the index in the queue ring of the change with the specified sequence number.
+   *
+   * @param sequence sequence number of the change
+   * @return index in the queue ring
+   */
+  private int getRingIndex(long sequence) {
+    return (int) (sequence % queue.length);
+  }
+
+  /**
+   * Double the length of the queue ring, up to the maximum queue size. Queued changes are moved
+   * to the index of their sequence number in the new ring.
+   */
+  private void growQueue() {
+    DataPoint[] grownQueue = new DataPoint[Math.min(queue.length * 2, maxQueueSize)];
+    for (long sequence = queueHead; sequence < queueHead + queueSize; sequence++) {
+      grownQueue[(int) (sequence % grownQueue.length)] = queue[getRingIndex(sequence)];
+    }
+    queue = grownQueue;
+  }
+}
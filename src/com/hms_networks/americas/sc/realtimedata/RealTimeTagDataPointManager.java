@@ -1,6 +1,7 @@
 package com.hms_networks.americas.sc.realtimedata;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.ewon.ewonitf.TagControl;
 import com.hms_networks.americas.sc.datapoint.DataPoint;
@@ -9,12 +10,16 @@ import com.hms_networks.americas.sc.datapoint.DataPointDword;
 import com.hms_networks.americas.sc.datapoint.DataPointFloat;
 import com.hms_networks.americas.sc.datapoint.DataPointString;
 import com.hms_networks.americas.sc.logging.Logger;
+import com.hms_networks.americas.sc.tagdata.LastValueCache;
+import com.hms_networks.americas.sc.tagdata.TagDataInternPool;
+import com.hms_networks.americas.sc.tagdata.TagStatistics;
 import com.hms_networks.americas.sc.taginfo.TagInfo;
 import com.hms_networks.americas.sc.taginfo.TagType;
 
 /**
  * This class will hold a list of data points for each tag. One instance of the class is made per
- * tag.
+ * tag. The data points of each instance are locked separately, so a tag can be sampled and
+ * drained from different threads without locking other tags.
  *
  * @author HMS Networks, MU Americas Solution Center
  * @since 2.0
@@ -23,12 +28,57 @@ public class RealTimeTagDataPointManager {
   /** The name of the tag */
   public String tagName;
 
+  /** Minimum number of removed entries at the start of the list of data points to compact */
+  private static final int MIN_COMPACT_HEAD = 16;
+
   /** A list of data points retrieved for the tag */
   private ArrayList dataPoints;
 
+  /**
+   * Index of the oldest data point in the list of data points. Entries before it were removed by
+   * draining oldest first and are compacted away once they are at least half of the list.
+   */
+  private int dataPointsHead = 0;
+
+  /** The ID of the tag */
+  private int tagId;
+
+  /** The type of the tag */
+  private TagType tagType;
+
+  /** Compressed buffer holding the data points of the tag, or null if not compressed */
+  private RealTimeCompressedBuffer compressedBuffer;
+
+  /** Boolean indicating if data points are held in a compressed buffer when possible */
+  private boolean compressionEnabled = false;
+
   /** The last data value retrieved for this tag */
   private DataPoint lastDataPoint;
 
+  /** Index of the tag group of the tag used to match subscriptions, or -1 if unknown */
+  private int tagGroup = -1;
+
+  /** Drain priority of the tag */
+  private int priority = RealTimeDataQueueManager.TAG_PRIORITY_NORMAL;
+
+  /** Number of sampling sweeps between reads of the tag when polled adaptively */
+  private int pollIntervalSweeps = 1;
+
+  /** Number of sampling sweeps to skip before the next adaptive read of the tag */
+  private int sweepsUntilPoll = 0;
+
+  /**
+   * Time in milliseconds when a data point was stored while the tag held no data points. This is
+   * when the oldest held data point was stored, or earlier if the oldest was removed first.
+   */
+  private long oldestStoreTimeMillis = -1;
+
+  /** Time in seconds of the oldest data point discarded since last taken, or -1 if none */
+  private long discardedStartTimeSecs = -1;
+
+  /** Time in seconds of the newest data point discarded since last taken */
+  private long discardedEndTimeSecs = -1;
+
   /** hold a tag control object to use when retrieving data points */
   public TagControl tagControl;
 
@@ -48,49 +98,363 @@ public class RealTimeTagDataPointManager {
    * @throws Exception when unable to create TagControl Object
    */
   public RealTimeTagDataPointManager(String tagName) throws Exception {
-    this.tagName = tagName;
+    this(tagName, -1, null);
+    tagControl = new TagControl(tagName);
+  }
+
+  /**
+   * Constructor for {@link RealTimeTagDataPointManager} which stores the tag ID and type, allowing
+   * values to be recorded with {@link #recordCurentTagValue()} without a {@link TagInfo} object.
+   * The tag control object is created when the tag value is first read, so tags whose values are
+   * only recorded from group snapshots do not hold a tag control object.
+   *
+   * @param tagName The name of the tag that data points are coming from
+   * @param tagId The ID of the tag that data points are coming from
+   * @param tagType The type of the tag that data points are coming from
+   * @throws Exception when unable to create TagControl Object
+   */
+  public RealTimeTagDataPointManager(String tagName, int tagId, TagType tagType)
+      throws Exception {
+    this.tagName = TagDataInternPool.internTagName(tagId, tagName);
+    this.tagId = tagId;
+    this.tagType = tagType;
     this.lastDataPoint = null;
     this.dataPoints = new ArrayList();
-    tagControl = new TagControl(tagName);
+    this.tagControl = null;
+  }
+
+  /**
+   * Gets the tag's ID
+   *
+   * @return The tag ID, or -1 if it was not specified when constructed
+   */
+  public int getTagId() {
+    return tagId;
+  }
+
+  /**
+   * Gets the tag's type
+   *
+   * @return The tag type, or null if it was not specified when constructed
+   */
+  public TagType getTagType() {
+    return tagType;
+  }
+
+  /**
+   * Sets the index of the tag group of the tag, used to match tag group subscriptions.
+   *
+   * @param tagGroup The index of the tag group of the tag
+   */
+  void setTagGroup(int tagGroup) {
+    this.tagGroup = tagGroup;
+  }
+
+  /**
+   * Gets the tag's drain priority
+   *
+   * @return The tag priority, {@link RealTimeDataQueueManager#TAG_PRIORITY_HIGH} to {@link
+   *     RealTimeDataQueueManager#TAG_PRIORITY_LOW}
+   */
+  public int getPriority() {
+    return priority;
+  }
+
+  /**
+   * Sets the tag's drain priority.
+   *
+   * @param priority The tag priority
+   */
+  void setPriority(int priority) {
+    this.priority = priority;
   }
 
   /**
-   * Add a point to the list of data points only if it is not a duplicate data point.
+   * Add a point to the list of data points only if it is not a duplicate data point. The {@link
+   * LastValueCache} and {@link TagStatistics} are updated with every point, including duplicates.
+   * Added data points are queued for the matching {@link RealTimeSubscription}s.
    *
    * @param data the data point to add to the data point list.
+   * @return true if the data point was added, false if it was a duplicate
    */
-  public void addDataPoint(DataPoint data) {
-    if (!data.equals(lastDataPoint)) {
-      dataPoints.add(data);
-      lastDataPoint = data;
+  public boolean addDataPoint(DataPoint data) {
+    LastValueCache.update(data);
+    TagStatistics.update(data);
+    if (storeChangedDataPoint(data)) {
+      RealTimeSubscription.publish(tagGroup, data);
+      return true;
     } else {
       Logger.LOG_INFO(
           "Duplicate data point not added. Tag: "
               + data.getTagName()
               + " value: "
               + data.getValueString());
+      return false;
     }
   }
 
+  /**
+   * Store a data point if it is not a duplicate of the last stored data point. The data points of
+   * the tag are locked only while it is stored.
+   *
+   * @param data the data point to store
+   * @return true if the data point was stored, false if it was a duplicate
+   */
+  private synchronized boolean storeChangedDataPoint(DataPoint data) {
+    if (data.equals(lastDataPoint)) {
+      return false;
+    }
+    if (getSize() == 0) {
+      oldestStoreTimeMillis = System.currentTimeMillis();
+    }
+    storeDataPoint(data);
+    lastDataPoint = data;
+    return true;
+  }
+
+  /**
+   * Sets if the data points of the tag are held in a compressed buffer. Float, integer, dword and
+   * boolean data points are compressed, taking a fraction of the memory of data point objects,
+   * and are decoded when removed. Data points of other types are held uncompressed, and receiving
+   * one disables compression for the tag. Data points already held are converted.
+   *
+   * @param enabled true to hold data points in a compressed buffer
+   */
+  public synchronized void setCompressionEnabled(boolean enabled) {
+    compressionEnabled = enabled;
+    if (!enabled && compressedBuffer != null) {
+      dataPoints.addAll(compressedBuffer.removeAll());
+      compressedBuffer = null;
+    } else if (enabled && compressedBuffer == null && getListSize() > 0) {
+      ArrayList uncompressedDataPoints = dataPoints;
+      final int uncompressedHead = dataPointsHead;
+      dataPoints = new ArrayList();
+      dataPointsHead = 0;
+      for (int i = uncompressedHead; i < uncompressedDataPoints.size(); i++) {
+        storeDataPoint((DataPoint) uncompressedDataPoints.get(i));
+      }
+    }
+  }
+
+  /**
+   * Gets the number of bytes used by the compressed buffer of the tag.
+   *
+   * @return number of bytes used by the compressed buffer, or 0 if data points are not compressed
+   */
+  public synchronized int getCompressedSizeBytes() {
+    return compressedBuffer != null ? compressedBuffer.getSizeBytes() : 0;
+  }
+
+  /**
+   * Store a data point in the compressed buffer if compression is enabled and the data point can
+   * be compressed, otherwise in the list of data points. If a data point cannot be compressed,
+   * the compressed buffer is decompressed into the list of data points so their order is kept.
+   *
+   * @param data the data point to store
+   */
+  private void storeDataPoint(DataPoint data) {
+    if (compressionEnabled && compressedBuffer == null && getListSize() == 0) {
+      final int valueKind = RealTimeCompressedBuffer.getValueKind(data);
+      if (valueKind != RealTimeCompressedBuffer.VALUE_KIND_NONE) {
+        compressedBuffer = new RealTimeCompressedBuffer(tagName, tagId, valueKind);
+      }
+    }
+
+    if (compressedBuffer != null) {
+      if (compressedBuffer.append(data)) {
+        return;
+      }
+      Logger.LOG_WARN(
+          "Data point cannot be compressed, disabling compression for tag " + tagName + ".");
+      setCompressionEnabled(false);
+    }
+    dataPoints.add(data);
+  }
+
   /**
    * Removes data point from the top of the list of data points.
    *
-   * @return the data point that was removed
+   * @return the data point that was removed, or null if there are no data points
    */
-  public DataPoint removeDataPoint() {
+  public synchronized DataPoint removeDataPoint() {
+    if (compressedBuffer != null) {
+      return compressedBuffer.removeNewest();
+    }
+    if (getListSize() == 0) {
+      return null;
+    }
     final int lastDataPointIndex = dataPoints.size() - 1;
     DataPoint data = (DataPoint) dataPoints.get(lastDataPointIndex);
     dataPoints.remove(lastDataPointIndex);
+    if (getListSize() == 0) {
+      dataPoints.clear();
+      dataPointsHead = 0;
+    }
     return data;
   }
 
+  /**
+   * Gets how long the oldest data point in the list of data points has waited since it was
+   * stored. If older data points were removed first, the wait is measured from when the oldest of
+   * them was stored, so the wait is not understated.
+   *
+   * @return wait time in milliseconds, or -1 if there are no data points
+   */
+  synchronized long getOldestWaitMillis() {
+    if (getSize() == 0) {
+      return -1;
+    }
+    return Math.max(0, System.currentTimeMillis() - oldestStoreTimeMillis);
+  }
+
+  /**
+   * Gets the time of the oldest data point in the list of data points.
+   *
+   * @return time in seconds of the oldest data point, or -1 if there are no data points
+   */
+  synchronized long getOldestTimeSecs() {
+    if (compressedBuffer != null) {
+      return compressedBuffer.getOldestTime();
+    }
+    return getListSize() == 0 ? -1 : getTimeSecs((DataPoint) dataPoints.get(dataPointsHead));
+  }
+
+  /**
+   * Removes the oldest data point from the list of data points if its time is the specified time.
+   * Checking the time and removing the data point is atomic, so a data point is not removed out of
+   * order if the list was trimmed since its time was read. Removing costs O(1) amortized, the
+   * removed entry is only cleared and the list is compacted once half of it is removed.
+   *
+   * @param timeSecs expected time in seconds of the oldest data point
+   * @return the data point that was removed, or null if the oldest data point has another time or
+   *     there are no data points
+   */
+  synchronized DataPoint removeOldestDataPoint(long timeSecs) {
+    if (getOldestTimeSecs() != timeSecs || timeSecs < 0) {
+      return null;
+    }
+    if (compressedBuffer != null) {
+      return compressedBuffer.removeOldest();
+    }
+    DataPoint data = (DataPoint) dataPoints.get(dataPointsHead);
+    dataPoints.set(dataPointsHead, null);
+    dataPointsHead++;
+    if (dataPointsHead == dataPoints.size()) {
+      dataPoints.clear();
+      dataPointsHead = 0;
+    } else if (dataPointsHead >= MIN_COMPACT_HEAD && dataPointsHead * 2 >= dataPoints.size()) {
+      dataPoints.subList(0, dataPointsHead).clear();
+      dataPointsHead = 0;
+    }
+    return data;
+  }
+
+  /**
+   * Removes the oldest data points from the list of data points until it contains at most the
+   * specified number of data points. The time interval of the removed data points is recorded and
+   * can be retrieved with {@link #takeDiscardedInterval()}.
+   *
+   * @param maxDataPoints maximum number of data points to keep
+   * @return the number of data points removed
+   */
+  public synchronized int trimToSize(int maxDataPoints) {
+    final int numToRemove = getSize() - maxDataPoints;
+    if (numToRemove <= 0) {
+      return 0;
+    }
+    final long oldestTimeSecs;
+    final long newestTimeSecs;
+    if (compressedBuffer != null) {
+      long[] removedInterval = compressedBuffer.removeOldest(numToRemove);
+      oldestTimeSecs = removedInterval[0];
+      newestTimeSecs = removedInterval[1];
+    } else {
+      oldestTimeSecs = getTimeSecs((DataPoint) dataPoints.get(dataPointsHead));
+      newestTimeSecs = getTimeSecs((DataPoint) dataPoints.get(dataPointsHead + numToRemove - 1));
+      dataPoints.subList(0, dataPointsHead + numToRemove).clear();
+      dataPointsHead = 0;
+    }
+    if (discardedStartTimeSecs < 0 || oldestTimeSecs < discardedStartTimeSecs) {
+      discardedStartTimeSecs = oldestTimeSecs;
+    }
+    discardedEndTimeSecs = Math.max(discardedEndTimeSecs, newestTimeSecs);
+    return numToRemove;
+  }
+
+  /**
+   * Removes the oldest data points from the list of data points until it contains at most the
+   * specified number of data points, and returns them. Unlike {@link #trimToSize(int)}, the
+   * removed data points are not recorded as discarded, so the caller can keep them elsewhere.
+   *
+   * @param maxDataPoints maximum number of data points to keep
+   * @return the removed data points, oldest first
+   */
+  synchronized ArrayList removeOldestDataPoints(int maxDataPoints) {
+    final int numToRemove = getSize() - maxDataPoints;
+    if (numToRemove <= 0) {
+      return new ArrayList();
+    }
+    ArrayList removed;
+    if (compressedBuffer != null) {
+      removed = new ArrayList(numToRemove);
+      for (int i = 0; i < numToRemove; i++) {
+        removed.add(compressedBuffer.removeOldest());
+      }
+    } else {
+      List removedList = dataPoints.subList(dataPointsHead, dataPointsHead + numToRemove);
+      removed = new ArrayList(removedList);
+      dataPoints.subList(0, dataPointsHead + numToRemove).clear();
+      dataPointsHead = 0;
+    }
+    return removed;
+  }
+
+  /**
+   * Gets and clears the time interval of the data points removed by {@link #trimToSize(int)} since
+   * it was last taken.
+   *
+   * @return start and end time in seconds of the removed data points, inclusive, or null if no data
+   *     points were removed
+   */
+  public synchronized long[] takeDiscardedInterval() {
+    if (discardedStartTimeSecs < 0) {
+      return null;
+    }
+    long[] discardedInterval = new long[] {discardedStartTimeSecs, discardedEndTimeSecs};
+    discardedStartTimeSecs = -1;
+    discardedEndTimeSecs = -1;
+    return discardedInterval;
+  }
+
+  /**
+   * Gets the time of the specified data point in seconds.
+   *
+   * @param dataPoint data point
+   * @return data point time in seconds
+   */
+  private static long getTimeSecs(DataPoint dataPoint) {
+    return Long.parseLong(dataPoint.getTimeStamp());
+  }
+
   /**
    * Get the size of the list of data points.
    *
    * @return the size of the list of data points
    */
-  public int getSize() {
-    return dataPoints.size();
+  public synchronized int getSize() {
+    if (compressedBuffer != null) {
+      return compressedBuffer.size();
+    }
+    return getListSize();
+  }
+
+  /**
+   * Get the number of data points in the list of data points, excluding removed entries.
+   *
+   * @return the number of data points in the list of data points
+   */
+  private int getListSize() {
+    return dataPoints.size() - dataPointsHead;
   }
 
   /**
@@ -99,14 +463,72 @@ public class RealTimeTagDataPointManager {
    * @param tag the tag to inspect
    */
   public void recordCurentTagValue(TagInfo tag) {
+    recordCurentTagValue(tag.getName(), tag.getId(), tag.getType());
+  }
+
+  /**
+   * Gets the tag's current value into a list of tag current values using the tag ID and type
+   * specified when constructed.
+   */
+  public void recordCurentTagValue() {
+    recordCurentTagValue(tagName, tagId, tagType);
+  }
+
+  /**
+   * Gets the tag's current value into a list of tag current values if an adaptive read of the tag
+   * is due in this sampling sweep. Each time the value is read unchanged, the number of sweeps
+   * between reads doubles, up to the specified maximum. When the value changes, the tag is read
+   * every sweep again.
+   *
+   * @param maxPollIntervalSweeps the maximum number of sweeps between reads of the tag
+   * @return true if the tag was read, false if the read was skipped
+   */
+  boolean recordCurentTagValueAdaptive(int maxPollIntervalSweeps) {
+    if (sweepsUntilPoll > 0) {
+      sweepsUntilPoll--;
+      return false;
+    }
+
+    if (recordCurentTagValue(tagName, tagId, tagType)) {
+      pollIntervalSweeps = 1;
+    } else {
+      pollIntervalSweeps = Math.min(pollIntervalSweeps * 2, maxPollIntervalSweeps);
+    }
+    sweepsUntilPoll = pollIntervalSweeps - 1;
+    return true;
+  }
+
+  /**
+   * Gets the number of sampling sweeps between adaptive reads of the tag, learned from how often
+   * its value changes.
+   *
+   * @return the number of sweeps between reads of the tag
+   */
+  public int getPollIntervalSweeps() {
+    return pollIntervalSweeps;
+  }
 
-    String tagName = tag.getName();
-    TagType tagType = tag.getType();
-    int tagID = tag.getId();
+  /**
+   * Gets a tag's current value into a list of tag current values.
+   *
+   * @param tagName the name of the tag to inspect
+   * @param tagID the ID of the tag to inspect
+   * @param tagType the type of the tag to inspect
+   * @return true if the value was added, false if it was a duplicate or could not be read
+   */
+  private boolean recordCurentTagValue(String tagName, int tagID, TagType tagType) {
     final int millisecondsInSeconds = 1000;
     String timeStampSeconds = String.valueOf(System.currentTimeMillis() / millisecondsInSeconds);
     DataPoint data = null;
 
+    if (tagControl == null) {
+      try {
+        tagControl = new TagControl(tagName);
+      } catch (Exception e) {
+        Logger.LOG_EXCEPTION(e);
+      }
+    }
+
     if (tagControl != null) {
       if (tagType == TagType.FLOAT) {
         float val = (float) tagControl.getTagValueAsDouble();
@@ -115,7 +537,7 @@ public class RealTimeTagDataPointManager {
         int val = tagControl.getTagValueAsInt();
         data = new DataPointFloat(tagName, tagID, val, timeStampSeconds);
       } else if (tagType == TagType.STRING) {
-        String val = tagControl.getTagValueAsString();
+        String val = TagDataInternPool.internStringValue(tagControl.getTagValueAsString());
         data = new DataPointString(tagName, tagID, val, timeStampSeconds);
       } else if (tagType == TagType.BOOLEAN) {
         boolean val = (tagControl.getTagValueAsLong() != 0);
@@ -126,8 +548,44 @@ public class RealTimeTagDataPointManager {
       }
     } else {
       Logger.LOG_WARN(
-          "Tag control initialization failed, cannot retrieve data points from " + tag.getName());
+          "Tag control initialization failed, cannot retrieve data points from " + tagName);
+    }
+    return data != null && addDataPoint(data);
+  }
+
+  /**
+   * Records a numeric tag value read from a group snapshot into the list of tag current values.
+   * The value is converted to the type specified when constructed.
+   *
+   * @param value the numeric tag value
+   * @param timeStampSeconds the time stamp of the value in seconds
+   */
+  public void recordTagValue(double value, String timeStampSeconds) {
+    DataPoint data = null;
+    if (tagType == TagType.FLOAT) {
+      data = new DataPointFloat(tagName, tagId, (float) value, timeStampSeconds);
+    } else if (tagType == TagType.INTEGER) {
+      data = new DataPointFloat(tagName, tagId, (int) value, timeStampSeconds);
+    } else if (tagType == TagType.STRING) {
+      data = new DataPointString(tagName, tagId, String.valueOf(value), timeStampSeconds);
+    } else if (tagType == TagType.BOOLEAN) {
+      data = new DataPointBoolean(tagName, tagId, value != 0, timeStampSeconds);
+    } else if (tagType == TagType.DWORD) {
+      data = new DataPointDword(tagName, tagId, (long) value, timeStampSeconds);
+    }
+    if (data != null) {
+      addDataPoint(data);
     }
-    addDataPoint(data);
+  }
+
+  /**
+   * Records a string tag value read from a group snapshot into the list of tag current values.
+   *
+   * @param value the string tag value
+   * @param timeStampSeconds the time stamp of the value in seconds
+   */
+  public void recordTagValue(String value, String timeStampSeconds) {
+    String val = TagDataInternPool.internStringValue(value);
+    addDataPoint(new DataPointString(tagName, tagId, val, timeStampSeconds));
   }
 }
@@ -0,0 +1,281 @@
+package com.hms_networks.americas.sc.tagdata;
+
+import com.hms_networks.americas.sc.logging.Logger;
+
+/**
+ * Class to monitor Java heap usage and report a heap pressure state which the historical and real
+ * time data managers use to throttle their work.
+ *
+ * <p>The governor samples {@link Runtime#freeMemory()} and {@link Runtime#totalMemory()} at a low
+ * rate on a background thread. When the free heap fraction falls below the elevated watermark, the
+ * pressure state is raised to elevated. A free heap fraction below the critical watermark is often
+ * garbage which an ordinary collection would free, so it is confirmed by requesting a garbage
+ * collection and sampling again, and the pressure state is only raised to critical after {@link
+ * #setCriticalConfirmSamples(int)} consecutive confirmed samples. Until then it is elevated. The
+ * pressure state is lowered again once the free heap fraction recovers above the watermark plus a
+ * hysteresis margin. While under pressure:
+ *
+ * <ul>
+ *   <li>the historical data queue shrinks its FIFO time span,
+ *   <li>the real time data queue pauses sampling of low priority tag groups, and
+ *   <li>under critical pressure, the real time data queue spills its buffers to flash.
+ * </ul>
+ *
+ * <p>The total time spent in each pressure state is tracked and can be read with {@link
+ * #getTimeInStateMillis(int)}.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class HeapPressureGovernor {
+
+  /** Pressure state when free heap is above the elevated watermark. */
+  public static final int PRESSURE_NORMAL = 0;
+
+  /** Pressure state when free heap is below the elevated watermark. */
+  public static final int PRESSURE_ELEVATED = 1;
+
+  /** Pressure state when free heap is below the critical watermark. */
+  public static final int PRESSURE_CRITICAL = 2;
+
+  /** The number of pressure states. */
+  public static final int NUM_PRESSURE_STATES = 3;
+
+  /** Free heap fraction below which the pressure state is elevated. Default is 25%. */
+  private static double elevatedWatermark = 0.25;
+
+  /** Free heap fraction below which the pressure state is critical. Default is 10%. */
+  private static double criticalWatermark = 0.10;
+
+  /**
+   * Free heap fraction above a watermark required before the pressure state is lowered. Default is
+   * 5%.
+   */
+  private static double recoveryHysteresis = 0.05;
+
+  /**
+   * Number of consecutive samples confirmed below the critical watermark before the pressure state
+   * is raised to critical. Default is 3.
+   */
+  private static int criticalConfirmSamples = 3;
+
+  /** Number of consecutive samples confirmed below the critical watermark. */
+  private static int numCriticalSamples = 0;
+
+  /** Period between heap samples in milliseconds. Default is 5 seconds. */
+  private static long samplePeriodMillis = 5000;
+
+  /** The current pressure state. */
+  private static volatile int pressureState = PRESSURE_NORMAL;
+
+  /** Total time spent in each pressure state in milliseconds, excluding the current state. */
+  private static final long[] timeInStateMillis = new long[NUM_PRESSURE_STATES];
+
+  /** Time of the last pressure state change in milliseconds. */
+  private static long lastStateChangeTimeMillis = System.currentTimeMillis();
+
+  /** The thread sampling the heap, or null if the governor is not running. */
+  private static Thread samplerThread = null;
+
+  /**
+   * Starts the background thread which samples the heap. Calling this method while the governor is
+   * running has no effect.
+   */
+  public static synchronized void start() {
+    if (samplerThread != null) {
+      return;
+    }
+
+    samplerThread =
+        new Thread(
+            new Runnable() {
+              public void run() {
+                while (Thread.currentThread() == getSamplerThread()) {
+                  sample();
+                  try {
+                    Thread.sleep(getSamplePeriodMillis());
+                  } catch (InterruptedException e) {
+                    // Interrupted by stop(), loop condition will end the thread
+                  }
+                }
+              }
+            });
+    samplerThread.setPriority(Thread.MIN_PRIORITY);
+    samplerThread.start();
+  }
+
+  /** Stops the background thread which samples the heap and returns to normal operation. */
+  public static synchronized void stop() {
+    if (samplerThread != null) {
+      Thread stoppedThread = samplerThread;
+      samplerThread = null;
+      stoppedThread.interrupt();
+    }
+    numCriticalSamples = 0;
+    setPressureState(PRESSURE_NORMAL);
+  }
+
+  /**
+   * Gets the thread sampling the heap.
+   *
+   * @return sampler thread, or null if the governor is not running
+   */
+  private static synchronized Thread getSamplerThread() {
+    return samplerThread;
+  }
+
+  /**
+   * Configures the free heap fraction watermarks.
+   *
+   * @param elevatedFreeFraction free heap fraction below which the pressure state is elevated
+   * @param criticalFreeFraction free heap fraction below which the pressure state is critical
+   */
+  public static synchronized void setWatermarks(
+      double elevatedFreeFraction, double criticalFreeFraction) {
+    if (criticalFreeFraction > elevatedFreeFraction) {
+      throw new IllegalArgumentException(
+          "Critical heap watermark cannot be greater than elevated heap watermark.");
+    }
+    elevatedWatermark = elevatedFreeFraction;
+    criticalWatermark = criticalFreeFraction;
+  }
+
+  /**
+   * Configures the free heap fraction above a watermark required before the pressure state is
+   * lowered.
+   *
+   * @param hysteresisFraction recovery hysteresis as a fraction of the total heap
+   */
+  public static synchronized void setRecoveryHysteresis(double hysteresisFraction) {
+    recoveryHysteresis = hysteresisFraction;
+  }
+
+  /**
+   * Configures the number of consecutive samples below the critical watermark, each confirmed after
+   * a garbage collection, before the pressure state is raised to critical.
+   *
+   * @param numSamples number of consecutive confirmed samples, at least 1
+   */
+  public static synchronized void setCriticalConfirmSamples(int numSamples) {
+    if (numSamples < 1) {
+      throw new IllegalArgumentException("Critical heap confirm samples must be at least 1.");
+    }
+    criticalConfirmSamples = numSamples;
+  }
+
+  /**
+   * Configures the period between heap samples.
+   *
+   * @param periodMillis sample period in milliseconds
+   */
+  public static synchronized void setSamplePeriodMillis(long periodMillis) {
+    samplePeriodMillis = periodMillis;
+  }
+
+  /**
+   * Gets the period between heap samples.
+   *
+   * @return sample period in milliseconds
+   */
+  public static synchronized long getSamplePeriodMillis() {
+    return samplePeriodMillis;
+  }
+
+  /**
+   * Gets the current pressure state.
+   *
+   * @return pressure state, such as {@link #PRESSURE_NORMAL}
+   */
+  public static int getPressureState() {
+    return pressureState;
+  }
+
+  /**
+   * Gets the divisor to apply to the historical data FIFO time span for the current pressure state.
+   * The span is halved for each pressure state above normal.
+   *
+   * @return historical span divisor
+   */
+  public static int getHistoricalSpanDivisor() {
+    return 1 << pressureState;
+  }
+
+  /**
+   * Gets the total time spent in the specified pressure state, including the time spent in the
+   * current state so far.
+   *
+   * @param state pressure state, such as {@link #PRESSURE_NORMAL}
+   * @return time spent in state in milliseconds
+   */
+  public static synchronized long getTimeInStateMillis(int state) {
+    long timeInState = timeInStateMillis[state];
+    if (state == pressureState) {
+      timeInState += System.currentTimeMillis() - lastStateChangeTimeMillis;
+    }
+    return timeInState;
+  }
+
+  /**
+   * Gets the fraction of the current heap which is free.
+   *
+   * @return free heap fraction
+   */
+  public static double getFreeHeapFraction() {
+    Runtime runtime = Runtime.getRuntime();
+    return (double) runtime.freeMemory() / (double) runtime.totalMemory();
+  }
+
+  /**
+   * Samples the heap and updates the pressure state. This method is called periodically by the
+   * background thread, and may be called directly by applications which do not start the governor
+   * thread.
+   */
+  public static synchronized void sample() {
+    double freeFraction = getFreeHeapFraction();
+    if (freeFraction < criticalWatermark) {
+      // Confirm the sample is not garbage which an ordinary collection would free
+      System.gc();
+      freeFraction = getFreeHeapFraction();
+    }
+    if (freeFraction < criticalWatermark) {
+      numCriticalSamples++;
+    } else {
+      numCriticalSamples = 0;
+    }
+
+    int newState = pressureState;
+    if (freeFraction < criticalWatermark) {
+      newState =
+          numCriticalSamples >= criticalConfirmSamples
+              ? PRESSURE_CRITICAL
+              : Math.max(PRESSURE_ELEVATED, pressureState);
+    } else if (freeFraction < elevatedWatermark) {
+      newState = Math.max(PRESSURE_ELEVATED, pressureState);
+      if (pressureState == PRESSURE_CRITICAL
+          && freeFraction >= criticalWatermark + recoveryHysteresis) {
+        newState = PRESSURE_ELEVATED;
+      }
+    } else if (freeFraction >= elevatedWatermark + recoveryHysteresis) {
+      newState = PRESSURE_NORMAL;
+    } else if (pressureState == PRESSURE_CRITICAL) {
+      newState = PRESSURE_ELEVATED;
+    }
+    setPressureState(newState);
+  }
+
+  /**
+   * Change the pressure state and account for the time spent in the previous state.
+   *
+   * @param newState new pressure state
+   */
+  private static synchronized void setPressureState(int newState) {
+    if (newState != pressureState) {
+      final long currentTimeMillis = System.currentTimeMillis();
+      timeInStateMillis[pressureState] += currentTimeMillis - lastStateChangeTimeMillis;
+      lastStateChangeTimeMillis = currentTimeMillis;
+      Logger.LOG_INFO(
+          "Heap pressure state changed from " + pressureState + " to " + newState + ".");
+      pressureState = newState;
+    }
+  }
+}
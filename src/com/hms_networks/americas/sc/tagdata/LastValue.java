@@ -0,0 +1,35 @@
+package com.hms_networks.americas.sc.tagdata;
+
+/**
+ * Class to hold a copy of the last known value of a tag read from the {@link LastValueCache}.
+ * Instances are reused by callers to avoid allocating on each read.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class LastValue {
+
+  /** ID of the tag. */
+  public int tagId;
+
+  /** Numeric value of the tag. Boolean values are 0 or 1, string values are 0. */
+  public double value;
+
+  /** String value of the tag, or null if the tag value is not a string. */
+  public String stringValue;
+
+  /** Time of the value in seconds since epoch. */
+  public long timeSecs;
+
+  /** Raw data quality of the value. */
+  public int quality;
+
+  /**
+   * Gets the value of the tag as a string.
+   *
+   * @return string value for string tags, otherwise the numeric value as a string
+   */
+  public String getValueString() {
+    return stringValue != null ? stringValue : String.valueOf(value);
+  }
+}
@@ -0,0 +1,320 @@
+package com.hms_networks.americas.sc.tagdata;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.datapoint.DataPointBoolean;
+import com.hms_networks.americas.sc.datapoint.DataPointDword;
+import com.hms_networks.americas.sc.datapoint.DataPointFloat;
+import com.hms_networks.americas.sc.datapoint.DataPointInteger;
+import com.hms_networks.americas.sc.datapoint.DataPointString;
+
+/**
+ * Class to cache the last known value, time and quality of each tag, indexed by tag ID. The cache
+ * is updated by real time sampling and historical parsing, so components which only need the
+ * latest value of a tag can read it without tag I/O.
+ *
+ * <p>The value of each tag is held in an immutable entry, and an update replaces the entry of the
+ * tag. Reference writes are atomic, so a read of a single tag does not lock and always sees a
+ * whole entry, either the old or the new one, even on virtual machines where writes of long and
+ * double values are not atomic. Updates are serialized by one of several update locks chosen by
+ * tag ID, so updates of different tags rarely wait for each other. Group reads, which copy all
+ * requested tags at the same point in time, and growing or clearing the cache take all update
+ * locks in order.
+ *
+ * <p>A value older than the cached value of the tag does not replace it.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class LastValueCache {
+
+  /** Time value of tags without a cached value. */
+  private static final long NO_VALUE = -1;
+
+  /** Number of update locks. Must be a power of 2. */
+  private static final int NUM_UPDATE_LOCKS = 16;
+
+  /** Update locks, the lock of a tag is chosen by the low bits of its tag ID. */
+  private static final Object[] UPDATE_LOCKS = new Object[NUM_UPDATE_LOCKS];
+
+  static {
+    for (int i = 0; i < NUM_UPDATE_LOCKS; i++) {
+      UPDATE_LOCKS[i] = new Object();
+    }
+  }
+
+  /** Boolean indicating if the cache is updated. Default is true. */
+  private static volatile boolean enabled = true;
+
+  /**
+   * Cached entries indexed by tag ID, or null for tags without a cached value. The array is
+   * replaced when the cache grows or is cleared.
+   */
+  private static volatile Entry[] entries = new Entry[0];
+
+  /** Immutable cached value of a tag. */
+  private static final class Entry {
+
+    /** Numeric value of the tag. */
+    final double value;
+
+    /** String value of the tag, or null if the tag value is not a string. */
+    final String stringValue;
+
+    /** Time of the value in seconds since epoch. */
+    final long timeSecs;
+
+    /** Raw data quality of the value. */
+    final int quality;
+
+    /**
+     * Constructor for a cached value of a tag.
+     *
+     * @param value numeric value, boolean values are 0 or 1
+     * @param stringValue string value, or null if the tag value is not a string
+     * @param timeSecs time of the value in seconds since epoch
+     * @param quality raw data quality of the value
+     */
+    Entry(double value, String stringValue, long timeSecs, int quality) {
+      this.value = value;
+      this.stringValue = stringValue;
+      this.timeSecs = timeSecs;
+      this.quality = quality;
+    }
+  }
+
+  /**
+   * Sets if the cache is updated. Disabling the cache clears it.
+   *
+   * @param cacheEnabled true to update the cache
+   */
+  public static void setEnabled(boolean cacheEnabled) {
+    enabled = cacheEnabled;
+    if (!cacheEnabled) {
+      clear();
+    }
+  }
+
+  /**
+   * Gets a boolean representing if the cache is updated.
+   *
+   * @return true if the cache is updated
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Removes all values from the cache. */
+  public static void clear() {
+    runWithAllLocks(
+        new Runnable() {
+          public void run() {
+            entries = new Entry[0];
+          }
+        },
+        0);
+  }
+
+  /**
+   * Updates the cached value of the tag of the specified data point.
+   *
+   * @param dataPoint data point holding the new value
+   */
+  public static void update(DataPoint dataPoint) {
+    if (!enabled || dataPoint == null) {
+      return;
+    }
+
+    double value = 0;
+    String stringValue = null;
+    if (dataPoint instanceof DataPointBoolean) {
+      value = ((DataPointBoolean) dataPoint).getValue() ? 1 : 0;
+    } else if (dataPoint instanceof DataPointFloat) {
+      value = ((DataPointFloat) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointInteger) {
+      value = ((DataPointInteger) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointDword) {
+      value = ((DataPointDword) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointString) {
+      stringValue = ((DataPointString) dataPoint).getValue();
+    } else {
+      return;
+    }
+
+    long time;
+    try {
+      time = Long.parseLong(dataPoint.getTimeStamp());
+    } catch (NumberFormatException e) {
+      return;
+    }
+    update(
+        dataPoint.getTagId(),
+        value,
+        stringValue,
+        time,
+        dataPoint.getQuality().getRawDataQuality());
+  }
+
+  /**
+   * Updates the cached value of the specified tag.
+   *
+   * @param tagId ID of tag
+   * @param value numeric value, boolean values are 0 or 1
+   * @param stringValue string value, or null if the tag value is not a string
+   * @param time time of the value in seconds since epoch
+   * @param quality raw data quality of the value
+   */
+  public static void update(int tagId, double value, String stringValue, long time, int quality) {
+    if (!enabled || tagId < 0 || time < 0) {
+      return;
+    }
+
+    final Object updateLock = UPDATE_LOCKS[tagId & (NUM_UPDATE_LOCKS - 1)];
+    while (true) {
+      synchronized (updateLock) {
+        // the entry array is not replaced while an update lock is held
+        final Entry[] currentEntries = entries;
+        if (tagId < currentEntries.length) {
+          final Entry cachedEntry = currentEntries[tagId];
+          if (cachedEntry == null || time >= cachedEntry.timeSecs) {
+            currentEntries[tagId] = new Entry(value, stringValue, time, quality);
+          }
+          return;
+        }
+      }
+      grow(tagId + 1);
+    }
+  }
+
+  /**
+   * Reads the cached value of the specified tag. The read does not lock.
+   *
+   * @param tagId ID of tag
+   * @param output object to copy the value to
+   * @return true if the tag has a cached value, false if not
+   */
+  public static boolean read(int tagId, LastValue output) {
+    return copy(entries, tagId, output);
+  }
+
+  /**
+   * Reads the cached values of the specified tags at the same point in time.
+   *
+   * @param tagIds IDs of tags
+   * @param output objects to copy the values to, one per tag ID, or null entries to create them
+   * @return number of tags which have a cached value
+   */
+  public static int readGroup(final int[] tagIds, final LastValue[] output) {
+    for (int i = 0; i < tagIds.length; i++) {
+      if (output[i] == null) {
+        output[i] = new LastValue();
+      }
+    }
+
+    final int[] numValues = new int[1];
+    runWithAllLocks(
+        new Runnable() {
+          public void run() {
+            final Entry[] currentEntries = entries;
+            for (int i = 0; i < tagIds.length; i++) {
+              if (copy(currentEntries, tagIds[i], output[i])) {
+                numValues[0]++;
+              }
+            }
+          }
+        },
+        0);
+    return numValues[0];
+  }
+
+  /**
+   * Reads the cached values of the tags in the specified tag group at the same point in time. Tag
+   * group membership is read from the {@link TagMetadataSnapshot}.
+   *
+   * @param groupIndex index of tag group, {@link TagMetadataSnapshot#GROUP_A} to {@link
+   *     TagMetadataSnapshot#GROUP_D}
+   * @return cached values of the tags in the group which have a cached value, or an empty array if
+   *     the tag metadata snapshot is not available
+   */
+  public static LastValue[] readGroup(int groupIndex) {
+    if (!TagMetadataSnapshot.isAvailable()) {
+      return new LastValue[0];
+    }
+    final int[] tagIds = TagMetadataSnapshot.getTagIdsInGroup(groupIndex);
+    LastValue[] groupValues = new LastValue[tagIds.length];
+    final int numValues = readGroup(tagIds, groupValues);
+
+    LastValue[] cachedValues = new LastValue[numValues];
+    int index = 0;
+    for (int i = 0; i < groupValues.length && index < numValues; i++) {
+      if (groupValues[i].timeSecs != NO_VALUE) {
+        cachedValues[index++] = groupValues[i];
+      }
+    }
+    return cachedValues;
+  }
+
+  /**
+   * Copy the cached value of the specified tag. Tags without a cached value are copied with a time
+   * of {@link #NO_VALUE}.
+   *
+   * @param currentEntries cached entries to copy from
+   * @param tagId ID of tag
+   * @param output object to copy the value to
+   * @return true if the tag has a cached value
+   */
+  private static boolean copy(Entry[] currentEntries, int tagId, LastValue output) {
+    final Entry entry =
+        tagId >= 0 && tagId < currentEntries.length ? currentEntries[tagId] : null;
+    output.tagId = tagId;
+    if (entry == null) {
+      output.value = 0;
+      output.stringValue = null;
+      output.timeSecs = NO_VALUE;
+      output.quality = 0;
+      return false;
+    }
+    output.value = entry.value;
+    output.stringValue = entry.stringValue;
+    output.timeSecs = entry.timeSecs;
+    output.quality = entry.quality;
+    return true;
+  }
+
+  /**
+   * Grow the entry array to hold at least the specified number of tags, if it is shorter.
+   *
+   * @param minLength minimum number of tags
+   */
+  private static void grow(final int minLength) {
+    runWithAllLocks(
+        new Runnable() {
+          public void run() {
+            if (entries.length < minLength) {
+              final int length = Math.max(minLength, entries.length * 2);
+              Entry[] grownEntries = new Entry[length];
+              System.arraycopy(entries, 0, grownEntries, 0, entries.length);
+              entries = grownEntries;
+            }
+          }
+        },
+        0);
+  }
+
+  /**
+   * Run the specified task while holding the update locks from the specified index onward. The
+   * locks are always taken in index order, and updates only hold one lock, so taking all locks
+   * cannot deadlock.
+   *
+   * @param task task to run
+   * @param lockIndex index of the first update lock to take
+   */
+  private static void runWithAllLocks(Runnable task, int lockIndex) {
+    if (lockIndex == NUM_UPDATE_LOCKS) {
+      task.run();
+      return;
+    }
+    synchronized (UPDATE_LOCKS[lockIndex]) {
+      runWithAllLocks(task, lockIndex + 1);
+    }
+  }
+}
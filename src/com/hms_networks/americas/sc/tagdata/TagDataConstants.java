@@ -0,0 +1,40 @@
+package com.hms_networks.americas.sc.tagdata;
+
+/**
+ * Class for storing constants used in the tag data package.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+class TagDataConstants {
+
+  /**
+   * Folder to store tag data files. This is the same folder used by the historical data queue so
+   * that all library files are kept together.
+   */
+  static final String TAG_DATA_FILE_FOLDER = "/usr/hist-data-queue";
+
+  /**
+   * Extension to use for tag data files. Note, storing with a non-standard extension reduces the
+   * risk of manual file tampering.
+   */
+  static final String TAG_DATA_FILE_EXTENSION = ".q";
+
+  /** Name of tag metadata snapshot file */
+  static final String TAG_METADATA_SNAPSHOT_FILE_NAME = "tagMetadata";
+
+  /** Name of temporary tag metadata snapshot file used while writing a new snapshot */
+  static final String TAG_METADATA_SNAPSHOT_TMP_FILE_NAME = "tagMetadataTmp";
+
+  /** Magic number identifying tag metadata snapshot files */
+  static final int TAG_METADATA_SNAPSHOT_MAGIC = 0x54414753;
+
+  /** Version of the tag metadata snapshot file format */
+  static final int TAG_METADATA_SNAPSHOT_VERSION = 1;
+
+  /** EBD string used to export the tag list for computing the tag configuration fingerprint */
+  static final String TAG_LIST_EBD_STRING = "$dtTL$ftT";
+
+  /** Size of the buffer used when reading export block descriptor streams */
+  static final int EBD_READ_BUFFER_SIZE = 1024;
+}
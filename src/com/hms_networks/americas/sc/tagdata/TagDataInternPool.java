@@ -0,0 +1,112 @@
+package com.hms_networks.americas.sc.tagdata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class to manage bounded pools of shared <code>String</code> instances for tag names and recurring
+ * string tag values.
+ *
+ * <p>Data points created by historical parsing and real time sampling each store a tag name, and
+ * string tag values usually repeat the previous value of the tag, such as a machine state.
+ * Interning these strings makes repeated values share one instance, which reduces the heap
+ * retained by long historical spans and large real time buffers, and allows equality checks to
+ * succeed on the reference comparison.
+ *
+ * <p>Tag names are pooled by tag ID, so the pool is bounded by the number of tags. String values
+ * are pooled in a least recently used map bounded by {@link #setMaxStringValues(int)}, and values
+ * longer than {@link #setMaxStringValueLength(int)} are not pooled.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class TagDataInternPool {
+
+  /** Maximum number of string values in the pool. Default is 256. */
+  private static int maxStringValues = 256;
+
+  /** Maximum length of string values added to the pool. Default is 64. */
+  private static int maxStringValueLength = 64;
+
+  /** Pooled tag names indexed by tag ID. */
+  private static String[] tagNames = new String[0];
+
+  /** Pooled string values in least recently used order. */
+  private static final Map stringValues =
+      new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+          return size() > maxStringValues;
+        }
+      };
+
+  /**
+   * Sets the maximum number of string values in the pool. The least recently used values are
+   * evicted first.
+   *
+   * @param maxValues maximum number of string values in the pool
+   */
+  public static synchronized void setMaxStringValues(int maxValues) {
+    maxStringValues = maxValues;
+    if (stringValues.size() > maxStringValues) {
+      stringValues.clear();
+    }
+  }
+
+  /**
+   * Sets the maximum length of string values added to the pool. Longer values are returned without
+   * being pooled.
+   *
+   * @param maxLength maximum length of string values added to the pool
+   */
+  public static synchronized void setMaxStringValueLength(int maxLength) {
+    maxStringValueLength = maxLength;
+  }
+
+  /**
+   * Gets the pooled instance of the name of the specified tag. If the tag has no pooled name, or
+   * its pooled name differs because the tag was renamed, the specified name is pooled.
+   *
+   * @param tagId ID of tag
+   * @param tagName name of tag
+   * @return pooled tag name instance
+   */
+  public static synchronized String internTagName(int tagId, String tagName) {
+    if (tagId < 0 || tagName == null) {
+      return tagName;
+    }
+    if (tagId >= tagNames.length) {
+      String[] grownTagNames = new String[Math.max(tagId + 1, tagNames.length * 2)];
+      System.arraycopy(tagNames, 0, grownTagNames, 0, tagNames.length);
+      tagNames = grownTagNames;
+    }
+    if (!tagName.equals(tagNames[tagId])) {
+      tagNames[tagId] = tagName;
+    }
+    return tagNames[tagId];
+  }
+
+  /**
+   * Gets the pooled instance of the specified string value, pooling it if it is not already
+   * pooled.
+   *
+   * @param value string value
+   * @return pooled string value instance, or the specified value if it is too long to be pooled
+   */
+  public static synchronized String internStringValue(String value) {
+    if (value == null || value.length() > maxStringValueLength || maxStringValues <= 0) {
+      return value;
+    }
+    String pooledValue = (String) stringValues.get(value);
+    if (pooledValue == null) {
+      stringValues.put(value, value);
+      pooledValue = value;
+    }
+    return pooledValue;
+  }
+
+  /** Removes all tag names and string values from the pool. */
+  public static synchronized void clear() {
+    tagNames = new String[0];
+    stringValues.clear();
+  }
+}
@@ -0,0 +1,634 @@
+package com.hms_networks.americas.sc.tagdata;
+
+import com.ewon.ewonitf.Exporter;
+
+import com.hms_networks.americas.sc.json.JSONException;
+import com.hms_networks.americas.sc.logging.Logger;
+import com.hms_networks.americas.sc.taginfo.TagGroup;
+import com.hms_networks.americas.sc.taginfo.TagInfo;
+import com.hms_networks.americas.sc.taginfo.TagInfoManager;
+import com.hms_networks.americas.sc.taginfo.TagType;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Class to manage a persisted snapshot of the resolved tag table and tag group membership.
+ *
+ * <p>Building tag information with {@link TagInfoManager#refreshTagList()} and {@link
+ * TagInfoManager#getTagInfoListFiltered(TagGroup)} can take many seconds on devices with thousands
+ * of tags. The snapshot stores the tag ID, name, type and group membership of each tag in a compact
+ * binary file under the queue folder, so that after a restart the table is loaded with a single
+ * sequential read. The snapshot is validated against a fingerprint of the current tag
+ * configuration, and is rebuilt on a background thread only when the fingerprint changes.
+ *
+ * <p>The snapshot is initialized once with {@link #init()} at start-up, after which readers only
+ * check {@link #isAvailable()} and read the loaded table without locking. When the tag
+ * configuration is changed at runtime, {@link #refreshTagList()} or {@link #revalidate()} must be
+ * called so that the snapshot is rebuilt instead of serving stale tag names, types and groups.
+ *
+ * <p>Tags of type {@link TagType#INTEGER_MAPPED_STRING} require their enumeration mapping, which is
+ * not stored in the snapshot. Users of the snapshot must fall back to {@link TagInfoManager} for
+ * these tags.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class TagMetadataSnapshot {
+
+  /** Index of tag group A in group membership arrays. */
+  public static final int GROUP_A = 0;
+
+  /** Index of tag group B in group membership arrays. */
+  public static final int GROUP_B = 1;
+
+  /** Index of tag group C in group membership arrays. */
+  public static final int GROUP_C = 2;
+
+  /** Index of tag group D in group membership arrays. */
+  public static final int GROUP_D = 3;
+
+  /** The number of tag groups. */
+  public static final int NUM_TAG_GROUPS = 4;
+
+  /** Type code stored in the snapshot for tags which do not exist. */
+  private static final byte TYPE_CODE_NONE = -1;
+
+  /**
+   * Tag types indexed by the type code stored in the snapshot file. The order of this array is part
+   * of the file format and must not be changed.
+   */
+  private static final TagType[] TYPE_CODES = {
+    TagType.BOOLEAN,
+    TagType.FLOAT,
+    TagType.INTEGER,
+    TagType.DWORD,
+    TagType.STRING,
+    TagType.INTEGER_MAPPED_STRING
+  };
+
+  /** Tag groups indexed by group index. */
+  private static final TagGroup[] TAG_GROUPS = {TagGroup.A, TagGroup.B, TagGroup.C, TagGroup.D};
+
+  /** File path for the tag metadata snapshot file. */
+  private static final String snapshotFileName =
+      TagDataConstants.TAG_DATA_FILE_FOLDER
+          + "/"
+          + TagDataConstants.TAG_METADATA_SNAPSHOT_FILE_NAME
+          + TagDataConstants.TAG_DATA_FILE_EXTENSION;
+
+  /** File path for the temporary tag metadata snapshot file. */
+  private static final String snapshotTmpFileName =
+      TagDataConstants.TAG_DATA_FILE_FOLDER
+          + "/"
+          + TagDataConstants.TAG_METADATA_SNAPSHOT_TMP_FILE_NAME
+          + TagDataConstants.TAG_DATA_FILE_EXTENSION;
+
+  /** The currently loaded tag table, or null if no valid snapshot is available. */
+  private static volatile Table table = null;
+
+  /**
+   * Boolean flag indicating if the snapshot has been initialized. This is volatile so that {@link
+   * #init()} returns without locking after the first call.
+   */
+  private static volatile boolean hasInit = false;
+
+  /** Boolean flag indicating if the loaded table was installed with {@link #install}. */
+  private static boolean isInstalled = false;
+
+  /** Fingerprint of the tag configuration the loaded or rebuilding table is built from. */
+  private static long currentFingerprint = 0;
+
+  /** Boolean flag indicating if a background rebuild of the snapshot is running. */
+  private static boolean rebuildRunning = false;
+
+  /** Lock used to serialize population of the tag information list. */
+  private static final Object tagInfoListLock = new Object();
+
+  /**
+   * Initializes the tag metadata snapshot. The tag configuration fingerprint is computed and
+   * compared with the fingerprint stored in the snapshot file. If they match, the snapshot is
+   * loaded. Otherwise, a rebuild of the snapshot is started on a background thread and this method
+   * returns false until the rebuild completes. Subsequent calls return immediately without
+   * locking, but this method should still be called once at start-up rather than per data point.
+   *
+   * @return true if a valid snapshot is available
+   */
+  public static boolean init() {
+    if (!hasInit) {
+      initSnapshot();
+    }
+    return table != null;
+  }
+
+  /** Computes the tag configuration fingerprint and loads or rebuilds the snapshot once. */
+  private static synchronized void initSnapshot() {
+    if (!hasInit) {
+      hasInit = true;
+
+      long fingerprint;
+      try {
+        fingerprint = computeTagConfigFingerprint();
+      } catch (Exception e) {
+        Logger.LOG_WARN("Unable to compute tag configuration fingerprint.");
+        Logger.LOG_EXCEPTION(e);
+        return;
+      }
+
+      currentFingerprint = fingerprint;
+      try {
+        table = readSnapshot(fingerprint);
+      } catch (Exception e) {
+        Logger.LOG_WARN("Unable to read tag metadata snapshot, it will be rebuilt.");
+        Logger.LOG_EXCEPTION(e);
+        table = null;
+      }
+
+      if (table == null) {
+        startRebuild(fingerprint, false);
+      }
+    }
+  }
+
+  /**
+   * Re-validates the snapshot against the current tag configuration. The tag configuration
+   * fingerprint is computed again and, if it differs from the fingerprint of the loaded snapshot,
+   * the snapshot is invalidated and rebuilt on a background thread from a refreshed tag
+   * information list. Until the rebuild completes, {@link #isAvailable()} returns false so that
+   * readers fall back to {@link TagInfoManager}. This method has no effect on a table installed
+   * with {@link #install}.
+   *
+   * @return true if the snapshot was invalidated
+   * @throws IOException if unable to compute the tag configuration fingerprint
+   */
+  public static synchronized boolean revalidate() throws IOException {
+    if (isInstalled) {
+      return false;
+    }
+    if (!hasInit) {
+      initSnapshot();
+      return false;
+    }
+
+    final long fingerprint = computeTagConfigFingerprint();
+    if (fingerprint == currentFingerprint) {
+      return false;
+    }
+
+    Logger.LOG_INFO("Tag configuration changed, rebuilding tag metadata snapshot.");
+    currentFingerprint = fingerprint;
+    table = null;
+    startRebuild(fingerprint, true);
+    return true;
+  }
+
+  /**
+   * Refreshes the tag information list in {@link TagInfoManager} and re-validates the snapshot
+   * with {@link #revalidate()}. Users of the library which reload the tag configuration at runtime
+   * should call this method instead of {@link TagInfoManager#refreshTagList()}, so that the
+   * snapshot does not serve stale tag information.
+   *
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  public static void refreshTagList() throws IOException, JSONException {
+    synchronized (tagInfoListLock) {
+      TagInfoManager.refreshTagList();
+    }
+    revalidate();
+  }
+
+  /**
+   * Installs a tag table supplied by the caller instead of reading it from the tag configuration.
+   * This is used to run the library against a simulated device, where the tag configuration cannot
+   * be read. The installed table is not written to the snapshot file, and {@link #init()} returns
+   * true without reading the tag configuration. Installing a table again replaces it.
+   *
+   * @param tagIds IDs of the tags
+   * @param tagNames names of the tags, in the same order as the tag IDs
+   * @param tagTypes types of the tags, in the same order as the tag IDs
+   * @param groupMasks tag group membership bit masks, with bit {@link #GROUP_A} to {@link
+   *     #GROUP_D} set for each tag group of the tag, in the same order as the tag IDs
+   */
+  public static synchronized void install(
+      int[] tagIds, String[] tagNames, TagType[] tagTypes, int[] groupMasks) {
+    int lowestTagId = Integer.MAX_VALUE;
+    int highestTagId = -1;
+    for (int i = 0; i < tagIds.length; i++) {
+      lowestTagId = Math.min(lowestTagId, tagIds[i]);
+      highestTagId = Math.max(highestTagId, tagIds[i]);
+    }
+    if (highestTagId < 0) {
+      lowestTagId = 0;
+    }
+
+    Table newTable = new Table(lowestTagId, highestTagId - lowestTagId + 1);
+    for (int i = 0; i < tagIds.length; i++) {
+      final int tableIndex = tagIds[i] - lowestTagId;
+      newTable.names[tableIndex] = tagNames[i];
+      newTable.typeCodes[tableIndex] = getTypeCode(tagTypes[i]);
+      newTable.groupMasks[tableIndex] = (byte) groupMasks[i];
+    }
+    newTable.fillGroupTagIds();
+
+    hasInit = true;
+    isInstalled = true;
+    table = newTable;
+  }
+
+  /**
+   * Gets a boolean representing if a valid snapshot is loaded.
+   *
+   * @return true if a valid snapshot is loaded
+   */
+  public static boolean isAvailable() {
+    return table != null;
+  }
+
+  /**
+   * Gets a boolean representing if a background rebuild of the snapshot is running.
+   *
+   * @return true if a rebuild is running
+   */
+  public static synchronized boolean isRebuildRunning() {
+    return rebuildRunning;
+  }
+
+  /**
+   * Gets the name of the tag with the specified ID.
+   *
+   * @param tagId ID of tag
+   * @return tag name, or null if the tag or snapshot is not available
+   */
+  public static String getTagName(int tagId) {
+    Table currentTable = table;
+    if (currentTable == null || !currentTable.contains(tagId)) {
+      return null;
+    }
+    return currentTable.names[tagId - currentTable.lowestTagId];
+  }
+
+  /**
+   * Gets the type of the tag with the specified ID.
+   *
+   * @param tagId ID of tag
+   * @return tag type, or null if the tag or snapshot is not available
+   */
+  public static TagType getTagType(int tagId) {
+    Table currentTable = table;
+    if (currentTable == null || !currentTable.contains(tagId)) {
+      return null;
+    }
+    return TYPE_CODES[currentTable.typeCodes[tagId - currentTable.lowestTagId]];
+  }
+
+  /**
+   * Gets the IDs of the tags in the specified tag group. The returned array must not be modified.
+   *
+   * @param tagGroupIndex index of tag group, such as {@link #GROUP_A}
+   * @return IDs of tags in group, or null if the snapshot is not available
+   */
+  public static int[] getTagIdsInGroup(int tagGroupIndex) {
+    Table currentTable = table;
+    if (currentTable == null) {
+      return null;
+    }
+    return currentTable.groupTagIds[tagGroupIndex];
+  }
+
+  /**
+   * Gets the lowest tag ID in the snapshot.
+   *
+   * @return lowest tag ID, or -1 if the snapshot is not available
+   */
+  public static int getLowestTagId() {
+    Table currentTable = table;
+    if (currentTable == null) {
+      return -1;
+    }
+    return currentTable.lowestTagId;
+  }
+
+  /**
+   * Gets the highest tag ID in the snapshot.
+   *
+   * @return highest tag ID, or -1 if the snapshot is not available
+   */
+  public static int getHighestTagId() {
+    Table currentTable = table;
+    if (currentTable == null) {
+      return -1;
+    }
+    return currentTable.lowestTagId + currentTable.names.length - 1;
+  }
+
+  /**
+   * Populates the tag information list in {@link TagInfoManager} if it has not been populated. All
+   * users of the library should populate the tag information list through this method so that the
+   * background snapshot rebuild and foreground callers do not refresh the list concurrently.
+   *
+   * @throws IOException if unable to access tag information
+   * @throws JSONException if unable to parse int to string enumeration file
+   */
+  public static void ensureTagInfoListPopulated() throws IOException, JSONException {
+    synchronized (tagInfoListLock) {
+      if (!TagInfoManager.isTagInfoListPopulated()) {
+        TagInfoManager.refreshTagList();
+      }
+    }
+  }
+
+  /**
+   * Compute a fingerprint of the current tag configuration. The fingerprint is the CRC32 of the tag
+   * list export combined with its length, and is computed in a single pass over the export stream
+   * without building tag information objects.
+   *
+   * @return tag configuration fingerprint
+   * @throws IOException if export block descriptor fails
+   */
+  private static long computeTagConfigFingerprint() throws IOException {
+    CRC32 crc = new CRC32();
+    long length = 0;
+    byte[] buffer = new byte[TagDataConstants.EBD_READ_BUFFER_SIZE];
+    InputStream exporter = new Exporter(TagDataConstants.TAG_LIST_EBD_STRING);
+    try {
+      int numRead = exporter.read(buffer);
+      while (numRead != -1) {
+        crc.update(buffer, 0, numRead);
+        length += numRead;
+        numRead = exporter.read(buffer);
+      }
+    } finally {
+      exporter.close();
+    }
+    final int lengthShift = 32;
+    return (length << lengthShift) ^ crc.getValue();
+  }
+
+  /**
+   * Read the snapshot file with a single sequential read.
+   *
+   * @param expectedFingerprint fingerprint of the current tag configuration
+   * @return tag table, or null if the snapshot file does not exist or is stale
+   * @throws IOException if unable to read the snapshot file
+   */
+  private static Table readSnapshot(long expectedFingerprint) throws IOException {
+    File snapshotFile = new File(snapshotFileName);
+    if (!snapshotFile.isFile()) {
+      return null;
+    }
+
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+    try {
+      if (in.readInt() != TagDataConstants.TAG_METADATA_SNAPSHOT_MAGIC
+          || in.readInt() != TagDataConstants.TAG_METADATA_SNAPSHOT_VERSION
+          || in.readLong() != expectedFingerprint) {
+        return null;
+      }
+
+      final int lowestTagId = in.readInt();
+      final int tableLength = in.readInt();
+      final int numTags = in.readInt();
+      Table newTable = new Table(lowestTagId, tableLength);
+      for (int i = 0; i < numTags; i++) {
+        final int tagId = in.readInt();
+        final int tableIndex = tagId - lowestTagId;
+        newTable.typeCodes[tableIndex] = in.readByte();
+        newTable.groupMasks[tableIndex] = in.readByte();
+        newTable.names[tableIndex] = TagDataInternPool.internTagName(tagId, in.readUTF());
+      }
+      newTable.fillGroupTagIds();
+      return newTable;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Start a background thread which builds the tag table using {@link TagInfoManager}, writes it
+   * to the snapshot file and makes it available. If a rebuild is already running, it starts
+   * another rebuild when it completes if the tag configuration fingerprint has changed meanwhile,
+   * and a table built from an outdated configuration is never made available.
+   *
+   * @param fingerprint fingerprint of the tag configuration to store with the snapshot
+   * @param refreshTagInfo true to refresh the tag information list before building the table
+   */
+  private static void startRebuild(final long fingerprint, final boolean refreshTagInfo) {
+    if (rebuildRunning) {
+      return;
+    }
+    rebuildRunning = true;
+
+    Thread rebuildThread =
+        new Thread(
+            new Runnable() {
+              public void run() {
+                try {
+                  Table newTable;
+                  synchronized (tagInfoListLock) {
+                    if (refreshTagInfo || !TagInfoManager.isTagInfoListPopulated()) {
+                      TagInfoManager.refreshTagList();
+                    }
+                    newTable = buildTableFromTagInfoManager();
+                  }
+                  writeSnapshot(newTable, fingerprint);
+                  synchronized (TagMetadataSnapshot.class) {
+                    if (fingerprint == currentFingerprint && !isInstalled) {
+                      table = newTable;
+                      Logger.LOG_INFO("Tag metadata snapshot rebuilt.");
+                    }
+                  }
+                } catch (Exception e) {
+                  Logger.LOG_WARN("Unable to rebuild tag metadata snapshot.");
+                  Logger.LOG_EXCEPTION(e);
+                } finally {
+                  synchronized (TagMetadataSnapshot.class) {
+                    rebuildRunning = false;
+                    if (fingerprint != currentFingerprint && !isInstalled) {
+                      startRebuild(currentFingerprint, true);
+                    }
+                  }
+                }
+              }
+            });
+    rebuildThread.setPriority(Thread.MIN_PRIORITY);
+    rebuildThread.start();
+  }
+
+  /**
+   * Build the tag table from the tag information populated in {@link TagInfoManager}.
+   *
+   * @return tag table
+   */
+  private static Table buildTableFromTagInfoManager() {
+    Object[] tagInfoArray = TagInfoManager.getTagInfoArray();
+    final int lowestTagId = TagInfoManager.getLowestTagIdSeen();
+    Table newTable = new Table(lowestTagId, tagInfoArray.length);
+    for (int i = 0; i < tagInfoArray.length; i++) {
+      TagInfo tagInfo = (TagInfo) tagInfoArray[i];
+      if (tagInfo != null) {
+        newTable.names[i] = tagInfo.getName();
+        newTable.typeCodes[i] = getTypeCode(tagInfo.getType());
+      }
+    }
+
+    for (int group = 0; group < NUM_TAG_GROUPS; group++) {
+      ArrayList groupTags = TagInfoManager.getTagInfoListFiltered(TAG_GROUPS[group]);
+      for (int i = 0; i < groupTags.size(); i++) {
+        final int tableIndex = ((TagInfo) groupTags.get(i)).getId() - lowestTagId;
+        newTable.groupMasks[tableIndex] |= (byte) (1 << group);
+      }
+    }
+    newTable.fillGroupTagIds();
+    return newTable;
+  }
+
+  /**
+   * Write the tag table to the snapshot file. The table is written to a temporary file first, then
+   * renamed to replace the existing snapshot so that a partially written snapshot is never read.
+   *
+   * @param tableToWrite tag table to write
+   * @param fingerprint fingerprint of the tag configuration to store with the snapshot
+   * @throws IOException if unable to write the snapshot file
+   */
+  private static void writeSnapshot(Table tableToWrite, long fingerprint) throws IOException {
+    new File(TagDataConstants.TAG_DATA_FILE_FOLDER).mkdirs();
+
+    int numTags = 0;
+    for (int i = 0; i < tableToWrite.names.length; i++) {
+      if (tableToWrite.typeCodes[i] != TYPE_CODE_NONE) {
+        numTags++;
+      }
+    }
+
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotTmpFileName)));
+    try {
+      out.writeInt(TagDataConstants.TAG_METADATA_SNAPSHOT_MAGIC);
+      out.writeInt(TagDataConstants.TAG_METADATA_SNAPSHOT_VERSION);
+      out.writeLong(fingerprint);
+      out.writeInt(tableToWrite.lowestTagId);
+      out.writeInt(tableToWrite.names.length);
+      out.writeInt(numTags);
+      for (int i = 0; i < tableToWrite.names.length; i++) {
+        if (tableToWrite.typeCodes[i] != TYPE_CODE_NONE) {
+          out.writeInt(tableToWrite.lowestTagId + i);
+          out.writeByte(tableToWrite.typeCodes[i]);
+          out.writeByte(tableToWrite.groupMasks[i]);
+          out.writeUTF(tableToWrite.names[i]);
+        }
+      }
+    } finally {
+      out.close();
+    }
+
+    File snapshotFile = new File(snapshotFileName);
+    snapshotFile.delete();
+    if (!new File(snapshotTmpFileName).renameTo(snapshotFile)) {
+      throw new IOException("Unable to replace tag metadata snapshot file.");
+    }
+  }
+
+  /**
+   * Get the type code stored in the snapshot file for the specified tag type.
+   *
+   * @param tagType tag type
+   * @return type code, or {@link #TYPE_CODE_NONE} if the tag type is not supported
+   */
+  private static byte getTypeCode(TagType tagType) {
+    for (int i = 0; i < TYPE_CODES.length; i++) {
+      if (TYPE_CODES[i] == tagType) {
+        return (byte) i;
+      }
+    }
+    return TYPE_CODE_NONE;
+  }
+
+  /**
+   * Class holding a resolved tag table. Instances are not modified after being made available so
+   * they can be read without locking.
+   */
+  private static class Table {
+
+    /** Tag ID of the first entry in the table. */
+    final int lowestTagId;
+
+    /** Tag names indexed by tag ID minus {@link #lowestTagId}. */
+    final String[] names;
+
+    /** Tag type codes indexed by tag ID minus {@link #lowestTagId}. */
+    final byte[] typeCodes;
+
+    /** Tag group membership bit masks indexed by tag ID minus {@link #lowestTagId}. */
+    final byte[] groupMasks;
+
+    /** Tag IDs of the tags in each tag group, indexed by group index. */
+    final int[][] groupTagIds;
+
+    /**
+     * Constructor for an empty table.
+     *
+     * @param lowestTagId tag ID of the first entry in the table
+     * @param length number of entries in the table
+     */
+    Table(int lowestTagId, int length) {
+      this.lowestTagId = lowestTagId;
+      this.names = new String[length];
+      this.typeCodes = new byte[length];
+      this.groupMasks = new byte[length];
+      this.groupTagIds = new int[NUM_TAG_GROUPS][];
+      for (int i = 0; i < length; i++) {
+        typeCodes[i] = TYPE_CODE_NONE;
+      }
+    }
+
+    /**
+     * Gets a boolean representing if the table contains the specified tag.
+     *
+     * @param tagId ID of tag
+     * @return true if the tag exists in the table
+     */
+    boolean contains(int tagId) {
+      final int tableIndex = tagId - lowestTagId;
+      return tableIndex >= 0
+          && tableIndex < typeCodes.length
+          && typeCodes[tableIndex] != TYPE_CODE_NONE;
+    }
+
+    /**
+     * Fill the tag IDs of each tag group from the group membership bit masks. Tags which do not
+     * exist in the table are ignored.
+     */
+    void fillGroupTagIds() {
+      int[] groupCounts = new int[NUM_TAG_GROUPS];
+      for (int i = 0; i < groupMasks.length; i++) {
+        for (int group = 0; group < NUM_TAG_GROUPS; group++) {
+          if (typeCodes[i] != TYPE_CODE_NONE && (groupMasks[i] & (1 << group)) != 0) {
+            groupCounts[group]++;
+          }
+        }
+      }
+
+      int[] groupIndexes = new int[NUM_TAG_GROUPS];
+      for (int group = 0; group < NUM_TAG_GROUPS; group++) {
+        groupTagIds[group] = new int[groupCounts[group]];
+      }
+      for (int i = 0; i < groupMasks.length; i++) {
+        for (int group = 0; group < NUM_TAG_GROUPS; group++) {
+          if (typeCodes[i] != TYPE_CODE_NONE && (groupMasks[i] & (1 << group)) != 0) {
+            groupTagIds[group][groupIndexes[group]++] = lowestTagId + i;
+          }
+        }
+      }
+    }
+  }
+}
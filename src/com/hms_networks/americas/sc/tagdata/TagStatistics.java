@@ -0,0 +1,553 @@
+package com.hms_networks.americas.sc.tagdata;
+
+import com.hms_networks.americas.sc.datapoint.DataPoint;
+import com.hms_networks.americas.sc.datapoint.DataPointBoolean;
+import com.hms_networks.americas.sc.datapoint.DataPointDword;
+import com.hms_networks.americas.sc.datapoint.DataPointFloat;
+import com.hms_networks.americas.sc.datapoint.DataPointInteger;
+
+/**
+ * Class to keep running statistics of the values of tracked tags, so the count, minimum, maximum,
+ * mean and standard deviation of a tag over a recent time window can be read without exporting
+ * or parsing its data again. The statistics are updated by real time sampling and historical
+ * parsing, in the same way as the {@link LastValueCache}.
+ *
+ * <p>Each tracked tag has a sliding window, split into a fixed number of buckets, and a tumbling
+ * window. Each bucket holds the count, mean, sum of squared differences from the mean, minimum and
+ * maximum of its values in primitive ring arrays, and a bucket is reused once it falls out of the
+ * sliding window. The tumbling window keeps the current and the previous period the same way.
+ * Updates cost O(1), and reads merge at most the fixed number of buckets of the tag, regardless of
+ * the number of values. The sliding window therefore moves in steps of one bucket.
+ *
+ * <p>Only tags which are tracked have statistics, and updates of other tags return at once. Values
+ * of a tag must be newer than its last value to be counted, so values which are both sampled and
+ * read from the historical log are counted once. String values are not counted, and boolean
+ * values are counted as 0 or 1.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class TagStatistics {
+
+  /** Default length of the sliding window in seconds. */
+  public static final int DEFAULT_WINDOW_SECS = 600;
+
+  /** Default number of buckets of the sliding window. */
+  public static final int DEFAULT_NUM_BUCKETS = 60;
+
+  /** Default length of the tumbling window in seconds. */
+  public static final int DEFAULT_TUMBLING_WINDOW_SECS = 60;
+
+  /** Number of milliseconds in one second. */
+  private static final long MILLISECONDS_IN_SECOND = 1000;
+
+  /** Number of tumbling window periods kept per tag, the current and the previous period. */
+  private static final int NUM_TUMBLING_ENTRIES = 2;
+
+  /** Slot or epoch value indicating no tag or no values. */
+  private static final int NONE = -1;
+
+  /** Length of each bucket of the sliding window in seconds. */
+  private static int bucketSecs = DEFAULT_WINDOW_SECS / DEFAULT_NUM_BUCKETS;
+
+  /** Number of buckets of the sliding window. */
+  private static int numBuckets = DEFAULT_NUM_BUCKETS;
+
+  /** Length of the tumbling window in seconds. */
+  private static int tumblingWindowSecs = DEFAULT_TUMBLING_WINDOW_SECS;
+
+  /** Slot of each tag indexed by tag ID, or {@link #NONE} if the tag is not tracked. */
+  private static volatile int[] tagSlots = new int[0];
+
+  /** Tag ID of each slot, or {@link #NONE} if the slot is free. */
+  private static int[] slotTagIds = new int[0];
+
+  /** Time in seconds of the last counted value of each slot, or {@link #NONE}. */
+  private static long[] slotLastTimeSecs = new long[0];
+
+  /**
+   * Epoch of each entry, the bucket or tumbling period number since epoch, or {@link #NONE}. Each
+   * slot has {@link #numBuckets} bucket entries followed by {@link #NUM_TUMBLING_ENTRIES} tumbling
+   * entries, and the entry arrays below share this layout.
+   */
+  private static long[] entryEpochs = new long[0];
+
+  /** Number of values of each entry. */
+  private static int[] entryCounts = new int[0];
+
+  /** Mean of the values of each entry. */
+  private static double[] entryMeans = new double[0];
+
+  /** Sum of squared differences from the mean of the values of each entry. */
+  private static double[] entrySquaredDiffs = new double[0];
+
+  /** Smallest value of each entry. */
+  private static double[] entryMins = new double[0];
+
+  /** Largest value of each entry. */
+  private static double[] entryMaxes = new double[0];
+
+  /**
+   * Sets the sliding and tumbling windows of the statistics. Statistics of tracked tags are
+   * cleared, and the tags stay tracked.
+   *
+   * @param windowSecs length of the sliding window in seconds
+   * @param buckets number of buckets of the sliding window, which must divide the window length
+   * @param tumblingSecs length of the tumbling window in seconds
+   * @throws IllegalArgumentException if a length or the number of buckets is not positive, or the
+   *     number of buckets does not divide the sliding window length
+   */
+  public static synchronized void configure(int windowSecs, int buckets, int tumblingSecs) {
+    if (windowSecs < 1 || buckets < 1 || tumblingSecs < 1) {
+      throw new IllegalArgumentException(
+          "Tag statistics window lengths and number of buckets must be positive.");
+    }
+    if (windowSecs % buckets != 0) {
+      throw new IllegalArgumentException(
+          "Tag statistics sliding window length must be a multiple of the number of buckets.");
+    }
+
+    bucketSecs = windowSecs / buckets;
+    numBuckets = buckets;
+    tumblingWindowSecs = tumblingSecs;
+    entryEpochs = new long[0];
+    entryCounts = new int[0];
+    entryMeans = new double[0];
+    entrySquaredDiffs = new double[0];
+    entryMins = new double[0];
+    entryMaxes = new double[0];
+    growEntries(slotTagIds.length);
+    clear();
+  }
+
+  /**
+   * Gets the length of the sliding window in seconds.
+   *
+   * @return sliding window length in seconds
+   */
+  public static synchronized int getWindowSecs() {
+    return bucketSecs * numBuckets;
+  }
+
+  /**
+   * Gets the number of buckets of the sliding window.
+   *
+   * @return number of buckets
+   */
+  public static synchronized int getNumBuckets() {
+    return numBuckets;
+  }
+
+  /**
+   * Gets the length of the tumbling window in seconds.
+   *
+   * @return tumbling window length in seconds
+   */
+  public static synchronized int getTumblingWindowSecs() {
+    return tumblingWindowSecs;
+  }
+
+  /**
+   * Starts keeping statistics of the specified tag. Tracking a tag which is already tracked has no
+   * effect.
+   *
+   * @param tagId ID of tag
+   */
+  public static synchronized void track(int tagId) {
+    if (tagId < 0 || isTracked(tagId)) {
+      return;
+    }
+
+    int slot = 0;
+    while (slot < slotTagIds.length && slotTagIds[slot] != NONE) {
+      slot++;
+    }
+    if (slot == slotTagIds.length) {
+      growSlots(Math.max(slot * 2, 16));
+    }
+    slotTagIds[slot] = tagId;
+    clearSlot(slot);
+
+    int[] slots = tagSlots;
+    if (tagId >= slots.length) {
+      int[] grownSlots = new int[Math.max(tagId + 1, slots.length * 2)];
+      System.arraycopy(slots, 0, grownSlots, 0, slots.length);
+      for (int i = slots.length; i < grownSlots.length; i++) {
+        grownSlots[i] = NONE;
+      }
+      slots = grownSlots;
+    }
+    slots[tagId] = slot;
+    tagSlots = slots;
+  }
+
+  /**
+   * Starts keeping statistics of the tags in the specified tag group. Tag group membership is read
+   * from the {@link TagMetadataSnapshot}.
+   *
+   * @param groupIndex index of tag group, {@link TagMetadataSnapshot#GROUP_A} to {@link
+   *     TagMetadataSnapshot#GROUP_D}
+   * @return number of tags in the group, or 0 if the tag metadata snapshot is not available
+   */
+  public static synchronized int trackGroup(int groupIndex) {
+    if (!TagMetadataSnapshot.isAvailable()) {
+      return 0;
+    }
+    final int[] tagIds = TagMetadataSnapshot.getTagIdsInGroup(groupIndex);
+    for (int i = 0; i < tagIds.length; i++) {
+      track(tagIds[i]);
+    }
+    return tagIds.length;
+  }
+
+  /**
+   * Stops keeping statistics of the specified tag, and discards its statistics.
+   *
+   * @param tagId ID of tag
+   */
+  public static synchronized void untrack(int tagId) {
+    if (!isTracked(tagId)) {
+      return;
+    }
+    slotTagIds[tagSlots[tagId]] = NONE;
+    tagSlots[tagId] = NONE;
+  }
+
+  /** Stops keeping statistics of all tags, and discards their statistics. */
+  public static synchronized void untrackAll() {
+    tagSlots = new int[0];
+    for (int slot = 0; slot < slotTagIds.length; slot++) {
+      slotTagIds[slot] = NONE;
+    }
+  }
+
+  /**
+   * Gets a boolean representing if statistics are kept of the specified tag.
+   *
+   * @param tagId ID of tag
+   * @return true if the tag is tracked
+   */
+  public static synchronized boolean isTracked(int tagId) {
+    final int[] slots = tagSlots;
+    return tagId >= 0 && tagId < slots.length && slots[tagId] != NONE;
+  }
+
+  /** Discards the statistics of all tracked tags. The tags stay tracked. */
+  public static synchronized void clear() {
+    for (int slot = 0; slot < slotTagIds.length; slot++) {
+      clearSlot(slot);
+    }
+  }
+
+  /**
+   * Updates the statistics of the tag of the specified data point.
+   *
+   * @param dataPoint data point holding the new value
+   */
+  public static void update(DataPoint dataPoint) {
+    if (dataPoint == null) {
+      return;
+    }
+
+    // Skip untracked tags before parsing, this is called for every data point
+    final int tagId = dataPoint.getTagId();
+    final int[] slots = tagSlots;
+    if (tagId < 0 || tagId >= slots.length || slots[tagId] == NONE) {
+      return;
+    }
+
+    double value;
+    if (dataPoint instanceof DataPointBoolean) {
+      value = ((DataPointBoolean) dataPoint).getValue() ? 1 : 0;
+    } else if (dataPoint instanceof DataPointFloat) {
+      value = ((DataPointFloat) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointInteger) {
+      value = ((DataPointInteger) dataPoint).getValue();
+    } else if (dataPoint instanceof DataPointDword) {
+      value = ((DataPointDword) dataPoint).getValue();
+    } else {
+      return;
+    }
+
+    long time;
+    try {
+      time = Long.parseLong(dataPoint.getTimeStamp());
+    } catch (NumberFormatException e) {
+      return;
+    }
+    update(tagId, value, time);
+  }
+
+  /**
+   * Updates the statistics of the specified tag. Values of untracked tags, and values which are not
+   * newer than the last counted value of the tag, are ignored.
+   *
+   * @param tagId ID of tag
+   * @param value numeric value, boolean values are 0 or 1
+   * @param time time of the value in seconds since epoch
+   */
+  public static synchronized void update(int tagId, double value, long time) {
+    if (time < 0 || !isTracked(tagId)) {
+      return;
+    }
+    final int slot = tagSlots[tagId];
+    if (time <= slotLastTimeSecs[slot]) {
+      return;
+    }
+    slotLastTimeSecs[slot] = time;
+
+    final int base = slot * getEntriesPerSlot();
+    final long bucketEpoch = time / bucketSecs;
+    addToEntry(base + (int) (bucketEpoch % numBuckets), bucketEpoch, value);
+    final long tumblingEpoch = time / tumblingWindowSecs;
+    addToEntry(
+        base + numBuckets + (int) (tumblingEpoch % NUM_TUMBLING_ENTRIES), tumblingEpoch, value);
+  }
+
+  /**
+   * Reads the statistics of the specified tag over the sliding window ending now.
+   *
+   * @param tagId ID of tag
+   * @param output object to copy the statistics to
+   * @return true if the tag is tracked and has values in the window, false if not
+   */
+  public static boolean readSlidingWindow(int tagId, TagWindowStatistics output) {
+    return readSlidingWindow(tagId, System.currentTimeMillis() / MILLISECONDS_IN_SECOND, output);
+  }
+
+  /**
+   * Reads the statistics of the specified tag over the sliding window ending at the specified time.
+   * The window ends with the bucket holding the specified time, and only buckets which have not
+   * been reused by newer values can be read.
+   *
+   * @param tagId ID of tag
+   * @param timeSecs end time of the window in seconds since epoch
+   * @param output object to copy the statistics to
+   * @return true if the tag is tracked and has values in the window, false if not
+   */
+  public static synchronized boolean readSlidingWindow(
+      int tagId, long timeSecs, TagWindowStatistics output) {
+    final long lastEpoch = timeSecs / bucketSecs;
+    final long firstEpoch = lastEpoch - numBuckets + 1;
+    output.tagId = tagId;
+    output.startTimeSecs = firstEpoch * bucketSecs;
+    output.endTimeSecs = (lastEpoch + 1) * bucketSecs;
+    if (!isTracked(tagId)) {
+      return mergeEntries(0, 0, firstEpoch, lastEpoch, output);
+    }
+    final int base = tagSlots[tagId] * getEntriesPerSlot();
+    return mergeEntries(base, numBuckets, firstEpoch, lastEpoch, output);
+  }
+
+  /**
+   * Reads the statistics of the specified tag over the most recent completed tumbling window which
+   * has values. The window times show which period was read.
+   *
+   * @param tagId ID of tag
+   * @param output object to copy the statistics to
+   * @return true if the tag is tracked and has a completed window with values, false if not
+   */
+  public static synchronized boolean readTumblingWindow(int tagId, TagWindowStatistics output) {
+    final long currentEpoch =
+        System.currentTimeMillis() / MILLISECONDS_IN_SECOND / tumblingWindowSecs;
+    return readTumblingEntry(tagId, 0, currentEpoch - 1, output);
+  }
+
+  /**
+   * Reads the statistics of the specified tag over the current tumbling window, which is still
+   * receiving values.
+   *
+   * @param tagId ID of tag
+   * @param output object to copy the statistics to
+   * @return true if the tag is tracked and has values in the current window, false if not
+   */
+  public static synchronized boolean readCurrentTumblingWindow(
+      int tagId, TagWindowStatistics output) {
+    final long currentEpoch =
+        System.currentTimeMillis() / MILLISECONDS_IN_SECOND / tumblingWindowSecs;
+    return readTumblingEntry(tagId, currentEpoch, currentEpoch, output);
+  }
+
+  /**
+   * Read the newest tumbling entry of a tag which holds a period in the specified range. If there
+   * is none, the output has no values and the window times of the newest period of the range.
+   *
+   * @param tagId ID of tag
+   * @param firstEpoch oldest tumbling period to read
+   * @param lastEpoch newest tumbling period to read
+   * @param output object to copy the statistics to
+   * @return true if the tag is tracked and an entry with values was read
+   */
+  private static boolean readTumblingEntry(
+      int tagId, long firstEpoch, long lastEpoch, TagWindowStatistics output) {
+    output.tagId = tagId;
+    int newestEntry = NONE;
+    if (isTracked(tagId)) {
+      final int base = tagSlots[tagId] * getEntriesPerSlot() + numBuckets;
+      for (int entry = base; entry < base + NUM_TUMBLING_ENTRIES; entry++) {
+        final long epoch = entryEpochs[entry];
+        if (epoch >= firstEpoch
+            && epoch <= lastEpoch
+            && (newestEntry == NONE || epoch > entryEpochs[newestEntry])) {
+          newestEntry = entry;
+        }
+      }
+    }
+
+    final long epoch = newestEntry == NONE ? lastEpoch : entryEpochs[newestEntry];
+    output.startTimeSecs = epoch * tumblingWindowSecs;
+    output.endTimeSecs = (epoch + 1) * tumblingWindowSecs;
+    if (newestEntry == NONE) {
+      return mergeEntries(0, 0, epoch, epoch, output);
+    }
+    return mergeEntries(newestEntry, 1, epoch, epoch, output);
+  }
+
+  /**
+   * Add a value to an entry, first resetting the entry if it holds an older period. Values older
+   * than the period of the entry are ignored.
+   *
+   * @param entry index of the entry
+   * @param epoch bucket or tumbling period of the value
+   * @param value value to add
+   */
+  private static void addToEntry(int entry, long epoch, double value) {
+    if (entryEpochs[entry] > epoch) {
+      return;
+    }
+    if (entryEpochs[entry] < epoch) {
+      entryEpochs[entry] = epoch;
+      entryCounts[entry] = 0;
+      entryMeans[entry] = 0;
+      entrySquaredDiffs[entry] = 0;
+      entryMins[entry] = value;
+      entryMaxes[entry] = value;
+    }
+
+    // Welford's update keeps the variance accurate for large values with a small spread
+    final int count = ++entryCounts[entry];
+    final double delta = value - entryMeans[entry];
+    entryMeans[entry] += delta / count;
+    entrySquaredDiffs[entry] += delta * (value - entryMeans[entry]);
+    entryMins[entry] = Math.min(entryMins[entry], value);
+    entryMaxes[entry] = Math.max(entryMaxes[entry], value);
+  }
+
+  /**
+   * Merge the entries in the specified range which hold a period in the specified range, and copy
+   * the result to the output. The window times of the output are not changed.
+   *
+   * @param first index of the first entry
+   * @param numEntries number of entries
+   * @param firstEpoch oldest period to merge
+   * @param lastEpoch newest period to merge
+   * @param output object to copy the statistics to
+   * @return true if any merged entry has values
+   */
+  private static boolean mergeEntries(
+      int first, int numEntries, long firstEpoch, long lastEpoch, TagWindowStatistics output) {
+    long count = 0;
+    double mean = 0;
+    double squaredDiffs = 0;
+    double min = 0;
+    double max = 0;
+    for (int entry = first; entry < first + numEntries; entry++) {
+      final long epoch = entryEpochs[entry];
+      final int entryCount = entryCounts[entry];
+      if (epoch < firstEpoch || epoch > lastEpoch || entryCount == 0) {
+        continue;
+      }
+
+      // Combine the means and squared differences of both parts, as in Chan et al.
+      final long mergedCount = count + entryCount;
+      final double delta = entryMeans[entry] - mean;
+      squaredDiffs +=
+          entrySquaredDiffs[entry] + delta * delta * ((double) count * entryCount / mergedCount);
+      mean += delta * entryCount / mergedCount;
+      min = count == 0 ? entryMins[entry] : Math.min(min, entryMins[entry]);
+      max = count == 0 ? entryMaxes[entry] : Math.max(max, entryMaxes[entry]);
+      count = mergedCount;
+    }
+
+    output.count = count;
+    output.mean = mean;
+    output.stdDev = count > 0 ? Math.sqrt(squaredDiffs / count) : 0;
+    output.min = min;
+    output.max = max;
+    return count > 0;
+  }
+
+  /**
+   * Reset the last value time and all entries of a slot.
+   *
+   * @param slot index of the slot
+   */
+  private static void clearSlot(int slot) {
+    slotLastTimeSecs[slot] = NONE;
+    final int base = slot * getEntriesPerSlot();
+    for (int entry = base; entry < base + getEntriesPerSlot(); entry++) {
+      entryEpochs[entry] = NONE;
+      entryCounts[entry] = 0;
+    }
+  }
+
+  /**
+   * Gets the number of entries of each slot.
+   *
+   * @return number of bucket and tumbling entries per slot
+   */
+  private static int getEntriesPerSlot() {
+    return numBuckets + NUM_TUMBLING_ENTRIES;
+  }
+
+  /**
+   * Grow the slot arrays to hold the specified number of tags.
+   *
+   * @param length new number of slots
+   */
+  private static void growSlots(int length) {
+    int[] grownTagIds = new int[length];
+    System.arraycopy(slotTagIds, 0, grownTagIds, 0, slotTagIds.length);
+    for (int i = slotTagIds.length; i < length; i++) {
+      grownTagIds[i] = NONE;
+    }
+    long[] grownLastTimeSecs = new long[length];
+    System.arraycopy(slotLastTimeSecs, 0, grownLastTimeSecs, 0, slotLastTimeSecs.length);
+
+    slotTagIds = grownTagIds;
+    slotLastTimeSecs = grownLastTimeSecs;
+    growEntries(length);
+  }
+
+  /**
+   * Grow the entry arrays to hold the entries of the specified number of slots.
+   *
+   * @param numSlots number of slots
+   */
+  private static void growEntries(int numSlots) {
+    final int length = numSlots * getEntriesPerSlot();
+
+    long[] grownEpochs = new long[length];
+    System.arraycopy(entryEpochs, 0, grownEpochs, 0, entryEpochs.length);
+    for (int i = entryEpochs.length; i < length; i++) {
+      grownEpochs[i] = NONE;
+    }
+    int[] grownCounts = new int[length];
+    System.arraycopy(entryCounts, 0, grownCounts, 0, entryCounts.length);
+    double[] grownMeans = new double[length];
+    System.arraycopy(entryMeans, 0, grownMeans, 0, entryMeans.length);
+    double[] grownSquaredDiffs = new double[length];
+    System.arraycopy(entrySquaredDiffs, 0, grownSquaredDiffs, 0, entrySquaredDiffs.length);
+    double[] grownMins = new double[length];
+    System.arraycopy(entryMins, 0, grownMins, 0, entryMins.length);
+    double[] grownMaxes = new double[length];
+    System.arraycopy(entryMaxes, 0, grownMaxes, 0, entryMaxes.length);
+
+    entryEpochs = grownEpochs;
+    entryCounts = grownCounts;
+    entryMeans = grownMeans;
+    entrySquaredDiffs = grownSquaredDiffs;
+    entryMins = grownMins;
+    entryMaxes = grownMaxes;
+  }
+}
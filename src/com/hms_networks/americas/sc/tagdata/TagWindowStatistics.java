@@ -0,0 +1,35 @@
+package com.hms_networks.americas.sc.tagdata;
+
+/**
+ * Class to hold a copy of the statistics of the values of a tag over a time window read from the
+ * {@link TagStatistics}. Instances are reused by callers to avoid allocating on each read.
+ *
+ * @author HMS Networks, MU Americas Solution Center
+ * @since 2.4
+ */
+public class TagWindowStatistics {
+
+  /** ID of the tag. */
+  public int tagId;
+
+  /** Start time of the window in seconds since epoch, inclusive. */
+  public long startTimeSecs;
+
+  /** End time of the window in seconds since epoch, exclusive. */
+  public long endTimeSecs;
+
+  /** Number of values in the window. */
+  public long count;
+
+  /** Smallest value in the window, or 0 if the window has no values. */
+  public double min;
+
+  /** Largest value in the window, or 0 if the window has no values. */
+  public double max;
+
+  /** Mean of the values in the window, or 0 if the window has no values. */
+  public double mean;
+
+  /** Population standard deviation of the values in the window, or 0 if it has no values. */
+  public double stdDev;
+}